@@ -0,0 +1,418 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+import android.os.SystemClock;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 带优先级老化的阻塞队列，等待越久的请求有效优先级越高
+ * An unbounded blocking queue of requests ordered by priority with aging.
+ * <p/>
+ * Requests are kept in one sub-queue per {@link Request.Priority}, each in the usual
+ * {@link Request#compareTo} order. To pick the next request, every sub-queue gets a score of its
+ * priority level plus one level per {@code agingIntervalMs} its longest waiting request has been
+ * queued; the head of the sub-queue with the highest score goes next, and ties go to the
+ * sub-queue whose longest waiting request was enqueued first. The longest waiting request need
+ * not be the head: a retried request keeps its old sequence number but is enqueued anew.
+ */
+class AgingPriorityBlockingQueue extends AbstractQueue<Request<?>> implements BlockingQueue<Request<?>> {
+
+    /**
+     * A queued request and the time it was enqueued.
+     */
+    private static class Entry implements Comparable<Entry> {
+        /**
+         * The request, or null once the entry has left its sub-queue, so an entry still waiting
+         * to be dropped from its arrival list doesn't keep it alive. Guarded by the queue's lock.
+         */
+        Request<?> request;
+        final long enqueuedMs;
+
+        /**
+         * Set once the entry leaves its sub-queue. Guarded by the queue's lock.
+         */
+        boolean removed;
+
+        Entry(Request<?> request, long enqueuedMs) {
+            this.request = request;
+            this.enqueuedMs = enqueuedMs;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public int compareTo(Entry other) {
+            return ((Request) request).compareTo(other.request);
+        }
+    }
+
+    private final long mAgingIntervalMs;
+
+    /**
+     * One sub-queue per priority level, indexed by ordinal. Guarded by {@link #mLock}.
+     */
+    private final PriorityQueue<Entry>[] mLevels;
+
+    /**
+     * The entries of each level in the order they were enqueued, so the first one still queued
+     * is the level's longest waiting. Removed entries are dropped from the front lazily.
+     * Guarded by {@link #mLock}.
+     */
+    private final LinkedList<Entry>[] mArrivals;
+
+    private int mCount;
+
+    private final ReentrantLock mLock = new ReentrantLock();
+    private final Condition mNotEmpty = mLock.newCondition();
+
+    @SuppressWarnings("unchecked")
+    AgingPriorityBlockingQueue(long agingIntervalMs) {
+        if (agingIntervalMs <= 0) {
+            throw new IllegalArgumentException("agingIntervalMs must be positive");
+        }
+        mAgingIntervalMs = agingIntervalMs;
+        mLevels = new PriorityQueue[Request.Priority.values().length];
+        mArrivals = new LinkedList[mLevels.length];
+        for (int i = 0; i < mLevels.length; i++) {
+            mLevels[i] = new PriorityQueue<Entry>();
+            mArrivals[i] = new LinkedList<Entry>();
+        }
+    }
+
+    /**
+     * Returns the current time in milliseconds; overridden by tests.
+     */
+    long now() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Returns a comparator ordering requests the way this queue would dispatch them now: by
+     * effective priority, then, across priority levels, longest waiting first. Requests of the
+     * same level keep their {@link Request#compareTo} order. The time waited is taken from
+     * {@link Request#getQueuedTimeMs()}, as stamped by {@link DispatchQueue}.
+     */
+    Comparator<Request<?>> dispatchOrder() {
+        final long now = now();
+        return new Comparator<Request<?>>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public int compare(Request<?> a, Request<?> b) {
+                int levelA = a.getPriority().ordinal();
+                int levelB = b.getPriority().ordinal();
+                if (levelA == levelB) {
+                    return ((Request) a).compareTo(b);
+                }
+                long scoreA = score(a, levelA, now);
+                long scoreB = score(b, levelB, now);
+                if (scoreA != scoreB) {
+                    return scoreA > scoreB ? -1 : 1;
+                }
+                long queuedA = queuedMs(a, now);
+                long queuedB = queuedMs(b, now);
+                if (queuedA != queuedB) {
+                    return queuedA < queuedB ? -1 : 1;
+                }
+                return levelA > levelB ? -1 : 1;
+            }
+        };
+    }
+
+    private long score(Request<?> request, int level, long now) {
+        return level + Math.max(0, now - queuedMs(request, now)) / mAgingIntervalMs;
+    }
+
+    /**
+     * Returns when {@code request} was enqueued, taking a request that hasn't been as enqueued
+     * {@code now}.
+     */
+    private static long queuedMs(Request<?> request, long now) {
+        long queuedTimeMs = request.getQueuedTimeMs();
+        return queuedTimeMs > 0 ? queuedTimeMs : now;
+    }
+
+    @Override
+    public boolean offer(Request<?> request) {
+        if (request == null) {
+            throw new NullPointerException();
+        }
+        mLock.lock();
+        try {
+            int level = request.getPriority().ordinal();
+            Entry entry = new Entry(request, now());
+            mLevels[level].add(entry);
+            mArrivals[level].add(entry);
+            mCount++;
+            mNotEmpty.signal();
+            return true;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(Request<?> request, long timeout, TimeUnit unit) {
+        return offer(request);
+    }
+
+    @Override
+    public void put(Request<?> request) {
+        offer(request);
+    }
+
+    @Override
+    public Request<?> poll() {
+        mLock.lock();
+        try {
+            return dequeue();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public Request<?> take() throws InterruptedException {
+        mLock.lockInterruptibly();
+        try {
+            while (mCount == 0) {
+                mNotEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public Request<?> poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        mLock.lockInterruptibly();
+        try {
+            while (mCount == 0) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = mNotEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public Request<?> peek() {
+        mLock.lock();
+        try {
+            int level = nextLevel();
+            return level < 0 ? null : mLevels[level].peek().request;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        mLock.lock();
+        try {
+            for (PriorityQueue<Entry> level : mLevels) {
+                for (Iterator<Entry> it = level.iterator(); it.hasNext(); ) {
+                    Entry entry = it.next();
+                    if (entry.request == o) {
+                        it.remove();
+                        entry.removed = true;
+                        entry.request = null;
+                        mCount--;
+                        return true;
+                    }
+                }
+            }
+            return false;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        mLock.lock();
+        try {
+            for (PriorityQueue<Entry> level : mLevels) {
+                for (Entry entry : level) {
+                    if (entry.request == o) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        mLock.lock();
+        try {
+            for (int i = 0; i < mLevels.length; i++) {
+                mLevels[i].clear();
+                mArrivals[i].clear();
+            }
+            mCount = 0;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        mLock.lock();
+        try {
+            return mCount;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * Returns a weakly consistent iterator over a snapshot of the queue, in no particular
+     * order. Its {@code remove()} removes the element from the queue.
+     */
+    @Override
+    public Iterator<Request<?>> iterator() {
+        final List<Request<?>> snapshot = new ArrayList<Request<?>>();
+        mLock.lock();
+        try {
+            for (PriorityQueue<Entry> level : mLevels) {
+                for (Entry entry : level) {
+                    snapshot.add(entry.request);
+                }
+            }
+        } finally {
+            mLock.unlock();
+        }
+        return new Iterator<Request<?>>() {
+            private int mNext;
+
+            @Override
+            public boolean hasNext() {
+                return mNext < snapshot.size();
+            }
+
+            @Override
+            public Request<?> next() {
+                return snapshot.get(mNext++);
+            }
+
+            @Override
+            public void remove() {
+                AgingPriorityBlockingQueue.this.remove(snapshot.get(mNext - 1));
+            }
+        };
+    }
+
+    @Override
+    public int drainTo(Collection<? super Request<?>> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Request<?>> c, int maxElements) {
+        mLock.lock();
+        try {
+            int drained = 0;
+            while (drained < maxElements && mCount > 0) {
+                c.add(dequeue());
+                drained++;
+            }
+            return drained;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Removes and returns the next request, or null if empty. Must be called with the lock held.
+     */
+    private Request<?> dequeue() {
+        int level = nextLevel();
+        if (level < 0) {
+            return null;
+        }
+        mCount--;
+        Entry entry = mLevels[level].poll();
+        Request<?> request = entry.request;
+        entry.removed = true;
+        entry.request = null;
+        return request;
+    }
+
+    /**
+     * Returns the index of the sub-queue whose head goes next, or -1 if all are empty. Must be
+     * called with the lock held.
+     */
+    private int nextLevel() {
+        long now = now();
+        int best = -1;
+        long bestScore = 0;
+        long bestEnqueuedMs = 0;
+        // Walk from the highest level down so equal scores and times favor the higher priority.
+        for (int i = mLevels.length - 1; i >= 0; i--) {
+            Entry oldest = oldest(i);
+            if (oldest == null) {
+                continue;
+            }
+            long score = i + Math.max(0, now - oldest.enqueuedMs) / mAgingIntervalMs;
+            if (best < 0 || score > bestScore
+                    || (score == bestScore && oldest.enqueuedMs < bestEnqueuedMs)) {
+                best = i;
+                bestScore = score;
+                bestEnqueuedMs = oldest.enqueuedMs;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the longest waiting entry of {@code level}, or null if it is empty. Must be
+     * called with the lock held.
+     */
+    private Entry oldest(int level) {
+        LinkedList<Entry> arrivals = mArrivals[level];
+        while (!arrivals.isEmpty() && arrivals.getFirst().removed) {
+            arrivals.removeFirst();
+        }
+        return arrivals.isEmpty() ? null : arrivals.getFirst();
+    }
+}
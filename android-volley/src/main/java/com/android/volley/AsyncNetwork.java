@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+/**
+ * 异步执行请求的接口，网络I/O不占用调度线程
+ * A {@link Network} that can also perform requests without blocking the calling thread.
+ * <p/>
+ * When a {@link RequestQueue} is given an AsyncNetwork, its network dispatchers start each
+ * request with {@link #performRequestAsync} and move on to the next one right away; the rest
+ * of the processing (parsing, caching, delivery) happens when the callback fires. A few
+ * dispatcher threads can then keep many requests in flight.
+ */
+public interface AsyncNetwork extends Network {
+
+    /**
+     * Receives the outcome of {@link #performRequestAsync}. Exactly one method is called,
+     * exactly once, on a thread of the network's choosing.
+     */
+    public interface Callback {
+        /**
+         * @param response A {@link NetworkResponse} with data and caching metadata
+         */
+        public void onSuccess(NetworkResponse response);
+
+        /**
+         * @param error The error the request failed with, after any retries
+         */
+        public void onError(VolleyError error);
+    }
+
+    /**
+     * Starts performing the specified request and returns without waiting for it.
+     *
+     * @param request  Request to process
+     * @param callback Callback to report the outcome to
+     */
+    public void performRequestAsync(Request<?> request, Callback callback);
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+import java.util.List;
+
+/**
+ * 批量请求策略，决定哪些请求可以合并为一次HTTP调用，以及如何打包请求和拆分响应
+ * Describes how a {@link RequestQueue} may send several requests to a batch endpoint as one
+ * HTTP call.
+ * <p/>
+ * Requests reaching the network stage with the same non-null {@link #getBatchKey(Request)} are
+ * collected for up to {@link #getWindowMs()}, or until {@link #getMaxBatchSize()} of them are
+ * waiting, then sent together in the request built by {@link #createBatchRequest(List)}. Its
+ * response is split by {@link #parseBatchResponse(NetworkResponse, List)} into one response
+ * per request, each of which is then parsed, cached and delivered by its own request exactly
+ * as if it had been fetched alone. A request left alone when the window closes is sent
+ * unbatched.
+ * <p/>
+ * The envelope format is specific to the server, so subclasses supply it.
+ */
+public abstract class BatchPolicy {
+
+    private final int mMaxBatchSize;
+    private final long mWindowMs;
+
+    /**
+     * @param maxBatchSize Most requests sent in one batch; at least 2
+     * @param windowMs     Longest time a request waits for others to join its batch
+     */
+    public BatchPolicy(int maxBatchSize, long windowMs) {
+        if (maxBatchSize < 2) {
+            throw new IllegalArgumentException("maxBatchSize must be at least 2");
+        }
+        if (windowMs < 0) {
+            throw new IllegalArgumentException("windowMs must not be negative");
+        }
+        mMaxBatchSize = maxBatchSize;
+        mWindowMs = windowMs;
+    }
+
+    public int getMaxBatchSize() {
+        return mMaxBatchSize;
+    }
+
+    public long getWindowMs() {
+        return mWindowMs;
+    }
+
+    /**
+     * Returns the key of the batch {@code request} may join, typically derived from its
+     * endpoint, or null if it must be sent on its own. Called on a network dispatcher thread.
+     */
+    public abstract String getBatchKey(Request<?> request);
+
+    /**
+     * Builds the request that carries {@code requests} to the server. Only its URL, method,
+     * headers, body, timeout and retry policy are used; it is never parsed or delivered.
+     *
+     * @param requests The requests in the batch, in the order their responses must come back
+     * @throws AuthFailureError if the body or headers of a request can't be produced; every
+     *                          request in the batch then fails with it
+     */
+    public abstract Request<?> createBatchRequest(List<Request<?>> requests) throws AuthFailureError;
+
+    /**
+     * Splits the response of a batch request into one response per request.
+     *
+     * @param response The response of the request built by {@link #createBatchRequest(List)}
+     * @param requests The requests in the batch, in the order they were passed to it
+     * @return One response for each request, in the same order. A response without a 2xx or
+     * 304 status, or a null entry, fails its request with a {@link ServerError}.
+     * @throws VolleyError if the response can't be split; every request in the batch then
+     *                     fails with it
+     */
+    public abstract List<NetworkResponse> parseBatchResponse(NetworkResponse response,
+                                                             List<Request<?>> requests) throws VolleyError;
+}
@@ -108,6 +108,13 @@ public interface Cache {
          */
         public long softTtl;
 
+        /**
+         * Time until which this record may still be served if refreshing it fails, from the
+         * {@code stale-if-error} directive; 0 if it may not.
+         * 刷新失败时仍可使用过期缓存的截止时间
+         */
+        public long staleIfErrorTtl;
+
         /**
          * Immutable response headers as received from server; must be non-null.
          * 用于保存请求的url和数据
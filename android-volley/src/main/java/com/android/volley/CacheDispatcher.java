@@ -64,6 +64,64 @@ public class CacheDispatcher extends Thread {
      */
     private volatile boolean mQuit = false;
 
+    /**
+     * Makes sure the cache is initialized once even when several dispatchers share it.
+     * 多个缓存调度线程共用，保证缓存只初始化一次
+     */
+    private final Initializer mInitializer;
+
+    /**
+     * Stage that parses cache hits, or null to parse them on this thread.
+     * 解析阶段，为null表示在本线程解析缓存数据
+     */
+    private final ParseStage mParseStage;
+
+    /**
+     * Runs {@link Cache#initialize()} exactly once for all dispatchers sharing a cache. The
+     * first dispatcher to get here initializes; the others block until it is done. In the
+     * background mode, initialization runs on a thread of its own and nobody waits for it;
+     * that only suits caches that serve lookups while they initialize.
+     */
+    static class Initializer {
+        private final Cache mCache;
+        private final boolean mInBackground;
+        private boolean mInitialized = false;
+
+        Initializer(Cache cache) {
+            this(cache, false);
+        }
+
+        Initializer(Cache cache, boolean inBackground) {
+            mCache = cache;
+            mInBackground = inBackground;
+        }
+
+        synchronized void initialize() {
+            if (mInitialized) {
+                return;
+            }
+            if (!mInBackground) {
+                mCache.initialize();
+                mInitialized = true;
+                return;
+            }
+            mInitialized = true;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    try {
+                        mCache.initialize();
+                    } catch (RuntimeException e) {
+                        VolleyLog.e(e, "Cache initialization failed");
+                    }
+                }
+            }, "Volley-CacheInit");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
     /**
      * Creates a new cache triage dispatcher thread.  You must call {@link #start()}
      * in order to begin processing.
@@ -74,10 +132,21 @@ public class CacheDispatcher extends Thread {
      * @param delivery     Delivery interface to use for posting responses
      */
     public CacheDispatcher(BlockingQueue<Request<?>> cacheQueue, BlockingQueue<Request<?>> networkQueue, Cache cache, ResponseDelivery delivery) {
+        this(cacheQueue, networkQueue, cache, delivery, new Initializer(cache), null);
+    }
+
+    /**
+     * Creates a cache dispatcher that shares {@code initializer} with the other dispatchers
+     * working on the same cache queue, and that may hand cache hits to a parse stage.
+     */
+    CacheDispatcher(BlockingQueue<Request<?>> cacheQueue, BlockingQueue<Request<?>> networkQueue, Cache cache,
+                    ResponseDelivery delivery, Initializer initializer, ParseStage parseStage) {
         mCacheQueue = cacheQueue;
         mNetworkQueue = networkQueue;
         mCache = cache;
         mDelivery = delivery;
+        mInitializer = initializer;
+        mParseStage = parseStage;
     }
 
     /**
@@ -95,9 +164,9 @@ public class CacheDispatcher extends Thread {
         if (DEBUG) VolleyLog.v("start new dispatcher");
         Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
 
-        // Make a blocking call to initialize the cache.
+        // Initialize the cache; blocks unless it is initialized in the background.
         // 初始化缓存
-        mCache.initialize();
+        mInitializer.initialize();
 
         Request<?> request;
         while (true) {
@@ -114,78 +183,111 @@ public class CacheDispatcher extends Thread {
                 }
                 continue;
             }
-            try {
-                request.addMarker("cache-queue-take");
+            processRequest(request);
+        }
+    }
 
-                // If the request has been canceled, don't bother dispatching it.
-                // 取消请求
-                if (request.isCanceled()) {
-                    request.finish("cache-discard-canceled");
-                    continue;
-                }
+    /**
+     * Triages a single request taken off the cache queue: delivers a cache hit, or sends the
+     * request on to the network queue.
+     * 处理从缓存队列取出的一个请求
+     */
+    void processRequest(Request<?> request) {
+        try {
+            request.addMarker("cache-queue-take");
 
-                // Attempt to retrieve this item from cache.
-                Cache.Entry entry = mCache.get(request.getCacheKey());
+            // If the request has been canceled, don't bother dispatching it.
+            // 取消请求
+            if (request.isCanceled()) {
+                request.finish("cache-discard-canceled");
+                return;
+            }
 
-                //缓存已过期（包括expired与Soft-expired）
+            // Attempt to retrieve this item from cache.
+            Cache.Entry entry = mCache.get(request.getCacheKey());
 
-                // 无缓存数据，则加入网络请求
-                if (entry == null) {
-                    request.addMarker("cache-miss");
-                    // Cache miss; send off to the network dispatcher.
-                    mNetworkQueue.put(request);
-                    continue;
-                }
+            //缓存已过期（包括expired与Soft-expired）
 
-                // If it is completely expired, just send it to the network.
-                // 判断缓存的新鲜度,过期了，加入网络请求
-                if (entry.isExpired()) {
-                    request.addMarker("cache-hit-expired");
-                    request.setCacheEntry(entry);
-                    mNetworkQueue.put(request);
-                    continue;
-                }
+            // 无缓存数据，则加入网络请求
+            if (entry == null) {
+                request.addMarker("cache-miss");
+                // Cache miss; send off to the network dispatcher.
+                mNetworkQueue.put(request);
+                return;
+            }
+
+            // If it is completely expired, just send it to the network.
+            // 判断缓存的新鲜度,过期了，加入网络请求
+            if (entry.isExpired()) {
+                request.addMarker("cache-hit-expired");
+                request.setCacheEntry(entry);
+                mNetworkQueue.put(request);
+                return;
+            }
 
-                // We have a cache hit; parse its data for delivery back to the request.
-                request.addMarker("cache-hit");
-                //从缓存中取出请求响应并进行解析
-                Response<?> response = request.parseNetworkResponse(new NetworkResponse(entry.data, entry.responseHeaders));
-                request.addMarker("cache-hit-parsed");
-
-                //判断缓存是需要刷新
-                if (!entry.refreshNeeded()) {
-                    // Completely unexpired cache hit. Just deliver the response.
-                    // 缓存没有Soft-expired，则直接通过mDelivery将解析好的结果交付给请求发起者
-                    mDelivery.postResponse(request, response);
-                } else {
-                    // Soft-expired cache hit. We can deliver the cached response,
-                    // but we need to also send the request to the network for
-                    // refreshing.
-                    request.addMarker("cache-hit-refresh-needed");
-                    request.setCacheEntry(entry);
-
-                    // Mark the response as intermediate.
-                    response.intermediate = true;
-
-                    // Post the intermediate response back to the user and have
-                    // the delivery then forward the request along to the network.
-                    final Request<?> finalRequest = request;
-                    //需要刷新,那么就再次提交网络请求...获取服务器的响应...
-                    mDelivery.postResponse(request, response, new Runnable() {
-                        @Override
-                        public void run() {
-                            try {
-                                // 网络来更新请求响应
-                                mNetworkQueue.put(finalRequest);
-                            } catch (InterruptedException e) {
-                                // Not much we can do about this.
-                            }
+            // We have a cache hit; parse its data for delivery back to the request.
+            request.addMarker("cache-hit");
+            if (mParseStage == null) {
+                deliverCacheHit(request, entry);
+            } else {
+                // 有解析阶段时交给解析线程池，本线程继续处理缓存队列
+                final Request<?> hitRequest = request;
+                final Cache.Entry hitEntry = entry;
+                mParseStage.submit(request, new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            deliverCacheHit(hitRequest, hitEntry);
+                        } catch (Exception e) {
+                            VolleyLog.e(e, "Unhandled exception %s", e.toString());
                         }
-                    });
-                }
-            } catch (Exception e) {
-                VolleyLog.e(e, "Unhandled exception %s", e.toString());
+                    }
+                });
             }
+        } catch (Exception e) {
+            VolleyLog.e(e, "Unhandled exception %s", e.toString());
+        }
+    }
+
+    /**
+     * Parses a cache hit and posts it, sending it on to the network as well if it needs a
+     * refresh.
+     */
+    private void deliverCacheHit(Request<?> request, Cache.Entry entry) {
+        //从缓存中取出请求响应并进行解析
+        Response<?> response = request.parseNetworkResponse(new NetworkResponse(entry.data, entry.responseHeaders));
+        request.addMarker("cache-hit-parsed");
+
+        //判断缓存是需要刷新
+        if (!entry.refreshNeeded()) {
+            // Completely unexpired cache hit. Just deliver the response.
+            // 缓存没有Soft-expired，则直接通过mDelivery将解析好的结果交付给请求发起者
+            mDelivery.postResponse(request, response);
+        } else {
+            // Soft-expired cache hit. We can deliver the cached response,
+            // but we need to also send the request to the network for
+            // refreshing.
+            request.addMarker("cache-hit-refresh-needed");
+            request.setCacheEntry(entry);
+
+            // Mark the response as intermediate.
+            response.intermediate = true;
+
+            // Post the intermediate response back to the user and have
+            // the delivery then forward the request along to the network.
+            final Request<?> finalRequest = request;
+            //需要刷新,那么就再次提交网络请求...获取服务器的响应...
+            mDelivery.postResponse(request, response, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        // 网络来更新请求响应
+                        mNetworkQueue.put(finalRequest);
+                    } catch (InterruptedException e) {
+                        // Not much we can do about this.
+                    }
+                }
+            });
         }
     }
 }
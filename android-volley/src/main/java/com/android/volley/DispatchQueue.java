@@ -0,0 +1,574 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+import android.os.SystemClock;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 调度队列，包装一个BlockingQueue，记录请求入队时间并在入队时通知监听者
+ * A {@link BlockingQueue} of requests feeding one dispatch stage.
+ * <p/>
+ * Wraps the real queue so that every request is stamped when it is enqueued, an optional
+ * {@link Listener} hears about each enqueue (whoever the producer is), and the time each
+ * request spent waiting is reported to {@link RequestQueueMetrics} when it is taken.
+ * <p/>
+ * The queue itself is unbounded; an optional {@link QueueCapacityPolicy} is applied only to
+ * requests entering through {@link #admit(Request)}.
+ * <p/>
+ * {@link #discard(Request)} takes a request out in constant time by leaving a tombstone in the
+ * real queue: the request stops counting towards the size and the capacity right away, and is
+ * skipped when it reaches the head. Once tombstones pass a quarter of the queued requests they
+ * are purged from the real queue in one sweep, so discarded requests, and the listeners they
+ * hold, aren't kept alive behind a steady stream of higher priority work.
+ */
+class DispatchQueue extends AbstractQueue<Request<?>> implements BlockingQueue<Request<?>> {
+
+    /**
+     * Callback for requests entering the queue.
+     */
+    interface Listener {
+        /**
+         * Called on the producing thread after {@code request} has been enqueued.
+         */
+        void onEnqueued(Request<?> request);
+    }
+
+    /**
+     * Dispatch order of a real queue without a comparator of its own.
+     */
+    private static final Comparator<Request<?>> NATURAL_ORDER = new Comparator<Request<?>>() {
+        @Override
+        @SuppressWarnings("unchecked")
+        public int compare(Request<?> a, Request<?> b) {
+            return ((Request) a).compareTo(b);
+        }
+    };
+
+    /**
+     * Tombstones are purged once there are more than 1/PURGE_RATIO of them per queued request.
+     */
+    private static final int PURGE_RATIO = 4;
+
+    /**
+     * The name reported with queue wait metrics.
+     */
+    private final String mName;
+
+    /**
+     * The queue actually holding the requests.
+     */
+    private final BlockingQueue<Request<?>> mDelegate;
+
+    /**
+     * The requests in {@link #mDelegate} that haven't been discarded. A request joins before it
+     * is put into the delegate and leaves when it is taken out or discarded, so whoever removes
+     * it from this map owns it. Used as a set.
+     */
+    private final ConcurrentHashMap<Request<?>, Boolean> mLive =
+            new ConcurrentHashMap<Request<?>, Boolean>();
+
+    /**
+     * Number of discarded requests still sitting in {@link #mDelegate}.
+     */
+    private final AtomicInteger mTombstones = new AtomicInteger();
+
+    /**
+     * Set while a thread is purging tombstones.
+     */
+    private final AtomicBoolean mPurging = new AtomicBoolean();
+
+    private volatile Listener mListener;
+
+    private volatile RequestQueueMetrics mMetrics = RequestQueueMetrics.NONE;
+
+    /**
+     * Capacity applied by {@link #admit(Request)}, or null for none.
+     */
+    private volatile QueueCapacityPolicy mCapacityPolicy;
+
+    /**
+     * Serializes admissions and is waited on by blocked producers.
+     */
+    private final Object mAdmissionLock = new Object();
+
+    /**
+     * Number of producers waiting for room. Written with {@link #mAdmissionLock} held.
+     */
+    private volatile int mBlockedProducers;
+
+    /**
+     * Waited on by threads in {@link #awaitEmpty()}.
+     */
+    private final Object mEmptyLock = new Object();
+
+    /**
+     * Number of threads waiting for the queue to drain. Written with {@link #mEmptyLock} held.
+     */
+    private volatile int mEmptyWaiters;
+
+    DispatchQueue(String name, BlockingQueue<Request<?>> delegate) {
+        mName = name;
+        mDelegate = delegate;
+    }
+
+    void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    void setMetrics(RequestQueueMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    void setCapacityPolicy(QueueCapacityPolicy policy) {
+        mCapacityPolicy = policy;
+        onSpaceFreed();
+    }
+
+    /**
+     * Enqueues a request coming from outside the {@link RequestQueue}, applying the capacity
+     * policy if there is one. May block, for the {@link QueueCapacityPolicy.Overflow#BLOCK}
+     * policy.
+     *
+     * @return null if {@code request} was enqueued without displacing anything; otherwise the
+     * request that didn't make it, which the caller must fail: either {@code request} itself or
+     * a queued request evicted in its favor
+     */
+    Request<?> admit(Request<?> request) {
+        QueueCapacityPolicy policy = mCapacityPolicy;
+        if (policy == null) {
+            offer(request);
+            return null;
+        }
+        Request<?> refused;
+        synchronized (mAdmissionLock) {
+            int capacity = policy.getCapacity();
+            if (size() < capacity) {
+                offer(request);
+                return null;
+            }
+            switch (policy.getOverflow()) {
+                case DROP_LOWEST_PRIORITY:
+                    // Compared as if it were enqueued now.
+                    request.setQueuedTimeMs(SystemClock.elapsedRealtime());
+                    Comparator<Request<?>> order = dispatchOrder();
+                    Request<?> victim = findLast(order);
+                    if (victim == null || order.compare(request, victim) >= 0) {
+                        refused = request;
+                    } else if (remove(victim)) {
+                        offer(request);
+                        refused = victim;
+                    } else {
+                        // Taken by a dispatcher or discarded meanwhile, which made room.
+                        offer(request);
+                        return null;
+                    }
+                    break;
+                case BLOCK:
+                    if (awaitRoom(capacity, policy.getBlockTimeoutMs())) {
+                        offer(request);
+                        return null;
+                    }
+                    refused = request;
+                    break;
+                default:
+                    refused = request;
+                    break;
+            }
+        }
+        mMetrics.onQueueOverflow(refused, mName);
+        return refused;
+    }
+
+    /**
+     * Takes {@code request} out of the queue without waiting for a dispatcher to reach it. It
+     * stops counting towards the size and the capacity at once; the real queue keeps a tombstone
+     * that is skipped when it reaches the head, or purged. Takes amortized constant time.
+     *
+     * @return true if {@code request} was waiting in this queue, in which case the caller now
+     * owns it; false if it isn't queued here, or a dispatcher has already taken it
+     */
+    boolean discard(Request<?> request) {
+        if (mLive.remove(request) == null) {
+            return false;
+        }
+        if (mTombstones.incrementAndGet() * PURGE_RATIO > size()) {
+            purgeTombstones();
+        }
+        onSpaceFreed();
+        return true;
+    }
+
+    /**
+     * Blocks until no request is waiting in the queue. Woken by whichever take, removal or
+     * discard drains it, so an idle caller costs nothing.
+     */
+    void awaitEmpty() throws InterruptedException {
+        synchronized (mEmptyLock) {
+            mEmptyWaiters++;
+            try {
+                while (!isEmpty()) {
+                    mEmptyLock.wait();
+                }
+            } finally {
+                mEmptyWaiters--;
+            }
+        }
+    }
+
+    @Override
+    public boolean offer(Request<?> request) {
+        onEntering(request);
+        if (!mDelegate.offer(request)) {
+            onRefused(request);
+            return false;
+        }
+        onEnqueued(request);
+        return true;
+    }
+
+    @Override
+    public boolean offer(Request<?> request, long timeout, TimeUnit unit) throws InterruptedException {
+        onEntering(request);
+        boolean offered = false;
+        try {
+            offered = mDelegate.offer(request, timeout, unit);
+        } finally {
+            if (!offered) {
+                onRefused(request);
+            }
+        }
+        if (!offered) {
+            return false;
+        }
+        onEnqueued(request);
+        return true;
+    }
+
+    @Override
+    public void put(Request<?> request) throws InterruptedException {
+        onEntering(request);
+        boolean put = false;
+        try {
+            mDelegate.put(request);
+            put = true;
+        } finally {
+            if (!put) {
+                onRefused(request);
+            }
+        }
+        onEnqueued(request);
+    }
+
+    @Override
+    public Request<?> take() throws InterruptedException {
+        Request<?> request;
+        do {
+            request = mDelegate.take();
+        } while (wasDiscarded(request));
+        return onDequeued(request);
+    }
+
+    @Override
+    public Request<?> poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadlineNs = System.nanoTime() + unit.toNanos(timeout);
+        Request<?> request;
+        do {
+            request = mDelegate.poll(deadlineNs - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } while (request != null && wasDiscarded(request));
+        return onDequeued(request);
+    }
+
+    @Override
+    public Request<?> poll() {
+        Request<?> request;
+        do {
+            request = mDelegate.poll();
+        } while (request != null && wasDiscarded(request));
+        return onDequeued(request);
+    }
+
+    @Override
+    public Request<?> peek() {
+        while (true) {
+            Request<?> head = mDelegate.peek();
+            if (head == null || mLive.containsKey(head)) {
+                return head;
+            }
+            // A tombstone; clear it out of the way.
+            if (mDelegate.remove(head)) {
+                mTombstones.decrementAndGet();
+            }
+        }
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (!mDelegate.remove(o)) {
+            return false;
+        }
+        if (mLive.remove(o) == null) {
+            // A tombstone, already gone as far as callers are concerned.
+            mTombstones.decrementAndGet();
+            return false;
+        }
+        onSpaceFreed();
+        return true;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o != null && mLive.containsKey(o);
+    }
+
+    @Override
+    public void clear() {
+        mDelegate.clear();
+        mLive.clear();
+        mTombstones.set(0);
+        onSpaceFreed();
+    }
+
+    @Override
+    public int size() {
+        return Math.max(0, mDelegate.size() - mTombstones.get());
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return mDelegate.remainingCapacity();
+    }
+
+    @Override
+    public Iterator<Request<?>> iterator() {
+        return new LiveIterator(mDelegate.iterator());
+    }
+
+    @Override
+    public int drainTo(Collection<? super Request<?>> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Request<?>> c, int maxElements) {
+        int drained = 0;
+        Request<?> request;
+        while (drained < maxElements && (request = poll()) != null) {
+            c.add(request);
+            drained++;
+        }
+        return drained;
+    }
+
+    private void onEntering(Request<?> request) {
+        request.setQueuedTimeMs(SystemClock.elapsedRealtime());
+        mLive.put(request, Boolean.TRUE);
+    }
+
+    /**
+     * Undoes {@link #onEntering(Request)} for a request the delegate didn't accept.
+     */
+    private void onRefused(Request<?> request) {
+        if (mLive.remove(request) == null) {
+            // Discarded while on its way in; there is no tombstone to skip.
+            mTombstones.decrementAndGet();
+        }
+    }
+
+    /**
+     * Returns whether a request just removed from {@link #mDelegate} is a tombstone, in which
+     * case it is forgotten; otherwise the caller now owns it.
+     */
+    private boolean wasDiscarded(Request<?> request) {
+        if (mLive.remove(request) != null) {
+            return false;
+        }
+        mTombstones.decrementAndGet();
+        return true;
+    }
+
+    /**
+     * Removes the tombstones from {@link #mDelegate}. Only one thread sweeps at a time; others
+     * leave it to that one.
+     */
+    private void purgeTombstones() {
+        if (!mPurging.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            for (Request<?> request : mDelegate) {
+                // A request taken meanwhile is no longer in the delegate, so remove() fails.
+                if (!mLive.containsKey(request) && mDelegate.remove(request)) {
+                    mTombstones.decrementAndGet();
+                }
+            }
+        } finally {
+            mPurging.set(false);
+        }
+    }
+
+    private void onEnqueued(Request<?> request) {
+        Listener listener = mListener;
+        if (listener != null) {
+            listener.onEnqueued(request);
+        }
+    }
+
+    /**
+     * Waits until the queue has fewer than {@code capacity} requests. Must be called with
+     * {@link #mAdmissionLock} held.
+     *
+     * @return true if there is room, false if the timeout expired first
+     */
+    private boolean awaitRoom(int capacity, long timeoutMs) {
+        // Uses System.nanoTime() rather than SystemClock so the wait can't stall on a clock
+        // that doesn't advance.
+        long deadlineNs = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        mBlockedProducers++;
+        try {
+            while (size() >= capacity) {
+                long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadlineNs - System.nanoTime());
+                if (remainingMs <= 0) {
+                    return false;
+                }
+                mAdmissionLock.wait(remainingMs);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            mBlockedProducers--;
+        }
+    }
+
+    /**
+     * Returns the order in which the real queue dispatches requests at the moment: its own
+     * comparator if it has one, otherwise {@link Request#compareTo}.
+     */
+    @SuppressWarnings("unchecked")
+    private Comparator<Request<?>> dispatchOrder() {
+        if (mDelegate instanceof AgingPriorityBlockingQueue) {
+            return ((AgingPriorityBlockingQueue) mDelegate).dispatchOrder();
+        }
+        if (mDelegate instanceof PriorityBlockingQueue) {
+            Comparator<? super Request<?>> comparator =
+                    ((PriorityBlockingQueue<Request<?>>) mDelegate).comparator();
+            if (comparator != null) {
+                return (Comparator<Request<?>>) comparator;
+            }
+        }
+        return NATURAL_ORDER;
+    }
+
+    /**
+     * Returns the queued request that {@code order} puts last, or null if empty.
+     */
+    private Request<?> findLast(Comparator<Request<?>> order) {
+        Request<?> last = null;
+        for (Request<?> request : this) {
+            if (last == null || order.compare(last, request) < 0) {
+                last = request;
+            }
+        }
+        return last;
+    }
+
+    /**
+     * Wakes producers blocked in {@link #admit(Request)}, and threads in {@link #awaitEmpty()}
+     * if the queue has drained, if there are any.
+     */
+    private void onSpaceFreed() {
+        if (mBlockedProducers > 0) {
+            synchronized (mAdmissionLock) {
+                mAdmissionLock.notifyAll();
+            }
+        }
+        if (mEmptyWaiters > 0) {
+            synchronized (mEmptyLock) {
+                if (isEmpty()) {
+                    mEmptyLock.notifyAll();
+                }
+            }
+        }
+    }
+
+    private Request<?> onDequeued(Request<?> request) {
+        if (request != null) {
+            onSpaceFreed();
+            long queuedTimeMs = request.getQueuedTimeMs();
+            if (queuedTimeMs > 0) {
+                mMetrics.onQueueWait(request, mName, SystemClock.elapsedRealtime() - queuedTimeMs);
+            }
+        }
+        return request;
+    }
+
+    /**
+     * Iterates over the delegate, skipping tombstones.
+     */
+    private class LiveIterator implements Iterator<Request<?>> {
+        private final Iterator<Request<?>> mIterator;
+        private Request<?> mNext;
+        private Request<?> mLast;
+
+        LiveIterator(Iterator<Request<?>> iterator) {
+            mIterator = iterator;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (mNext == null && mIterator.hasNext()) {
+                Request<?> request = mIterator.next();
+                if (mLive.containsKey(request)) {
+                    mNext = request;
+                }
+            }
+            return mNext != null;
+        }
+
+        @Override
+        public Request<?> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            mLast = mNext;
+            mNext = null;
+            return mLast;
+        }
+
+        @Override
+        public void remove() {
+            if (mLast == null) {
+                throw new IllegalStateException();
+            }
+            DispatchQueue.this.remove(mLast);
+            mLast = null;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+/**
+ * 弹性网络调度线程池的配置
+ * Sizing policy for an elastic pool of {@link NetworkDispatcher}s.
+ * <p/>
+ * The pool starts with {@code minThreads} dispatchers. It adds one whenever the network queue
+ * backlog exceeds what the idle dispatchers can absorb by more than {@code backlogThreshold},
+ * or a request waited longer than {@code queueWaitThresholdMs} before being taken, up to
+ * {@code maxThreads}. Dispatchers above the minimum that stay idle for {@code keepAliveMs}
+ * are retired. With a minimum of 0, the pool starts a dispatcher for the first request queued
+ * while it has none.
+ */
+public class ElasticPoolPolicy {
+
+    /**
+     * The default time an idle dispatcher above the minimum is kept alive.
+     * 空闲线程默认存活时间30s
+     */
+    public static final long DEFAULT_KEEP_ALIVE_MS = 30 * 1000;
+
+    /**
+     * The default queue wait that triggers growth.
+     */
+    public static final long DEFAULT_QUEUE_WAIT_THRESHOLD_MS = 100;
+
+    /**
+     * The default number of unserved queued requests that triggers growth.
+     */
+    public static final int DEFAULT_BACKLOG_THRESHOLD = 2;
+
+    private final int mMinThreads;
+    private final int mMaxThreads;
+    private final long mKeepAliveMs;
+    private final long mQueueWaitThresholdMs;
+    private final int mBacklogThreshold;
+
+    /**
+     * Constructs a policy with the default keep-alive and growth thresholds.
+     *
+     * @param minThreads Number of dispatchers that are always kept running
+     * @param maxThreads Upper bound on the number of dispatchers
+     */
+    public ElasticPoolPolicy(int minThreads, int maxThreads) {
+        this(minThreads, maxThreads, DEFAULT_KEEP_ALIVE_MS,
+                DEFAULT_QUEUE_WAIT_THRESHOLD_MS, DEFAULT_BACKLOG_THRESHOLD);
+    }
+
+    /**
+     * Constructs a new elastic pool policy.
+     *
+     * @param minThreads           Number of dispatchers that are always kept running
+     * @param maxThreads           Upper bound on the number of dispatchers
+     * @param keepAliveMs          Idle time after which a dispatcher above the minimum retires
+     * @param queueWaitThresholdMs Queue wait that makes the pool grow
+     * @param backlogThreshold     Unserved backlog that makes the pool grow
+     */
+    public ElasticPoolPolicy(int minThreads, int maxThreads, long keepAliveMs,
+                             long queueWaitThresholdMs, int backlogThreshold) {
+        if (minThreads < 0 || maxThreads < 1 || minThreads > maxThreads) {
+            throw new IllegalArgumentException("Invalid pool bounds [" + minThreads + ", " + maxThreads + "]");
+        }
+        if (keepAliveMs <= 0) {
+            throw new IllegalArgumentException("keepAliveMs must be positive");
+        }
+        mMinThreads = minThreads;
+        mMaxThreads = maxThreads;
+        mKeepAliveMs = keepAliveMs;
+        mQueueWaitThresholdMs = queueWaitThresholdMs;
+        mBacklogThreshold = backlogThreshold;
+    }
+
+    public int getMinThreads() {
+        return mMinThreads;
+    }
+
+    public int getMaxThreads() {
+        return mMaxThreads;
+    }
+
+    public long getKeepAliveMs() {
+        return mKeepAliveMs;
+    }
+
+    public long getQueueWaitThresholdMs() {
+        return mQueueWaitThresholdMs;
+    }
+
+    public int getBacklogThreshold() {
+        return mBacklogThreshold;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 基于Executor的调度方式，每个入队的请求对应一个任务，适合虚拟线程等按任务分配线程的Executor
+ * Dispatches requests as tasks on an {@link Executor} instead of on dedicated threads.
+ * <p/>
+ * Every enqueue on the cache or network queue submits one task, which takes the request at the
+ * head of that queue (not necessarily the one that was enqueued) and processes it with the
+ * same logic as {@link CacheDispatcher} and {@link NetworkDispatcher}. Requests still leave
+ * the queues in priority order, and everything {@link RequestQueue#add(Request)} does before
+ * enqueueing, such as deduplication, is unchanged. Blocking network I/O scales with the
+ * executor, e.g. to thousands of concurrent requests on a virtual-thread-per-task executor.
+ */
+class ExecutorDispatcher {
+
+    private final Executor mExecutor;
+    private final DispatchQueue mCacheQueue;
+    private final DispatchQueue mNetworkQueue;
+    private final CacheDispatcher.Initializer mInitializer;
+
+    /**
+     * Never started; only used for their processing logic, which is safe to run concurrently.
+     */
+    private final CacheDispatcher mCacheStage;
+    private final NetworkDispatcher mNetworkStage;
+
+    private volatile boolean mStopped = true;
+
+    /**
+     * Processes the head of the cache queue.
+     */
+    private final Runnable mCacheTask = new Runnable() {
+        @Override
+        public void run() {
+            if (mStopped) {
+                return;
+            }
+            // Blocks the first tasks until the cache is initialized, unless that happens in
+            // the background.
+            mInitializer.initialize();
+            Request<?> request = mCacheQueue.poll();
+            if (request != null) {
+                mCacheStage.processRequest(request);
+            }
+        }
+    };
+
+    /**
+     * Processes the head of the network queue.
+     */
+    private final Runnable mNetworkTask = new Runnable() {
+        @Override
+        public void run() {
+            if (mStopped) {
+                return;
+            }
+            Request<?> request = mNetworkQueue.poll();
+            if (request != null) {
+                mNetworkStage.processRequest(request);
+            }
+        }
+    };
+
+    private final DispatchQueue.Listener mCacheListener = new DispatchQueue.Listener() {
+        @Override
+        public void onEnqueued(Request<?> request) {
+            submit(mCacheTask);
+        }
+    };
+
+    private final DispatchQueue.Listener mNetworkListener = new DispatchQueue.Listener() {
+        @Override
+        public void onEnqueued(Request<?> request) {
+            submit(mNetworkTask);
+        }
+    };
+
+    ExecutorDispatcher(Executor executor, DispatchQueue cacheQueue, DispatchQueue networkQueue,
+                       Cache cache, CacheDispatcher.Initializer initializer, Network network,
+                       ResponseDelivery delivery, HostConcurrencyLimiter hostLimiter,
+                       RequestCoalescer coalescer, RequestBatcher batcher,
+                       ParseStage parseStage) {
+        mExecutor = executor;
+        mCacheQueue = cacheQueue;
+        mNetworkQueue = networkQueue;
+        mInitializer = initializer;
+        mCacheStage = new CacheDispatcher(cacheQueue, networkQueue, cache, delivery, mInitializer, parseStage);
+        mNetworkStage = new NetworkDispatcher(networkQueue, network, cache, delivery, null,
+                hostLimiter, coalescer, batcher, parseStage);
+    }
+
+    /**
+     * Starts submitting tasks, including one for every request already queued.
+     */
+    void start() {
+        mStopped = false;
+        mCacheQueue.setListener(mCacheListener);
+        mNetworkQueue.setListener(mNetworkListener);
+        for (int i = mCacheQueue.size(); i > 0; i--) {
+            submit(mCacheTask);
+        }
+        for (int i = mNetworkQueue.size(); i > 0; i--) {
+            submit(mNetworkTask);
+        }
+    }
+
+    /**
+     * Stops submitting tasks. Tasks already submitted but not yet running leave their request
+     * queued; requests being processed run to completion.
+     */
+    void stop() {
+        mStopped = true;
+        mCacheQueue.setListener(null);
+        mNetworkQueue.setListener(null);
+    }
+
+    private void submit(Runnable task) {
+        try {
+            mExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // The request stays queued and is picked up by a later task or after a restart.
+            VolleyLog.e(e, "Dispatch task rejected by executor");
+        }
+    }
+}
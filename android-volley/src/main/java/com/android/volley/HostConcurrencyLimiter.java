@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+import android.net.Uri;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * 按host限制同时进行的网络请求数，超出限制的请求被暂存，不占用调度线程
+ * Limits the number of requests in flight to each host.
+ * <p/>
+ * A {@link NetworkDispatcher} calls {@link #tryAcquire(Request)} after taking a request off the
+ * network queue. If the request's host is saturated the request is parked here and the
+ * dispatcher moves on to the next request, so other hosts keep flowing. When a request for that
+ * host completes, {@link #release(Request)} hands its slot to the oldest parked request and puts
+ * it back on the network queue.
+ * <p/>
+ * Until a limit is set, requests aren't tracked at all. A tracked request's host is parsed
+ * once and kept on the request until it gives up its slot.
+ */
+class HostConcurrencyLimiter {
+
+    /**
+     * Bookkeeping for one host. Guarded by the limiter.
+     */
+    private static class HostState {
+        /**
+         * Requests holding a slot, including ones granted a slot but not yet re-taken.
+         */
+        int inFlight;
+
+        /**
+         * Requests waiting for a slot, oldest first.
+         */
+        final LinkedList<Request<?>> parked = new LinkedList<Request<?>>();
+    }
+
+    /**
+     * Queue that parked requests are returned to once they get a slot.
+     */
+    private final BlockingQueue<Request<?>> mNetworkQueue;
+
+    /**
+     * Per-host state, keyed by lower-case host name.
+     */
+    private final Map<String, HostState> mHosts = new HashMap<String, HostState>();
+
+    /**
+     * Parked requests that have been handed a slot on their way back to the queue.
+     */
+    private final Map<Request<?>, Boolean> mGranted = new IdentityHashMap<Request<?>, Boolean>();
+
+    /**
+     * Explicit limits for individual hosts.
+     */
+    private final Map<String, Integer> mHostLimits = new HashMap<String, Integer>();
+
+    /**
+     * Limit for hosts without an explicit one.
+     */
+    private int mDefaultLimit = Integer.MAX_VALUE;
+
+    /**
+     * Set while any limit is in place. Written with the lock held.
+     */
+    private volatile boolean mLimited;
+
+    HostConcurrencyLimiter(BlockingQueue<Request<?>> networkQueue) {
+        mNetworkQueue = networkQueue;
+    }
+
+    synchronized void setDefaultLimit(int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be positive");
+        }
+        mDefaultLimit = maxInFlight;
+        mLimited = mDefaultLimit != Integer.MAX_VALUE || !mHostLimits.isEmpty();
+    }
+
+    synchronized void setHostLimit(String host, int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be positive");
+        }
+        mHostLimits.put(host.toLowerCase(), maxInFlight);
+        mLimited = true;
+    }
+
+    /**
+     * Claims a slot for {@code request}'s host.
+     *
+     * @return true if the request may go to the network now, false if it has been parked
+     */
+    boolean tryAcquire(Request<?> request) {
+        if (!mLimited && request.getHostKey() == null) {
+            // Nothing to limit, and no slot was reserved for it before the limits were lifted.
+            return true;
+        }
+        synchronized (this) {
+            if (mGranted.remove(request) != null) {
+                // The slot was reserved for us by release().
+                return true;
+            }
+            String host = request.getHostKey();
+            if (host == null) {
+                host = hostOf(request);
+                request.setHostKey(host);
+            }
+            HostState state = mHosts.get(host);
+            if (state == null) {
+                state = new HostState();
+                mHosts.put(host, state);
+            }
+            if (state.inFlight < limitFor(host)) {
+                state.inFlight++;
+                return true;
+            }
+            state.parked.add(request);
+            request.addMarker("network-host-parked");
+            return false;
+        }
+    }
+
+    /**
+     * Releases the slot held by {@code request}, waking the next parked request for the host.
+     */
+    void release(Request<?> request) {
+        String host = request.getHostKey();
+        if (host == null) {
+            // It went out untracked.
+            return;
+        }
+        List<Request<?>> requeue = new ArrayList<Request<?>>();
+        synchronized (this) {
+            request.setHostKey(null);
+            HostState state = mHosts.get(host);
+            if (state == null) {
+                return;
+            }
+            Request<?> next = null;
+            while (next == null && !state.parked.isEmpty()) {
+                Request<?> candidate = state.parked.removeFirst();
+                if (candidate.isCanceled()) {
+                    // Let a dispatcher discard it; it doesn't need a slot for that.
+                    requeue.add(candidate);
+                } else {
+                    next = candidate;
+                }
+            }
+            if (next != null && state.inFlight <= limitFor(host)) {
+                // Hand our slot straight to the oldest parked request.
+                mGranted.put(next, Boolean.TRUE);
+                next.addMarker("network-host-unparked");
+                requeue.add(next);
+            } else {
+                if (next != null) {
+                    // The limit was lowered; keep waiting until enough slots drain.
+                    state.parked.addFirst(next);
+                }
+                state.inFlight--;
+                if (state.inFlight <= 0 && state.parked.isEmpty()) {
+                    mHosts.remove(host);
+                }
+            }
+        }
+        mNetworkQueue.addAll(requeue);
+    }
+
+    /**
+     * Called for a request that is dropped without going to the network, e.g. because it was
+     * canceled. Passes on the slot if one had been reserved for it.
+     */
+    void discard(Request<?> request) {
+        if (request.getHostKey() == null) {
+            return;
+        }
+        boolean granted;
+        synchronized (this) {
+            granted = mGranted.remove(request) != null;
+        }
+        if (granted) {
+            release(request);
+        }
+    }
+
+    /**
+     * Takes {@code request} out of its host's parked list, e.g. because it was canceled.
+     *
+     * @return true if the request was parked; the caller then owns finishing it
+     */
+    boolean removeParked(Request<?> request) {
+        String host = request.getHostKey();
+        if (host == null) {
+            return false;
+        }
+        synchronized (this) {
+            HostState state = mHosts.get(host);
+            if (state == null || !state.parked.remove(request)) {
+                return false;
+            }
+            request.setHostKey(null);
+            if (state.inFlight <= 0 && state.parked.isEmpty()) {
+                mHosts.remove(host);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Returns the number of requests parked waiting for {@code host}.
+     */
+    synchronized int getParkedCount(String host) {
+        HostState state = mHosts.get(host.toLowerCase());
+        return state != null ? state.parked.size() : 0;
+    }
+
+    private int limitFor(String host) {
+        Integer limit = mHostLimits.get(host);
+        return limit != null ? limit : mDefaultLimit;
+    }
+
+    /**
+     * Returns the key used for {@code request}'s host. The origin URL is used so redirects
+     * between acquire and release don't move the slot to another host.
+     */
+    private static String hostOf(Request<?> request) {
+        String url = request.getOriginUrl();
+        if (url != null) {
+            Uri uri = Uri.parse(url);
+            if (uri != null && uri.getHost() != null) {
+                return uri.getHost().toLowerCase();
+            }
+        }
+        return "";
+    }
+}
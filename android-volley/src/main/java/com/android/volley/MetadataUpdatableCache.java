@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+/**
+ * A {@link Cache} that can replace the metadata of an entry without rewriting its data.
+ * Optional: callers check for it and otherwise store the whole entry with
+ * {@link Cache#put(String, Entry)}.
+ * 可以只更新元数据的缓存
+ */
+public interface MetadataUpdatableCache extends Cache {
+    /**
+     * Replaces the metadata of an entry (etag, dates, TTLs and headers) but not its data,
+     * e.g. after a 304 response revalidated it. Implementations that can't update metadata
+     * on its own may store {@code entry} in full, as {@link #put(String, Entry)} does.
+     * 只更新缓存的元数据，不重写数据
+     *
+     * @param key   Cache key
+     * @param entry New metadata; its {@code data} must be the data already cached for
+     *              {@code key}
+     */
+    public void updateMetadata(String key, Entry entry);
+}
@@ -22,7 +22,10 @@ import android.os.Build;
 import android.os.Process;
 import android.os.SystemClock;
 
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * 网络请求调度器
@@ -60,6 +63,36 @@ public class NetworkDispatcher extends Thread {
      */
     private volatile boolean mQuit = false;
 
+    /**
+     * The elastic pool this dispatcher belongs to, or null for a fixed dispatcher.
+     * 所属的弹性线程池，固定线程数时为null
+     */
+    private final NetworkDispatcherPool mPool;
+
+    /**
+     * Per-host in-flight limits, or null for no limits.
+     * 按host限制并发数，为null表示不限制
+     */
+    private final HostConcurrencyLimiter mHostLimiter;
+
+    /**
+     * Source of requests coalesced with the one being dispatched, or null for none.
+     * 与当前请求合并的相同请求，为null表示不合并
+     */
+    private final RequestCoalescer mCoalescer;
+
+    /**
+     * Collector of requests sent together in batches, or null for no batching.
+     * 批量请求收集器，为null表示不合并发送
+     */
+    private final RequestBatcher mBatcher;
+
+    /**
+     * Stage that parses responses, or null to parse them on this thread.
+     * 解析阶段，为null表示在本线程解析
+     */
+    private final ParseStage mParseStage;
+
     /**
      * Creates a new network dispatcher thread.  You must call {@link #start()}
      * in order to begin processing.
@@ -70,10 +103,28 @@ public class NetworkDispatcher extends Thread {
      * @param delivery Delivery interface to use for posting responses
      */
     public NetworkDispatcher(BlockingQueue<Request<?>> queue, Network network, Cache cache, ResponseDelivery delivery) {
+        this(queue, network, cache, delivery, null, null, null, null, null);
+    }
+
+    /**
+     * Creates a dispatcher that may belong to an elastic pool, in which case it exits once the
+     * pool lets it retire, that may enforce per-host limits, that may share responses with
+     * coalesced requests, that may send requests in batches and that may hand responses to a
+     * parse stage.
+     */
+    NetworkDispatcher(BlockingQueue<Request<?>> queue, Network network, Cache cache,
+                      ResponseDelivery delivery, NetworkDispatcherPool pool,
+                      HostConcurrencyLimiter hostLimiter, RequestCoalescer coalescer,
+                      RequestBatcher batcher, ParseStage parseStage) {
         mQueue = queue;
         mNetwork = network;
         mCache = cache;
         mDelivery = delivery;
+        mPool = pool;
+        mHostLimiter = hostLimiter;
+        mCoalescer = coalescer;
+        mBatcher = batcher;
+        mParseStage = parseStage;
     }
 
     /**
@@ -99,12 +150,24 @@ public class NetworkDispatcher extends Thread {
 
         Request<?> request;
         while (true) {
-            long startTimeMs = SystemClock.elapsedRealtime();
             // release previous request object to avoid leaking request object when mQueue is drained.
             request = null;
             try {
                 // Take a request from the queue.
-                request = mQueue.take();
+                if (mPool == null) {
+                    request = mQueue.take();
+                } else {
+                    // 弹性线程池中的线程空闲超时后退出
+                    request = mQueue.poll(mPool.getKeepAliveMs(), TimeUnit.MILLISECONDS);
+                    if (request == null) {
+                        if (mPool.retire(this)) {
+                            return;
+                        }
+                        continue;
+                    }
+                    long queuedTimeMs = request.getQueuedTimeMs();
+                    mPool.onWorkerBusy(request, queuedTimeMs > 0 ? SystemClock.elapsedRealtime() - queuedTimeMs : 0);
+                }
             } catch (InterruptedException e) {
                 // We may have been interrupted because it was time to quit.
                 if (mQuit) {
@@ -113,64 +176,311 @@ public class NetworkDispatcher extends Thread {
                 continue;
             }
 
+            processRequest(request);
+
+            if (mPool != null) {
+                mPool.onWorkerIdle();
+            }
+        }
+    }
+
+    /**
+     * Performs a single request taken off the queue and posts its response or error.
+     * <p/>
+     * If the network is an {@link AsyncNetwork} this only starts the request; its response is
+     * handled on the thread the network completes it on, and this thread is free meanwhile.
+     */
+    void processRequest(final Request<?> request) {
+        final long startTimeMs = SystemClock.elapsedRealtime();
+        try {
+            request.addMarker("network-queue-take");
+
+            // If the request was cancelled already, do not perform the
+            // network request.
+            // 如果请求被中途取消
+            if (request.isCanceled()) {
+                if (mHostLimiter != null) {
+                    mHostLimiter.discard(request);
+                }
+                if (mBatcher == null || !mBatcher.releaseBatch(request)) {
+                    request.finish("network-discard-canceled");
+                }
+                return;
+            }
+
+            // Don't spend a socket on a request whose caller has stopped waiting for it.
+            // 截止时间已过，不再发送请求
+            if (request.isPastDeadline()) {
+                if (mHostLimiter != null) {
+                    mHostLimiter.discard(request);
+                }
+                request.addMarker("network-discard-deadline");
+                // A batch request is never delivered; its requests get the error instead.
+                if (mBatcher == null || !mBatcher.failBatch(request, new DeadlineExceededError())) {
+                    parseAndDeliverNetworkError(request, new DeadlineExceededError());
+                }
+                return;
+            }
+
+            // A batchable request waits for others to share one HTTP call with; it comes back
+            // on the queue inside a batch request.
+            // 可批量发送的请求先被收集，随后作为批量请求的一部分重新入队
+            if (mBatcher != null && mBatcher.offer(request)) {
+                return;
+            }
+
+            // If the host already has its maximum number of requests in flight, the request is
+            // parked by the limiter and comes back on the queue once a slot frees up.
+            // 该host并发已满，请求被暂存，线程继续处理其他请求
+            if (mHostLimiter != null && !mHostLimiter.tryAcquire(request)) {
+                return;
+            }
+        } catch (Exception e) {
+            VolleyLog.e(e, "Unhandled exception %s", e.toString());
+            VolleyError error = new VolleyError(e);
+            if (mBatcher == null || !mBatcher.failBatch(request, error)) {
+                mDelivery.postError(request, error);
+            }
+            return;
+        }
+
+        // 异步网络请求不占用调度线程，完成后在回调线程中处理响应
+        if (mNetwork instanceof AsyncNetwork) {
+            request.addMarker("network-async-start");
+            // Completed once, whether by a callback or by the network throwing.
+            final AtomicBoolean completed = new AtomicBoolean();
             try {
-                request.addMarker("network-queue-take");
-
-                // If the request was cancelled already, do not perform the
-                // network request.
-                // 如果请求被中途取消
-                if (request.isCanceled()) {
-                    request.finish("network-discard-cancelled");
-                    continue;
+                ((AsyncNetwork) mNetwork).performRequestAsync(request, new AsyncNetwork.Callback() {
+                    @Override
+                    public void onSuccess(NetworkResponse response) {
+                        if (completed.compareAndSet(false, true)) {
+                            onNetworkComplete(request, startTimeMs, response, null);
+                        }
+                    }
+
+                    @Override
+                    public void onError(VolleyError error) {
+                        if (completed.compareAndSet(false, true)) {
+                            onNetworkComplete(request, startTimeMs, null, error);
+                        }
+                    }
+                });
+            } catch (Exception e) {
+                // Frees the host slot and fails the request instead of killing this thread.
+                if (completed.compareAndSet(false, true)) {
+                    onNetworkComplete(request, startTimeMs, null, e);
                 }
+            }
+            return;
+        }
+
+        // 流量统计用的
+        addTrafficStatsTag(request);
+
+        // Perform the network request.
+        // 请求数据
+        NetworkResponse networkResponse = null;
+        Exception networkError = null;
+        try {
+            networkResponse = mNetwork.performRequest(request);
+        } catch (Exception e) {
+            networkError = e;
+        }
+        onNetworkComplete(request, startTimeMs, networkResponse, networkError);
+    }
+
+    /**
+     * Handles the outcome of performing {@code request}: frees its host slot, then delivers
+     * the outcome to the request, or to each request it carried if it is a batch request.
+     *
+     * @param networkResponse the response, or null if the request failed
+     * @param networkError    why the request failed, or null if it succeeded
+     */
+    private void onNetworkComplete(Request<?> request, long startTimeMs,
+                                   NetworkResponse networkResponse, Exception networkError) {
+        if (mHostLimiter != null) {
+            mHostLimiter.release(request);
+        }
+        List<Request<?>> batch = mBatcher != null ? mBatcher.takeBatch(request) : null;
+        if (batch != null) {
+            deliverBatch(batch, startTimeMs, networkResponse, networkError);
+        } else {
+            deliverNetworkResult(request, startTimeMs, networkResponse, networkError);
+        }
+    }
 
-                // 流量统计用的
-                addTrafficStatsTag(request);
+    /**
+     * Splits the outcome of a batch request and delivers each part to its request.
+     */
+    private void deliverBatch(List<Request<?>> batch, long startTimeMs,
+                              NetworkResponse networkResponse, Exception networkError) {
+        List<NetworkResponse> responses = null;
+        if (networkError == null) {
+            try {
+                responses = mBatcher.parseBatchResponse(networkResponse, batch);
+            } catch (Exception e) {
+                networkError = e;
+            }
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            Request<?> request = batch.get(i);
+            request.addMarker("network-batch-complete");
+            if (responses == null) {
+                deliverNetworkResult(request, startTimeMs, null, networkError);
+                continue;
+            }
+            // 每个请求按自己的响应分别处理，错误互不影响
+            NetworkResponse response = responses.get(i);
+            if (response == null) {
+                deliverNetworkResult(request, startTimeMs, null, new ServerError());
+            } else if ((response.statusCode < 200 || response.statusCode > 299)
+                    && response.statusCode != 304) {
+                deliverNetworkResult(request, startTimeMs, null, new ServerError(response));
+            } else {
+                deliverNetworkResult(request, startTimeMs, response, null);
+            }
+        }
+    }
 
-                // Perform the network request.
-                // 请求数据
-                NetworkResponse networkResponse = mNetwork.performRequest(request);
-                request.addMarker("network-http-complete");
+    /**
+     * Parses, caches and posts the response or posts the error, for the request and for the
+     * requests coalesced with it.
+     */
+    private void deliverNetworkResult(final Request<?> request, final long startTimeMs,
+                                      final NetworkResponse networkResponse, Exception networkError) {
+        // Requests sharing this request's network response.
+        List<Request<?>> coalesced = null;
+        if (mCoalescer != null && request.shouldCoalesce()) {
+            coalesced = mCoalescer.takeFollowers(request);
+        }
+        if (networkError != null) {
+            VolleyError volleyError;
+            if (networkError instanceof VolleyError) {
+                volleyError = (VolleyError) networkError;
+                volleyError.setNetworkTimeMs(SystemClock.elapsedRealtime() - startTimeMs);
+                if (isStaleAllowed(request, volleyError)) {
+                    deliverStaleOrError(request, volleyError);
+                } else {
+                    parseAndDeliverNetworkError(request, volleyError);
+                }
+            } else {
+                VolleyLog.e(networkError, "Unhandled exception %s", networkError.toString());
+                volleyError = new VolleyError(networkError);
+                volleyError.setNetworkTimeMs(SystemClock.elapsedRealtime() - startTimeMs);
+                mDelivery.postError(request, volleyError);
+            }
+            deliverCoalescedError(coalesced, volleyError);
+            return;
+        }
+        request.addMarker("network-http-complete");
 
-                // If the server returned 304 AND we delivered a response already,
-                // we're done -- don't deliver a second identical response.
-                if (networkResponse.notModified && request.hasHadResponseDelivered()) {
-                    //如果是相同的请求，那么服务器就返回一次响应
-                    request.finish("not-modified");
-                    continue;
+        // With a parse stage, this thread goes back to I/O while the response is parsed.
+        // 有解析阶段时交给解析线程池，本线程继续处理网络请求
+        if (mParseStage == null) {
+            parseAndDeliver(request, coalesced, networkResponse, startTimeMs);
+        } else {
+            final List<Request<?>> followers = coalesced;
+            mParseStage.submit(request, new Runnable() {
+                @Override
+                public void run() {
+                    parseAndDeliver(request, followers, networkResponse, startTimeMs);
                 }
+            });
+        }
+    }
+
+    /**
+     * Parses, caches and posts {@code networkResponse}, for the request and for the requests
+     * coalesced with it.
+     */
+    private void parseAndDeliver(Request<?> request, List<Request<?>> coalesced,
+                                 NetworkResponse networkResponse, long startTimeMs) {
+        // Hand the response to the coalesced requests before parsing our own, so a parse
+        // failure of this request doesn't affect them.
+        // 合并的请求共享这次网络响应，各自解析
+        if (coalesced != null) {
+            deliverCoalesced(coalesced, networkResponse);
+        }
+        try {
+            // If the server returned 304 AND we delivered a response already,
+            // we're done -- don't deliver a second identical response.
+            if (networkResponse.notModified && request.hasHadResponseDelivered()) {
+                //如果是相同的请求，那么服务器就返回一次响应
+                request.finish("not-modified");
+                return;
+            }
 
-                // Parse the response here on the worker thread.
-                // 解析响应数据
-                Response<?> response = request.parseNetworkResponse(networkResponse);
-                request.addMarker("network-parse-complete");
+            // Parse the response here on the worker thread.
+            // 解析响应数据
+            Response<?> response = request.parseNetworkResponse(networkResponse);
+            request.addMarker("network-parse-complete");
 
-                // Write to cache if applicable.
-                // TODO: Only update cache metadata instead of entire record for 304s.
-                if (request.shouldCache() && response.cacheEntry != null) {
-                    // 缓存数据
+            // Write to cache if applicable. A 304 only refreshed the metadata of the entry we
+            // already have, so don't rewrite its data.
+            if (request.shouldCache() && response.cacheEntry != null) {
+                // 缓存数据
+                if (networkResponse.notModified && mCache instanceof MetadataUpdatableCache) {
+                    ((MetadataUpdatableCache) mCache).updateMetadata(request.getCacheKey(),
+                            response.cacheEntry);
+                    request.addMarker("network-cache-metadata-updated");
+                } else {
                     mCache.put(request.getCacheKey(), response.cacheEntry);
                     request.addMarker("network-cache-written");
                 }
+            }
 
-                // Post the response back.
-                //确认请求要被分发
-                request.markDelivered();
+            // Post the response back.
+            //确认请求要被分发
+            request.markDelivered();
 
-                //发送请求
-                mDelivery.postResponse(request, response);
-            } catch (VolleyError volleyError) {
-                volleyError.setNetworkTimeMs(SystemClock.elapsedRealtime() - startTimeMs);
-                parseAndDeliverNetworkError(request, volleyError);
+            //发送请求
+            mDelivery.postResponse(request, response);
+        } catch (Exception e) {
+            VolleyLog.e(e, "Unhandled exception %s", e.toString());
+            VolleyError volleyError = new VolleyError(e);
+            volleyError.setNetworkTimeMs(SystemClock.elapsedRealtime() - startTimeMs);
+            mDelivery.postError(request, volleyError);
+        }
+    }
+
+    /**
+     * Parses {@code networkResponse} for each coalesced request and posts the result.
+     */
+    private void deliverCoalesced(List<Request<?>> coalesced, NetworkResponse networkResponse) {
+        for (Request<?> follower : coalesced) {
+            if (follower.isCanceled()) {
+                follower.finish("network-discard-canceled");
+                continue;
+            }
+            follower.addMarker("network-coalesced-response");
+            try {
+                Response<?> response = follower.parseNetworkResponse(networkResponse);
+                follower.markDelivered();
+                mDelivery.postResponse(follower, response);
             } catch (Exception e) {
                 VolleyLog.e(e, "Unhandled exception %s", e.toString());
-                VolleyError volleyError = new VolleyError(e);
-                volleyError.setNetworkTimeMs(SystemClock.elapsedRealtime() - startTimeMs);
-                mDelivery.postError(request, volleyError);
+                mDelivery.postError(follower, new VolleyError(e));
             }
         }
     }
 
+    /**
+     * Posts the network error to each coalesced request, if any.
+     */
+    private void deliverCoalescedError(List<Request<?>> coalesced, VolleyError error) {
+        if (coalesced == null) {
+            return;
+        }
+        for (Request<?> follower : coalesced) {
+            if (follower.isCanceled()) {
+                follower.finish("network-discard-canceled");
+                continue;
+            }
+            follower.addMarker("network-coalesced-error");
+            parseAndDeliverNetworkError(follower, error);
+        }
+    }
+
     /**
      * 解析请求或者是分发请求时出现错误
      *
@@ -181,4 +491,73 @@ public class NetworkDispatcher extends Thread {
         error = request.parseNetworkError(error);
         mDelivery.postError(request, error);
     }
+
+    /**
+     * Returns true if {@code request}'s expired cache entry may stand in for {@code error}: the
+     * error is one a stale response can replace and the entry's stale-if-error window allows it.
+     */
+    private static boolean isStaleAllowed(Request<?> request, VolleyError error) {
+        Cache.Entry entry = request.getCacheEntry();
+        return entry != null && !request.hasHadResponseDelivered() && isStaleIfErrorCandidate(error)
+                && request.canServeStaleOnError(entry, System.currentTimeMillis());
+    }
+
+    /**
+     * Delivers {@code request}'s expired cache entry in place of {@code error}, or the error if
+     * the entry doesn't parse. Parsed on the parse stage when there is one.
+     * 网络失败时返回过期的缓存数据，解析交给解析线程池
+     */
+    private void deliverStaleOrError(final Request<?> request, final VolleyError error) {
+        Runnable parse = new Runnable() {
+            @Override
+            public void run() {
+                if (!deliverStale(request)) {
+                    parseAndDeliverNetworkError(request, error);
+                }
+            }
+        };
+        if (mParseStage == null) {
+            parse.run();
+        } else {
+            mParseStage.submit(request, parse);
+        }
+    }
+
+    /**
+     * Parses and posts {@code request}'s expired cache entry as a stale response.
+     *
+     * @return true if a stale response was delivered
+     */
+    private boolean deliverStale(Request<?> request) {
+        Cache.Entry entry = request.getCacheEntry();
+        try {
+            Response<?> response = request.parseNetworkResponse(
+                    new NetworkResponse(entry.data, entry.responseHeaders));
+            if (!response.isSuccess()) {
+                return false;
+            }
+            response.stale = true;
+            request.addMarker("network-error-served-stale");
+            request.markDelivered();
+            mDelivery.postResponse(request, response);
+            return true;
+        } catch (Exception e) {
+            VolleyLog.e(e, "Unhandled exception %s", e.toString());
+            return false;
+        }
+    }
+
+    /**
+     * Returns true for errors that mean the server couldn't be reached or couldn't answer:
+     * no connection, a timeout, or a 5xx response.
+     */
+    private static boolean isStaleIfErrorCandidate(VolleyError error) {
+        if (error instanceof NetworkError || error instanceof TimeoutError) {
+            return true;
+        }
+        if (error instanceof ServerError) {
+            return error.networkResponse == null || error.networkResponse.statusCode >= 500;
+        }
+        return false;
+    }
 }
@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 弹性网络调度线程池，根据排队长度与排队时间动态增减NetworkDispatcher
+ * An elastic set of {@link NetworkDispatcher}s sharing one network queue.
+ * <p/>
+ * Growth is checked whenever a request is enqueued (so a pool whose dispatchers are all
+ * blocked on slow sockets still grows) and whenever a dispatcher takes a request that waited
+ * too long. The queue wait is that of the request at the head of the queue. While requests
+ * are queued with no idle dispatcher, a timer re-checks once the head would have waited too
+ * long, since with every dispatcher blocked nothing else would. Dispatchers above the minimum
+ * retire themselves after the keep-alive expires.
+ */
+class NetworkDispatcherPool implements DispatchQueue.Listener {
+
+    private final ElasticPoolPolicy mPolicy;
+    private final BlockingQueue<Request<?>> mQueue;
+    private final Network mNetwork;
+    private final Cache mCache;
+    private final ResponseDelivery mDelivery;
+    private final RequestQueueMetrics mMetrics;
+    private final HostConcurrencyLimiter mHostLimiter;
+    private final RequestCoalescer mCoalescer;
+    private final RequestBatcher mBatcher;
+    private final ParseStage mParseStage;
+
+    /**
+     * The running dispatchers. Guarded by {@code this}.
+     */
+    private final List<NetworkDispatcher> mWorkers = new ArrayList<NetworkDispatcher>();
+
+    /**
+     * Number of dispatchers currently waiting on the queue. Guarded by {@code this}.
+     */
+    private int mIdleWorkers;
+
+    /**
+     * Set once {@link #stop()} has been called. Guarded by {@code this}.
+     */
+    private boolean mStopped;
+
+    /**
+     * Runs the queue wait checks, or null until one is needed. Guarded by {@code this}.
+     */
+    private ScheduledExecutorService mTimer;
+
+    /**
+     * Set while a queue wait check is scheduled. Guarded by {@code this}.
+     */
+    private boolean mCheckScheduled;
+
+    private final Runnable mCheck = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (NetworkDispatcherPool.this) {
+                mCheckScheduled = false;
+            }
+            maybeGrow(headWaitMs());
+        }
+    };
+
+    NetworkDispatcherPool(ElasticPoolPolicy policy, BlockingQueue<Request<?>> queue, Network network,
+                          Cache cache, ResponseDelivery delivery, RequestQueueMetrics metrics,
+                          HostConcurrencyLimiter hostLimiter, RequestCoalescer coalescer,
+                          RequestBatcher batcher, ParseStage parseStage) {
+        mPolicy = policy;
+        mQueue = queue;
+        mNetwork = network;
+        mCache = cache;
+        mDelivery = delivery;
+        mMetrics = metrics;
+        mHostLimiter = hostLimiter;
+        mCoalescer = coalescer;
+        mBatcher = batcher;
+        mParseStage = parseStage;
+    }
+
+    /**
+     * Starts the minimum number of dispatchers.
+     */
+    synchronized void start() {
+        mStopped = false;
+        while (mWorkers.size() < mPolicy.getMinThreads()) {
+            spawn();
+        }
+    }
+
+    /**
+     * Quits every dispatcher in the pool.
+     */
+    synchronized void stop() {
+        mStopped = true;
+        for (NetworkDispatcher worker : mWorkers) {
+            worker.quit();
+        }
+        mWorkers.clear();
+        mIdleWorkers = 0;
+        if (mTimer != null) {
+            mTimer.shutdownNow();
+            mTimer = null;
+        }
+        mCheckScheduled = false;
+    }
+
+    /**
+     * Returns the current number of dispatchers.
+     */
+    synchronized int size() {
+        return mWorkers.size();
+    }
+
+    long getKeepAliveMs() {
+        return mPolicy.getKeepAliveMs();
+    }
+
+    @Override
+    public void onEnqueued(Request<?> request) {
+        maybeGrow(headWaitMs());
+    }
+
+    /**
+     * Called by a dispatcher when it finishes a request and goes back to the queue.
+     */
+    synchronized void onWorkerIdle() {
+        mIdleWorkers++;
+    }
+
+    /**
+     * Called by a dispatcher right after it took {@code request} off the queue.
+     */
+    void onWorkerBusy(Request<?> request, long waitMs) {
+        synchronized (this) {
+            mIdleWorkers--;
+        }
+        // Re-check now that this worker is no longer idle: an enqueue that raced with the take
+        // may have counted it as available. A long wait only matters if others are still queued.
+        maybeGrow(mQueue.isEmpty() ? 0 : waitMs);
+    }
+
+    /**
+     * Called by a dispatcher whose keep-alive expired without work.
+     *
+     * @return true if the dispatcher should exit, false if it is needed to keep the minimum or
+     * because requests were enqueued after its wait timed out
+     */
+    boolean retire(NetworkDispatcher worker) {
+        int oldSize;
+        synchronized (this) {
+            oldSize = mWorkers.size();
+            // An enqueue that raced with the timeout counted this worker as idle and so didn't
+            // grow the pool; it has to stay for that request.
+            if (mStopped || oldSize <= mPolicy.getMinThreads() || !mQueue.isEmpty()) {
+                return mStopped;
+            }
+            mWorkers.remove(worker);
+            mIdleWorkers--;
+        }
+        mMetrics.onNetworkPoolResized(oldSize, oldSize - 1);
+        return true;
+    }
+
+    private void maybeGrow(long waitMs) {
+        int oldSize;
+        synchronized (this) {
+            oldSize = mWorkers.size();
+            if (mStopped || oldSize >= mPolicy.getMaxThreads()) {
+                return;
+            }
+            int unserved = mQueue.size() - mIdleWorkers;
+            // With no dispatcher at all (a minimum of 0), any queued request needs one.
+            boolean stranded = oldSize == 0 && !mQueue.isEmpty();
+            if (!stranded && unserved <= mPolicy.getBacklogThreshold()
+                    && waitMs <= mPolicy.getQueueWaitThresholdMs()) {
+                if (unserved > 0) {
+                    scheduleCheck(mPolicy.getQueueWaitThresholdMs() - waitMs + 1);
+                }
+                return;
+            }
+            spawn();
+        }
+        if (VolleyLog.DEBUG) {
+            VolleyLog.v("Growing network pool to %d (backlog=%d, wait=%d ms)",
+                    oldSize + 1, mQueue.size(), waitMs);
+        }
+        mMetrics.onNetworkPoolResized(oldSize, oldSize + 1);
+    }
+
+    /**
+     * Returns how long the request at the head of the queue has been waiting, or 0 if there
+     * is none.
+     */
+    private long headWaitMs() {
+        Request<?> head = mQueue.peek();
+        long queuedTimeMs = head != null ? head.getQueuedTimeMs() : 0;
+        return queuedTimeMs > 0 ? SystemClock.elapsedRealtime() - queuedTimeMs : 0;
+    }
+
+    /**
+     * Checks the queue wait again after {@code delayMs}, unless a check is already scheduled.
+     * Must be called with the lock held.
+     */
+    private void scheduleCheck(long delayMs) {
+        if (mCheckScheduled) {
+            return;
+        }
+        if (mTimer == null) {
+            mTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "Volley-NetworkPoolCheck");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        mTimer.schedule(mCheck, delayMs, TimeUnit.MILLISECONDS);
+        mCheckScheduled = true;
+    }
+
+    /**
+     * Starts a new dispatcher. Must be called with the lock held.
+     */
+    private void spawn() {
+        NetworkDispatcher worker = new NetworkDispatcher(mQueue, mNetwork, mCache, mDelivery, this, mHostLimiter, mCoalescer, mBatcher, mParseStage);
+        mWorkers.add(worker);
+        // Count it as idle right away so a burst of enqueues doesn't spawn a worker per request
+        // before the new thread gets scheduled.
+        mIdleWorkers++;
+        worker.start();
+    }
+}
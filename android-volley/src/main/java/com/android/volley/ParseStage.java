@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+import android.os.Process;
+import android.os.SystemClock;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 解析阶段，独立的线程池负责解析响应与写缓存，使网络与缓存调度线程不被耗时的解析占用
+ * A pool of threads that parses responses between I/O and delivery.
+ * <p/>
+ * When a {@link RequestQueue} has a parse stage, the cache and network dispatchers hand each
+ * response to it instead of parsing it themselves, so a slow parse (a large JSON document,
+ * an image decode) doesn't hold a socket worker or the cache thread. The time each request
+ * waits for a parse thread is reported as {@link RequestQueueMetrics#QUEUE_PARSE}.
+ * <p/>
+ * Responses are parsed in the order they arrive but may be delivered out of order when the
+ * pool has more than one thread.
+ */
+class ParseStage {
+
+    private final int mThreadPoolSize;
+
+    private volatile RequestQueueMetrics mMetrics = RequestQueueMetrics.NONE;
+
+    /**
+     * The running pool, or null while stopped. Guarded by {@code this}.
+     */
+    private ExecutorService mExecutor;
+
+    ParseStage(int threadPoolSize) {
+        mThreadPoolSize = threadPoolSize;
+    }
+
+    void setMetrics(RequestQueueMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    synchronized void start() {
+        if (mExecutor != null) {
+            return;
+        }
+        final AtomicInteger count = new AtomicInteger();
+        mExecutor = new ThreadPoolExecutor(mThreadPoolSize, mThreadPoolSize, 0L,
+                TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                return new Thread("Volley-Parse-" + count.incrementAndGet()) {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        r.run();
+                    }
+                };
+            }
+        });
+    }
+
+    /**
+     * Stops the pool once the parses already handed to it are done.
+     */
+    synchronized void stop() {
+        if (mExecutor != null) {
+            mExecutor.shutdown();
+            mExecutor = null;
+        }
+    }
+
+    /**
+     * Runs {@code parse}, the parsing and delivery of {@code request}'s response, on a parse
+     * thread. Runs it on the calling thread if the stage is stopped.
+     */
+    void submit(final Request<?> request, final Runnable parse) {
+        ExecutorService executor;
+        synchronized (this) {
+            executor = mExecutor;
+        }
+        if (executor != null) {
+            final long queuedTimeMs = SystemClock.elapsedRealtime();
+            request.addMarker("parse-queued");
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        mMetrics.onQueueWait(request, RequestQueueMetrics.QUEUE_PARSE,
+                                SystemClock.elapsedRealtime() - queuedTimeMs);
+                        parse.run();
+                    }
+                });
+                return;
+            } catch (RejectedExecutionException e) {
+                // Stopped meanwhile; parse here instead.
+            }
+        }
+        parse.run();
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+/**
+ * 预取策略：预取请求数与字节数预算，以及同时进行的预取数上限
+ * Budget and concurrency of speculative prefetching, see {@link RequestQueue#prefetch(Request)}.
+ * <p/>
+ * The budget covers everything prefetched under the policy: once {@link #getMaxRequests()}
+ * requests have been accepted, or {@link #getMaxBytes()} bytes downloaded, further prefetches
+ * are refused and queued ones dropped. Installing a policy again starts a fresh budget.
+ */
+public class PrefetchPolicy {
+
+    private final int mMaxRequests;
+    private final long mMaxBytes;
+    private final int mMaxConcurrent;
+
+    /**
+     * @param maxRequests   Most prefetch requests accepted
+     * @param maxBytes      Most response bytes downloaded by prefetches
+     * @param maxConcurrent Most prefetches in flight at once
+     */
+    public PrefetchPolicy(int maxRequests, long maxBytes, int maxConcurrent) {
+        if (maxRequests < 1) {
+            throw new IllegalArgumentException("maxRequests must be positive");
+        }
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("maxBytes must be positive");
+        }
+        if (maxConcurrent < 1) {
+            throw new IllegalArgumentException("maxConcurrent must be positive");
+        }
+        mMaxRequests = maxRequests;
+        mMaxBytes = maxBytes;
+        mMaxConcurrent = maxConcurrent;
+    }
+
+    public int getMaxRequests() {
+        return mMaxRequests;
+    }
+
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    public int getMaxConcurrent() {
+        return mMaxConcurrent;
+    }
+}
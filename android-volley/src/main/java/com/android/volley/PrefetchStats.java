@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+/**
+ * 预取统计快照，包括命中率与浪费率
+ * A snapshot of how prefetching under the current {@link PrefetchPolicy} has fared.
+ * <p/>
+ * A prefetched response is <em>used</em> if the next request to look up its cache key found
+ * it still fresh, and <em>wasted</em> if it had expired by then. Prefetched responses that
+ * nothing has looked up yet count as neither.
+ *
+ * @see RequestQueue#getPrefetchStats()
+ */
+public class PrefetchStats {
+
+    private final int mAccepted;
+    private final int mCompleted;
+    private final int mSkipped;
+    private final int mFailed;
+    private final long mBytes;
+    private final int mUsed;
+    private final int mWasted;
+
+    PrefetchStats(int accepted, int completed, int skipped, int failed, long bytes,
+                  int used, int wasted) {
+        mAccepted = accepted;
+        mCompleted = completed;
+        mSkipped = skipped;
+        mFailed = failed;
+        mBytes = bytes;
+        mUsed = used;
+        mWasted = wasted;
+    }
+
+    /**
+     * Returns the number of prefetch requests accepted into the budget.
+     */
+    public int getAcceptedCount() {
+        return mAccepted;
+    }
+
+    /**
+     * Returns the number of prefetches whose response was fetched and cached.
+     */
+    public int getCompletedCount() {
+        return mCompleted;
+    }
+
+    /**
+     * Returns the number of prefetches dropped without going to the network: canceled, over
+     * the byte budget, or already fresh in the cache.
+     */
+    public int getSkippedCount() {
+        return mSkipped;
+    }
+
+    /**
+     * Returns the number of prefetches that failed.
+     */
+    public int getFailedCount() {
+        return mFailed;
+    }
+
+    /**
+     * Returns the response bytes downloaded by prefetches.
+     */
+    public long getBytes() {
+        return mBytes;
+    }
+
+    /**
+     * Returns the number of prefetched responses later served from the cache.
+     */
+    public int getUsedCount() {
+        return mUsed;
+    }
+
+    /**
+     * Returns the number of prefetched responses that expired before they were needed.
+     */
+    public int getWastedCount() {
+        return mWasted;
+    }
+
+    /**
+     * Returns the fraction of completed prefetches that were used, from 0 to 1.
+     */
+    public float getHitRatio() {
+        return mCompleted > 0 ? (float) mUsed / mCompleted : 0f;
+    }
+
+    /**
+     * Returns the fraction of completed prefetches that were wasted, from 0 to 1.
+     */
+    public float getWasteRatio() {
+        return mCompleted > 0 ? (float) mWasted / mCompleted : 0f;
+    }
+
+    @Override
+    public String toString() {
+        return "PrefetchStats[accepted=" + mAccepted + ", completed=" + mCompleted
+                + ", skipped=" + mSkipped + ", failed=" + mFailed + ", bytes=" + mBytes
+                + ", used=" + mUsed + ", wasted=" + mWasted + "]";
+    }
+}
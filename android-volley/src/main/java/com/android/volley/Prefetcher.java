@@ -0,0 +1,372 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+import android.os.Process;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.PriorityBlockingQueue;
+
+/**
+ * 预取执行器，使用独立的低优先级线程把响应写入缓存，有前台请求排队时暂停
+ * Runs speculative prefetches for a {@link RequestQueue} under a {@link PrefetchPolicy}.
+ * <p/>
+ * Prefetches have their own queue and their own workers, at most
+ * {@link PrefetchPolicy#getMaxConcurrent()} of them, so they never take a network dispatcher
+ * or a place in the network queue. A worker holds off while foreground requests are waiting
+ * in either dispatch queue, until the queues signal that they have drained. Responses are only
+ * written to the cache; nothing is delivered.
+ * <p/>
+ * To tell whether prefetched responses are used, the dispatchers look entries up through
+ * {@link #trackingCache()}.
+ */
+class Prefetcher {
+
+    private final PrefetchPolicy mPolicy;
+    private final Cache mCache;
+    private final Network mNetwork;
+    private final DispatchQueue mCacheQueue;
+    private final DispatchQueue mNetworkQueue;
+
+    private final PriorityBlockingQueue<Request<?>> mQueue = new PriorityBlockingQueue<Request<?>>();
+
+    /**
+     * Prefetches taken by a worker and not finished yet. Guarded by this.
+     */
+    private final Set<Request<?>> mTaken = new HashSet<Request<?>>();
+
+    private volatile RequestQueueMetrics mMetrics = RequestQueueMetrics.NONE;
+
+    /**
+     * Initializes the cache before the first lookup; shared with the cache dispatchers.
+     */
+    private volatile CacheDispatcher.Initializer mInitializer;
+
+    private Worker[] mWorkers = new Worker[0];
+
+    // Budget and statistics, guarded by this.
+    private int mAccepted;
+    private int mCompleted;
+    private int mSkipped;
+    private int mFailed;
+    private long mBytes;
+    private int mUsed;
+    private int mWasted;
+
+    /**
+     * Cache keys of prefetched responses that no request has looked up yet. Guarded by this.
+     */
+    private final Map<String, Boolean> mUnclaimed = new HashMap<String, Boolean>();
+
+    private final Cache mTrackingCache;
+
+    Prefetcher(PrefetchPolicy policy, Cache cache, Network network,
+               DispatchQueue cacheQueue, DispatchQueue networkQueue) {
+        mPolicy = policy;
+        mCache = cache;
+        mNetwork = network;
+        mCacheQueue = cacheQueue;
+        mNetworkQueue = networkQueue;
+        mTrackingCache = new TrackingCache();
+    }
+
+    void setMetrics(RequestQueueMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * Starts the workers.
+     *
+     * @param initializer Cache initializer shared with the cache dispatchers
+     */
+    synchronized void start(CacheDispatcher.Initializer initializer) {
+        stop();
+        mInitializer = initializer;
+        mWorkers = new Worker[mPolicy.getMaxConcurrent()];
+        for (int i = 0; i < mWorkers.length; i++) {
+            mWorkers[i] = new Worker();
+            mWorkers[i].start();
+        }
+    }
+
+    /**
+     * Stops the workers. Queued prefetches stay queued.
+     */
+    synchronized void stop() {
+        for (Worker worker : mWorkers) {
+            worker.quit();
+        }
+        mWorkers = new Worker[0];
+    }
+
+    /**
+     * Queues {@code request} if the budget allows.
+     *
+     * @return true if the request was accepted
+     */
+    synchronized boolean offer(Request<?> request) {
+        if (mAccepted >= mPolicy.getMaxRequests() || mBytes >= mPolicy.getMaxBytes()) {
+            return false;
+        }
+        mAccepted++;
+        request.addMarker("prefetch-queued");
+        mQueue.add(request);
+        return true;
+    }
+
+    /**
+     * Cancels the prefetches {@code filter} applies to. Queued ones are taken out and finished
+     * right away; one a worker already holds is dropped before its network call, if it hasn't
+     * started yet.
+     */
+    void cancelAll(RequestQueue.RequestFilter filter) {
+        List<Request<?>> taken;
+        synchronized (this) {
+            taken = new ArrayList<Request<?>>(mTaken);
+        }
+        for (Request<?> request : taken) {
+            if (filter.apply(request)) {
+                request.cancel();
+            }
+        }
+        for (Request<?> request : mQueue) {
+            if (!filter.apply(request)) {
+                continue;
+            }
+            request.cancel();
+            // If a worker took it meanwhile, it skips it as canceled.
+            if (mQueue.remove(request)) {
+                synchronized (this) {
+                    mSkipped++;
+                }
+                request.finish("prefetch-discard-canceled");
+            }
+        }
+    }
+
+    synchronized PrefetchStats getStats() {
+        return new PrefetchStats(mAccepted, mCompleted, mSkipped, mFailed, mBytes, mUsed, mWasted);
+    }
+
+    /**
+     * Returns the view of the cache the dispatchers should use, which records whether
+     * prefetched entries are found fresh.
+     */
+    Cache trackingCache() {
+        return mTrackingCache;
+    }
+
+    /**
+     * Fetches {@code request} and writes its response to the cache.
+     */
+    void prefetch(Request<?> request) {
+        synchronized (this) {
+            if (request.isCanceled() || mBytes >= mPolicy.getMaxBytes()) {
+                mSkipped++;
+                request.finish("prefetch-discard");
+                return;
+            }
+        }
+        String cacheKey = request.getCacheKey();
+        try {
+            CacheDispatcher.Initializer initializer = mInitializer;
+            if (initializer != null) {
+                initializer.initialize();
+            }
+            Cache.Entry entry = mCache.get(cacheKey);
+            if (entry != null && !entry.refreshNeeded()) {
+                synchronized (this) {
+                    mSkipped++;
+                }
+                request.finish("prefetch-already-cached");
+                return;
+            }
+            // Revalidate a stale entry instead of downloading it again, if the server allows.
+            request.setCacheEntry(entry);
+
+            NetworkResponse networkResponse = mNetwork.performRequest(request);
+            long bytes = networkResponse.notModified || networkResponse.data == null
+                    ? 0 : networkResponse.data.length;
+            Response<?> response = request.parseNetworkResponse(networkResponse);
+            boolean cached = response.isSuccess() && response.cacheEntry != null;
+            if (cached && networkResponse.notModified) {
+                updateMetadata(mCache, cacheKey, response.cacheEntry);
+            } else if (cached) {
+                mCache.put(cacheKey, response.cacheEntry);
+            }
+            synchronized (this) {
+                mCompleted++;
+                mBytes += bytes;
+                if (cached) {
+                    mUnclaimed.put(cacheKey, Boolean.TRUE);
+                }
+            }
+            mMetrics.onPrefetchCompleted(request, bytes);
+            request.finish("prefetch-complete");
+        } catch (Exception e) {
+            if (!(e instanceof VolleyError)) {
+                VolleyLog.e(e, "Unhandled exception %s", e.toString());
+            }
+            synchronized (this) {
+                mFailed++;
+            }
+            request.finish("prefetch-error");
+        }
+    }
+
+    /**
+     * Blocks while foreground requests are waiting to be dispatched.
+     */
+    private void awaitForegroundIdle() throws InterruptedException {
+        do {
+            mCacheQueue.awaitEmpty();
+            // A cache miss may land in the network queue, and a request released from it in
+            // the cache queue, so both must be empty at once.
+            mNetworkQueue.awaitEmpty();
+        } while (!mCacheQueue.isEmpty());
+    }
+
+    /**
+     * Records the outcome of a lookup of {@code cacheKey} by a dispatcher.
+     */
+    private void onLookup(String cacheKey, Cache.Entry entry) {
+        boolean used;
+        synchronized (this) {
+            if (mUnclaimed.remove(cacheKey) == null) {
+                return;
+            }
+            used = entry != null && !entry.isExpired();
+            if (used) {
+                mUsed++;
+            } else {
+                mWasted++;
+            }
+        }
+        mMetrics.onPrefetchUsed(cacheKey, used);
+    }
+
+    private class Worker extends Thread {
+        private volatile boolean mQuit;
+
+        Worker() {
+            super("Volley-Prefetch");
+        }
+
+        void quit() {
+            mQuit = true;
+            interrupt();
+        }
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
+            while (true) {
+                Request<?> request;
+                try {
+                    request = mQueue.take();
+                } catch (InterruptedException e) {
+                    if (mQuit) {
+                        return;
+                    }
+                    continue;
+                }
+                synchronized (Prefetcher.this) {
+                    mTaken.add(request);
+                }
+                try {
+                    // 前台请求排队时暂停预取
+                    awaitForegroundIdle();
+                } catch (InterruptedException e) {
+                    synchronized (Prefetcher.this) {
+                        mTaken.remove(request);
+                    }
+                    mQueue.add(request);
+                    if (mQuit) {
+                        return;
+                    }
+                    continue;
+                }
+                try {
+                    prefetch(request);
+                } finally {
+                    synchronized (Prefetcher.this) {
+                        mTaken.remove(request);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Updates the metadata of {@code key} in {@code cache}, or stores the whole entry if the
+     * cache can't update metadata on its own.
+     */
+    private static void updateMetadata(Cache cache, String key, Cache.Entry entry) {
+        if (cache instanceof MetadataUpdatableCache) {
+            ((MetadataUpdatableCache) cache).updateMetadata(key, entry);
+        } else {
+            cache.put(key, entry);
+        }
+    }
+
+    /**
+     * The queue's cache, noting lookups of prefetched entries.
+     */
+    private class TrackingCache implements MetadataUpdatableCache {
+        @Override
+        public Entry get(String key) {
+            Entry entry = mCache.get(key);
+            onLookup(key, entry);
+            return entry;
+        }
+
+        @Override
+        public void put(String key, Entry entry) {
+            mCache.put(key, entry);
+        }
+
+        @Override
+        public void updateMetadata(String key, Entry entry) {
+            Prefetcher.updateMetadata(mCache, key, entry);
+        }
+
+        @Override
+        public void initialize() {
+            mCache.initialize();
+        }
+
+        @Override
+        public void invalidate(String key, boolean fullExpire) {
+            mCache.invalidate(key, fullExpire);
+        }
+
+        @Override
+        public void remove(String key) {
+            mCache.remove(key);
+        }
+
+        @Override
+        public void clear() {
+            mCache.clear();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+/**
+ * 调度队列的容量与溢出策略
+ * Capacity of a dispatch queue and what {@link RequestQueue#add(Request)} does when it is full.
+ * <p/>
+ * The capacity is enforced when requests are added to the {@link RequestQueue}. Requests the
+ * queue moves internally (cache misses going to the network, released duplicates, requests
+ * returning from a host limit) are never refused, so the depth can briefly exceed the
+ * capacity. Canceled requests stop counting against the capacity as soon as they are
+ * canceled. A request that is refused or evicted is failed with a {@link QueueFullError}.
+ */
+public class QueueCapacityPolicy {
+
+    /**
+     * What to do with a request added to a full queue.
+     */
+    public enum Overflow {
+        /**
+         * Fail the new request.
+         * 拒绝新请求
+         */
+        REJECT,
+        /**
+         * Evict the queued request that would be dispatched last, if the new request goes
+         * before it; otherwise fail the new request.
+         * 淘汰队列中优先级最低的请求
+         */
+        DROP_LOWEST_PRIORITY,
+        /**
+         * Block the adding thread until there is room or the timeout expires, then fail the
+         * new request.
+         * 阻塞调用线程直到有空间或超时
+         */
+        BLOCK
+    }
+
+    private final int mCapacity;
+    private final Overflow mOverflow;
+    private final long mBlockTimeoutMs;
+
+    /**
+     * Constructs a policy that rejects or evicts on overflow.
+     *
+     * @param capacity Maximum number of queued requests
+     * @param overflow {@link Overflow#REJECT} or {@link Overflow#DROP_LOWEST_PRIORITY}
+     */
+    public QueueCapacityPolicy(int capacity, Overflow overflow) {
+        this(capacity, overflow, 0);
+        if (overflow == Overflow.BLOCK) {
+            throw new IllegalArgumentException("BLOCK needs a timeout");
+        }
+    }
+
+    /**
+     * Constructs a policy that blocks the caller for up to {@code blockTimeoutMs} on overflow.
+     *
+     * @param capacity       Maximum number of queued requests
+     * @param blockTimeoutMs Longest time {@link RequestQueue#add(Request)} waits for room
+     */
+    public QueueCapacityPolicy(int capacity, long blockTimeoutMs) {
+        this(capacity, Overflow.BLOCK, blockTimeoutMs);
+    }
+
+    private QueueCapacityPolicy(int capacity, Overflow overflow, long blockTimeoutMs) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        if (overflow == null) {
+            throw new IllegalArgumentException("overflow must not be null");
+        }
+        if (blockTimeoutMs < 0) {
+            throw new IllegalArgumentException("blockTimeoutMs must not be negative");
+        }
+        mCapacity = capacity;
+        mOverflow = overflow;
+        mBlockTimeoutMs = blockTimeoutMs;
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    public Overflow getOverflow() {
+        return mOverflow;
+    }
+
+    public long getBlockTimeoutMs() {
+        return mBlockTimeoutMs;
+    }
+}
@@ -20,6 +20,7 @@ import android.net.TrafficStats;
 import android.net.Uri;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.text.TextUtils;
 
 import com.android.volley.VolleyLog.MarkerLog;
@@ -112,6 +113,12 @@ public abstract class Request<T> implements Comparable<Request<T>> {
      */
     private boolean mShouldCache = true;
 
+    /**
+     * Whether identical uncached requests in flight at the same time may share one response.
+     * 是否与正在进行的相同请求(不缓存)合并，共享同一个网络响应
+     */
+    private boolean mShouldCoalesce = false;
+
     /**
      * Whether or not this request has been canceled.
      * 该请求是否能被取消
@@ -143,6 +150,40 @@ public abstract class Request<T> implements Comparable<Request<T>> {
      */
     private Object mTag;
 
+    /**
+     * Time at which this request entered its current dispatch queue, in
+     * {@link android.os.SystemClock#elapsedRealtime()} milliseconds; 0 if never queued.
+     * 进入当前调度队列的时间，用于统计排队耗时
+     */
+    private volatile long mQueuedTimeMs;
+
+    /**
+     * Host whose slot this request holds or waits for in {@link HostConcurrencyLimiter}, or
+     * null while it isn't tracked there.
+     */
+    private volatile String mHostKey;
+
+    /**
+     * Whether a {@link RequestBatcher} sent this request back to the network unbatched, so
+     * that it is dispatched instead of being collected again.
+     * 批量收集器已放行的请求不再重新收集
+     */
+    private volatile boolean mReleasedFromBatch;
+
+    /**
+     * Time after which the caller no longer wants a response, in
+     * {@link android.os.SystemClock#elapsedRealtime()} milliseconds; 0 if there is none.
+     * 请求截止时间，过期的请求不再发送
+     */
+    private long mDeadlineMs;
+
+    /**
+     * How long past its soft TTL an expired cache entry may be served when the network
+     * fails, in milliseconds; -1 to follow the entry's {@code stale-if-error} directive.
+     * 网络失败时可使用过期缓存的时长
+     */
+    private long mStaleIfErrorMs = -1;
+
     /**
      * Creates a new request with the given URL and error listener.  Note that
      * the normal response listener is not provided here as delivery of responses
@@ -183,7 +224,8 @@ public abstract class Request<T> implements Comparable<Request<T>> {
 
     /**
      * Set a tag on this request. Can be used to cancel all requests with this
-     * tag by {@link RequestQueue#cancelAll(Object)}.
+     * tag by {@link RequestQueue#cancelAll(Object)}. The queue indexes requests by the tag
+     * they have when they are added, so set it before {@link RequestQueue#add(Request)}.
      *
      * @return This Request object to allow for chaining.
      */
@@ -325,6 +367,48 @@ public abstract class Request<T> implements Comparable<Request<T>> {
         return mSequence;
     }
 
+    /**
+     * Records when this request entered a dispatch queue. Used by {@link RequestQueue}.
+     */
+    /* package */ void setQueuedTimeMs(long queuedTimeMs) {
+        mQueuedTimeMs = queuedTimeMs;
+    }
+
+    /**
+     * Returns when this request last entered a dispatch queue, or 0 if it never did.
+     */
+    /* package */ long getQueuedTimeMs() {
+        return mQueuedTimeMs;
+    }
+
+    /**
+     * Records the host this request is tracked under. Used by {@link HostConcurrencyLimiter}.
+     */
+    /* package */ void setHostKey(String hostKey) {
+        mHostKey = hostKey;
+    }
+
+    /**
+     * Returns the host this request is tracked under, or null if it isn't tracked.
+     */
+    /* package */ String getHostKey() {
+        return mHostKey;
+    }
+
+    /**
+     * Marks this request as sent back unbatched. Used by {@link RequestBatcher}.
+     */
+    /* package */ void setReleasedFromBatch(boolean released) {
+        mReleasedFromBatch = released;
+    }
+
+    /**
+     * Returns true if a {@link RequestBatcher} sent this request back unbatched.
+     */
+    /* package */ boolean isReleasedFromBatch() {
+        return mReleasedFromBatch;
+    }
+
     /**
      * Returns the URL of this request.
      */
@@ -556,6 +640,27 @@ public abstract class Request<T> implements Comparable<Request<T>> {
         return mShouldCache;
     }
 
+    /**
+     * Set whether this request may be coalesced with identical requests already in flight.
+     * Only applies when {@link #shouldCache()} is false (cacheable requests are already
+     * deduplicated through the cache). Requests with the same method, URL and body then share
+     * a single network response, which is parsed separately for each of them. Headers are not
+     * compared, so only enable this for requests whose headers don't change the response.
+     *
+     * @return This Request object to allow for chaining.
+     */
+    public final Request<?> setShouldCoalesce(boolean shouldCoalesce) {
+        mShouldCoalesce = shouldCoalesce;
+        return this;
+    }
+
+    /**
+     * Returns true if this request may share the response of an identical request in flight.
+     */
+    public final boolean shouldCoalesce() {
+        return mShouldCoalesce;
+    }
+
     /**
      * Priority values.  Requests will be processed from higher priorities to
      * lower priorities, in FIFO order.
@@ -580,7 +685,87 @@ public abstract class Request<T> implements Comparable<Request<T>> {
      * attempts remaining, this will cause delivery of a {@link TimeoutError} error.
      */
     public final int getTimeoutMs() {
-        return mRetryPolicy.getCurrentTimeout();
+        int timeoutMs = mRetryPolicy.getCurrentTimeout();
+        if (mDeadlineMs > 0) {
+            // Don't let an attempt run past the deadline.
+            long remainingMs = mDeadlineMs - SystemClock.elapsedRealtime();
+            if (remainingMs < timeoutMs) {
+                return (int) Math.max(1, remainingMs);
+            }
+        }
+        return timeoutMs;
+    }
+
+    /**
+     * Sets an absolute deadline after which the caller no longer wants a response. Within a
+     * priority, requests with earlier deadlines are dispatched first; a request whose deadline
+     * has passed is failed with a {@link DeadlineExceededError} instead of being sent or
+     * retried, and no attempt's timeout runs past it. Must be set before the request is added
+     * to a {@link RequestQueue}.
+     * 设置截止时间(基于SystemClock.elapsedRealtime())
+     *
+     * @param deadlineMs Deadline in {@link SystemClock#elapsedRealtime()} milliseconds, or 0
+     *                   for none
+     * @return This Request object to allow for chaining.
+     */
+    public Request<?> setDeadlineMs(long deadlineMs) {
+        mDeadlineMs = deadlineMs;
+        return this;
+    }
+
+    /**
+     * Returns the deadline in {@link SystemClock#elapsedRealtime()} milliseconds, or 0 if there
+     * is none.
+     */
+    public long getDeadlineMs() {
+        return mDeadlineMs;
+    }
+
+    /**
+     * Overrides how long an expired cache entry for this request may be served in place of
+     * a network error (a lost connection, a timeout or a 5xx response). Such a response is
+     * marked {@link Response#stale}. By default the {@code stale-if-error} Cache-Control
+     * directive the entry was stored with decides.
+     * 设置网络失败时可使用过期缓存的时长，覆盖服务器的stale-if-error
+     *
+     * @param staleIfErrorMs How long past the entry's soft TTL it may be served, 0 to never
+     *                       serve it, or -1 to follow the directive
+     * @return This Request object to allow for chaining.
+     */
+    public Request<?> setStaleIfErrorMs(long staleIfErrorMs) {
+        if (staleIfErrorMs < -1) {
+            throw new IllegalArgumentException("staleIfErrorMs must be -1 or more");
+        }
+        mStaleIfErrorMs = staleIfErrorMs;
+        return this;
+    }
+
+    /**
+     * Returns the override set by {@link #setStaleIfErrorMs(long)}, or -1 if there is none.
+     */
+    public long getStaleIfErrorMs() {
+        return mStaleIfErrorMs;
+    }
+
+    /**
+     * Returns true if {@code entry}, this request's expired cache entry, may be served in
+     * place of a network error at wall clock time {@code nowMs}.
+     */
+    boolean canServeStaleOnError(Cache.Entry entry, long nowMs) {
+        if (mStaleIfErrorMs == 0) {
+            return false;
+        }
+        if (mStaleIfErrorMs > 0) {
+            return nowMs <= entry.softTtl + mStaleIfErrorMs;
+        }
+        return nowMs <= entry.staleIfErrorTtl;
+    }
+
+    /**
+     * Returns true if this request has a deadline and it has passed.
+     */
+    public boolean isPastDeadline() {
+        return mDeadlineMs > 0 && SystemClock.elapsedRealtime() >= mDeadlineMs;
     }
 
     /**
@@ -663,14 +848,24 @@ public abstract class Request<T> implements Comparable<Request<T>> {
         Priority left = this.getPriority();
         Priority right = other.getPriority();
 
-        //优先级越高，在请求队列中排得越前，相同优先级的序号越低，排得越前。
+        //优先级越高，在请求队列中排得越前，相同优先级的截止时间越早、序号越低，排得越前。
         // High-priority requests are "lesser" so they are sorted to the front.
-        // Equal priorities are sorted by sequence number to provide FIFO ordering.
-        return left == right ?
-                this.mSequence - other.mSequence :
-                right.ordinal() - left.ordinal();
-
-        //ordinal():回此枚举常量的序数,从0开始，下标
+        if (left != right) {
+            //ordinal():回此枚举常量的序数,从0开始，下标
+            return right.ordinal() - left.ordinal();
+        }
+        // Within a priority, earliest deadline first; requests without one go after.
+        if (this.mDeadlineMs != other.mDeadlineMs) {
+            if (this.mDeadlineMs == 0) {
+                return 1;
+            }
+            if (other.mDeadlineMs == 0) {
+                return -1;
+            }
+            return this.mDeadlineMs < other.mDeadlineMs ? -1 : 1;
+        }
+        // Otherwise sort by sequence number to provide FIFO ordering.
+        return this.mSequence - other.mSequence;
     }
 
     @Override
@@ -0,0 +1,290 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 批量请求收集器，把相同批次的请求在时间窗口内收集起来，作为一个批量请求放回网络队列
+ * Collects batchable requests on their way to the network, per {@link BatchPolicy}.
+ * <p/>
+ * A {@link NetworkDispatcher} offers each request it takes; a batchable one is held here and
+ * the dispatcher moves on. When the batch fills up or its window closes, the requests still
+ * wanted are wrapped in one batch request that goes back on the network queue. The dispatcher
+ * that completes it calls {@link #takeBatch(Request)} to get the requests to deliver to.
+ * <p/>
+ * Requests canceled while they wait here are finished when their batch is sent. If the batch
+ * request itself is dropped before its call is made, its error goes to every request it carries.
+ */
+class RequestBatcher {
+
+    /**
+     * Requests collected for one batch key. Guarded by the batcher.
+     */
+    private static class Pending {
+        final String key;
+        final List<Request<?>> requests = new ArrayList<Request<?>>();
+
+        Pending(String key) {
+            this.key = key;
+        }
+    }
+
+    private final BatchPolicy mPolicy;
+    private final BlockingQueue<Request<?>> mNetworkQueue;
+    private final ResponseDelivery mDelivery;
+
+    /**
+     * Batches being collected, by key.
+     */
+    private final Map<String, Pending> mPending = new HashMap<String, Pending>();
+
+    /**
+     * Batch requests on their way to the network, mapped to the requests they carry.
+     */
+    private final Map<Request<?>, List<Request<?>>> mBatches =
+            new IdentityHashMap<Request<?>, List<Request<?>>>();
+
+    /**
+     * Closes batch windows; started on first use.
+     */
+    private ScheduledExecutorService mTimer;
+
+    RequestBatcher(BatchPolicy policy, BlockingQueue<Request<?>> networkQueue,
+                   ResponseDelivery delivery) {
+        mPolicy = policy;
+        mNetworkQueue = networkQueue;
+        mDelivery = delivery;
+    }
+
+    /**
+     * Holds {@code request} for a batch if the policy allows.
+     *
+     * @return true if the request was taken and must not be dispatched now, false if the
+     * caller should dispatch it
+     */
+    boolean offer(Request<?> request) {
+        if (request.isReleasedFromBatch()) {
+            // Sent back unbatched, nothing to collect it with.
+            request.setReleasedFromBatch(false);
+            return false;
+        }
+        synchronized (this) {
+            if (mBatches.containsKey(request)) {
+                return false;
+            }
+        }
+        String key = mPolicy.getBatchKey(request);
+        if (key == null) {
+            return false;
+        }
+        List<Request<?>> full = null;
+        synchronized (this) {
+            final Pending pending;
+            if (mPending.containsKey(key)) {
+                pending = mPending.get(key);
+            } else {
+                pending = new Pending(key);
+                mPending.put(key, pending);
+                timer().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        flush(pending);
+                    }
+                }, mPolicy.getWindowMs(), TimeUnit.MILLISECONDS);
+            }
+            pending.requests.add(request);
+            request.addMarker("network-batch-wait");
+            if (pending.requests.size() >= mPolicy.getMaxBatchSize()) {
+                mPending.remove(key);
+                full = pending.requests;
+            }
+        }
+        if (full != null) {
+            send(full);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the requests carried by {@code batchRequest} and forgets them, or null if it is
+     * not a batch request.
+     */
+    synchronized List<Request<?>> takeBatch(Request<?> batchRequest) {
+        return mBatches.remove(batchRequest);
+    }
+
+    /**
+     * Fails every request carried by {@code batchRequest} with {@code error}, because the batch
+     * request was dropped or failed before its call was made, and forgets the batch.
+     *
+     * @return false if {@code batchRequest} is not a batch request
+     */
+    boolean failBatch(Request<?> batchRequest, VolleyError error) {
+        List<Request<?>> requests = takeBatch(batchRequest);
+        if (requests == null) {
+            return false;
+        }
+        for (Request<?> request : requests) {
+            if (request.isCanceled()) {
+                request.finish("network-discard-canceled");
+            } else {
+                request.addMarker("network-batch-failed");
+                mDelivery.postError(request, request.parseNetworkError(error));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sends the requests carried by the canceled {@code batchRequest} back to the network
+     * queue on their own, and forgets the batch.
+     *
+     * @return false if {@code batchRequest} is not a batch request
+     */
+    boolean releaseBatch(Request<?> batchRequest) {
+        List<Request<?>> requests = takeBatch(batchRequest);
+        if (requests == null) {
+            return false;
+        }
+        for (Request<?> request : requests) {
+            request.setReleasedFromBatch(true);
+            mNetworkQueue.add(request);
+        }
+        return true;
+    }
+
+    /**
+     * Splits the response of a batch request; see {@link BatchPolicy#parseBatchResponse}.
+     */
+    List<NetworkResponse> parseBatchResponse(NetworkResponse response, List<Request<?>> requests)
+            throws VolleyError {
+        List<NetworkResponse> responses = mPolicy.parseBatchResponse(response, requests);
+        if (responses == null || responses.size() != requests.size()) {
+            throw new VolleyError("Batch response has " + (responses == null ? 0 : responses.size())
+                    + " parts for " + requests.size() + " requests");
+        }
+        return responses;
+    }
+
+    /**
+     * Stops the window timer. Batches still being collected are sent right away.
+     */
+    void stop() {
+        List<Pending> pending;
+        synchronized (this) {
+            pending = new ArrayList<Pending>(mPending.values());
+            mPending.clear();
+            if (mTimer != null) {
+                mTimer.shutdownNow();
+                mTimer = null;
+            }
+        }
+        for (Pending p : pending) {
+            send(p.requests);
+        }
+    }
+
+    /**
+     * Sends the batch collected in {@code pending} when its window closes, unless it was sent
+     * already because it filled up.
+     */
+    private void flush(Pending pending) {
+        synchronized (this) {
+            if (mPending.get(pending.key) != pending) {
+                return;
+            }
+            mPending.remove(pending.key);
+        }
+        send(pending.requests);
+    }
+
+    private void send(List<Request<?>> requests) {
+        List<Request<?>> live = new ArrayList<Request<?>>(requests.size());
+        for (Request<?> request : requests) {
+            if (request.isCanceled()) {
+                request.finish("network-discard-canceled");
+            } else if (request.isPastDeadline()) {
+                request.addMarker("network-discard-deadline");
+                mDelivery.postError(request, request.parseNetworkError(new DeadlineExceededError()));
+            } else {
+                live.add(request);
+            }
+        }
+        if (live.isEmpty()) {
+            return;
+        }
+        if (live.size() == 1) {
+            // Nothing to batch it with.
+            Request<?> request = live.get(0);
+            request.setReleasedFromBatch(true);
+            mNetworkQueue.add(request);
+            return;
+        }
+
+        Request<?> batchRequest;
+        try {
+            batchRequest = mPolicy.createBatchRequest(live);
+        } catch (VolleyError e) {
+            postError(live, e);
+            return;
+        } catch (RuntimeException e) {
+            VolleyLog.e(e, "Unhandled exception %s", e.toString());
+            postError(live, new VolleyError(e));
+            return;
+        }
+        // Keep the place of the oldest request in FIFO order.
+        batchRequest.setSequence(live.get(0).getSequence());
+        batchRequest.addMarker("network-batch-created");
+        for (Request<?> request : live) {
+            request.addMarker("network-batch-sent");
+        }
+        synchronized (this) {
+            mBatches.put(batchRequest, live);
+        }
+        mNetworkQueue.add(batchRequest);
+    }
+
+    private void postError(List<Request<?>> requests, VolleyError error) {
+        for (Request<?> request : requests) {
+            mDelivery.postError(request, error);
+        }
+    }
+
+    private synchronized ScheduledExecutorService timer() {
+        if (mTimer == null) {
+            mTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "Volley-BatchWindow");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return mTimer;
+    }
+}
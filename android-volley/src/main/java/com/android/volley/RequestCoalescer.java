@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 合并正在进行的相同请求(不缓存)，后来的请求挂在先发出的请求之后共享其网络响应
+ * Coalesces identical uncached requests that are in flight at the same time.
+ * <p/>
+ * The first request for a method, URL and body becomes the leader and goes to the network;
+ * identical requests added while it is in flight attach to it as followers instead. When the
+ * leader's network response (or error) arrives, {@link #takeFollowers(Request)} hands the
+ * followers to the dispatcher, which delivers it to each of them. If the leader finishes
+ * without reaching the network, e.g. because it was canceled, {@link #promote(Request)} makes
+ * the oldest follower the new leader so the others are unaffected.
+ */
+class RequestCoalescer {
+
+    /**
+     * A leader and the requests attached to it. Guarded by the coalescer.
+     */
+    private static class Group {
+        final String key;
+        final byte[] body;
+        Request<?> leader;
+        final LinkedList<Request<?>> followers = new LinkedList<Request<?>>();
+
+        Group(String key, byte[] body, Request<?> leader) {
+            this.key = key;
+            this.body = body;
+            this.leader = leader;
+        }
+    }
+
+    /**
+     * Groups by coalescing key.
+     */
+    private final Map<String, Group> mGroups = new HashMap<String, Group>();
+
+    /**
+     * Groups by leader.
+     */
+    private final Map<Request<?>, Group> mLeaders = new IdentityHashMap<Request<?>, Group>();
+
+    /**
+     * Groups by follower.
+     */
+    private final Map<Request<?>, Group> mFollowers = new IdentityHashMap<Request<?>, Group>();
+
+    /**
+     * Attaches {@code request} to an identical request in flight, or makes it the leader for
+     * its key if there is none.
+     *
+     * @return true if the request was attached and must not be dispatched, false if the caller
+     * should dispatch it
+     */
+    boolean attachIfInFlight(Request<?> request) {
+        byte[] body;
+        try {
+            body = request.getBody();
+        } catch (AuthFailureError e) {
+            // Let it fail on its own.
+            return false;
+        }
+        String key = keyFor(request, body);
+        synchronized (this) {
+            Group group = mGroups.get(key);
+            if (group == null) {
+                group = new Group(key, body, request);
+                mGroups.put(key, group);
+                mLeaders.put(request, group);
+                return false;
+            }
+            if (!Arrays.equals(group.body, body)) {
+                // Hash collision; don't share a response between different bodies.
+                return false;
+            }
+            group.followers.add(request);
+            mFollowers.put(request, group);
+        }
+        request.addMarker("coalesced-with-in-flight");
+        return true;
+    }
+
+    /**
+     * Called once {@code leader}'s network attempt is over. Dissolves its group, so requests
+     * added from now on go to the network themselves.
+     *
+     * @return the followers that should share the leader's response or error; may be empty
+     */
+    synchronized List<Request<?>> takeFollowers(Request<?> leader) {
+        Group group = mLeaders.remove(leader);
+        if (group == null) {
+            return new ArrayList<Request<?>>(0);
+        }
+        mGroups.remove(group.key);
+        for (Request<?> follower : group.followers) {
+            mFollowers.remove(follower);
+        }
+        return new ArrayList<Request<?>>(group.followers);
+    }
+
+    /**
+     * Called when {@code request} finishes. If it is a leader whose followers were never
+     * served, the oldest follower takes over as leader.
+     *
+     * @return the new leader, which the caller must dispatch, or null
+     */
+    synchronized Request<?> promote(Request<?> request) {
+        Group group = mLeaders.remove(request);
+        if (group == null) {
+            return null;
+        }
+        if (group.followers.isEmpty()) {
+            mGroups.remove(group.key);
+            return null;
+        }
+        Request<?> next = group.followers.removeFirst();
+        mFollowers.remove(next);
+        group.leader = next;
+        mLeaders.put(next, group);
+        next.addMarker("coalesced-promoted");
+        return next;
+    }
+
+    /**
+     * Detaches a follower, e.g. because it was canceled.
+     *
+     * @return true if {@code request} was a follower; the caller then owns finishing it
+     */
+    synchronized boolean removeFollower(Request<?> request) {
+        Group group = mFollowers.remove(request);
+        if (group == null) {
+            return false;
+        }
+        group.followers.remove(request);
+        return true;
+    }
+
+    private static String keyFor(Request<?> request, byte[] body) {
+        StringBuilder key = new StringBuilder();
+        key.append(request.getMethod()).append(':').append(request.getUrl());
+        if (body != null) {
+            key.append(':').append(body.length).append(':').append(Arrays.hashCode(body));
+        }
+        return key.toString();
+    }
+}
@@ -19,19 +19,14 @@ package com.android.volley;
 import android.os.Handler;
 import android.os.Looper;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.Queue;
-import java.util.Set;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * 请求调度队列，里面包含多个NetworkDispatcher调度器与一个CacheDispatcher调度器
+ * 请求调度队列，里面包含多个NetworkDispatcher调度器与一个(或多个)CacheDispatcher调度器
  * A request dispatch queue with a thread pool of dispatchers.
  * <p/>
  * Calling {@link #add(Request)} will enqueue the given Request for dispatch,
@@ -59,33 +54,21 @@ public class RequestQueue {
     /**
      * 相当于一个等待队列，根据请求url来将以前发起过的请求先加入这个队列中。避免同样的请求多次发送。
      * 如果一个请求可以被缓存并且正在被执行，那么后续与之相同的url请求进入此队列
+     * 同时保存正在被请求队列处理的请求集合,主要的作用，用于取消请求
      * <p/>
-     * Staging area for requests that already have a duplicate request in flight.
-     * <p/>
-     * <ul>
-     * <li>containsKey(cacheKey) indicates that there is a request in flight for the given cache
-     * key.</li>
-     * <li>get(cacheKey) returns waiting requests for the given cache key. The in flight request
-     * is <em>not</em> contained in that list. Is null if no requests are staged.</li>
-     * </ul>
+     * The set of all requests currently being processed by this RequestQueue, and the staging
+     * area for requests that already have a duplicate request in flight. A Request will be in
+     * the current set if it is waiting in any queue or currently being processed by any
+     * dispatcher. Safe for concurrent use without a global lock.
      */
-    private final Map<String, Queue<Request<?>>> mWaitingRequests = new HashMap<String, Queue<Request<?>>>();
-
-    /**
-     * 正在被请求队列处理的请求集合,主要的作用，用于取消请求
-     * <p/>
-     * The set of all requests currently being processed by this RequestQueue. A Request
-     * will be in this set if it is waiting in any queue or currently being processed by
-     * any dispatcher.
-     */
-    private final Set<Request<?>> mCurrentRequests = new HashSet<Request<?>>();
+    private final RequestRegistry mRegistry = new RequestRegistry();
 
     /**
      * 请求缓存队列，请求可以被缓存也可以不缓存，保存可以缓存的请求
      * <p/>
      * The cache triage queue.
      */
-    private final PriorityBlockingQueue<Request<?>> mCacheQueue = new PriorityBlockingQueue<Request<?>>();
+    private final DispatchQueue mCacheQueue;
 
     /**
      * 需要进行网络访问的请求队列
@@ -97,7 +80,7 @@ public class RequestQueue {
      * <p/>
      * The queue of requests that are actually going out to the network.
      */
-    private final PriorityBlockingQueue<Request<?>> mNetworkQueue = new PriorityBlockingQueue<Request<?>>();
+    private final DispatchQueue mNetworkQueue;
 
     /**
      * Number of network request dispatcher threads to start.
@@ -105,6 +88,11 @@ public class RequestQueue {
      */
     private static final int DEFAULT_NETWORK_THREAD_POOL_SIZE = 4;
 
+    /**
+     * Number of cache dispatcher threads to start by default.
+     */
+    private static final int DEFAULT_CACHE_THREAD_POOL_SIZE = 1;
+
     /**
      * Cache interface for retrieving and storing responses.
      * 可以保存与获取请求响应的缓存，把请求响应保存在disk中
@@ -131,12 +119,92 @@ public class RequestQueue {
     private NetworkDispatcher[] mDispatchers;
 
     /**
-     * The cache dispatcher.
-     * 缓存调度线程
+     * The cache dispatchers.
+     * 缓存调度线程，默认一个
+     */
+    private CacheDispatcher[] mCacheDispatchers = new CacheDispatcher[DEFAULT_CACHE_THREAD_POOL_SIZE];
+
+    /**
+     * Sizing policy for an elastic network stage, or null to run {@link #mDispatchers}.
+     * 弹性线程池配置，为null时使用固定数量的网络调度线程
+     */
+    private final ElasticPoolPolicy mElasticPolicy;
+
+    /**
+     * The elastic network dispatchers, when {@link #mElasticPolicy} is set.
+     */
+    private volatile NetworkDispatcherPool mElasticPool;
+
+    /**
+     * Executor that runs each request as a task, or null to use dispatcher threads.
+     * 按任务调度请求的Executor，为null时使用调度线程
+     */
+    private final Executor mExecutor;
+
+    /**
+     * Submits dispatch tasks to {@link #mExecutor} while the queue is started.
+     */
+    private ExecutorDispatcher mExecutorDispatcher;
+
+    /**
+     * Per-host in-flight limits applied by the network dispatchers.
+     * 按host限制同时进行的网络请求数
+     */
+    private final HostConcurrencyLimiter mHostLimiter;
+
+    /**
+     * Groups of identical uncached requests sharing one network response.
+     * 合并正在进行的相同请求(不缓存)
+     */
+    private final RequestCoalescer mCoalescer = new RequestCoalescer();
+
+    /**
+     * Collector of requests sent together in batches, or null if batching is off.
+     * 批量发送请求，为null表示不启用
+     */
+    private RequestBatcher mBatcher;
+
+    /**
+     * Runs speculative prefetches, or null if prefetching is off.
+     * 预取执行器，为null表示不启用
+     */
+    private Prefetcher mPrefetcher;
+
+    /**
+     * Threads parsing responses between I/O and delivery, or null to parse on the dispatchers.
+     * 解析线程池，为null表示在调度线程中解析
      */
-    private CacheDispatcher mCacheDispatcher;
+    private ParseStage mParseStage;
 
-    private List<RequestFinishedListener> mFinishedListeners = new ArrayList<RequestFinishedListener>();
+    /**
+     * Whether the cache is initialized in the background instead of blocking the dispatchers.
+     * 是否在后台初始化缓存
+     */
+    private boolean mInitializeCacheInBackground = false;
+
+    /**
+     * Receiver of dispatch metrics.
+     */
+    private RequestQueueMetrics mMetrics = RequestQueueMetrics.NONE;
+
+    /**
+     * Copy-on-write so {@link #finish(Request)} can notify without holding a lock.
+     */
+    private final List<RequestFinishedListener> mFinishedListeners = new CopyOnWriteArrayList<RequestFinishedListener>();
+
+    /**
+     * Creates the worker pool. Processing will not begin until {@link #start()} is called.
+     *
+     * @param cache          A Cache to use for persisting responses to disk
+     * @param network        A Network interface for performing HTTP requests
+     * @param threadPoolSize Number of network dispatcher threads to create
+     * @param delivery       A ResponseDelivery interface for posting responses and errors
+     * @param scheduler      Order in which queued requests are dispatched
+     */
+    public RequestQueue(Cache cache, Network network, int threadPoolSize, ResponseDelivery delivery,
+                        RequestScheduler scheduler) {
+        this(cache, network, new NetworkDispatcher[threadPoolSize], null, null, delivery, scheduler);
+    }
 
     /**
      * Creates the worker pool. Processing will not begin until {@link #start()} is called.
@@ -147,10 +215,97 @@ public class RequestQueue {
      * @param delivery       A ResponseDelivery interface for posting responses and errors
      */
     public RequestQueue(Cache cache, Network network, int threadPoolSize, ResponseDelivery delivery) {
+        this(cache, network, threadPoolSize, delivery, RequestScheduler.PRIORITY);
+    }
+
+    /**
+     * Creates a queue whose network dispatchers grow and shrink between the bounds of
+     * {@code policy}. Processing will not begin until {@link #start()} is called.
+     *
+     * @param cache     A Cache to use for persisting responses to disk
+     * @param network   A Network interface for performing HTTP requests
+     * @param policy    Bounds and thresholds of the elastic network dispatcher pool
+     * @param delivery  A ResponseDelivery interface for posting responses and errors
+     * @param scheduler Order in which queued requests are dispatched
+     */
+    public RequestQueue(Cache cache, Network network, ElasticPoolPolicy policy, ResponseDelivery delivery,
+                        RequestScheduler scheduler) {
+        this(cache, network, new NetworkDispatcher[0], policy, null, delivery, scheduler);
+    }
+
+    /**
+     * Creates a queue whose network dispatchers grow and shrink between the bounds of
+     * {@code policy}. Processing will not begin until {@link #start()} is called.
+     *
+     * @param cache    A Cache to use for persisting responses to disk
+     * @param network  A Network interface for performing HTTP requests
+     * @param policy   Bounds and thresholds of the elastic network dispatcher pool
+     * @param delivery A ResponseDelivery interface for posting responses and errors
+     */
+    public RequestQueue(Cache cache, Network network, ElasticPoolPolicy policy, ResponseDelivery delivery) {
+        this(cache, network, policy, delivery, RequestScheduler.PRIORITY);
+    }
+
+    /**
+     * Creates a queue that runs every request as a task on {@code executor} instead of on
+     * dispatcher threads; there are no cache or network dispatcher threads. Use an executor
+     * that can run many blocking tasks at once, such as a virtual-thread-per-task executor
+     * on a JVM, since each network task blocks for the duration of its HTTP request. Requests
+     * are still dispatched in the order given by {@code scheduler}. Processing will not begin
+     * until {@link #start()} is called.
+     *
+     * @param cache     A Cache to use for persisting responses to disk
+     * @param network   A Network interface for performing HTTP requests
+     * @param executor  Executor to run dispatch tasks on
+     * @param delivery  A ResponseDelivery interface for posting responses and errors
+     * @param scheduler Order in which queued requests are dispatched
+     */
+    public RequestQueue(Cache cache, Network network, Executor executor, ResponseDelivery delivery,
+                        RequestScheduler scheduler) {
+        this(cache, network, new NetworkDispatcher[0], null, executor, delivery, scheduler);
+        if (executor == null) {
+            throw new IllegalArgumentException("executor must not be null");
+        }
+    }
+
+    /**
+     * Creates a queue that runs every request as a task on {@code executor}. Processing will
+     * not begin until {@link #start()} is called.
+     *
+     * @param cache    A Cache to use for persisting responses to disk
+     * @param network  A Network interface for performing HTTP requests
+     * @param executor Executor to run dispatch tasks on
+     * @see #RequestQueue(Cache, Network, Executor, ResponseDelivery, RequestScheduler)
+     */
+    public RequestQueue(Cache cache, Network network, Executor executor) {
+        this(cache, network, executor, new ExecutorDelivery(new Handler(Looper.getMainLooper())),
+                RequestScheduler.PRIORITY);
+    }
+
+    private RequestQueue(Cache cache, Network network, NetworkDispatcher[] dispatchers,
+                         ElasticPoolPolicy policy, Executor executor, ResponseDelivery delivery,
+                         RequestScheduler scheduler) {
         mCache = cache;
         mNetwork = network;
-        mDispatchers = new NetworkDispatcher[threadPoolSize];
+        mDispatchers = dispatchers;
         mDelivery = delivery;
+        mElasticPolicy = policy;
+        mExecutor = executor;
+        mCacheQueue = new DispatchQueue(RequestQueueMetrics.QUEUE_CACHE, scheduler.newQueue());
+        mNetworkQueue = new DispatchQueue(RequestQueueMetrics.QUEUE_NETWORK, scheduler.newQueue());
+        mHostLimiter = new HostConcurrencyLimiter(mNetworkQueue);
+    }
+
+    /**
+     * Creates a queue with an elastic pool of network dispatchers. Processing will not begin
+     * until {@link #start()} is called.
+     *
+     * @param cache   A Cache to use for persisting responses to disk
+     * @param network A Network interface for performing HTTP requests
+     * @param policy  Bounds and thresholds of the elastic network dispatcher pool
+     */
+    public RequestQueue(Cache cache, Network network, ElasticPoolPolicy policy) {
+        this(cache, network, policy, new ExecutorDelivery(new Handler(Looper.getMainLooper())));
     }
 
     /**
@@ -183,18 +338,51 @@ public class RequestQueue {
         //终止所有调度器线程
         stop();  // Make sure any currently running dispatchers are stopped.
 
-        // Create the cache dispatcher and start it.
+        // Everything that reads the cache shares one initializer so the cache is initialized
+        // only once. With prefetching on, the dispatchers look entries up through a view that
+        // records whether prefetched entries get used.
+        CacheDispatcher.Initializer cacheInitializer =
+                new CacheDispatcher.Initializer(mCache, mInitializeCacheInBackground);
+        Cache cache = mCache;
+        if (mPrefetcher != null) {
+            cache = mPrefetcher.trackingCache();
+            mPrefetcher.start(cacheInitializer);
+        }
+        if (mParseStage != null) {
+            mParseStage.start();
+        }
+
+        // In executor mode every request runs as a task; there are no dispatcher threads.
+        // Executor模式下每个请求作为一个任务执行，不启动调度线程
+        if (mExecutor != null) {
+            mExecutorDispatcher = new ExecutorDispatcher(mExecutor, mCacheQueue, mNetworkQueue, cache,
+                    cacheInitializer, mNetwork, mDelivery, mHostLimiter, mCoalescer, mBatcher, mParseStage);
+            mExecutorDispatcher.start();
+            return;
+        }
+
+        // Create the cache dispatchers and start them.
         // 缓存调度器
-        mCacheDispatcher = new CacheDispatcher(mCacheQueue, mNetworkQueue, mCache, mDelivery);
-        mCacheDispatcher.start();
+        for (int i = 0; i < mCacheDispatchers.length; i++) {
+            CacheDispatcher cacheDispatcher = new CacheDispatcher(mCacheQueue, mNetworkQueue, cache, mDelivery, cacheInitializer, mParseStage);
+            mCacheDispatchers[i] = cacheDispatcher;
+            cacheDispatcher.start();
+        }
 
         // Create network dispatchers (and corresponding threads) up to the pool size.
         // 网络请求调度器,默认开启DEFAULT_NETWORK_THREAD_POOL_SIZE(4)个线程，相当于线程池
         for (int i = 0; i < mDispatchers.length; i++) {
-            NetworkDispatcher networkDispatcher = new NetworkDispatcher(mNetworkQueue, mNetwork, mCache, mDelivery);
+            NetworkDispatcher networkDispatcher = new NetworkDispatcher(mNetworkQueue, mNetwork, cache, mDelivery, null, mHostLimiter, mCoalescer, mBatcher, mParseStage);
             mDispatchers[i] = networkDispatcher;
             networkDispatcher.start();
         }
+
+        // 弹性线程池，按排队情况增减网络调度线程
+        if (mElasticPolicy != null) {
+            mElasticPool = new NetworkDispatcherPool(mElasticPolicy, mNetworkQueue, mNetwork, cache, mDelivery, mMetrics, mHostLimiter, mCoalescer, mBatcher, mParseStage);
+            mNetworkQueue.setListener(mElasticPool);
+            mElasticPool.start();
+        }
     }
 
     /**
@@ -202,14 +390,244 @@ public class RequestQueue {
      * 停止所有调度器线程
      */
     public void stop() {
-        if (mCacheDispatcher != null) {
-            mCacheDispatcher.quit();
+        if (mExecutorDispatcher != null) {
+            mExecutorDispatcher.stop();
+            mExecutorDispatcher = null;
+        }
+        for (int i = 0; i < mCacheDispatchers.length; i++) {
+            if (mCacheDispatchers[i] != null) {
+                mCacheDispatchers[i].quit();
+            }
         }
         for (int i = 0; i < mDispatchers.length; i++) {
             if (mDispatchers[i] != null) {
                 mDispatchers[i].quit();
             }
         }
+        if (mElasticPool != null) {
+            mNetworkQueue.setListener(null);
+            mElasticPool.stop();
+            mElasticPool = null;
+        }
+        if (mBatcher != null) {
+            mBatcher.stop();
+        }
+        if (mPrefetcher != null) {
+            mPrefetcher.stop();
+        }
+        if (mParseStage != null) {
+            mParseStage.stop();
+        }
+    }
+
+    /**
+     * Sets the receiver of dispatch metrics such as queue wait and network pool size. Must be
+     * called before {@link #start()} to cover the dispatchers it creates.
+     */
+    public void setMetrics(RequestQueueMetrics metrics) {
+        mMetrics = metrics != null ? metrics : RequestQueueMetrics.NONE;
+        mCacheQueue.setMetrics(mMetrics);
+        mNetworkQueue.setMetrics(mMetrics);
+        if (mPrefetcher != null) {
+            mPrefetcher.setMetrics(mMetrics);
+        }
+        if (mParseStage != null) {
+            mParseStage.setMetrics(mMetrics);
+        }
+    }
+
+    /**
+     * Sets the number of cache dispatcher threads. Cache lookups and the parsing of cache hits
+     * (unless there is a parse stage, see {@link #setParseThreadPoolSize(int)}) run on these
+     * threads, so more than one lets cache hits proceed in parallel; a value
+     * around {@link Runtime#availableProcessors()} is a reasonable choice. Requests are still
+     * taken in priority and FIFO order. Any running dispatchers are stopped; the new size
+     * takes effect on the next {@link #start()}.
+     *
+     * @param threadPoolSize Number of cache dispatcher threads, at least 1
+     */
+    public void setCacheThreadPoolSize(int threadPoolSize) {
+        if (threadPoolSize < 1) {
+            throw new IllegalArgumentException("threadPoolSize must be at least 1");
+        }
+        // Quit the old dispatchers first so none of them is orphaned by the resize.
+        stop();
+        mCacheDispatchers = new CacheDispatcher[threadPoolSize];
+    }
+
+    /**
+     * Initializes the cache on a background thread rather than making the first requests wait
+     * for {@link Cache#initialize()}. Only use this with a cache that serves lookups while it
+     * initializes, such as {@link com.android.volley.toolbox.DiskBasedCache}; with others,
+     * requests made early on miss the cache and go to the network. Any running dispatchers are
+     * stopped; the setting takes effect on the next {@link #start()}.
+     * 设置是否在后台初始化缓存，初始化期间请求不必等待
+     *
+     * @param inBackground True to initialize the cache in the background
+     */
+    public void setInitializeCacheInBackground(boolean inBackground) {
+        stop();
+        mInitializeCacheInBackground = inBackground;
+    }
+
+    /**
+     * Moves response parsing off the cache and network dispatchers onto a pool of its own, so
+     * that slow parses overlap with network I/O instead of holding the I/O threads. The time
+     * responses wait for a parse thread is reported to {@link RequestQueueMetrics#onQueueWait}
+     * as {@link RequestQueueMetrics#QUEUE_PARSE}. With more than one parse thread, responses
+     * may be delivered in a different order than they arrived. Any running dispatchers are
+     * stopped; the new size takes effect on the next {@link #start()}.
+     * 设置解析线程数，0表示在调度线程中解析(默认)
+     *
+     * @param threadPoolSize Number of parse threads, or 0 to parse on the dispatchers
+     */
+    public void setParseThreadPoolSize(int threadPoolSize) {
+        if (threadPoolSize < 0) {
+            throw new IllegalArgumentException("threadPoolSize must not be negative");
+        }
+        stop();
+        mParseStage = threadPoolSize > 0 ? new ParseStage(threadPoolSize) : null;
+        if (mParseStage != null) {
+            mParseStage.setMetrics(mMetrics);
+        }
+    }
+
+    /**
+     * Limits how many requests may be in flight to any single host. Requests for a host at its
+     * limit are parked without holding a network dispatcher, so other hosts keep flowing.
+     * Unlimited by default.
+     *
+     * @param maxInFlight Maximum concurrent network requests per host
+     */
+    public void setMaxRequestsPerHost(int maxInFlight) {
+        mHostLimiter.setDefaultLimit(maxInFlight);
+    }
+
+    /**
+     * Limits how many requests may be in flight to {@code host}, overriding
+     * {@link #setMaxRequestsPerHost(int)} for that host.
+     *
+     * @param host        Host name as it appears in request URLs
+     * @param maxInFlight Maximum concurrent network requests to that host
+     */
+    public void setMaxRequestsPerHost(String host, int maxInFlight) {
+        mHostLimiter.setHostLimit(host, maxInFlight);
+    }
+
+    /**
+     * Sends compatible requests to the network together, as described by {@code policy}. Each
+     * request is still parsed, cached and delivered on its own. Off by default. Any running
+     * dispatchers are stopped; the setting takes effect on the next {@link #start()}.
+     *
+     * @param policy Which requests to batch and how, or null to turn batching off
+     */
+    public void setBatchPolicy(BatchPolicy policy) {
+        stop();
+        mBatcher = policy != null ? new RequestBatcher(policy, mNetworkQueue, mDelivery) : null;
+    }
+
+    /**
+     * Turns on speculative prefetching with the given budget, see {@link #prefetch(Request)}.
+     * Installing a policy starts a fresh budget and fresh statistics; prefetches queued under
+     * a previous policy are dropped. Any running dispatchers are stopped; the setting takes
+     * effect on the next {@link #start()}.
+     *
+     * @param policy Budget and concurrency of prefetching, or null to turn prefetching off
+     */
+    public void setPrefetchPolicy(PrefetchPolicy policy) {
+        stop();
+        mPrefetcher = policy != null
+                ? new Prefetcher(policy, mCache, mNetwork, mCacheQueue, mNetworkQueue) : null;
+        if (mPrefetcher != null) {
+            mPrefetcher.setMetrics(mMetrics);
+        }
+    }
+
+    /**
+     * Fetches {@code request} speculatively to warm the cache. Prefetches run on their own
+     * low-priority workers, never on the network dispatchers, and wait while foreground
+     * requests are queued. The response is only written to the cache: the request's listener
+     * is not called, and nothing is fetched if the cache already holds a fresh entry. Prefetches
+     * are canceled by {@link #cancelAll(Object)} like other requests.
+     * 预取请求，只写入缓存，不分发响应
+     *
+     * @param request A cacheable request
+     * @return true if the request was accepted, false if the budget is spent
+     * @throws IllegalStateException if no {@link PrefetchPolicy} is set
+     */
+    public boolean prefetch(Request<?> request) {
+        if (mPrefetcher == null) {
+            throw new IllegalStateException("No prefetch policy set");
+        }
+        if (!request.shouldCache()) {
+            throw new IllegalArgumentException("Prefetched requests must be cacheable");
+        }
+        request.setSequence(getSequenceNumber());
+        return mPrefetcher.offer(request);
+    }
+
+    /**
+     * Returns how prefetching under the current {@link PrefetchPolicy} has fared so far, or
+     * null if no policy is set.
+     */
+    public PrefetchStats getPrefetchStats() {
+        Prefetcher prefetcher = mPrefetcher;
+        return prefetcher != null ? prefetcher.getStats() : null;
+    }
+
+    /**
+     * Bounds the number of requests waiting for a cache dispatcher, i.e. cacheable requests
+     * added while the cache stage is backed up.
+     *
+     * @param policy Capacity and overflow behavior, or null for an unbounded queue
+     */
+    public void setCacheQueueCapacity(QueueCapacityPolicy policy) {
+        mCacheQueue.setCapacityPolicy(policy);
+    }
+
+    /**
+     * Bounds the number of requests waiting for a network dispatcher. The capacity is checked
+     * when uncacheable requests are added; cache misses always get through, but they count
+     * towards the depth.
+     *
+     * @param policy Capacity and overflow behavior, or null for an unbounded queue
+     */
+    public void setNetworkQueueCapacity(QueueCapacityPolicy policy) {
+        mNetworkQueue.setCapacityPolicy(policy);
+    }
+
+    /**
+     * Returns the number of requests waiting for a cache dispatcher.
+     * 缓存队列中等待的请求数
+     */
+    public int getCacheQueueDepth() {
+        return mCacheQueue.size();
+    }
+
+    /**
+     * Returns the number of requests waiting for a network dispatcher, not counting requests
+     * parked by a per-host limit.
+     * 网络队列中等待的请求数
+     */
+    public int getNetworkQueueDepth() {
+        return mNetworkQueue.size();
+    }
+
+    /**
+     * Returns the number of network dispatcher threads currently running.
+     */
+    public int getNetworkDispatcherCount() {
+        NetworkDispatcherPool pool = mElasticPool;
+        if (pool != null) {
+            return pool.size();
+        }
+        int count = 0;
+        for (NetworkDispatcher dispatcher : mDispatchers) {
+            if (dispatcher != null && dispatcher.isAlive()) {
+                count++;
+            }
+        }
+        return count;
     }
 
     /**
@@ -235,39 +653,76 @@ public class RequestQueue {
     }
 
     /**
-     * Cancels all requests in this queue for which the given filter applies.
+     * Cancels all requests in this queue for which the given filter applies, including
+     * prefetches.
      *
      * @param filter The filtering function to use
      */
     public void cancelAll(RequestFilter filter) {
-        synchronized (mCurrentRequests) {
-            for (Request<?> request : mCurrentRequests) {
-                if (filter.apply(request)) {
-                    request.cancel();
-                }
+        for (Request<?> request : mRegistry.currentRequests()) {
+            if (filter.apply(request)) {
+                cancel(request);
             }
         }
+        Prefetcher prefetcher = mPrefetcher;
+        if (prefetcher != null) {
+            prefetcher.cancelAll(filter);
+        }
     }
 
     /**
      * Cancels all requests in this queue with the given tag. Tag must be non-null
-     * and equality is by identity.
-     * 取消具有tag标识的所有请求
+     * and equality is by identity. Requests are found through an index of the tag they had
+     * when they were added, so this takes time proportional to the number of matching
+     * requests rather than to the size of the queue. Canceled requests waiting in a dispatch
+     * queue are taken out right away and stop counting against its capacity. Prefetches with
+     * the tag are canceled too.
+     * 取消具有tag标识的所有请求，通过tag索引查找，只与匹配的请求数有关
      */
     public void cancelAll(final Object tag) {
         if (tag == null) {
             throw new IllegalArgumentException("Cannot cancelAll with a null tag");
         }
-        cancelAll(new RequestFilter() {
-            @Override
-            public boolean apply(Request<?> request) {
-                return request.getTag() == tag;
-            }
-        });
+        for (Request<?> request : mRegistry.requestsTagged(tag)) {
+            cancel(request);
+        }
+        Prefetcher prefetcher = mPrefetcher;
+        if (prefetcher != null) {
+            prefetcher.cancelAll(new RequestFilter() {
+                @Override
+                public boolean apply(Request<?> request) {
+                    return request.getTag() == tag;
+                }
+            });
+        }
     }
 
     /**
-     * Adds a Request to the dispatch queue.
+     * Cancels {@code request} and, if it is still waiting in a dispatch queue, parked for its
+     * host or waiting on a coalesced request, takes it out and finishes it right away instead
+     * of leaving it for a dispatcher. Each check takes constant time.
+     * 取消请求，若请求仍在队列中等待则立即移除
+     */
+    private void cancel(Request<?> request) {
+        request.cancel();
+        // Whichever removal succeeds means no dispatcher holds the request, so we own it.
+        if (mCacheQueue.discard(request)) {
+            request.finish("cache-discard-canceled");
+        } else if (mNetworkQueue.discard(request)) {
+            // It may have been handed a host slot on its way back to the queue.
+            mHostLimiter.discard(request);
+            request.finish("network-discard-canceled");
+        } else if (mHostLimiter.removeParked(request)) {
+            request.finish("network-discard-canceled");
+        } else if (mCoalescer.removeFollower(request)) {
+            request.finish("coalesced-discard-canceled");
+        }
+    }
+
+    /**
+     * Adds a Request to the dispatch queue. If the queue it goes to is full (see
+     * {@link #setCacheQueueCapacity} and {@link #setNetworkQueueCapacity}), it or an evicted
+     * request is failed with a {@link QueueFullError}, or this call blocks for room.
      * 将一个请求加入请求队列中
      *
      * @param request The request to service
@@ -278,9 +733,7 @@ public class RequestQueue {
         request.setRequestQueue(this); //为Request设置请求队列
 
         //将请求add到当前请求队列中
-        synchronized (mCurrentRequests) {
-            mCurrentRequests.add(request);
-        }
+        mRegistry.add(request);
 
         // Process requests in the order they are added.
         //设置唯一的序列号
@@ -289,38 +742,50 @@ public class RequestQueue {
 
         // If the request is uncacheable, skip the cache queue and go straight to the network.
         if (!request.shouldCache()) {
+            // An identical request already in flight will share its response with this one.
+            // 允许合并且相同请求正在进行时，挂在其后共享响应
+            if (request.shouldCoalesce() && mCoalescer.attachIfInFlight(request)) {
+                return request;
+            }
             //不缓存，跳过缓存队列直接请求数据
-            mNetworkQueue.add(request);
+            admit(mNetworkQueue, request);
             return request;
         }
 
         // Insert request into stage if there's already a request with the same cache key in flight.
         //缓存,首先判断是否有相同请求正在处理
-        synchronized (mWaitingRequests) {
-            String cacheKey = request.getCacheKey();
-
-            //有相同请求正在处理
-            if (mWaitingRequests.containsKey(cacheKey)) {
-                // There is already a request in flight. Queue up.
-                Queue<Request<?>> stagedRequests = mWaitingRequests.get(cacheKey);
-                if (stagedRequests == null) {
-                    stagedRequests = new LinkedList<Request<?>>();
-                }
-                stagedRequests.add(request);
-                //处理等待队列空数据,加入到等待队列
-                mWaitingRequests.put(cacheKey, stagedRequests);
-
-                if (VolleyLog.DEBUG) {
-                    VolleyLog.v("Request for cacheKey=%s is in flight, putting on hold.", cacheKey);
-                }
-            } else {
-                // Insert 'null' queue for this cacheKey, indicating there is now a request in
-                // flight.
-                // 创建新的等待当前请求的空队列添加到当前请求缓存队列中
-                mWaitingRequests.put(cacheKey, null);
-                mCacheQueue.add(request);
+        String cacheKey = request.getCacheKey();
+        if (mRegistry.stageIfInFlight(cacheKey, request)) {
+            //有相同请求正在处理,加入到等待队列
+            if (VolleyLog.DEBUG) {
+                VolleyLog.v("Request for cacheKey=%s is in flight, putting on hold.", cacheKey);
             }
-            return request;
+        } else {
+            // This request is now the one in flight for its cache key.
+            // 当前请求加入缓存队列
+            admit(mCacheQueue, request);
+        }
+        return request;
+    }
+
+    /**
+     * Enqueues a newly added request under the queue's capacity policy, failing whichever
+     * request is refused or evicted.
+     * 按容量策略入队，被拒绝或淘汰的请求以QueueFullError结束
+     */
+    private void admit(DispatchQueue queue, Request<?> request) {
+        Request<?> refused = queue.admit(request);
+        if (refused == null) {
+            return;
+        }
+        if (queue == mNetworkQueue) {
+            // An evicted request may hold a host slot handed to it by the limiter.
+            mHostLimiter.discard(refused);
+        }
+        refused.addMarker("queue-full");
+        // An evicted batch request fails the requests it carries.
+        if (mBatcher == null || !mBatcher.failBatch(refused, new QueueFullError())) {
+            mDelivery.postError(refused, new QueueFullError());
         }
     }
 
@@ -335,45 +800,44 @@ public class RequestQueue {
      */
     <T> void finish(Request<T> request) {
         // Remove from the set of requests currently being processed.
-        synchronized (mCurrentRequests) {
-            mCurrentRequests.remove(request);
+        mRegistry.remove(request);
+        for (RequestFinishedListener<T> listener : mFinishedListeners) {
+            listener.onRequestFinished(request);
         }
-        synchronized (mFinishedListeners) {
-            for (RequestFinishedListener<T> listener : mFinishedListeners) {
-                listener.onRequestFinished(request);
+
+        if (!request.shouldCache() && request.shouldCoalesce()) {
+            // If this request never reached the network, another request coalesced with it
+            // has to go in its place.
+            Request<?> next = mCoalescer.promote(request);
+            if (next != null) {
+                mNetworkQueue.add(next);
             }
         }
 
         if (request.shouldCache()) {
-            synchronized (mWaitingRequests) {
-                String cacheKey = request.getCacheKey();
-                Queue<Request<?>> waitingRequests = mWaitingRequests.remove(cacheKey);
-                if (waitingRequests != null) {
-
-                    if (VolleyLog.DEBUG) {
-                        VolleyLog.v("Releasing %d waiting requests for cacheKey=%s.", waitingRequests.size(), cacheKey);
-                    }
-
-                    // Process all queued up requests. They won't be considered as in flight, but
-                    // that's not a problem as the cache has been primed by 'request'.
-                    mCacheQueue.addAll(waitingRequests);
+            String cacheKey = request.getCacheKey();
+            Queue<Request<?>> waitingRequests = mRegistry.releaseWaiting(cacheKey);
+            if (waitingRequests != null) {
+
+                if (VolleyLog.DEBUG) {
+                    VolleyLog.v("Releasing %d waiting requests for cacheKey=%s.", waitingRequests.size(), cacheKey);
                 }
+
+                // Process all queued up requests. They won't be considered as in flight, but
+                // that's not a problem as the cache has been primed by 'request'.
+                mCacheQueue.addAll(waitingRequests);
             }
         }
     }
 
     public <T> void addRequestFinishedListener(RequestFinishedListener<T> listener) {
-        synchronized (mFinishedListeners) {
-            mFinishedListeners.add(listener);
-        }
+        mFinishedListeners.add(listener);
     }
 
     /**
      * Remove a RequestFinishedListener. Has no effect if listener was not previously added.
      */
     public <T> void removeRequestFinishedListener(RequestFinishedListener<T> listener) {
-        synchronized (mFinishedListeners) {
-            mFinishedListeners.remove(listener);
-        }
+        mFinishedListeners.remove(listener);
     }
 }
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+/**
+ * 请求队列的监控回调，默认全部为空实现，按需复写
+ * Receives dispatch metrics from a {@link RequestQueue}.
+ * <p/>
+ * Every method is a no-op by default; subclasses override the ones they care about.
+ * Callbacks are made from worker threads and must be cheap and non-blocking.
+ *
+ * @see RequestQueue#setMetrics(RequestQueueMetrics)
+ */
+public class RequestQueueMetrics {
+
+    /**
+     * Name of the cache triage queue, as passed to {@link #onQueueWait}.
+     */
+    public static final String QUEUE_CACHE = "cache";
+
+    /**
+     * Name of the network queue, as passed to {@link #onQueueWait}.
+     */
+    public static final String QUEUE_NETWORK = "network";
+
+    /**
+     * Name of the parse stage, as passed to {@link #onQueueWait}; see
+     * {@link RequestQueue#setParseThreadPoolSize(int)}.
+     */
+    public static final String QUEUE_PARSE = "parse";
+
+    /**
+     * Metrics instance that ignores everything.
+     */
+    static final RequestQueueMetrics NONE = new RequestQueueMetrics();
+
+    /**
+     * Called when a request has been taken off one of the dispatch queues, or when its
+     * response has been picked up by the parse stage.
+     *
+     * @param request The request that was taken
+     * @param queue   The name of the queue, e.g. {@link #QUEUE_NETWORK}
+     * @param waitMs  Time the request spent waiting in that queue
+     */
+    public void onQueueWait(Request<?> request, String queue, long waitMs) {
+    }
+
+    /**
+     * Called when a request is refused by, or evicted from, a full queue.
+     *
+     * @param request The request that is failed with a {@link QueueFullError}
+     * @param queue   The name of the queue, e.g. {@link #QUEUE_NETWORK}
+     */
+    public void onQueueOverflow(Request<?> request, String queue) {
+    }
+
+    /**
+     * Called when an elastic network dispatcher pool starts or retires a worker.
+     *
+     * @param oldSize Number of network dispatchers before the change
+     * @param newSize Number of network dispatchers after the change
+     */
+    public void onNetworkPoolResized(int oldSize, int newSize) {
+    }
+
+    /**
+     * Called when a prefetch has fetched its response and written it to the cache.
+     *
+     * @param request The prefetch request
+     * @param bytes   Response bytes downloaded; 0 if the cached entry was revalidated
+     */
+    public void onPrefetchCompleted(Request<?> request, long bytes) {
+    }
+
+    /**
+     * Called the first time a request looks up the cache key of a prefetched response.
+     *
+     * @param cacheKey The cache key
+     * @param used     true if the prefetched response was still fresh, false if it had
+     *                 expired and the prefetch was wasted
+     */
+    public void onPrefetchUsed(String cacheKey, boolean used) {
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 请求登记表，记录正在处理的请求以及按缓存key等待的重复请求，使用分段锁减少竞争
+ * Bookkeeping of the requests owned by a {@link RequestQueue}.
+ * <p/>
+ * Tracks the set of current requests, an index of them by tag, and the staging area for
+ * requests that have a duplicate in flight. All are safe for concurrent use without a global
+ * lock: the current set is a {@link ConcurrentHashMap} while the tag index and the staging area
+ * are split into lock stripes, so callers working on different tags or keys don't contend.
+ */
+class RequestRegistry {
+
+    /**
+     * Number of lock stripes; a power of two.
+     */
+    private static final int STRIPES = 16;
+
+    /**
+     * One slice of the staging area, guarded by itself.
+     */
+    private static class Stripe {
+        /**
+         * <ul>
+         * <li>containsKey(cacheKey) indicates that there is a request in flight for the given
+         * cache key.</li>
+         * <li>get(cacheKey) returns waiting requests for the given cache key. The in flight
+         * request is <em>not</em> contained in that list. Is null if no requests are staged.</li>
+         * </ul>
+         */
+        final Map<String, Queue<Request<?>>> waiting = new HashMap<String, Queue<Request<?>>>();
+    }
+
+    /**
+     * One slice of the tag index, guarded by itself. Tags are compared by identity.
+     */
+    private static class TagStripe {
+        final Map<Object, Set<Request<?>>> requests = new IdentityHashMap<Object, Set<Request<?>>>();
+    }
+
+    /**
+     * Stands in for a null tag in {@link #mCurrentRequests}, which can't hold null values.
+     */
+    private static final Object NO_TAG = new Object();
+
+    /**
+     * The set of all requests currently being processed, as keys, mapped to the tag they were
+     * indexed under.
+     */
+    private final ConcurrentHashMap<Request<?>, Object> mCurrentRequests =
+            new ConcurrentHashMap<Request<?>, Object>(64, 0.75f, STRIPES);
+
+    private final Stripe[] mStripes = new Stripe[STRIPES];
+
+    private final TagStripe[] mTagStripes = new TagStripe[STRIPES];
+
+    RequestRegistry() {
+        for (int i = 0; i < STRIPES; i++) {
+            mStripes[i] = new Stripe();
+            mTagStripes[i] = new TagStripe();
+        }
+    }
+
+    /**
+     * Adds {@code request} to the set of current requests, indexed under its current tag.
+     */
+    void add(Request<?> request) {
+        Object tag = request.getTag();
+        if (mCurrentRequests.put(request, tag != null ? tag : NO_TAG) != null || tag == null) {
+            return;
+        }
+        TagStripe stripe = tagStripeFor(tag);
+        synchronized (stripe) {
+            Set<Request<?>> tagged = stripe.requests.get(tag);
+            if (tagged == null) {
+                tagged = new HashSet<Request<?>>();
+                stripe.requests.put(tag, tagged);
+            }
+            tagged.add(request);
+        }
+    }
+
+    /**
+     * Removes {@code request} from the set of current requests and from the tag index.
+     */
+    void remove(Request<?> request) {
+        Object tag = mCurrentRequests.remove(request);
+        if (tag == null || tag == NO_TAG) {
+            return;
+        }
+        TagStripe stripe = tagStripeFor(tag);
+        synchronized (stripe) {
+            Set<Request<?>> tagged = stripe.requests.get(tag);
+            if (tagged != null && tagged.remove(request) && tagged.isEmpty()) {
+                stripe.requests.remove(tag);
+            }
+        }
+    }
+
+    /**
+     * Returns a snapshot of the current requests that carried {@code tag} when they were
+     * added. Takes time proportional to the number of such requests.
+     */
+    List<Request<?>> requestsTagged(Object tag) {
+        TagStripe stripe = tagStripeFor(tag);
+        synchronized (stripe) {
+            Set<Request<?>> tagged = stripe.requests.get(tag);
+            if (tagged == null) {
+                return Collections.emptyList();
+            }
+            return new ArrayList<Request<?>>(tagged);
+        }
+    }
+
+    /**
+     * Returns a weakly consistent view of the current requests; iterating it takes no lock.
+     */
+    Iterable<Request<?>> currentRequests() {
+        return mCurrentRequests.keySet();
+    }
+
+    /**
+     * Returns the number of current requests.
+     */
+    int size() {
+        return mCurrentRequests.size();
+    }
+
+    /**
+     * Stages {@code request} if another request with the same cache key is in flight; otherwise
+     * marks {@code request} as the one in flight for that key.
+     *
+     * @return true if the request was staged, false if the caller should dispatch it
+     */
+    boolean stageIfInFlight(String cacheKey, Request<?> request) {
+        Stripe stripe = stripeFor(cacheKey);
+        synchronized (stripe) {
+            if (stripe.waiting.containsKey(cacheKey)) {
+                // There is already a request in flight. Queue up.
+                Queue<Request<?>> stagedRequests = stripe.waiting.get(cacheKey);
+                if (stagedRequests == null) {
+                    stagedRequests = new LinkedList<Request<?>>();
+                    stripe.waiting.put(cacheKey, stagedRequests);
+                }
+                stagedRequests.add(request);
+                return true;
+            }
+            // Insert 'null' queue for this cacheKey, indicating there is now a request in
+            // flight.
+            stripe.waiting.put(cacheKey, null);
+            return false;
+        }
+    }
+
+    /**
+     * Ends the in-flight period for {@code cacheKey}.
+     *
+     * @return the requests that were staged behind it, or null if there were none
+     */
+    Queue<Request<?>> releaseWaiting(String cacheKey) {
+        Stripe stripe = stripeFor(cacheKey);
+        synchronized (stripe) {
+            return stripe.waiting.remove(cacheKey);
+        }
+    }
+
+    private Stripe stripeFor(String cacheKey) {
+        return mStripes[spread(cacheKey != null ? cacheKey.hashCode() : 0)];
+    }
+
+    private TagStripe tagStripeFor(Object tag) {
+        return mTagStripes[spread(System.identityHashCode(tag))];
+    }
+
+    /**
+     * Maps a hash code to a stripe index.
+     */
+    private static int spread(int h) {
+        // Spread the high bits down, as HashMap does, before masking.
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return h & (STRIPES - 1);
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+
+/**
+ * 请求调度策略，决定缓存队列与网络队列中请求的出队顺序
+ * Decides the order in which a {@link RequestQueue} takes requests off its cache and network
+ * queues.
+ * <p/>
+ * {@link #PRIORITY} is the classic ordering: strictly by {@link Request.Priority}, then FIFO.
+ * A steady stream of higher priority work can starve {@link Request.Priority#LOW} requests
+ * under it indefinitely. {@link #aging(long)} bounds that wait by raising a queued request's
+ * effective priority the longer it waits.
+ * <p/>
+ * Other policies, e.g. weighted fair queuing across priorities or tags, plug in by subclassing
+ * and returning their own queue from {@link #newQueue()}.
+ */
+public abstract class RequestScheduler {
+
+    /**
+     * Strict priority order, then FIFO within a priority. The default.
+     * 严格按优先级出队，默认策略
+     */
+    public static final RequestScheduler PRIORITY = new RequestScheduler() {
+        @Override
+        protected BlockingQueue<Request<?>> newQueue() {
+            return new PriorityBlockingQueue<Request<?>>();
+        }
+    };
+
+    /**
+     * Priority order with aging: every {@code agingIntervalMs} a request spends queued raises
+     * its effective priority by one level. A request is therefore never passed by work that
+     * was enqueued more than {@code (IMMEDIATE - its priority) * agingIntervalMs} after it.
+     * 优先级老化，请求每等待agingIntervalMs，其有效优先级提升一级，避免低优先级请求饿死
+     *
+     * @param agingIntervalMs Queued time worth one priority level; must be positive
+     */
+    public static RequestScheduler aging(final long agingIntervalMs) {
+        if (agingIntervalMs <= 0) {
+            throw new IllegalArgumentException("agingIntervalMs must be positive");
+        }
+        return new RequestScheduler() {
+            @Override
+            protected BlockingQueue<Request<?>> newQueue() {
+                return new AgingPriorityBlockingQueue(agingIntervalMs);
+            }
+        };
+    }
+
+    protected RequestScheduler() {
+    }
+
+    /**
+     * Creates an empty queue ordered by this scheduler. Called once per dispatch stage, when
+     * the {@link RequestQueue} is constructed.
+     * <p/>
+     * The queue is shared by producers and dispatcher threads, so it must be thread-safe. It
+     * should be unbounded: capacity is applied in front of it, see {@link QueueCapacityPolicy}.
+     * Requests are compared by identity, and {@link BlockingQueue#remove(Object)} and the
+     * iterator must work, since requests can be taken out before they reach the head. To evict
+     * for {@link QueueCapacityPolicy.Overflow#DROP_LOWEST_PRIORITY}, a
+     * {@link java.util.concurrent.PriorityBlockingQueue} is ranked by its comparator and any
+     * other queue by {@link Request#compareTo}.
+     */
+    protected abstract BlockingQueue<Request<?>> newQueue();
+}
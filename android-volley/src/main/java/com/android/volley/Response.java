@@ -88,6 +88,13 @@ public class Response<T> {
      */
     public boolean intermediate = false;
 
+    /**
+     * True if this response was served from an expired cache entry because the network
+     * request to refresh it failed. See {@link Request#setStaleIfErrorMs(long)}.
+     * 网络失败时使用过期缓存返回的响应
+     */
+    public boolean stale = false;
+
     /**
      * Returns whether this response is considered successful.
      */
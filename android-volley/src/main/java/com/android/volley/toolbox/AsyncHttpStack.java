@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.Request;
+
+import org.apache.http.HttpResponse;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * An HTTP stack abstraction that doesn't block the calling thread.
+ * 异步HTTP栈
+ */
+public interface AsyncHttpStack {
+
+    /**
+     * Receives the outcome of {@link #performRequestAsync}. Exactly one method is called,
+     * exactly once.
+     */
+    public interface Callback {
+        /**
+         * @param response the HTTP response, with its entity fully read
+         */
+        public void onResponse(HttpResponse response);
+
+        /**
+         * @param exception the reason no response was received, e.g. a
+         *         {@link java.net.SocketTimeoutException}
+         */
+        public void onError(IOException exception);
+    }
+
+    /**
+     * Starts an HTTP request with the given parameters. Same parameters as
+     * {@link HttpStack#performRequest}.
+     *
+     * @param request the request to perform
+     * @param additionalHeaders additional headers to be sent together with
+     *         {@link Request#getHeaders()}
+     * @param callback callback to report the response or failure to
+     * @throws AuthFailureError if the request's headers or body can't be produced; reported
+     *         synchronously, before anything is sent
+     */
+    public void performRequestAsync(Request<?> request, Map<String, String> additionalHeaders,
+                                    Callback callback) throws AuthFailureError;
+}
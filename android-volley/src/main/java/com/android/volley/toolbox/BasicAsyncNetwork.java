@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import android.os.SystemClock;
+
+import com.android.volley.AsyncNetwork;
+import com.android.volley.AuthFailureError;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.VolleyError;
+
+import org.apache.http.HttpResponse;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 异步网络请求，使用AsyncHttpStack执行请求，重试策略与BasicNetwork相同
+ * A {@link BasicNetwork} that can also perform requests asynchronously over an
+ * {@link AsyncHttpStack}.
+ * <p/>
+ * Each attempt of {@link #performRequestAsync} is handled exactly like an attempt of
+ * {@link #performRequest}: the same cache headers are sent, the same status codes are
+ * retried and the same errors are reported. Retries are started from the thread the stack
+ * reports the previous attempt on, so no thread waits for the network in between.
+ */
+public class BasicAsyncNetwork extends BasicNetwork implements AsyncNetwork {
+
+    private final AsyncHttpStack mAsyncStack;
+
+    /**
+     * @param asyncStack HTTP stack to be used for asynchronous requests
+     * @param httpStack  HTTP stack to be used by {@link #performRequest}
+     */
+    public BasicAsyncNetwork(AsyncHttpStack asyncStack, HttpStack httpStack) {
+        super(httpStack);
+        mAsyncStack = asyncStack;
+    }
+
+    /**
+     * @param asyncStack HTTP stack to be used for asynchronous requests
+     * @param httpStack  HTTP stack to be used by {@link #performRequest}
+     * @param pool       a buffer pool that improves GC performance in copy operations
+     */
+    public BasicAsyncNetwork(AsyncHttpStack asyncStack, HttpStack httpStack, ByteArrayPool pool) {
+        super(httpStack, pool);
+        mAsyncStack = asyncStack;
+    }
+
+    @Override
+    public void performRequestAsync(Request<?> request, Callback callback) {
+        new Attempt(request, callback, SystemClock.elapsedRealtime()).start();
+    }
+
+    /**
+     * One request being performed, across all of its retries.
+     */
+    private class Attempt implements AsyncHttpStack.Callback {
+        private final Request<?> mRequest;
+        private final Callback mCallback;
+        private final long mRequestStart;
+
+        Attempt(Request<?> request, Callback callback, long requestStart) {
+            mRequest = request;
+            mCallback = callback;
+            mRequestStart = requestStart;
+        }
+
+        /**
+         * Sends the request, for the first time or as a retry.
+         */
+        void start() {
+            Map<String, String> headers = new HashMap<String, String>();
+            addCacheHeaders(headers, mRequest.getCacheEntry());
+            try {
+                mAsyncStack.performRequestAsync(mRequest, headers, this);
+            } catch (AuthFailureError e) {
+                mCallback.onError(e);
+            } catch (RuntimeException e) {
+                mCallback.onError(new VolleyError(e));
+            }
+        }
+
+        @Override
+        public void onResponse(HttpResponse httpResponse) {
+            NetworkResponse networkResponse;
+            try {
+                networkResponse = handleResponse(mRequest, httpResponse, mRequestStart);
+            } catch (IOException e) {
+                retryOrFail(httpResponse, e);
+                return;
+            } catch (VolleyError e) {
+                mCallback.onError(e);
+                return;
+            } catch (RuntimeException e) {
+                mCallback.onError(new VolleyError(e));
+                return;
+            }
+            if (networkResponse != null) {
+                mCallback.onSuccess(networkResponse);
+            } else {
+                // 需要重试，例如认证失败或重定向
+                start();
+            }
+        }
+
+        @Override
+        public void onError(IOException exception) {
+            retryOrFail(null, exception);
+        }
+
+        private void retryOrFail(HttpResponse httpResponse, IOException exception) {
+            try {
+                handleException(mRequest, httpResponse, exception);
+            } catch (VolleyError e) {
+                mCallback.onError(e);
+                return;
+            } catch (RuntimeException e) {
+                mCallback.onError(new VolleyError(e));
+                return;
+            }
+            start();
+        }
+    }
+}
@@ -21,6 +21,7 @@ import android.os.SystemClock;
 import com.android.volley.AuthFailureError;
 import com.android.volley.Cache;
 import com.android.volley.Cache.Entry;
+import com.android.volley.DeadlineExceededError;
 import com.android.volley.Network;
 import com.android.volley.NetworkError;
 import com.android.volley.NetworkResponse;
@@ -45,7 +46,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.SocketTimeoutException;
-import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
@@ -97,12 +97,6 @@ public class BasicNetwork implements Network {
         //如果发生超时，认证失败等错误，进行重试操作，直到成功、抛出异常(不满足重试策略等)结束
         while (true) {
             HttpResponse httpResponse = null;
-
-            //请求内容对象
-            byte[] responseContents = null;
-            //用于保存响应数据报的Header中的数据
-            Map<String, String> responseHeaders = Collections.emptyMap();
-
             try {
                 // Gather headers. 保存缓存下来的Header
                 Map<String, String> headers = new HashMap<String, String>();
@@ -111,104 +105,126 @@ public class BasicNetwork implements Network {
                 // 执行请求
                 httpResponse = mHttpStack.performRequest(request, headers);
 
-                //获取响应状态
-                StatusLine statusLine = httpResponse.getStatusLine();
-                //响应状态码
-                int statusCode = statusLine.getStatusCode();
-                //获取响应后的Header中的所有数据
-                responseHeaders = convertHeaders(httpResponse.getAllHeaders());
-
-                // Handle cache validation.
-                // 304:表示从上次访问后，服务器数据没有改变，则从Cache中拿数据
-                if (statusCode == HttpStatus.SC_NOT_MODIFIED) {
-
-                    Entry entry = request.getCacheEntry();
-                    if (entry == null) {
-                        return new NetworkResponse(HttpStatus.SC_NOT_MODIFIED, null, responseHeaders, true, SystemClock.elapsedRealtime() - requestStart);
-                    }
-
-                    // A HTTP 304 response does not have all header fields. We
-                    // have to use the header fields from the cache entry plus
-                    // the new ones from the response.
-                    // http://www.w3.org/Protocols/rfc2616/rfc2616-sec10.html#sec10.3.5
-                    entry.responseHeaders.putAll(responseHeaders);
-                    return new NetworkResponse(HttpStatus.SC_NOT_MODIFIED, entry.data, entry.responseHeaders, true, SystemClock.elapsedRealtime() - requestStart);
+                NetworkResponse networkResponse = handleResponse(request, httpResponse, requestStart);
+                if (networkResponse != null) {
+                    return networkResponse;
                 }
+            } catch (IOException e) {
+                handleException(request, httpResponse, e);
+            }
+        }
+    }
 
-                // Handle moved resources
-                if (statusCode == HttpStatus.SC_MOVED_PERMANENTLY || statusCode == HttpStatus.SC_MOVED_TEMPORARILY) {
-                    String newUrl = responseHeaders.get("Location");
-                    request.setRedirectUrl(newUrl);
-                }
-
-                // Some responses such as 204s do not have content.  We must check.
-                if (httpResponse.getEntity() != null) {
-                    responseContents = entityToBytes(httpResponse.getEntity());
-                } else {
-                    // Add 0 byte response as a way of honestly representing a
-                    // no-content request.
-                    //由于204响应时不返回数据信息的,返回空数据
-                    responseContents = new byte[0];
-                }
-
-                // if the request is slow, log it.
-                long requestLifetime = SystemClock.elapsedRealtime() - requestStart;
-                //如果一个请求的时间超过了指定的缓慢请求时间，那么需要显示这个时间,debug
-                logSlowRequests(requestLifetime, request, responseContents, statusLine);
-
-                //如果请求状态出现错误,bug
-                //if (statusCode != HttpStatus.SC_OK && statusCode != HttpStatus.SC_NO_CONTENT) {
-                if (statusCode < 200 || statusCode > 299) {
-                    throw new IOException();
-                }
+    /**
+     * Turns the HTTP response of one attempt into a {@link NetworkResponse}.
+     * 处理一次请求得到的HTTP响应
+     *
+     * @return the response, or null if the request has been prepared for another attempt
+     * @throws IOException if reading the response fails
+     * @throws VolleyError if the request failed and may not be retried
+     */
+    /* package */ NetworkResponse handleResponse(Request<?> request, HttpResponse httpResponse,
+                                                 long requestStart) throws IOException, VolleyError {
+        //获取响应状态
+        StatusLine statusLine = httpResponse.getStatusLine();
+        //响应状态码
+        int statusCode = statusLine.getStatusCode();
+        //获取响应后的Header中的所有数据
+        Map<String, String> responseHeaders = convertHeaders(httpResponse.getAllHeaders());
+
+        // Handle cache validation.
+        // 304:表示从上次访问后，服务器数据没有改变，则从Cache中拿数据
+        if (statusCode == HttpStatus.SC_NOT_MODIFIED) {
+
+            Entry entry = request.getCacheEntry();
+            if (entry == null) {
+                return new NetworkResponse(HttpStatus.SC_NOT_MODIFIED, null, responseHeaders, true, SystemClock.elapsedRealtime() - requestStart);
+            }
 
-                // 返回header+body数据
-                return new NetworkResponse(statusCode, responseContents, responseHeaders, false, SystemClock.elapsedRealtime() - requestStart);
+            // A HTTP 304 response does not have all header fields. We
+            // have to use the header fields from the cache entry plus
+            // the new ones from the response.
+            // http://www.w3.org/Protocols/rfc2616/rfc2616-sec10.html#sec10.3.5
+            entry.responseHeaders.putAll(responseHeaders);
+            return new NetworkResponse(HttpStatus.SC_NOT_MODIFIED, entry.data, entry.responseHeaders, true, SystemClock.elapsedRealtime() - requestStart);
+        }
 
-            } catch (SocketTimeoutException e) {
-                attemptRetryOnException("socket", request, new TimeoutError());
-            } catch (ConnectTimeoutException e) {
-                attemptRetryOnException("connection", request, new TimeoutError());
-            } catch (MalformedURLException e) {
-                throw new RuntimeException("Bad URL " + request.getUrl(), e);
-            } catch (IOException e) {
-                int statusCode = 0;
-                NetworkResponse networkResponse = null;
+        // Handle moved resources
+        if (statusCode == HttpStatus.SC_MOVED_PERMANENTLY || statusCode == HttpStatus.SC_MOVED_TEMPORARILY) {
+            String newUrl = responseHeaders.get("Location");
+            request.setRedirectUrl(newUrl);
+        }
 
-                if (httpResponse != null) {
-                    statusCode = httpResponse.getStatusLine().getStatusCode();
+        //请求内容对象
+        byte[] responseContents;
+        // Some responses such as 204s do not have content.  We must check.
+        if (httpResponse.getEntity() != null) {
+            responseContents = entityToBytes(httpResponse.getEntity());
+        } else {
+            // Add 0 byte response as a way of honestly representing a
+            // no-content request.
+            //由于204响应时不返回数据信息的,返回空数据
+            responseContents = new byte[0];
+        }
 
-                } else {
-                    throw new NoConnectionError(e);
-                }
+        // if the request is slow, log it.
+        long requestLifetime = SystemClock.elapsedRealtime() - requestStart;
+        //如果一个请求的时间超过了指定的缓慢请求时间，那么需要显示这个时间,debug
+        logSlowRequests(requestLifetime, request, responseContents, statusLine);
 
-                if (statusCode == HttpStatus.SC_MOVED_PERMANENTLY || statusCode == HttpStatus.SC_MOVED_TEMPORARILY) {
-                    VolleyLog.e("Request at %s has been redirected to %s", request.getOriginUrl(), request.getUrl());
-                } else {
-                    VolleyLog.e("Unexpected response code %d for %s", statusCode, request.getUrl());
-                }
+        //如果请求状态出现错误,bug
+        //if (statusCode != HttpStatus.SC_OK && statusCode != HttpStatus.SC_NO_CONTENT) {
+        if (statusCode >= 200 && statusCode <= 299) {
+            // 返回header+body数据
+            return new NetworkResponse(statusCode, responseContents, responseHeaders, false, SystemClock.elapsedRealtime() - requestStart);
+        }
 
-                if (responseContents != null) {
-                    networkResponse = new NetworkResponse(statusCode, responseContents, responseHeaders, false, SystemClock.elapsedRealtime() - requestStart);
+        if (statusCode == HttpStatus.SC_MOVED_PERMANENTLY || statusCode == HttpStatus.SC_MOVED_TEMPORARILY) {
+            VolleyLog.e("Request at %s has been redirected to %s", request.getOriginUrl(), request.getUrl());
+        } else {
+            VolleyLog.e("Unexpected response code %d for %s", statusCode, request.getUrl());
+        }
 
-                    //请求需要进行验证，或者是需要授权异常处理
-                    if (statusCode == HttpStatus.SC_UNAUTHORIZED || statusCode == HttpStatus.SC_FORBIDDEN) {
-                        //尝试重试策略方法
-                        attemptRetryOnException("auth", request, new AuthFailureError(networkResponse));
+        NetworkResponse networkResponse = new NetworkResponse(statusCode, responseContents, responseHeaders, false, SystemClock.elapsedRealtime() - requestStart);
 
-                    } else if (statusCode == HttpStatus.SC_MOVED_PERMANENTLY || statusCode == HttpStatus.SC_MOVED_TEMPORARILY) {
-                        attemptRetryOnException("redirect", request, new RedirectError(networkResponse));
+        //请求需要进行验证，或者是需要授权异常处理
+        if (statusCode == HttpStatus.SC_UNAUTHORIZED || statusCode == HttpStatus.SC_FORBIDDEN) {
+            //尝试重试策略方法
+            attemptRetryOnException("auth", request, new AuthFailureError(networkResponse));
+            return null;
 
-                    } else {
-                        // TODO: Only throw ServerError for 5xx status codes.
-                        throw new ServerError(networkResponse);
+        } else if (statusCode == HttpStatus.SC_MOVED_PERMANENTLY || statusCode == HttpStatus.SC_MOVED_TEMPORARILY) {
+            attemptRetryOnException("redirect", request, new RedirectError(networkResponse));
+            return null;
 
-                    }
+        } else {
+            // TODO: Only throw ServerError for 5xx status codes.
+            throw new ServerError(networkResponse);
+        }
+    }
 
-                } else {
-                    throw new NetworkError(e);
-                }
-            }
+    /**
+     * Handles an I/O failure of one attempt: prepares the request for a retry if the failure
+     * and its retry policy allow, or throws the matching error.
+     * 处理一次请求中的I/O异常，可重试则返回，否则抛出对应的错误
+     *
+     * @param httpResponse the response, if the failure happened while reading it
+     * @throws VolleyError if the request may not be retried
+     */
+    /* package */ void handleException(Request<?> request, HttpResponse httpResponse, IOException e)
+            throws VolleyError {
+        if (e instanceof SocketTimeoutException) {
+            attemptRetryOnException("socket", request, new TimeoutError());
+        } else if (e instanceof ConnectTimeoutException) {
+            attemptRetryOnException("connection", request, new TimeoutError());
+        } else if (e instanceof MalformedURLException) {
+            throw new RuntimeException("Bad URL " + request.getUrl(), e);
+        } else if (httpResponse == null) {
+            throw new NoConnectionError(e);
+        } else {
+            VolleyLog.e("Unexpected response code %d for %s",
+                    httpResponse.getStatusLine().getStatusCode(), request.getUrl());
+            throw new NetworkError(e);
         }
     }
 
@@ -227,7 +243,8 @@ public class BasicNetwork implements Network {
 
     /**
      * Attempts to prepare the request for a retry. If there are no more attempts remaining in the
-     * request's retry policy, a timeout exception is thrown.
+     * request's retry policy, a timeout exception is thrown. If the request's deadline has
+     * passed, a {@link DeadlineExceededError} is thrown instead of retrying.
      * 尝试重试策略方法
      *
      * @param request The request to use.
@@ -237,6 +254,12 @@ public class BasicNetwork implements Network {
         RetryPolicy retryPolicy = request.getRetryPolicy();
         int oldTimeout = request.getTimeoutMs();
 
+        // No budget left for another attempt.
+        if (request.isPastDeadline()) {
+            request.addMarker(String.format("%s-deadline-giveup [timeout=%s]", logPrefix, oldTimeout));
+            throw new DeadlineExceededError(exception);
+        }
+
         try {
             //重试方式执行
             retryPolicy.retry(exception);
@@ -253,7 +276,7 @@ public class BasicNetwork implements Network {
      * @param headers
      * @param entry
      */
-    private void addCacheHeaders(Map<String, String> headers, Cache.Entry entry) {
+    /* package */ void addCacheHeaders(Map<String, String> headers, Cache.Entry entry) {
         // If there's no cache entry, we're done.
         //缓存数据为空
         if (entry == null) {
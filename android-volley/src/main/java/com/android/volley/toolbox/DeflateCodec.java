@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 缓存数据的deflate压缩与解压，复用Deflater/Inflater
+ * Deflate compression of cache entry bodies.
+ * <p/>
+ * A compressed body is the uncompressed length as a 4-byte int, followed by a zlib stream, so
+ * it can be inflated straight into an array of exactly the right size. Deflaters and Inflaters
+ * hold native memory until they are ended, so a few of each are kept for reuse rather than
+ * created per entry.
+ */
+class DeflateCodec {
+
+    /**
+     * Bodies smaller than this aren't worth compressing.
+     */
+    static final int MIN_COMPRESS_BYTES = 256;
+
+    /**
+     * Compression is kept only if it shrinks the body to at most this fraction of its size;
+     * otherwise inflating it on every read costs more than the space is worth.
+     */
+    static final float MAX_COMPRESSED_RATIO = 0.9f;
+
+    /**
+     * The most a zlib stream can expand: deflate encodes at best about 1032 bytes per byte.
+     */
+    private static final int MAX_INFLATE_RATIO = 1032;
+
+    /**
+     * Most idle Deflaters and Inflaters kept, each.
+     */
+    private static final int POOL_SIZE = 4;
+
+    /**
+     * Idle instances. Guarded by {@code this}.
+     */
+    private final List<Deflater> mDeflaters = new ArrayList<Deflater>(POOL_SIZE);
+    private final List<Inflater> mInflaters = new ArrayList<Inflater>(POOL_SIZE);
+
+    /**
+     * Returns whether a body with {@code responseHeaders} may be worth compressing: it is large
+     * enough and neither content-encoded nor of a type that is compressed already.
+     */
+    static boolean isCompressible(Map<String, String> responseHeaders, int length) {
+        if (length < MIN_COMPRESS_BYTES) {
+            return false;
+        }
+        if (responseHeaders == null) {
+            return true;
+        }
+        for (Map.Entry<String, String> header : responseHeaders.entrySet()) {
+            String name = header.getKey();
+            String value = header.getValue();
+            if (name == null || value == null) {
+                continue;
+            }
+            if (name.equalsIgnoreCase("Content-Encoding")) {
+                if (!value.trim().equalsIgnoreCase("identity")) {
+                    return false;
+                }
+            } else if (name.equalsIgnoreCase("Content-Type")) {
+                if (isCompressedType(value.toLowerCase())) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean isCompressedType(String contentType) {
+        if (contentType.startsWith("image/")) {
+            // SVG is XML text.
+            return !contentType.startsWith("image/svg");
+        }
+        return contentType.startsWith("video/") || contentType.startsWith("audio/")
+                || contentType.contains("zip") || contentType.contains("compressed")
+                || contentType.contains("woff");
+    }
+
+    /**
+     * Compresses {@code data}.
+     *
+     * @return the compressed body, or null if it wouldn't be at most
+     * {@link #MAX_COMPRESSED_RATIO} of the size of {@code data}
+     */
+    byte[] compress(byte[] data) {
+        // Deflating stops as soon as the output outgrows the useful size.
+        byte[] out = new byte[(int) (data.length * MAX_COMPRESSED_RATIO)];
+        if (out.length <= 4) {
+            return null;
+        }
+        putInt(out, data.length);
+        Deflater deflater = obtainDeflater();
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            int length = 4;
+            while (!deflater.finished() && length < out.length) {
+                length += deflater.deflate(out, length, out.length - length);
+            }
+            if (!deflater.finished()) {
+                return null;
+            }
+            byte[] compressed = new byte[length];
+            System.arraycopy(out, 0, compressed, 0, length);
+            return compressed;
+        } finally {
+            recycle(deflater);
+        }
+    }
+
+    /**
+     * Inflates a body returned by {@link #compress(byte[])}. The length prefix is checked
+     * before anything is allocated, so a corrupt body can't ask for an arbitrary amount of
+     * memory.
+     *
+     * @param maxLength the largest uncompressed length to accept
+     * @throws IOException if {@code body} isn't a well-formed compressed body
+     */
+    byte[] decompress(byte[] body, int maxLength) throws IOException {
+        if (body.length < 4) {
+            throw new IOException("Compressed body too short: " + body.length);
+        }
+        int length = getInt(body);
+        if (length < 0 || length > maxLength
+                || length > (long) (body.length - 4) * MAX_INFLATE_RATIO) {
+            throw new IOException("Bad uncompressed length " + length + " for "
+                    + (body.length - 4) + " compressed bytes");
+        }
+        byte[] data = new byte[length];
+        Inflater inflater = obtainInflater();
+        try {
+            inflater.setInput(body, 4, body.length - 4);
+            int offset = 0;
+            while (offset < length) {
+                int count = inflater.inflate(data, offset, length - offset);
+                if (count == 0 && (inflater.finished() || inflater.needsInput()
+                        || inflater.needsDictionary())) {
+                    break;
+                }
+                offset += count;
+            }
+            if (offset != length || !inflater.finished()) {
+                throw new IOException("Expected " + length + " bytes, inflated " + offset);
+            }
+            return data;
+        } catch (DataFormatException e) {
+            throw new IOException(e.toString());
+        } finally {
+            recycle(inflater);
+        }
+    }
+
+    /**
+     * Writes {@code n} to the start of {@code bytes}, in the byte order of
+     * {@link DiskBasedCache#writeInt}.
+     */
+    private static void putInt(byte[] bytes, int n) {
+        bytes[0] = (byte) n;
+        bytes[1] = (byte) (n >> 8);
+        bytes[2] = (byte) (n >> 16);
+        bytes[3] = (byte) (n >> 24);
+    }
+
+    private static int getInt(byte[] bytes) {
+        return (bytes[0] & 0xff) | ((bytes[1] & 0xff) << 8) | ((bytes[2] & 0xff) << 16)
+                | ((bytes[3] & 0xff) << 24);
+    }
+
+    private synchronized Deflater obtainDeflater() {
+        if (mDeflaters.isEmpty()) {
+            return new Deflater(Deflater.BEST_SPEED);
+        }
+        return mDeflaters.remove(mDeflaters.size() - 1);
+    }
+
+    private synchronized Inflater obtainInflater() {
+        if (mInflaters.isEmpty()) {
+            return new Inflater();
+        }
+        return mInflaters.remove(mInflaters.size() - 1);
+    }
+
+    private void recycle(Deflater deflater) {
+        deflater.reset();
+        synchronized (this) {
+            if (mDeflaters.size() < POOL_SIZE) {
+                mDeflaters.add(deflater);
+                return;
+            }
+        }
+        deflater.end();
+    }
+
+    private void recycle(Inflater inflater) {
+        inflater.reset();
+        synchronized (this) {
+            if (mInflaters.size() < POOL_SIZE) {
+                mInflaters.add(inflater);
+                return;
+            }
+        }
+        inflater.end();
+    }
+}
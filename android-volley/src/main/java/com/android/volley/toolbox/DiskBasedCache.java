@@ -16,13 +16,16 @@
 
 package com.android.volley.toolbox;
 
+import android.os.Process;
 import android.os.SystemClock;
 
 import com.android.volley.Cache;
+import com.android.volley.MetadataUpdatableCache;
 import com.android.volley.VolleyLog;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
@@ -31,22 +34,45 @@ import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Cache implementation that caches files directly onto the hard disk in the specified
  * directory. The default disk usage size is 5MB, but is configurable.
  * <p/>
- * 基于磁盘的一种缓存机制
+ * File I/O runs under per-file read/write locks split into stripes, so reads of any keys
+ * proceed concurrently and only wait for a write to the same file. The cache's own lock guards
+ * just the index, its total size and the journal, and is never held while entry data is read
+ * or written.
+ * <p/>
+ * Once a put takes the cache past 90% of its bound, a background janitor thread evicts entries
+ * in small batches until it is back under 80%. Only a put that would exceed the bound itself
+ * prunes inline. {@link #getStats()} reports how long the eviction batches take.
+ * <p/>
+ * With {@link #setCompressionEnabled(boolean)}, entry data is deflated on disk where that
+ * shrinks it by at least 10%. Content that is compressed already (images, gzip and the like)
+ * is stored as is, and so is every entry that compression doesn't help. The cache's bound
+ * applies to the bytes on disk, so compressed entries leave room for more.
+ * <p/>
+ * 基于磁盘的一种缓存机制，读写按文件分段加锁，索引单独加锁
  */
-public class DiskBasedCache implements Cache {
+public class DiskBasedCache implements MetadataUpdatableCache {
 
     /**
-     * Map of the Key, CacheHeader pairs
+     * Map of the Key, CacheHeader pairs. Guarded by {@code this}, as are {@link #mTotalSize},
+     * {@link #mJournal} and the initialization state below.
      * 以键值对的形式保存缓存
      */
     private final Map<String, CacheHeader> mEntries = new LinkedHashMap<String, CacheHeader>(16, .75f, true);
@@ -69,6 +95,82 @@ public class DiskBasedCache implements Cache {
      */
     private final int mMaxCacheSizeInBytes;
 
+    /**
+     * Picks the entries to evict when the cache is full. Told about every change to
+     * {@link #mEntries}.
+     * 淘汰策略
+     */
+    private final EvictionPolicy mEvictionPolicy;
+
+    /**
+     * Journal of changes to {@link #mEntries}, so initialize() needn't open every file.
+     * 索引日志
+     */
+    private final DiskCacheJournal mJournal;
+
+    /**
+     * Locks for the cache files, picked by file name: the read lock is held while a file is
+     * read, the write lock while it is written or deleted. Acquired before {@code this}.
+     * 按文件名分段的读写锁
+     */
+    private final ReentrantReadWriteLock[] mFileLocks = new ReentrantReadWriteLock[LOCK_STRIPES];
+
+    /**
+     * Serializes calls to {@link #initialize()}, which runs mostly without holding the cache's
+     * own lock.
+     */
+    private final Object mInitLock = new Object();
+
+    /**
+     * Whether {@link #mEntries} holds every entry on disk. Until then, keys missing from it are
+     * looked up on disk.
+     */
+    private boolean mIndexComplete = false;
+
+    /**
+     * Keys removed before {@link #initialize()} has merged the index it read, so the merge
+     * doesn't bring them back; null when the index is complete and no initialization runs.
+     */
+    private Set<String> mRemovedWhileIndexing = new HashSet<String>();
+
+    /**
+     * Set if {@link #clear()} is called before {@link #initialize()} has merged the index.
+     */
+    private boolean mClearedWhileIndexing;
+
+    /**
+     * The thread pruning the cache in the background, or null while none runs. Guarded by
+     * {@code this}, which is notified when it exits.
+     */
+    private Thread mJanitor;
+
+    /**
+     * Pruning counters for {@link #getStats()}. Guarded by {@code this}.
+     */
+    private long mPruneBatches;
+    private long mPrunedEntries;
+    private long mPrunedBytes;
+    private long mPruneMillis;
+    private long mMaxPruneBatchMillis;
+    private long mBlockingPrunes;
+
+    /**
+     * Whether new entries are compressed where it helps.
+     */
+    private volatile boolean mCompressionEnabled;
+
+    private final DeflateCodec mCodec = new DeflateCodec();
+
+    /**
+     * Compression counters for {@link #getStats()}. Guarded by {@code this}.
+     */
+    private long mCompressedWrites;
+    private long mIncompressibleWrites;
+    private long mCompressionSavedBytes;
+    private long mCompressionNanos;
+    private long mDecompressions;
+    private long mDecompressionNanos;
+
     /**
      * Default maximum disk usage in bytes.
      * 默认分配的最大内存5M
@@ -76,16 +178,61 @@ public class DiskBasedCache implements Cache {
     private static final int DEFAULT_DISK_USAGE_BYTES = 5 * 1024 * 1024;
 
     /**
-     * High water mark percentage for the cache
+     * High water mark percentage for the cache, above which the janitor prunes it
      * 用于缓存优化
      */
-    private static final float HYSTERESIS_FACTOR = 0.9f;
+    static final float HYSTERESIS_FACTOR = 0.9f;
+
+    /**
+     * Low water mark percentage for the cache, which pruning brings it back under
+     * 清理的目标水位
+     */
+    static final float LOW_WATERMARK_FACTOR = 0.8f;
+
+    /**
+     * Most entries evicted per hold of the cache's lock, so lookups and puts can get in
+     * between batches.
+     */
+    static final int PRUNE_BATCH_ENTRIES = 32;
 
     /**
      * Magic number for current version of cache file format.
      * 缓存的内存分区
      */
-    private static final int CACHE_MAGIC = 0x20150306;
+    private static final int CACHE_MAGIC = 0x20150308;
+
+    /**
+     * Magic number of cache files whose data is compressed by {@link DeflateCodec}; otherwise
+     * their format is that of {@link #CACHE_MAGIC}.
+     * 数据经过压缩的缓存文件
+     */
+    private static final int CACHE_MAGIC_DEFLATE = 0x20150309;
+
+    /**
+     * Spare bytes reserved after each header so that updated metadata of a slightly
+     * different length can still be rewritten in place.
+     * 头部预留的空间，用于原地更新元数据
+     */
+    static final int HEADER_PADDING_BYTES = 64;
+
+    /**
+     * Entries with at least this much data are read through a memory mapping, which copies
+     * them into the returned array once instead of through an intermediate native buffer.
+     * Below it, setting up the mapping costs more than it saves; see
+     * DiskBasedCacheReadBenchmarkTest.
+     * 超过该大小的缓存使用内存映射读取
+     */
+    static final int MAP_THRESHOLD_BYTES = 256 * 1024;
+
+    /**
+     * Largest single read for entries below {@link #MAP_THRESHOLD_BYTES}.
+     */
+    private static final int READ_CHUNK_BYTES = 8192;
+
+    /**
+     * Number of file lock stripes; a power of two.
+     */
+    private static final int LOCK_STRIPES = 16;
 
     /**
      * Constructs an instance of the DiskBasedCache at the specified directory.
@@ -95,8 +242,30 @@ public class DiskBasedCache implements Cache {
      * @param maxCacheSizeInBytes The maximum size of the cache in bytes.
      */
     public DiskBasedCache(File rootDirectory, int maxCacheSizeInBytes) {
+        this(rootDirectory, maxCacheSizeInBytes, new LruEvictionPolicy());
+    }
+
+    /**
+     * Constructs an instance of the DiskBasedCache at the specified directory that evicts
+     * entries as {@code evictionPolicy} decides.
+     * 指定淘汰策略
+     *
+     * @param rootDirectory       The root directory of the cache.
+     * @param maxCacheSizeInBytes The maximum size of the cache in bytes.
+     * @param evictionPolicy      A policy instance for this cache only.
+     */
+    public DiskBasedCache(File rootDirectory, int maxCacheSizeInBytes,
+                          EvictionPolicy evictionPolicy) {
+        if (evictionPolicy == null) {
+            throw new IllegalArgumentException("evictionPolicy must not be null");
+        }
         mRootDirectory = rootDirectory;
         mMaxCacheSizeInBytes = maxCacheSizeInBytes;
+        mEvictionPolicy = evictionPolicy;
+        mJournal = new DiskCacheJournal(rootDirectory);
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            mFileLocks[i] = new ReentrantReadWriteLock();
+        }
     }
 
     /**
@@ -114,15 +283,30 @@ public class DiskBasedCache implements Cache {
      * 清空所有的文件缓存,释放内存
      */
     @Override
-    public synchronized void clear() {
-        File[] files = mRootDirectory.listFiles();
-        if (files != null) {
-            for (File file : files) {
-                file.delete();
+    public void clear() {
+        lockAllFiles();
+        try {
+            synchronized (this) {
+                mJournal.close();
+                File[] files = mRootDirectory.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        file.delete();
+                    }
+                }
+                mEntries.clear();
+                mEvictionPolicy.clear();
+                mTotalSize = 0;
+                if (mRemovedWhileIndexing != null) {
+                    // initialize() rebuilds the journal when it finishes.
+                    mClearedWhileIndexing = true;
+                } else {
+                    mJournal.rebuild(mEntries.values());
+                }
             }
+        } finally {
+            unlockAllFiles();
         }
-        mEntries.clear();
-        mTotalSize = 0;
         VolleyLog.d("Cache cleared.");
     }
 
@@ -130,41 +314,119 @@ public class DiskBasedCache implements Cache {
      * Returns the cache entry with the specified key if it exists, null otherwise.
      */
     @Override
-    public synchronized Entry get(String key) {
-        CacheHeader entry = mEntries.get(key);
-        // if the entry does not exist, return.
-        if (entry == null) {
-            return null;
-        }
-
+    public Entry get(String key) {
         //返回键值对应的缓存文件
         File file = getFileForKey(key);
-        CountingInputStream cis = null;
+        ReentrantReadWriteLock lock = lockFor(file.getName());
+        CacheHeader entry;
+        lock.readLock().lock();
         try {
-            //封装成流
-            cis = new CountingInputStream(new BufferedInputStream(new FileInputStream(file)));
-            CacheHeader.readHeader(cis); // eat header
-
-            //读取数据
-            byte[] data = streamToBytes(cis, (int) (file.length() - cis.bytesRead));
-            //返回entry中保存的数据
-            return entry.toCacheEntry(data);
-        } catch (IOException e) {
-            VolleyLog.d("%s: %s", file.getAbsolutePath(), e.toString());
-            remove(key);
-            return null;
-        } catch (NegativeArraySizeException e) {
-            VolleyLog.d("%s: %s", file.getAbsolutePath(), e.toString());
+            entry = lookup(key);
+            // if the entry does not exist, return.
+            if (entry == null) {
+                return null;
+            }
+            try {
+                // The index already holds the header, so only the data is read.
+                //读取数据
+                byte[] data = readData(file, entry);
+                long inflateNanos = 0;
+                if (entry.compressed) {
+                    long start = System.nanoTime();
+                    // Nothing bigger than the whole cache can have been stored.
+                    data = mCodec.decompress(data, mMaxCacheSizeInBytes);
+                    inflateNanos = System.nanoTime() - start;
+                }
+                synchronized (this) {
+                    mJournal.appendAccess(key, mEntries.size());
+                    if (entry.compressed) {
+                        mDecompressions++;
+                        mDecompressionNanos += inflateNanos;
+                    }
+                }
+                //返回entry中保存的数据
+                return entry.toCacheEntry(data);
+            } catch (IOException e) {
+                VolleyLog.d("%s: %s", file.getAbsolutePath(), e.toString());
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        // A read lock can't be upgraded, so the entry may have been replaced before the write
+        // lock is taken; only drop the one that couldn't be read.
+        lock.writeLock().lock();
+        try {
+            synchronized (this) {
+                if (mEntries.get(key) != entry) {
+                    return null;
+                }
+            }
             remove(key);
             return null;
         } finally {
-            if (cis != null) {
-                try {
-                    cis.close();
-                } catch (IOException ioe) {
-                    return null;
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Reads the data of the entry {@code header} describes straight into an array of exactly
+     * its size, without parsing the rest of the header or staging the data in a stream buffer.
+     * Large entries are copied out of a read-only mapping; smaller ones are read with a
+     * positional read, where a mapping costs more than it saves.
+     * <p/>
+     * The index may not match the file, e.g. if a crash left a journal record newer than the
+     * file it describes, so the file must start with the header's magic number and key and
+     * hold exactly {@code header.size} bytes of data.
+     * 跳过头部直接读取数据，大文件使用内存映射
+     *
+     * @throws IOException if the file can't be read or doesn't match {@code header}
+     */
+    static byte[] readData(File file, CacheHeader header) throws IOException {
+        return readData(file, header, header.size >= MAP_THRESHOLD_BYTES);
+    }
+
+    /**
+     * Reads the data like {@link #readData(File, CacheHeader)}, through a mapping if {@code map}
+     * is true, whatever its size.
+     */
+    // Visible for testing.
+    static byte[] readData(File file, CacheHeader header, boolean map) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            int headerSize = header.headerSize;
+            long length = raf.length() - headerSize;
+            if (headerSize <= 0 || length != header.size || length > Integer.MAX_VALUE) {
+                throw new IOException("Bad entry layout: header " + headerSize + ", data "
+                        + header.size + ", file " + raf.length());
+            }
+            byte[] identity = header.identity();
+            byte[] onDisk = new byte[identity.length];
+            raf.readFully(onDisk);
+            if (!Arrays.equals(identity, onDisk)) {
+                throw new IOException("File doesn't hold an entry for " + header.key);
+            }
+            byte[] data = new byte[(int) length];
+            if (map) {
+                MappedByteBuffer mapping = raf.getChannel().map(
+                        FileChannel.MapMode.READ_ONLY, headerSize, length);
+                mapping.get(data);
+            } else {
+                raf.seek(headerSize);
+                // Chunked so each read fits the platform's stack buffer instead of making it
+                // allocate a native copy of the whole entry.
+                int offset = 0;
+                while (offset < data.length) {
+                    int count = raf.read(data, offset, Math.min(READ_CHUNK_BYTES, data.length - offset));
+                    if (count < 0) {
+                        throw new EOFException();
+                    }
+                    offset += count;
                 }
             }
+            return data;
+        } finally {
+            raf.close();
         }
     }
 
@@ -172,20 +434,57 @@ public class DiskBasedCache implements Cache {
      * Initializes the DiskBasedCache by scanning for all files currently in the
      * specified root directory. Creates the root directory if necessary.
      * <p/>
+     * The cache can be used while this runs. The index is read without holding the cache's
+     * lock and merged in at the end; until then, a key that isn't indexed yet is looked up by
+     * reading its file directly, and changes made meanwhile win over what was read.
+     * <p/>
      * 初始化的过程是对缓存文件的扫描，
      * 遍历所有文件，把所有的缓存数据进行保存，然后写入到内存当中
+     * 初始化期间缓存可以正常使用
      */
     @Override
-    public synchronized void initialize() {
+    public void initialize() {
+        synchronized (mInitLock) {
+            synchronized (this) {
+                mJournal.close();
+                if (mRemovedWhileIndexing == null) {
+                    mRemovedWhileIndexing = new HashSet<String>();
+                }
+            }
 
-        //文件不存在
-        if (!mRootDirectory.exists()) {
-            if (!mRootDirectory.mkdirs()) {
-                VolleyLog.e("Unable to create cache dir %s", mRootDirectory.getAbsolutePath());
+            Map<String, CacheHeader> loaded = new LinkedHashMap<String, CacheHeader>(16, .75f, true);
+            boolean fromJournal = false;
+            //文件不存在
+            if (!mRootDirectory.exists()) {
+                if (!mRootDirectory.mkdirs()) {
+                    VolleyLog.e("Unable to create cache dir %s", mRootDirectory.getAbsolutePath());
+                }
+            } else {
+                // 优先从索引日志恢复，只需一次顺序读
+                fromJournal = mJournal.load(loaded);
+                if (!fromJournal) {
+                    loaded.clear();
+                    scanDirectory(loaded);
+                }
+            }
+
+            // No file may be mid-write while orphans are swept.
+            lockAllFiles();
+            try {
+                synchronized (this) {
+                    finishInitialize(loaded, fromJournal);
+                }
+            } finally {
+                unlockAllFiles();
             }
-            return;
         }
+    }
 
+    /**
+     * Reads the header of every file in the cache directory into {@code loaded}, deleting
+     * unreadable files. Called without the lock held.
+     */
+    private void scanDirectory(Map<String, CacheHeader> loaded) {
         //获取所有的缓存文件
         File[] files = mRootDirectory.listFiles();
         if (files == null) {
@@ -194,28 +493,168 @@ public class DiskBasedCache implements Cache {
 
         //通过遍历所有文件，将数据进行保存
         for (File file : files) {
-            BufferedInputStream fis = null;
+            if (DiskCacheJournal.isJournalFile(file.getName())) {
+                continue;
+            }
             try {
-                fis = new BufferedInputStream(new FileInputStream(file));
                 // 将读取的数据保存在Entry当中
-                CacheHeader entry = CacheHeader.readHeader(fis);
-                entry.size = file.length();
+                CacheHeader entry = readHeader(file);
 
                 //将封装好的数据保存在Map当中
-                putEntry(entry.key, entry);
-            } catch (IOException e) {
-                if (file != null) {
-                    file.delete();
+                if (!loaded.containsKey(entry.key)) {
+                    loaded.put(entry.key, entry);
                 }
-            } finally {
-                try {
-                    if (fis != null) {
-                        fis.close();
-                    }
-                } catch (IOException ignored) {
+            } catch (IOException e) {
+                deleteIfUnreadable(file);
+            }
+        }
+    }
+
+    /**
+     * Deletes an unreadable file found by the scan, once no put can be writing it: checked
+     * again under its write lock, as a put may have been midway through it when it was read.
+     */
+    private void deleteIfUnreadable(File file) {
+        ReentrantReadWriteLock lock = lockFor(file.getName());
+        lock.writeLock().lock();
+        try {
+            readHeader(file);
+        } catch (IOException e) {
+            file.delete();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Reads the header of a cache file, recording the size of its data and of the header.
+     * Malformed content is reported as an IOException.
+     */
+    private static CacheHeader readHeader(File file) throws IOException {
+        CountingInputStream cis =
+                new CountingInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            CacheHeader header = CacheHeader.readHeader(cis);
+            header.headerSize = cis.bytesRead;
+            header.size = file.length() - header.headerSize;
+            return header;
+        } catch (RuntimeException e) {
+            // Whatever garbage the file holds, callers treat it as unreadable.
+            IOException unreadable = new IOException(e.toString());
+            unreadable.initCause(e);
+            throw unreadable;
+        } finally {
+            cis.close();
+        }
+    }
+
+    /**
+     * Merges the index read by {@link #initialize()} with the changes made meanwhile, and
+     * starts journaling. Must be called with every file lock and the cache's lock held.
+     */
+    private void finishInitialize(Map<String, CacheHeader> loaded, boolean fromJournal) {
+        // Entries put (or looked up) during initialization are newer than anything loaded;
+        // keep them, most recently used, after the loaded ones.
+        Map<String, CacheHeader> live = new LinkedHashMap<String, CacheHeader>(mEntries);
+        mEntries.clear();
+        if (!mClearedWhileIndexing) {
+            for (CacheHeader entry : loaded.values()) {
+                if (!live.containsKey(entry.key) && !mRemovedWhileIndexing.contains(entry.key)) {
+                    mEntries.put(entry.key, entry);
                 }
             }
         }
+        mEntries.putAll(live);
+        mRemovedWhileIndexing = null;
+        mIndexComplete = true;
+        recomputeTotalSize();
+        mEvictionPolicy.clear();
+        for (CacheHeader entry : mEntries.values()) {
+            mEvictionPolicy.onInsert(entry.key, entry.size);
+        }
+
+        if (fromJournal) {
+            removeOrphanFiles();
+        }
+        if (fromJournal && live.isEmpty() && !mClearedWhileIndexing
+                && !mJournal.needsRebuild(mEntries.size())) {
+            mJournal.open();
+        } else {
+            mJournal.rebuild(mEntries.values());
+        }
+        mClearedWhileIndexing = false;
+        // E.g. the bound was lowered since the entries were written.
+        maybeStartJanitor();
+    }
+
+    /**
+     * Returns the indexed header for {@code key}. Until the index is complete, a key that isn't
+     * in it yet is looked up by reading its file's header, and indexed if found there. Must be
+     * called with the key's file lock held.
+     */
+    private CacheHeader lookup(String key) {
+        synchronized (this) {
+            CacheHeader header = mEntries.get(key);
+            if (header != null) {
+                mEvictionPolicy.onAccess(key);
+                return header;
+            }
+            if (mIndexComplete) {
+                mEvictionPolicy.onMiss(key);
+                return null;
+            }
+        }
+        File file = getFileForKey(key);
+        if (!file.exists()) {
+            return null;
+        }
+        CacheHeader header;
+        try {
+            header = readHeader(file);
+        } catch (IOException e) {
+            VolleyLog.d("%s: %s", file.getAbsolutePath(), e.toString());
+            return null;
+        }
+        if (!key.equals(header.key)) {
+            // Another key whose file name collides.
+            return null;
+        }
+        synchronized (this) {
+            // Another reader may have indexed it meanwhile.
+            CacheHeader indexed = mEntries.get(key);
+            if (indexed != null) {
+                return indexed;
+            }
+            putEntry(key, header);
+        }
+        return header;
+    }
+
+    /**
+     * Deletes files in the cache directory that no entry refers to, e.g. one whose journal
+     * record was lost in a crash. Lists the directory but opens no files.
+     */
+    private void removeOrphanFiles() {
+        String[] names = mRootDirectory.list();
+        if (names == null) {
+            return;
+        }
+        Set<String> live = new HashSet<String>();
+        for (String key : mEntries.keySet()) {
+            live.add(getFilenameForKey(key));
+        }
+        for (String name : names) {
+            if (!live.contains(name) && !DiskCacheJournal.isJournalFile(name)) {
+                new File(mRootDirectory, name).delete();
+            }
+        }
+    }
+
+    private void recomputeTotalSize() {
+        mTotalSize = 0;
+        for (CacheHeader entry : mEntries.values()) {
+            mTotalSize += entry.size;
+        }
     }
 
     /**
@@ -225,46 +664,150 @@ public class DiskBasedCache implements Cache {
      * @param fullExpire True to fully expire the entry, false to soft expire
      */
     @Override
-    public synchronized void invalidate(String key, boolean fullExpire) {
-        Entry entry = get(key);
-        if (entry != null) {
-            entry.softTtl = 0;
+    public void invalidate(String key, boolean fullExpire) {
+        ReentrantReadWriteLock lock = lockFor(getFilenameForKey(key));
+        lock.writeLock().lock();
+        try {
+            CacheHeader header = lookup(key);
+            if (header == null) {
+                return;
+            }
+            CacheHeader expired = header.copy();
+            expired.softTtl = 0;
             if (fullExpire) {
-                entry.ttl = 0;
+                expired.ttl = 0;
             }
-            put(key, entry);
+            if (rewriteHeader(expired, header.headerSize)) {
+                return;
+            }
+            Entry entry = get(key);
+            if (entry != null) {
+                entry.softTtl = expired.softTtl;
+                entry.ttl = expired.ttl;
+                put(key, entry);
+            }
+        } finally {
+            lock.writeLock().unlock();
         }
+    }
 
+    /**
+     * Replaces the metadata of an entry by rewriting only its header, as long as the new
+     * header fits in the space of the old one; otherwise rewrites the whole file.
+     */
+    @Override
+    public void updateMetadata(String key, Entry entry) {
+        ReentrantReadWriteLock lock = lockFor(getFilenameForKey(key));
+        lock.writeLock().lock();
+        try {
+            CacheHeader header = lookup(key);
+            if (header == null) {
+                put(key, entry);
+                return;
+            }
+            CacheHeader updated = new CacheHeader(key, entry);
+            updated.size = header.size;
+            updated.compressed = header.compressed;
+            if (!rewriteHeader(updated, header.headerSize)) {
+                put(key, entry);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     /**
      * Puts the entry with the specified key into the cache.
      */
     @Override
-    public synchronized void put(String key, Entry entry) {
-        //判断缓存是否需要经过优化
-        pruneIfNeeded(entry.data.length);
+    public void put(String key, Entry entry) {
+        // Compressed before taking the file's lock, which it doesn't need.
+        byte[] body = encode(entry);
         //获取缓存文件的key值
         File file = getFileForKey(key);
+        ReentrantReadWriteLock lock = lockFor(file.getName());
+        lock.writeLock().lock();
+        try {
+            //判断缓存是否需要经过优化
+            if (reserve(key, body.length)) {
+                write(key, entry, body, file);
+                return;
+            }
+            // Not admitted; don't leave an older version behind either.
+            file.delete();
+            synchronized (this) {
+                removeEntry(key);
+                if (mRemovedWhileIndexing != null) {
+                    mRemovedWhileIndexing.add(key);
+                }
+            }
+            VolleyLog.d("Eviction policy declined to cache key=%s", key);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the bytes to store for {@code entry}: its data compressed, if compression is
+     * enabled and pays off, or else its data as is.
+     * 按需压缩缓存数据
+     */
+    private byte[] encode(Entry entry) {
+        if (!mCompressionEnabled
+                || !DeflateCodec.isCompressible(entry.responseHeaders, entry.data.length)) {
+            return entry.data;
+        }
+        long start = System.nanoTime();
+        byte[] body = mCodec.compress(entry.data);
+        long elapsed = System.nanoTime() - start;
+        synchronized (this) {
+            mCompressionNanos += elapsed;
+            if (body != null) {
+                mCompressedWrites++;
+                mCompressionSavedBytes += entry.data.length - body.length;
+            } else {
+                mIncompressibleWrites++;
+            }
+        }
+        return body != null ? body : entry.data;
+    }
+
+    /**
+     * Writes {@code entry} to {@code file} with {@code body} as its data, as returned by
+     * {@link #encode(Entry)}, and indexes it. Must be called with the file's write lock held.
+     */
+    private void write(String key, Entry entry, byte[] body, File file) {
         try {
             BufferedOutputStream fos = new BufferedOutputStream(new FileOutputStream(file));
             //创建一个新的CacheHeader对象
             CacheHeader e = new CacheHeader(key, entry);
+            e.size = body.length;
+            e.compressed = body != entry.data;
             //按照指定方式写头部信息，包括缓存过期时间，新鲜度等等
-            boolean success = e.writeHeader(fos);
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            boolean success = e.writeHeader(header);
             if (!success) {
                 fos.close();
                 VolleyLog.d("Failed to write header for %s", file.getAbsolutePath());
                 throw new IOException();
             }
-            fos.write(entry.data);
+            e.headerSize = header.size();
+            header.writeTo(fos);
+            fos.write(body);
             fos.close();
 
             //以键值对的形式将数据保存
-            putEntry(key, e);
+            synchronized (this) {
+                putEntry(key, e);
+            }
             return;
         } catch (IOException e) {
         }
+        synchronized (this) {
+            if (!mEntries.containsKey(key)) {
+                mEvictionPolicy.onRemove(key);
+            }
+        }
         boolean deleted = file.delete();
         if (!deleted) {
             VolleyLog.d("Could not clean up file %s", file.getAbsolutePath());
@@ -275,15 +818,71 @@ public class DiskBasedCache implements Cache {
      * Removes the specified key from the cache if it exists.
      */
     @Override
-    public synchronized void remove(String key) {
-        boolean deleted = getFileForKey(key).delete();
-        removeEntry(key);
+    public void remove(String key) {
+        File file = getFileForKey(key);
+        ReentrantReadWriteLock lock = lockFor(file.getName());
+        boolean deleted;
+        lock.writeLock().lock();
+        try {
+            deleted = file.delete();
+            synchronized (this) {
+                removeEntry(key);
+                if (mRemovedWhileIndexing != null) {
+                    mRemovedWhileIndexing.add(key);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
         if (!deleted) {
             VolleyLog.d("Could not delete cache entry for key=%s, filename=%s",
                     key, getFilenameForKey(key));
         }
     }
 
+    /**
+     * Overwrites the header of {@code header.key}'s file in place, padding it to exactly
+     * {@code headerSize} bytes so the data that follows is untouched. Must be called with the
+     * file's write lock held.
+     *
+     * @return true if the header was rewritten and recorded; false if it doesn't fit or
+     * couldn't be written, in which case the file must be rewritten in full
+     */
+    private boolean rewriteHeader(CacheHeader header, int headerSize) {
+        if (headerSize <= 0) {
+            return false;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(headerSize);
+        int padding = headerSize - header.unpaddedSize();
+        if (padding < 0 || !header.writeHeader(bytes, padding)) {
+            return false;
+        }
+        File file = getFileForKey(header.key);
+        if (!file.exists()) {
+            return false;
+        }
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            raf.write(bytes.toByteArray());
+        } catch (IOException e) {
+            VolleyLog.d("%s: %s", file.getAbsolutePath(), e.toString());
+            return false;
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        header.headerSize = headerSize;
+        synchronized (this) {
+            putEntry(header.key, header);
+        }
+        return true;
+    }
+
     /**
      * Creates a pseudo-unique filename for the specified cache key.
      *
@@ -308,62 +907,245 @@ public class DiskBasedCache implements Cache {
     }
 
     /**
-     * Prunes the cache to fit the amount of bytes specified.
+     * Makes room for the amount of bytes specified. Below the bound this is left to the janitor,
+     * which {@link #putEntry} starts once the high water mark is crossed; a put that would
+     * exceed the bound prunes inline instead. Must be called with {@code key}'s file lock held
+     * and the cache's lock not held.
      *
+     * @param key         The key about to be stored, which takes part in the selection.
      * @param neededSpace The amount of bytes we are trying to fit into the cache.
+     * @return false if the policy picked {@code key} itself, declining to admit it, or the
+     * entry can never fit
      */
-    private void pruneIfNeeded(int neededSpace) {
+    private boolean reserve(String key, int neededSpace) {
+        synchronized (this) {
+            //如果缓存数据的大小小于预先指定的大小
+            if ((mTotalSize + neededSpace) < mMaxCacheSizeInBytes) {
+                mEvictionPolicy.onInsert(key, neededSpace);
+                return true;
+            }
+            if (neededSpace > mMaxCacheSizeInBytes * HYSTERESIS_FACTOR) {
+                // Evicting everything else still wouldn't make room.
+                return false;
+            }
+            mEvictionPolicy.onInsert(key, neededSpace);
+            mBlockingPrunes++;
+        }
+        return prune(key, neededSpace);
+    }
+
+    /**
+     * Evicts what the eviction policy picks, a batch at a time, until the amount of bytes
+     * specified fits under the low water mark. Must be called with the cache's lock not held,
+     * and with {@code key}'s file lock held if {@code key} is not null.
+     *
+     * @param key         The key about to be stored, which takes part in the selection, or null.
+     * @param neededSpace The amount of bytes we are trying to fit into the cache.
+     * @return false if the policy picked {@code key} itself, declining to admit it
+     */
+    private boolean prune(String key, int neededSpace) {
+        long target = (long) (mMaxCacheSizeInBytes * LOW_WATERMARK_FACTOR);
+        int attempts = -1;
+        boolean admitted = true;
+        boolean done = false;
+        while (!done) {
+            List<CacheHeader> pruned = new ArrayList<CacheHeader>();
+            //获取时间..用于调试过程
+            long startTime = SystemClock.elapsedRealtime();
+            long bytes = 0;
+            synchronized (this) {
+                if (attempts < 0) {
+                    if (VolleyLog.DEBUG) {
+                        VolleyLog.v("Pruning old cache entries.");
+                    }
+                    // Bounded, as in-use entries are handed back to the policy to requeue.
+                    attempts = mEntries.size() + 1;
+                }
+                while (pruned.size() < PRUNE_BATCH_ENTRIES) {
+                    //如果优化后的大小小于预先设定的大小...那么就结束所有操作
+                    if ((mTotalSize + neededSpace) < target || attempts-- <= 0) {
+                        done = true;
+                        break;
+                    }
+                    String victim = mEvictionPolicy.nextVictim();
+                    if (victim == null) {
+                        done = true;
+                        break;
+                    }
+                    if (victim.equals(key)) {
+                        mEvictionPolicy.onRemove(key);
+                        admitted = false;
+                        done = true;
+                        break;
+                    }
+                    CacheHeader e = mEntries.get(victim);
+                    if (e == null) {
+                        mEvictionPolicy.onRemove(victim);
+                        continue;
+                    }
 
-        //如果缓存数据的大小小于预先指定的大小
-        if ((mTotalSize + neededSpace) < mMaxCacheSizeInBytes) {
+                    // Skip entries being read or written; waiting for them here could
+                    // deadlock, and they are in use anyway. Their locks are held until the file
+                    // is deleted.
+                    if (!lockFor(getFilenameForKey(e.key)).writeLock().tryLock()) {
+                        mEvictionPolicy.onRequeue(victim);
+                        continue;
+                    }
+                    mTotalSize -= e.size;
+                    mEntries.remove(victim);
+                    mEvictionPolicy.onRemove(victim);
+                    mJournal.appendRemove(e.key);
+                    if (mRemovedWhileIndexing != null) {
+                        mRemovedWhileIndexing.add(e.key);
+                    }
+                    pruned.add(e);
+                    bytes += e.size;
+                }
+            }
+            if (pruned.isEmpty()) {
+                break;
+            }
+
+            // The files are deleted outside the cache's lock.
+            for (CacheHeader e : pruned) {
+                //删除原本的文件名...对文件名进行优化,优化的也仅仅是文件名字的长度
+                File file = getFileForKey(e.key);
+                if (!file.delete()) {
+                    VolleyLog.d("Could not delete cache entry for key=%s, filename=%s",
+                            e.key, file.getName());
+                }
+                lockFor(file.getName()).writeLock().unlock();
+            }
+            long elapsed = SystemClock.elapsedRealtime() - startTime;
+            synchronized (this) {
+                mPruneBatches++;
+                mPrunedEntries += pruned.size();
+                mPrunedBytes += bytes;
+                mPruneMillis += elapsed;
+                mMaxPruneBatchMillis = Math.max(mMaxPruneBatchMillis, elapsed);
+            }
+            if (VolleyLog.DEBUG) {
+                VolleyLog.v("pruned %d files, %d bytes, %d ms", pruned.size(), bytes, elapsed);
+            }
+        }
+        return admitted;
+    }
+
+    /**
+     * Starts the janitor if the cache is above the high water mark and none is running. Must be
+     * called with the cache's lock held.
+     */
+    private void maybeStartJanitor() {
+        if (mJanitor != null || mTotalSize < mMaxCacheSizeInBytes * HYSTERESIS_FACTOR) {
             return;
         }
+        mJanitor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runJanitor();
+            }
+        }, "Volley-CacheJanitor");
+        mJanitor.setDaemon(true);
+        mJanitor.start();
+    }
 
-        if (VolleyLog.DEBUG) {
-            VolleyLog.v("Pruning old cache entries.");
+    /**
+     * Janitor loop: prunes to the low water mark until the cache stays under the high water
+     * mark, then exits. The next write crossing it starts a new janitor.
+     */
+    private void runJanitor() {
+        long before = -1;
+        try {
+            while (true) {
+                synchronized (this) {
+                    // Give up if the last round evicted nothing, e.g. everything left is in use.
+                    if (mTotalSize < mMaxCacheSizeInBytes * HYSTERESIS_FACTOR
+                            || mTotalSize == before) {
+                        stopJanitor();
+                        return;
+                    }
+                    before = mTotalSize;
+                }
+                prune(null, 0);
+            }
+        } catch (RuntimeException e) {
+            VolleyLog.e(e, "Failed to prune cache");
+            synchronized (this) {
+                stopJanitor();
+            }
         }
+    }
 
-        //表示文件数据减小的长度
-        long before = mTotalSize;
-        //优化的文件数量
-        int prunedFiles = 0;
-        //获取时间..用于调试过程
-        long startTime = SystemClock.elapsedRealtime();
+    /**
+     * Must be called by the janitor with the cache's lock held.
+     */
+    private void stopJanitor() {
+        mJanitor = null;
+        notifyAll();
+    }
 
-        //对Map保存的数据进行遍历
-        Iterator<Map.Entry<String, CacheHeader>> iterator = mEntries.entrySet().iterator();
-        while (iterator.hasNext()) {
-            Map.Entry<String, CacheHeader> entry = iterator.next();
-            CacheHeader e = entry.getValue();
+    /**
+     * Waits until the janitor, if any, has finished.
+     */
+    // Visible for testing.
+    synchronized void awaitPruning() throws InterruptedException {
+        while (mJanitor != null) {
+            wait();
+        }
+    }
 
-            //删除原本的文件名...对文件名进行优化,优化的也仅仅是文件名字的长度
-            boolean deleted = getFileForKey(e.key).delete();
-            if (deleted) {
-                //设置数据减小的长度
-                mTotalSize -= e.size;
-            } else {
-                VolleyLog.d("Could not delete cache entry for key=%s, filename=%s",
-                        e.key, getFilenameForKey(e.key));
-            }
-            iterator.remove();
+    /**
+     * Sets whether entries put from now on are compressed where it helps. Entries already on
+     * disk are read either way. Off by default.
+     * 设置是否压缩缓存数据
+     */
+    public void setCompressionEnabled(boolean enabled) {
+        mCompressionEnabled = enabled;
+    }
 
-            //表示优化的文件数量
-            prunedFiles++;
+    /**
+     * Returns a snapshot of the cache's size, of how pruning it has gone so far and of what
+     * compression has saved and cost.
+     * 返回缓存大小、清理耗时与压缩效果的统计
+     */
+    public synchronized DiskBasedCacheStats getStats() {
+        return new DiskBasedCacheStats(mEntries.size(), mTotalSize, mMaxCacheSizeInBytes,
+                mPruneBatches, mPrunedEntries, mPrunedBytes, mPruneMillis, mMaxPruneBatchMillis,
+                mBlockingPrunes, mCompressedWrites, mIncompressibleWrites, mCompressionSavedBytes,
+                mCompressionNanos, mDecompressions, mDecompressionNanos);
+    }
 
-            //如果优化后的大小小于预先设定的大小...那么就结束所有操作
-            if ((mTotalSize + neededSpace) < mMaxCacheSizeInBytes * HYSTERESIS_FACTOR) {
-                break;
-            }
+    /**
+     * Returns the lock for the cache file named {@code filename}. Keys whose file names
+     * collide share a lock.
+     */
+    private ReentrantReadWriteLock lockFor(String filename) {
+        int h = filename.hashCode();
+        // Spread the high bits down, as HashMap does, before masking.
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return mFileLocks[h & (LOCK_STRIPES - 1)];
+    }
+
+    /**
+     * Takes every file's write lock, in a fixed order.
+     */
+    private void lockAllFiles() {
+        for (ReentrantReadWriteLock lock : mFileLocks) {
+            lock.writeLock().lock();
         }
+    }
 
-        if (VolleyLog.DEBUG) {
-            VolleyLog.v("pruned %d files, %d bytes, %d ms",
-                    prunedFiles, (mTotalSize - before), SystemClock.elapsedRealtime() - startTime);
+    private void unlockAllFiles() {
+        for (int i = mFileLocks.length - 1; i >= 0; i--) {
+            mFileLocks[i].writeLock().unlock();
         }
     }
 
     /**
-     * Puts the entry with the specified key into the cache.
+     * Puts the entry with the specified key into the index. Must be called with the cache's
+     * lock held.
      *
      * @param key   The key to identify the entry by.
      * @param entry The entry to cache.
@@ -379,16 +1161,33 @@ public class DiskBasedCache implements Cache {
             mTotalSize += (entry.size - oldEntry.size);
         }
         mEntries.put(key, entry);
+        mEvictionPolicy.onInsert(key, entry.size);
+        mJournal.appendPut(entry);
+        maybeCompactJournal();
+        maybeStartJanitor();
     }
 
     /**
-     * Removes the entry identified by 'key' from the cache.
+     * Removes the entry identified by 'key' from the index. Must be called with the cache's
+     * lock held.
      */
     private void removeEntry(String key) {
         CacheHeader entry = mEntries.get(key);
         if (entry != null) {
             mTotalSize -= entry.size;
             mEntries.remove(key);
+            mEvictionPolicy.onRemove(key);
+            mJournal.appendRemove(key);
+            maybeCompactJournal();
+        }
+    }
+
+    /**
+     * Rewrites the journal as a snapshot of the index once it is mostly superseded records.
+     */
+    private void maybeCompactJournal() {
+        if (mJournal.isOpen() && mJournal.needsRebuild(mEntries.size())) {
+            mJournal.rebuild(mEntries.values());
         }
     }
 
@@ -396,6 +1195,10 @@ public class DiskBasedCache implements Cache {
      * Reads the contents of an InputStream into a byte[].
      */
     private static byte[] streamToBytes(InputStream in, int length) throws IOException {
+        if (length < 0) {
+            // A corrupt length; fail like any other unreadable file.
+            throw new IOException("Negative length " + length);
+        }
         byte[] bytes = new byte[length];
         int count;
         int pos = 0;
@@ -420,6 +1223,18 @@ public class DiskBasedCache implements Cache {
          */
         public long size;
 
+        /**
+         * The number of bytes the header takes on disk, including padding, or 0 if unknown.
+         * (This is not serialized to disk.)
+         */
+        int headerSize;
+
+        /**
+         * Whether the data is compressed by {@link DeflateCodec}. (This is serialized to disk
+         * as the header's magic number.)
+         */
+        boolean compressed;
+
         /**
          * The key that identifies the cache entry.
          * 缓存的键值
@@ -455,6 +1270,11 @@ public class DiskBasedCache implements Cache {
          */
         public long softTtl;
 
+        /**
+         * Time until which this record may be served if refreshing it fails.
+         */
+        public long staleIfErrorTtl;
+
         /**
          * Headers from the response resulting in this cache entry.
          * 保存响应头部信息的map
@@ -478,6 +1298,7 @@ public class DiskBasedCache implements Cache {
             this.lastModified = entry.lastModified;
             this.ttl = entry.ttl;
             this.softTtl = entry.softTtl;
+            this.staleIfErrorTtl = entry.staleIfErrorTtl;
             this.responseHeaders = entry.responseHeaders;
         }
 
@@ -490,7 +1311,9 @@ public class DiskBasedCache implements Cache {
         public static CacheHeader readHeader(InputStream is) throws IOException {
             CacheHeader entry = new CacheHeader();
             int magic = readInt(is);
-            if (magic != CACHE_MAGIC) {
+            if (magic == CACHE_MAGIC_DEFLATE) {
+                entry.compressed = true;
+            } else if (magic != CACHE_MAGIC) {
                 // don't bother deleting, it'll get pruned eventually
                 throw new IOException();
             }
@@ -503,7 +1326,15 @@ public class DiskBasedCache implements Cache {
             entry.lastModified = readLong(is);
             entry.ttl = readLong(is);
             entry.softTtl = readLong(is);
+            entry.staleIfErrorTtl = readLong(is);
             entry.responseHeaders = readStringStringMap(is);
+            int padding = readInt(is);
+            if (padding < 0) {
+                throw new IOException();
+            }
+            for (int i = 0; i < padding; i++) {
+                read(is);
+            }
 
             return entry;
         }
@@ -519,24 +1350,47 @@ public class DiskBasedCache implements Cache {
             e.lastModified = lastModified;
             e.ttl = ttl;
             e.softTtl = softTtl;
+            e.staleIfErrorTtl = staleIfErrorTtl;
             e.responseHeaders = responseHeaders;
             return e;
         }
 
 
         /**
-         * Writes the contents of this CacheHeader to the specified OutputStream.
+         * Returns a copy of this header.
+         */
+        CacheHeader copy() {
+            CacheHeader copy = new CacheHeader();
+            copy.size = size;
+            copy.headerSize = headerSize;
+            copy.compressed = compressed;
+            copy.key = key;
+            copy.etag = etag;
+            copy.serverDate = serverDate;
+            copy.lastModified = lastModified;
+            copy.ttl = ttl;
+            copy.softTtl = softTtl;
+            copy.staleIfErrorTtl = staleIfErrorTtl;
+            copy.responseHeaders = responseHeaders;
+            return copy;
+        }
+
+        /**
+         * Writes the contents of this CacheHeader to the specified OutputStream, followed by
+         * the default padding.
          */
         public boolean writeHeader(OutputStream os) {
+            return writeHeader(os, HEADER_PADDING_BYTES);
+        }
+
+        /**
+         * Writes the contents of this CacheHeader followed by {@code padding} spare bytes.
+         */
+        boolean writeHeader(OutputStream os, int padding) {
             try {
-                writeInt(os, CACHE_MAGIC);
-                writeString(os, key);
-                writeString(os, etag == null ? "" : etag);
-                writeLong(os, serverDate);
-                writeLong(os, lastModified);
-                writeLong(os, ttl);
-                writeLong(os, softTtl);
-                writeStringStringMap(responseHeaders, os);
+                writeFields(os);
+                writeInt(os, padding);
+                os.write(new byte[padding]);
                 os.flush();
                 return true;
             } catch (IOException e) {
@@ -545,6 +1399,42 @@ public class DiskBasedCache implements Cache {
             }
         }
 
+        /**
+         * Returns the bytes a file holding this entry starts with: the magic number and the key.
+         */
+        byte[] identity() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            writeInt(bytes, compressed ? CACHE_MAGIC_DEFLATE : CACHE_MAGIC);
+            writeString(bytes, key);
+            return bytes.toByteArray();
+        }
+
+        /**
+         * Returns the size of this header on disk without padding.
+         */
+        int unpaddedSize() {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try {
+                writeFields(bytes);
+            } catch (IOException e) {
+                // Can't happen for an in-memory stream.
+                throw new RuntimeException(e);
+            }
+            return bytes.size() + 4;
+        }
+
+        void writeFields(OutputStream os) throws IOException {
+            writeInt(os, compressed ? CACHE_MAGIC_DEFLATE : CACHE_MAGIC);
+            writeString(os, key);
+            writeString(os, etag == null ? "" : etag);
+            writeLong(os, serverDate);
+            writeLong(os, lastModified);
+            writeLong(os, ttl);
+            writeLong(os, softTtl);
+            writeLong(os, staleIfErrorTtl);
+            writeStringStringMap(responseHeaders, os);
+        }
+
     }
 
     private static class CountingInputStream extends FilterInputStream {
@@ -667,6 +1557,9 @@ public class DiskBasedCache implements Cache {
 
     static Map<String, String> readStringStringMap(InputStream is) throws IOException {
         int size = readInt(is);
+        if (size < 0) {
+            throw new IOException("Negative map size " + size);
+        }
         Map<String, String> result = (size == 0)
                 ? Collections.<String, String>emptyMap()
                 : new HashMap<String, String>(size);
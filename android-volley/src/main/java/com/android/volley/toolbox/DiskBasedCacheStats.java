@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+/**
+ * 磁盘缓存的统计快照，包括每批清理的耗时
+ * A snapshot of a {@link DiskBasedCache}'s size, of the pruning that has kept it there and of
+ * what compressing its entries has saved and cost.
+ * <p/>
+ * Entries are evicted in batches, mostly by a background janitor. A batch's duration covers
+ * picking its victims and deleting their files; puts that had to prune inline because the
+ * cache was about to exceed its bound are counted separately.
+ * <p/>
+ * Compression time is measured on the threads that put and get entries, in nanoseconds.
+ * Entries skipped for their content type or size don't count as compression attempts.
+ *
+ * @see DiskBasedCache#getStats()
+ */
+public class DiskBasedCacheStats {
+
+    private final int mEntries;
+    private final long mTotalBytes;
+    private final long mMaxBytes;
+    private final long mPruneBatches;
+    private final long mPrunedEntries;
+    private final long mPrunedBytes;
+    private final long mPruneMillis;
+    private final long mMaxPruneBatchMillis;
+    private final long mBlockingPrunes;
+    private final long mCompressedWrites;
+    private final long mIncompressibleWrites;
+    private final long mCompressionSavedBytes;
+    private final long mCompressionNanos;
+    private final long mDecompressions;
+    private final long mDecompressionNanos;
+
+    DiskBasedCacheStats(int entries, long totalBytes, long maxBytes, long pruneBatches,
+                        long prunedEntries, long prunedBytes, long pruneMillis,
+                        long maxPruneBatchMillis, long blockingPrunes, long compressedWrites,
+                        long incompressibleWrites, long compressionSavedBytes,
+                        long compressionNanos, long decompressions, long decompressionNanos) {
+        mEntries = entries;
+        mTotalBytes = totalBytes;
+        mMaxBytes = maxBytes;
+        mPruneBatches = pruneBatches;
+        mPrunedEntries = prunedEntries;
+        mPrunedBytes = prunedBytes;
+        mPruneMillis = pruneMillis;
+        mMaxPruneBatchMillis = maxPruneBatchMillis;
+        mBlockingPrunes = blockingPrunes;
+        mCompressedWrites = compressedWrites;
+        mIncompressibleWrites = incompressibleWrites;
+        mCompressionSavedBytes = compressionSavedBytes;
+        mCompressionNanos = compressionNanos;
+        mDecompressions = decompressions;
+        mDecompressionNanos = decompressionNanos;
+    }
+
+    /**
+     * Returns the number of entries in the cache.
+     */
+    public int getEntryCount() {
+        return mEntries;
+    }
+
+    /**
+     * Returns the total size of the entries in the cache.
+     */
+    public long getTotalBytes() {
+        return mTotalBytes;
+    }
+
+    /**
+     * Returns the cache's bound.
+     */
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    /**
+     * Returns the number of eviction batches run.
+     */
+    public long getPruneBatchCount() {
+        return mPruneBatches;
+    }
+
+    /**
+     * Returns the number of entries evicted.
+     */
+    public long getPrunedEntryCount() {
+        return mPrunedEntries;
+    }
+
+    /**
+     * Returns the total size of the entries evicted.
+     */
+    public long getPrunedBytes() {
+        return mPrunedBytes;
+    }
+
+    /**
+     * Returns the time spent in eviction batches, in milliseconds.
+     */
+    public long getTotalPruneMillis() {
+        return mPruneMillis;
+    }
+
+    /**
+     * Returns the duration of the longest eviction batch, in milliseconds.
+     */
+    public long getMaxPruneBatchMillis() {
+        return mMaxPruneBatchMillis;
+    }
+
+    /**
+     * Returns the average duration of an eviction batch, in milliseconds.
+     */
+    public float getAveragePruneBatchMillis() {
+        return mPruneBatches > 0 ? (float) mPruneMillis / mPruneBatches : 0f;
+    }
+
+    /**
+     * Returns the number of puts that pruned inline, waiting for the eviction, because the
+     * cache would otherwise have exceeded its bound.
+     */
+    public long getBlockingPruneCount() {
+        return mBlockingPrunes;
+    }
+
+    /**
+     * Returns the number of entries written compressed.
+     */
+    public long getCompressedWriteCount() {
+        return mCompressedWrites;
+    }
+
+    /**
+     * Returns the number of entries written uncompressed after compressing them didn't save
+     * enough.
+     */
+    public long getIncompressibleWriteCount() {
+        return mIncompressibleWrites;
+    }
+
+    /**
+     * Returns the number of bytes compression saved across the entries written compressed.
+     */
+    public long getCompressionSavedBytes() {
+        return mCompressionSavedBytes;
+    }
+
+    /**
+     * Returns the time spent compressing entries, including those that didn't save enough.
+     */
+    public long getCompressionNanos() {
+        return mCompressionNanos;
+    }
+
+    /**
+     * Returns the number of compressed entries read back.
+     */
+    public long getDecompressionCount() {
+        return mDecompressions;
+    }
+
+    /**
+     * Returns the time spent decompressing entries that were read.
+     */
+    public long getDecompressionNanos() {
+        return mDecompressionNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "DiskBasedCacheStats[entries=" + mEntries + ", totalBytes=" + mTotalBytes
+                + ", maxBytes=" + mMaxBytes + ", pruneBatches=" + mPruneBatches
+                + ", prunedEntries=" + mPrunedEntries + ", prunedBytes=" + mPrunedBytes
+                + ", pruneMillis=" + mPruneMillis + ", maxPruneBatchMillis="
+                + mMaxPruneBatchMillis + ", blockingPrunes=" + mBlockingPrunes
+                + ", compressedWrites=" + mCompressedWrites + ", incompressibleWrites="
+                + mIncompressibleWrites + ", compressionSavedBytes=" + mCompressionSavedBytes
+                + ", compressionNanos=" + mCompressionNanos + ", decompressions="
+                + mDecompressions + ", decompressionNanos=" + mDecompressionNanos + "]";
+    }
+}
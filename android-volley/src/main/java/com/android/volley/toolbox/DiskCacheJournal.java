@@ -0,0 +1,312 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import com.android.volley.VolleyLog;
+import com.android.volley.toolbox.DiskBasedCache.CacheHeader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * 磁盘缓存的索引日志，启动时一次顺序读即可恢复所有缓存条目，无需逐个打开缓存文件
+ * Append-only journal of a {@link DiskBasedCache}'s index.
+ * <p/>
+ * Every change to the index is appended as a record: the full header of a stored entry, the
+ * key of a removed one, or the key of one that was read (to restore LRU order). Replaying the
+ * journal rebuilds the index with one sequential read instead of opening every cache file.
+ * <p/>
+ * A crash can leave a partial record at the end; it is dropped and the journal rewritten. A
+ * journal that is missing or corrupt otherwise can't be loaded, and the cache falls back to
+ * scanning its directory. Once it holds far more records than entries, the journal is
+ * compacted by writing a snapshot to a temporary file and renaming it into place.
+ */
+class DiskCacheJournal {
+
+    static final String JOURNAL_FILE = "journal";
+    static final String JOURNAL_FILE_TMP = "journal.tmp";
+
+    private static final int JOURNAL_MAGIC = 0x4a524e4c;
+
+    private static final int OP_PUT = 1;
+    private static final int OP_REMOVE = 2;
+    private static final int OP_ACCESS = 3;
+
+    /**
+     * Compact only once the journal has at least this many records...
+     */
+    private static final int COMPACT_MIN_RECORDS = 2000;
+
+    /**
+     * ...and at least this many times as many records as entries.
+     */
+    private static final int COMPACT_RECORDS_PER_ENTRY = 2;
+
+    private final File mFile;
+    private final File mTmpFile;
+
+    /**
+     * Stream appending to the journal, or null if it isn't open.
+     */
+    private OutputStream mOut;
+
+    /**
+     * Number of records in the journal file.
+     */
+    private int mRecords;
+
+    /**
+     * Set when loading found a partial record at the end.
+     */
+    private boolean mTornTail;
+
+    DiskCacheJournal(File directory) {
+        mFile = new File(directory, JOURNAL_FILE);
+        mTmpFile = new File(directory, JOURNAL_FILE_TMP);
+    }
+
+    /**
+     * Returns true if {@code name} is one of the journal's files rather than a cache entry.
+     */
+    static boolean isJournalFile(String name) {
+        return JOURNAL_FILE.equals(name) || JOURNAL_FILE_TMP.equals(name);
+    }
+
+    /**
+     * Replays the journal into {@code entries}, which should be access ordered.
+     *
+     * @return false if there is no journal or it is corrupt; {@code entries} may then hold
+     * part of it and must be rebuilt some other way
+     */
+    boolean load(Map<String, CacheHeader> entries) {
+        mTmpFile.delete();
+        if (!mFile.exists()) {
+            return false;
+        }
+        mRecords = 0;
+        mTornTail = false;
+        InputStream in = null;
+        try {
+            in = new BufferedInputStream(new FileInputStream(mFile));
+            if (DiskBasedCache.readInt(in) != JOURNAL_MAGIC) {
+                throw new IOException("Bad journal magic");
+            }
+            int op;
+            while ((op = in.read()) != -1) {
+                try {
+                    readRecord(op, in, entries);
+                } catch (EOFException e) {
+                    // The process died while appending this record; the ones before it stand.
+                    mTornTail = true;
+                    break;
+                }
+                mRecords++;
+            }
+            return true;
+        } catch (IOException e) {
+            VolleyLog.d("Discarding cache journal: %s", e.toString());
+            return false;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns true if the journal should be rewritten from the index before appending to it.
+     */
+    boolean needsRebuild(int entryCount) {
+        return mTornTail || mRecords >= COMPACT_MIN_RECORDS
+                && mRecords >= entryCount * COMPACT_RECORDS_PER_ENTRY;
+    }
+
+    /**
+     * Returns true if changes are being appended to the journal.
+     */
+    boolean isOpen() {
+        return mOut != null;
+    }
+
+    /**
+     * Opens the journal for appending after a successful {@link #load(Map)}.
+     */
+    void open() {
+        try {
+            mOut = new BufferedOutputStream(new FileOutputStream(mFile, true));
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Replaces the journal with a snapshot of {@code entries}, in LRU order, and opens it for
+     * appending.
+     */
+    void rebuild(Collection<CacheHeader> entries) {
+        close();
+        FileOutputStream fos = null;
+        try {
+            fos = new FileOutputStream(mTmpFile);
+            OutputStream out = new BufferedOutputStream(fos);
+            DiskBasedCache.writeInt(out, JOURNAL_MAGIC);
+            for (CacheHeader header : entries) {
+                writePut(out, header);
+            }
+            out.flush();
+            fos.getFD().sync();
+            fos.close();
+            fos = null;
+            if (!mTmpFile.renameTo(mFile)) {
+                throw new IOException("Could not rename " + mTmpFile);
+            }
+            mRecords = entries.size();
+            mTornTail = false;
+            open();
+        } catch (IOException e) {
+            if (fos != null) {
+                try {
+                    fos.close();
+                } catch (IOException ignored) {
+                }
+            }
+            mTmpFile.delete();
+            fail(e);
+        }
+    }
+
+    /**
+     * Records that {@code header} was stored, replacing any entry with its key. Written through
+     * to the file, since the entry's data file already exists.
+     */
+    void appendPut(CacheHeader header) {
+        if (mOut == null) {
+            return;
+        }
+        try {
+            writePut(mOut, header);
+            mOut.flush();
+            mRecords++;
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Records that the entry for {@code key} was removed.
+     */
+    void appendRemove(String key) {
+        if (mOut == null) {
+            return;
+        }
+        try {
+            mOut.write(OP_REMOVE);
+            DiskBasedCache.writeString(mOut, key);
+            mOut.flush();
+            mRecords++;
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Records that the entry for {@code key} was read. Left buffered: losing it to a crash only
+     * makes the restored LRU order a little less accurate.
+     * <p/>
+     * Dropped once the journal is due for compaction, which only the next put or remove does;
+     * reads alone would otherwise grow it without bound. The snapshot written then is in LRU
+     * order, so the reads dropped meanwhile aren't lost.
+     */
+    void appendAccess(String key, int entryCount) {
+        if (mOut == null || needsRebuild(entryCount)) {
+            return;
+        }
+        try {
+            mOut.write(OP_ACCESS);
+            DiskBasedCache.writeString(mOut, key);
+            mRecords++;
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Flushes and closes the journal; it can be reopened with {@link #open()}.
+     */
+    void close() {
+        if (mOut == null) {
+            return;
+        }
+        try {
+            mOut.close();
+        } catch (IOException ignored) {
+        }
+        mOut = null;
+    }
+
+    private static void readRecord(int op, InputStream in, Map<String, CacheHeader> entries)
+            throws IOException {
+        switch (op) {
+            case OP_PUT:
+                CacheHeader header = CacheHeader.readHeader(in);
+                header.size = DiskBasedCache.readLong(in);
+                header.headerSize = DiskBasedCache.readInt(in);
+                entries.put(header.key, header);
+                break;
+            case OP_REMOVE:
+                entries.remove(DiskBasedCache.readString(in));
+                break;
+            case OP_ACCESS:
+                // Moves it to the most recently used end.
+                entries.get(DiskBasedCache.readString(in));
+                break;
+            default:
+                throw new IOException("Unknown journal record " + op);
+        }
+    }
+
+    private static void writePut(OutputStream out, CacheHeader header) throws IOException {
+        out.write(OP_PUT);
+        // Same layout as the header of a cache file, without padding.
+        header.writeFields(out);
+        DiskBasedCache.writeInt(out, 0);
+        DiskBasedCache.writeLong(out, header.size);
+        DiskBasedCache.writeInt(out, header.headerSize);
+    }
+
+    /**
+     * Stops journaling after an I/O error. The journal file is deleted so that the next
+     * start rebuilds the index from the cache files instead of trusting a stale journal.
+     */
+    private void fail(IOException e) {
+        VolleyLog.e("Cache journal disabled: %s", e.toString());
+        close();
+        mFile.delete();
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+/**
+ * 缓存淘汰策略，决定缓存空间不足时先删除哪些条目
+ * Decides which entries a size-bounded cache evicts when it needs room.
+ * <p/>
+ * The cache reports every change to its contents and every lookup, and when it is over its
+ * bound repeatedly asks for {@link #nextVictim()} until enough space is free. The key being
+ * stored takes part: a policy that returns it declines to admit the new entry.
+ * <p/>
+ * Policies are stateful and keep no locks of their own: one instance serves one cache, which
+ * calls it with its own lock held.
+ *
+ * @see DiskBasedCache#DiskBasedCache(java.io.File, int, EvictionPolicy)
+ */
+public interface EvictionPolicy {
+
+    /**
+     * Called when {@code key} is stored with {@code size} bytes, or its size changes.
+     */
+    void onInsert(String key, long size);
+
+    /**
+     * Called when a lookup finds {@code key}.
+     */
+    void onAccess(String key);
+
+    /**
+     * Called when a lookup doesn't find {@code key}.
+     */
+    void onMiss(String key);
+
+    /**
+     * Called when the cache can't evict the key {@link #nextVictim()} returned right away, e.g.
+     * because the entry is in use. This is not a lookup: the entry's frequency and standing must
+     * not change, only other entries should be offered before it again.
+     */
+    void onRequeue(String key);
+
+    /**
+     * Called when {@code key} leaves the cache, whether evicted or removed.
+     */
+    void onRemove(String key);
+
+    /**
+     * Called when the cache is emptied.
+     */
+    void clear();
+
+    /**
+     * Returns the key to evict next, or null if there is none. The policy keeps tracking it
+     * until {@link #onRemove(String)}; if the cache can't evict it right away, it reports
+     * {@link #onRequeue(String)} instead.
+     */
+    String nextVictim();
+}
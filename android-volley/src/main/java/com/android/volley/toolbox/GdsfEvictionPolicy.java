@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * 考虑大小与访问频率的GDSF淘汰策略，优先淘汰大而少用的条目
+ * Greedy-Dual-Size-Frequency: evicts the entry with the lowest priority
+ * {@code L + frequency / size}, so large entries that are rarely used go first.
+ * <p/>
+ * {@code L} is an inflation value set to the priority of the last victim. Every entry
+ * accessed or stored since then starts from it, so entries that were popular long ago age out
+ * instead of staying forever. Frequencies count lookups since the entry was stored. Favoring
+ * small entries raises the object hit ratio, usually at some cost in byte hit ratio.
+ */
+public class GdsfEvictionPolicy implements EvictionPolicy {
+
+    private static class Node {
+        final String key;
+        long size;
+        int frequency;
+        double priority;
+        long order;
+
+        Node(String key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * Lowest priority first; ties go to the least recently touched.
+     */
+    private final TreeSet<Node> mQueue = new TreeSet<Node>(new Comparator<Node>() {
+        @Override
+        public int compare(Node a, Node b) {
+            if (a.priority != b.priority) {
+                return a.priority < b.priority ? -1 : 1;
+            }
+            return a.order < b.order ? -1 : (a.order == b.order ? 0 : 1);
+        }
+    });
+
+    private final Map<String, Node> mNodes = new HashMap<String, Node>();
+
+    /**
+     * The inflation value {@code L}.
+     */
+    private double mInflation;
+
+    /**
+     * Source of {@link Node#order}.
+     */
+    private long mCounter;
+
+    @Override
+    public void onInsert(String key, long size) {
+        Node node = mNodes.get(key);
+        if (node == null) {
+            node = new Node(key);
+            node.frequency = 1;
+            mNodes.put(key, node);
+        } else {
+            mQueue.remove(node);
+        }
+        node.size = size;
+        prioritize(node);
+    }
+
+    @Override
+    public void onAccess(String key) {
+        Node node = mNodes.get(key);
+        if (node != null) {
+            mQueue.remove(node);
+            node.frequency++;
+            prioritize(node);
+        }
+    }
+
+    @Override
+    public void onMiss(String key) {
+    }
+
+    @Override
+    public void onRequeue(String key) {
+        Node node = mNodes.get(key);
+        if (node == null) {
+            return;
+        }
+        // tailSet() includes the node itself, which comes first.
+        Iterator<Node> it = mQueue.tailSet(node).iterator();
+        it.next();
+        if (!it.hasNext()) {
+            return;
+        }
+        Node next = it.next();
+        // Just behind the next candidate; the frequency is left alone.
+        mQueue.remove(node);
+        node.priority = Math.max(node.priority, next.priority);
+        node.order = mCounter++;
+        mQueue.add(node);
+    }
+
+    @Override
+    public void onRemove(String key) {
+        Node node = mNodes.remove(key);
+        if (node != null) {
+            mQueue.remove(node);
+        }
+    }
+
+    @Override
+    public void clear() {
+        mNodes.clear();
+        mQueue.clear();
+        mInflation = 0;
+    }
+
+    @Override
+    public String nextVictim() {
+        if (mQueue.isEmpty()) {
+            return null;
+        }
+        Node victim = mQueue.first();
+        mInflation = victim.priority;
+        return victim.key;
+    }
+
+    private void prioritize(Node node) {
+        node.priority = mInflation + (double) node.frequency / Math.max(node.size, 1);
+        node.order = mCounter++;
+        mQueue.add(node);
+    }
+}
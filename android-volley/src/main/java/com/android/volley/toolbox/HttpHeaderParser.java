@@ -51,6 +51,7 @@ public class HttpHeaderParser {
         long finalExpire = 0;
         long maxAge = 0;
         long staleWhileRevalidate = 0;
+        long staleIfError = 0;
         boolean hasCacheControl = false;
         boolean mustRevalidate = false;
 
@@ -85,6 +86,11 @@ public class HttpHeaderParser {
                         staleWhileRevalidate = Long.parseLong(token.substring(23));
                     } catch (Exception e) {
                     }
+                } else if (token.startsWith("stale-if-error=")) {
+                    try {
+                        staleIfError = Long.parseLong(token.substring(15));
+                    } catch (Exception e) {
+                    }
                 } else if (token.equals("must-revalidate") || token.equals("proxy-revalidate")) {
                     mustRevalidate = true;
                 }
@@ -121,6 +127,8 @@ public class HttpHeaderParser {
         entry.etag = serverEtag;
         entry.softTtl = softExpire;
         entry.ttl = finalExpire;
+        // Counted from when the entry goes stale, like stale-while-revalidate.
+        entry.staleIfErrorTtl = staleIfError > 0 ? softExpire + staleIfError * 1000 : 0;
         entry.serverDate = serverDate;
         entry.lastModified = lastModified;
         entry.responseHeaders = headers;
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * 最近最少使用淘汰策略
+ * Evicts the least recently used entry first, whatever its size. The default policy of
+ * {@link DiskBasedCache}.
+ */
+public class LruEvictionPolicy implements EvictionPolicy {
+
+    /**
+     * Keys mapped to their size, least recently used first.
+     */
+    private final LinkedHashMap<String, Long> mEntries =
+            new LinkedHashMap<String, Long>(16, .75f, true);
+
+    @Override
+    public void onInsert(String key, long size) {
+        mEntries.put(key, size);
+    }
+
+    @Override
+    public void onAccess(String key) {
+        mEntries.get(key);
+    }
+
+    @Override
+    public void onMiss(String key) {
+    }
+
+    @Override
+    public void onRequeue(String key) {
+        // Recency is all this policy tracks, so this is the same as an access.
+        mEntries.get(key);
+    }
+
+    @Override
+    public void onRemove(String key) {
+        mEntries.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        mEntries.clear();
+    }
+
+    @Override
+    public String nextVictim() {
+        Iterator<String> keys = mEntries.keySet().iterator();
+        return keys.hasNext() ? keys.next() : null;
+    }
+}
@@ -0,0 +1,845 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.Request;
+import com.android.volley.Request.Method;
+import com.android.volley.VolleyLog;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 基于NIO的异步HttpStack，由一个selector线程处理所有连接
+ * An {@link AsyncHttpStack} based on non-blocking {@link SocketChannel}s.
+ * <p/>
+ * All connections are driven by a single selector thread, started on first use, so the number
+ * of requests in flight is not bounded by the number of threads. Callbacks are run on a
+ * separate executor so a slow callback can't stall other connections.
+ * <p/>
+ * Each request uses its own connection, closed after the response ("Connection: close").
+ * Only plain {@code http} URLs are supported; use a blocking {@link HttpStack} for
+ * {@code https}. Host names are resolved on a small pool of resolver threads, so a slow DNS
+ * lookup doesn't hold the calling thread either.
+ */
+public class NioHttpStack implements AsyncHttpStack {
+
+    private static final String HEADER_CONTENT_TYPE = "Content-Type";
+
+    private static final String HEADER_CHARSET = "ISO-8859-1";
+
+    private static final byte[] HEADER_END = {'\r', '\n', '\r', '\n'};
+
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    /**
+     * Maximum number of host name lookups run at once.
+     */
+    private static final int RESOLVER_THREADS = 4;
+
+    /**
+     * Executor that runs the callbacks.
+     */
+    private final Executor mCallbackExecutor;
+
+    /**
+     * The callback executor if this stack created it, and so must shut it down.
+     */
+    private final ExecutorService mOwnedExecutor;
+
+    /**
+     * Runs the blocking host name lookups, off the calling threads.
+     */
+    private final ExecutorService mResolver;
+
+    /**
+     * Exchanges waiting to be registered with the selector.
+     */
+    private final ConcurrentLinkedQueue<Exchange> mPending = new ConcurrentLinkedQueue<Exchange>();
+
+    /**
+     * The selector, opened on first use. Guarded by {@code this}.
+     */
+    private Selector mSelector;
+
+    private volatile boolean mShutdown;
+
+    /**
+     * Creates a stack that runs callbacks on a thread of its own.
+     */
+    public NioHttpStack() {
+        mOwnedExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Volley-NioHttpStack-callback");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mCallbackExecutor = mOwnedExecutor;
+        mResolver = newResolver();
+    }
+
+    /**
+     * @param callbackExecutor executor to run callbacks on
+     */
+    public NioHttpStack(Executor callbackExecutor) {
+        if (callbackExecutor == null) {
+            throw new IllegalArgumentException("callbackExecutor must not be null");
+        }
+        mOwnedExecutor = null;
+        mCallbackExecutor = callbackExecutor;
+        mResolver = newResolver();
+    }
+
+    /**
+     * Creates the lookup pool. Its threads are started on demand and are daemons, so an idle
+     * stack doesn't keep the process alive.
+     */
+    private static ExecutorService newResolver() {
+        return Executors.newFixedThreadPool(RESOLVER_THREADS, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Volley-NioHttpStack-resolver");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @Override
+    public void performRequestAsync(Request<?> request, Map<String, String> additionalHeaders,
+                                    Callback callback) throws AuthFailureError {
+        if (mShutdown) {
+            fail(callback, new IOException("NioHttpStack has been shut down"));
+            return;
+        }
+        URL url;
+        InetSocketAddress address;
+        try {
+            url = new URL(request.getUrl());
+            if (!"http".equals(url.getProtocol())) {
+                throw new IOException("Unsupported protocol: " + url.getProtocol());
+            }
+            // Resolved later, on a resolver thread.
+            address = InetSocketAddress.createUnresolved(url.getHost(),
+                    url.getPort() != -1 ? url.getPort() : 80);
+        } catch (IOException e) {
+            fail(callback, e);
+            return;
+        }
+
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.putAll(request.getHeaders());
+        headers.putAll(additionalHeaders);
+        String method = methodOf(request);
+        byte[] body = bodyOf(request);
+        if (body != null) {
+            headers.put(HEADER_CONTENT_TYPE, request.getMethod() == Method.DEPRECATED_GET_OR_POST
+                    ? request.getPostBodyContentType() : request.getBodyContentType());
+        }
+        byte[] head = encodeHead(method, url, headers, body);
+
+        ByteBuffer out = ByteBuffer.allocate(head.length + (body != null ? body.length : 0));
+        out.put(head);
+        if (body != null) {
+            out.put(body);
+        }
+        out.flip();
+
+        final Exchange exchange = new Exchange(request, callback, address, out);
+        final Selector selector;
+        try {
+            selector = ensureStarted();
+        } catch (IOException e) {
+            fail(callback, e);
+            return;
+        }
+        try {
+            mResolver.execute(new Runnable() {
+                @Override
+                public void run() {
+                    resolveAndRegister(exchange, selector);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            fail(callback, new IOException("NioHttpStack has been shut down"));
+        }
+    }
+
+    /**
+     * Resolves the exchange's host name, then hands it to the selector thread. Runs on a
+     * resolver thread.
+     */
+    private void resolveAndRegister(Exchange exchange, Selector selector) {
+        if (mShutdown) {
+            fail(exchange.mCallback, new IOException("NioHttpStack has been shut down"));
+            return;
+        }
+        InetSocketAddress unresolved = exchange.mAddress;
+        InetSocketAddress address =
+                new InetSocketAddress(unresolved.getHostName(), unresolved.getPort());
+        if (address.isUnresolved()) {
+            fail(exchange.mCallback, new UnknownHostException(unresolved.getHostName()));
+            return;
+        }
+        exchange.mAddress = address;
+        mPending.add(exchange);
+        if (mShutdown) {
+            // The selector thread may have drained the pending exchanges already.
+            failPending();
+        }
+        selector.wakeup();
+    }
+
+    /**
+     * Stops the selector thread. Requests still in flight fail with an {@link IOException}, as
+     * do requests made afterwards.
+     */
+    public void shutdown() {
+        mShutdown = true;
+        synchronized (this) {
+            if (mSelector != null) {
+                mSelector.wakeup();
+            }
+        }
+    }
+
+    /**
+     * Opens the selector and starts its thread, if that hasn't been done yet.
+     */
+    private synchronized Selector ensureStarted() throws IOException {
+        if (mSelector == null) {
+            mSelector = Selector.open();
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    loop(mSelector);
+                }
+            }, "Volley-NioHttpStack");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return mSelector;
+    }
+
+    /**
+     * Body of the selector thread. However it ends, the stack is shut down, so that no request
+     * is left waiting on a selector nobody runs.
+     */
+    private void loop(Selector selector) {
+        try {
+            while (!mShutdown) {
+                registerPending(selector);
+                try {
+                    selector.select(timeUntilNextDeadline(selector));
+                } catch (IOException e) {
+                    VolleyLog.e(e, "Selector failed");
+                    break;
+                }
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    Exchange exchange = (Exchange) key.attachment();
+                    try {
+                        exchange.onReady(key);
+                    } catch (IOException e) {
+                        exchange.close();
+                        fail(exchange.mCallback, e);
+                    } catch (RuntimeException e) {
+                        // E.g. a CancelledKeyException; only this exchange is affected.
+                        exchange.close();
+                        fail(exchange.mCallback, wrap(e));
+                    }
+                }
+                expireTimedOut(selector);
+            }
+        } catch (RuntimeException e) {
+            VolleyLog.e(e, "Selector thread failed");
+        } finally {
+            // Set before failing the pending exchanges, so that callers adding one from now on
+            // fail it themselves.
+            mShutdown = true;
+            closeAll(selector);
+        }
+    }
+
+    /**
+     * Fails everything still in flight or pending and releases the selector. Runs on the
+     * selector thread as it exits.
+     */
+    private void closeAll(Selector selector) {
+        IOException shutdown = new IOException("NioHttpStack has been shut down");
+        for (SelectionKey key : selector.keys()) {
+            if (!key.isValid()) {
+                // Closed, and already completed or failed, since the last select.
+                continue;
+            }
+            Exchange exchange = (Exchange) key.attachment();
+            exchange.close();
+            fail(exchange.mCallback, shutdown);
+        }
+        failPending();
+        try {
+            selector.close();
+        } catch (IOException e) {
+            // Nothing more to release.
+        }
+        mResolver.shutdown();
+        if (mOwnedExecutor != null) {
+            mOwnedExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Fails the exchanges not yet registered. Each is taken off the queue once, so it fails only
+     * once even if the selector thread and a caller race here.
+     */
+    private void failPending() {
+        Exchange exchange;
+        while ((exchange = mPending.poll()) != null) {
+            fail(exchange.mCallback, new IOException("NioHttpStack has been shut down"));
+        }
+    }
+
+    private void registerPending(Selector selector) {
+        Exchange exchange;
+        while ((exchange = mPending.poll()) != null) {
+            try {
+                exchange.open(selector);
+            } catch (IOException e) {
+                exchange.close();
+                fail(exchange.mCallback, e);
+            } catch (RuntimeException e) {
+                exchange.close();
+                fail(exchange.mCallback, wrap(e));
+            }
+        }
+    }
+
+    /**
+     * Returns how long the selector may block, 0 meaning without limit.
+     */
+    private static long timeUntilNextDeadline(Selector selector) {
+        long next = Long.MAX_VALUE;
+        for (SelectionKey key : selector.keys()) {
+            next = Math.min(next, ((Exchange) key.attachment()).mDeadlineNs);
+        }
+        if (next == Long.MAX_VALUE) {
+            return 0;
+        }
+        long waitMs = (next - System.nanoTime()) / 1000000L + 1;
+        return Math.max(1, waitMs);
+    }
+
+    private void expireTimedOut(Selector selector) {
+        long now = System.nanoTime();
+        List<Exchange> expired = null;
+        for (SelectionKey key : selector.keys()) {
+            Exchange exchange = (Exchange) key.attachment();
+            if (key.isValid() && now - exchange.mDeadlineNs >= 0) {
+                if (expired == null) {
+                    expired = new ArrayList<Exchange>();
+                }
+                expired.add(exchange);
+            }
+        }
+        if (expired == null) {
+            return;
+        }
+        for (Exchange exchange : expired) {
+            String message = "Timed out after " + exchange.mRequest.getTimeoutMs() + " ms";
+            exchange.close();
+            fail(exchange.mCallback, exchange.mConnected
+                    ? new SocketTimeoutException(message)
+                    : new ConnectTimeoutException(message));
+        }
+    }
+
+    private void fail(final Callback callback, final IOException exception) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.onError(exception);
+            }
+        });
+    }
+
+    private void succeed(final Callback callback, final HttpResponse response) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.onResponse(response);
+            }
+        });
+    }
+
+    /**
+     * Runs a callback on the callback executor, or on the calling thread once the executor
+     * this stack owns has been shut down.
+     */
+    private void execute(Runnable callback) {
+        try {
+            mCallbackExecutor.execute(callback);
+        } catch (RejectedExecutionException e) {
+            callback.run();
+        }
+    }
+
+    /**
+     * One request/response over its own connection. Only used on the selector thread once
+     * registered.
+     */
+    private class Exchange {
+        final Request<?> mRequest;
+        final Callback mCallback;
+
+        /**
+         * Unresolved until a resolver thread has looked the host up.
+         */
+        InetSocketAddress mAddress;
+        final ByteBuffer mOut;
+        final ReceiveBuffer mIn = new ReceiveBuffer();
+        final ByteBuffer mReadBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+        SocketChannel mChannel;
+        boolean mConnected;
+        long mDeadlineNs;
+
+        /**
+         * Where to resume looking for the end of the response head.
+         */
+        int mHeadSearchFrom;
+
+        /**
+         * The parsed response head, once received.
+         */
+        ResponseHead mHead;
+
+        /**
+         * Decoder of a chunked body, once its head has been received.
+         */
+        ChunkedDecoder mChunked;
+
+        Exchange(Request<?> request, Callback callback, InetSocketAddress address, ByteBuffer out) {
+            mRequest = request;
+            mCallback = callback;
+            mAddress = address;
+            mOut = out;
+        }
+
+        void open(Selector selector) throws IOException {
+            mChannel = SocketChannel.open();
+            mChannel.configureBlocking(false);
+            extendDeadline();
+            if (mChannel.connect(mAddress)) {
+                mConnected = true;
+                mChannel.register(selector, SelectionKey.OP_WRITE, this);
+            } else {
+                mChannel.register(selector, SelectionKey.OP_CONNECT, this);
+            }
+        }
+
+        void onReady(SelectionKey key) throws IOException {
+            if (key.isConnectable()) {
+                if (mChannel.finishConnect()) {
+                    mConnected = true;
+                    extendDeadline();
+                    key.interestOps(SelectionKey.OP_WRITE);
+                }
+            } else if (key.isWritable()) {
+                if (mChannel.write(mOut) > 0) {
+                    extendDeadline();
+                }
+                if (!mOut.hasRemaining()) {
+                    key.interestOps(SelectionKey.OP_READ);
+                }
+            } else if (key.isReadable()) {
+                mReadBuffer.clear();
+                int read = mChannel.read(mReadBuffer);
+                if (read > 0) {
+                    extendDeadline();
+                    mIn.write(mReadBuffer.array(), 0, read);
+                }
+                HttpResponse response = tryParse(read < 0);
+                if (response != null) {
+                    close();
+                    succeed(mCallback, response);
+                } else if (read < 0) {
+                    throw new IOException("Connection closed before the response was complete");
+                }
+            }
+        }
+
+        /**
+         * Restarts the timeout; it applies to each phase, and to each wait for data.
+         */
+        void extendDeadline() {
+            mDeadlineNs = System.nanoTime() + mRequest.getTimeoutMs() * 1000000L;
+        }
+
+        void close() {
+            if (mChannel != null) {
+                try {
+                    mChannel.close();
+                } catch (IOException e) {
+                    // Nothing more to release.
+                }
+            }
+        }
+
+        /**
+         * Returns the response if all of it has been received, otherwise null.
+         *
+         * @param eof whether the server has closed the connection
+         */
+        HttpResponse tryParse(boolean eof) throws IOException {
+            // Parsed in place: each call only looks at what the previous ones couldn't use.
+            byte[] data = mIn.array();
+            int length = mIn.size();
+            if (mHead == null) {
+                int end = indexOf(data, length, HEADER_END, mHeadSearchFrom, HEADER_END.length);
+                if (end < 0) {
+                    mHeadSearchFrom = Math.max(0, length - HEADER_END.length + 1);
+                    return null;
+                }
+                mHead = ResponseHead.parse(data, end);
+                mHead.bodyStart = end + HEADER_END.length;
+                mHead.hasBody = hasResponseBody(mRequest.getMethod(), mHead.statusCode);
+                if (mHead.chunked) {
+                    mChunked = new ChunkedDecoder(mHead.bodyStart);
+                }
+            }
+            byte[] body;
+            if (!mHead.hasBody) {
+                body = null;
+            } else if (mHead.chunked) {
+                body = mChunked.decode(data, length);
+                if (body == null) {
+                    return null;
+                }
+            } else if (mHead.contentLength >= 0) {
+                if (length - mHead.bodyStart < mHead.contentLength) {
+                    return null;
+                }
+                body = copyOfRange(data, mHead.bodyStart,
+                        mHead.bodyStart + (int) mHead.contentLength);
+            } else if (eof) {
+                body = copyOfRange(data, mHead.bodyStart, length);
+            } else {
+                // Delimited by the end of the connection.
+                return null;
+            }
+            BasicHttpResponse response = new BasicHttpResponse(new BasicStatusLine(
+                    new ProtocolVersion("HTTP", 1, 1), mHead.statusCode, mHead.reasonPhrase));
+            for (String[] header : mHead.headers) {
+                response.addHeader(new BasicHeader(header[0], header[1]));
+            }
+            if (body != null) {
+                response.setEntity(new ByteArrayEntity(body));
+            }
+            return response;
+        }
+    }
+
+    /**
+     * Status line and headers of a response.
+     */
+    private static class ResponseHead {
+        int statusCode;
+        String reasonPhrase;
+        final List<String[]> headers = new ArrayList<String[]>();
+        boolean chunked;
+        long contentLength = -1;
+        int bodyStart;
+        boolean hasBody;
+
+        static ResponseHead parse(byte[] data, int end) throws IOException {
+            String[] lines = new String(data, 0, end, HEADER_CHARSET).split("\r\n");
+            ResponseHead head = new ResponseHead();
+            // e.g. "HTTP/1.1 200 OK"
+            String[] status = lines[0].split(" ", 3);
+            if (status.length < 2 || !status[0].startsWith("HTTP/")) {
+                throw new IOException("Malformed status line: " + lines[0]);
+            }
+            try {
+                head.statusCode = Integer.parseInt(status[1]);
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed status line: " + lines[0]);
+            }
+            head.reasonPhrase = status.length > 2 ? status[2] : "";
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                if (colon <= 0) {
+                    continue;
+                }
+                String name = lines[i].substring(0, colon).trim();
+                String value = lines[i].substring(colon + 1).trim();
+                head.headers.add(new String[]{name, value});
+                if ("Transfer-Encoding".equalsIgnoreCase(name)
+                        && value.toLowerCase().contains("chunked")) {
+                    head.chunked = true;
+                } else if ("Content-Length".equalsIgnoreCase(name)) {
+                    try {
+                        head.contentLength = Long.parseLong(value);
+                    } catch (NumberFormatException e) {
+                        throw new IOException("Malformed Content-Length: " + value);
+                    }
+                }
+            }
+            return head;
+        }
+    }
+
+    /**
+     * Buffer of received bytes that can be parsed without copying them out.
+     */
+    private static class ReceiveBuffer extends ByteArrayOutputStream {
+        /**
+         * Returns the backing array; only the first {@link #size()} bytes are valid.
+         */
+        byte[] array() {
+            return buf;
+        }
+    }
+
+    /**
+     * Decodes a chunked body as it arrives. Each call resumes after the last complete chunk,
+     * so a body received in many reads is still decoded in linear time.
+     */
+    /* package */ static class ChunkedDecoder {
+        private final ByteArrayOutputStream mBody = new ByteArrayOutputStream();
+
+        /**
+         * Offset of the first byte not decoded yet.
+         */
+        private int mPos;
+
+        /**
+         * Set once the last chunk has been read; only trailers remain.
+         */
+        private boolean mInTrailers;
+
+        /**
+         * @param start offset of the body in the data passed to {@link #decode}
+         */
+        ChunkedDecoder(int start) {
+            mPos = start;
+        }
+
+        /**
+         * Decodes what has been received of the body so far.
+         *
+         * @param data   the received bytes, of which those before the body and those already
+         *               decoded must not have changed since the previous call
+         * @param length the number of valid bytes in {@code data}
+         * @return the body, or null if not all of it has been received
+         */
+        byte[] decode(byte[] data, int length) throws IOException {
+            while (!mInTrailers) {
+                int lineEnd = indexOf(data, length, HEADER_END, mPos, 2);
+                if (lineEnd < 0) {
+                    return null;
+                }
+                String sizeLine = new String(data, mPos, lineEnd - mPos, HEADER_CHARSET);
+                int semicolon = sizeLine.indexOf(';');
+                if (semicolon >= 0) {
+                    sizeLine = sizeLine.substring(0, semicolon);
+                }
+                int size;
+                try {
+                    size = Integer.parseInt(sizeLine.trim(), 16);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Malformed chunk size: " + sizeLine);
+                }
+                if (size < 0) {
+                    throw new IOException("Malformed chunk size: " + sizeLine);
+                }
+                int chunkStart = lineEnd + 2;
+                if (size == 0) {
+                    mPos = chunkStart;
+                    mInTrailers = true;
+                    break;
+                }
+                if (length < (long) chunkStart + size + 2) {
+                    // Wait for the rest of the chunk; only its size line is parsed again.
+                    return null;
+                }
+                mBody.write(data, chunkStart, size);
+                mPos = chunkStart + size + 2;
+            }
+            // Skip trailers up to the empty line ending the body.
+            while (true) {
+                int trailerEnd = indexOf(data, length, HEADER_END, mPos, 2);
+                if (trailerEnd < 0) {
+                    return null;
+                }
+                if (trailerEnd == mPos) {
+                    return mBody.toByteArray();
+                }
+                mPos = trailerEnd + 2;
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the first {@code length} bytes of {@code pattern} within the first
+     * {@code limit} bytes of {@code data}, starting at {@code from}, or -1.
+     */
+    private static int indexOf(byte[] data, int limit, byte[] pattern, int from, int length) {
+        outer:
+        for (int i = from; i <= limit - length; i++) {
+            for (int j = 0; j < length; j++) {
+                if (data[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns bytes {@code from} (inclusive) to {@code to} (exclusive) of {@code data}.
+     */
+    private static byte[] copyOfRange(byte[] data, int from, int to) {
+        byte[] copy = new byte[to - from];
+        System.arraycopy(data, from, copy, 0, copy.length);
+        return copy;
+    }
+
+    /**
+     * Wraps an unexpected exception so it can fail a single exchange.
+     */
+    private static IOException wrap(RuntimeException e) {
+        IOException wrapped = new IOException(e.toString());
+        wrapped.initCause(e);
+        return wrapped;
+    }
+
+    /**
+     * Same rules as {@link HurlStack}.
+     */
+    private static boolean hasResponseBody(int requestMethod, int responseCode) {
+        return requestMethod != Request.Method.HEAD
+                && !(HttpStatus.SC_CONTINUE <= responseCode
+                && responseCode < HttpStatus.SC_OK)
+                && responseCode != HttpStatus.SC_NO_CONTENT
+                && responseCode != HttpStatus.SC_NOT_MODIFIED;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static String methodOf(Request<?> request) throws AuthFailureError {
+        switch (request.getMethod()) {
+            case Method.DEPRECATED_GET_OR_POST:
+                // GET unless there is a post body, as in HurlStack.
+                return request.getPostBody() != null ? "POST" : "GET";
+            case Method.GET:
+                return "GET";
+            case Method.DELETE:
+                return "DELETE";
+            case Method.POST:
+                return "POST";
+            case Method.PUT:
+                return "PUT";
+            case Method.HEAD:
+                return "HEAD";
+            case Method.OPTIONS:
+                return "OPTIONS";
+            case Method.TRACE:
+                return "TRACE";
+            case Method.PATCH:
+                return "PATCH";
+            default:
+                throw new IllegalStateException("Unknown method type.");
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static byte[] bodyOf(Request<?> request) throws AuthFailureError {
+        switch (request.getMethod()) {
+            case Method.DEPRECATED_GET_OR_POST:
+                return request.getPostBody();
+            case Method.POST:
+            case Method.PUT:
+            case Method.PATCH:
+                return request.getBody();
+            default:
+                return null;
+        }
+    }
+
+    private static byte[] encodeHead(String method, URL url, Map<String, String> headers, byte[] body) {
+        StringBuilder head = new StringBuilder();
+        String path = url.getFile();
+        head.append(method).append(' ').append(path.length() > 0 ? path : "/").append(" HTTP/1.1\r\n");
+        head.append("Host: ").append(url.getHost());
+        if (url.getPort() != -1) {
+            head.append(':').append(url.getPort());
+        }
+        head.append("\r\n");
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            String name = header.getKey();
+            // These are managed by the stack.
+            if ("Host".equalsIgnoreCase(name) || "Connection".equalsIgnoreCase(name)
+                    || "Content-Length".equalsIgnoreCase(name)) {
+                continue;
+            }
+            head.append(name).append(": ").append(header.getValue()).append("\r\n");
+        }
+        if (body != null) {
+            head.append("Content-Length: ").append(body.length).append("\r\n");
+        }
+        head.append("Connection: close\r\n\r\n");
+        try {
+            return head.toString().getBytes(HEADER_CHARSET);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
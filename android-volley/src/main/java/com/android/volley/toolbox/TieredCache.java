@@ -0,0 +1,490 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import com.android.volley.Cache;
+import com.android.volley.MetadataUpdatableCache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 两级缓存，在任意缓存（如DiskBasedCache）之前加一层有大小上限的内存LRU缓存
+ * A {@link Cache} that keeps the most recently used entries in memory in front of another
+ * cache, e.g. a {@link DiskBasedCache}.
+ * <p/>
+ * The memory tier is an LRU bounded by the size of the entries it holds: their data plus two
+ * bytes per character of their key, etag and headers. An entry that misses memory but is found
+ * in the backing cache is promoted into memory. Entries larger than the whole memory tier are
+ * only stored in the backing cache.
+ * <p/>
+ * With {@link WritePolicy#WRITE_THROUGH}, changes are applied to both tiers before the call
+ * returns. With {@link WritePolicy#WRITE_BACK}, puts and metadata updates only change memory;
+ * an entry is written to the backing cache when it is evicted or on {@link #flush()}, so a
+ * key that is stored over and over is written once. Entries not yet written are lost if the
+ * process dies.
+ * <p/>
+ * {@link #getStats()} reports the hit ratio of each tier.
+ * <p/>
+ * Memory holds its own copy of each entry and hands out copies, each with its own headers map:
+ * callers change the entries they get (BasicNetwork merges the headers of a 304 into them).
+ */
+public class TieredCache implements MetadataUpdatableCache {
+
+    /**
+     * When changes reach the backing cache.
+     */
+    public enum WritePolicy {
+        /**
+         * Every change is applied to the backing cache right away.
+         */
+        WRITE_THROUGH,
+        /**
+         * Changes are kept in memory and written to the backing cache on eviction or flush.
+         */
+        WRITE_BACK
+    }
+
+    /**
+     * Whether a node in memory has changes the backing cache doesn't have.
+     */
+    private static final int CLEAN = 0;
+    private static final int METADATA_DIRTY = 1;
+    private static final int DIRTY = 2;
+
+    /**
+     * An entry held in memory.
+     */
+    private static class Node {
+        final Entry entry;
+        final long size;
+        final int state;
+
+        Node(Entry entry, long size, int state) {
+            this.entry = entry;
+            this.size = size;
+            this.state = state;
+        }
+    }
+
+    private final Cache mBacking;
+
+    private final long mMaxMemoryBytes;
+
+    private final WritePolicy mWritePolicy;
+
+    /**
+     * The memory tier, least recently used first. Guarded by {@code this}, as are the other
+     * mutable fields.
+     */
+    private final LinkedHashMap<String, Node> mMemory =
+            new LinkedHashMap<String, Node>(16, .75f, true);
+
+    /**
+     * Dirty nodes evicted from memory whose write to the backing cache hasn't finished. Reads
+     * keep finding them here until it has.
+     */
+    private final Map<String, Node> mWritingBack = new HashMap<String, Node>();
+
+    /**
+     * Accounted size of {@link #mMemory}.
+     */
+    private long mMemoryBytes;
+
+    /**
+     * Bumped whenever a key may have left memory, so a lookup that read the backing cache
+     * before that doesn't promote what it read over the change.
+     */
+    private long mGeneration;
+
+    private long mMemoryHits;
+    private long mBackingHits;
+    private long mMisses;
+    private long mEvictions;
+    private long mWriteBacks;
+
+    /**
+     * Serializes changes to the backing cache made in write-back mode, so a write-back can't
+     * land after a later remove or clear of the same key.
+     */
+    private final Object mWriteBackLock = new Object();
+
+    /**
+     * Creates a write-through tiered cache.
+     *
+     * @param backing        the cache behind the memory tier
+     * @param maxMemoryBytes the most the memory tier may hold
+     */
+    public TieredCache(Cache backing, long maxMemoryBytes) {
+        this(backing, maxMemoryBytes, WritePolicy.WRITE_THROUGH);
+    }
+
+    /**
+     * @param backing        the cache behind the memory tier
+     * @param maxMemoryBytes the most the memory tier may hold
+     * @param writePolicy    when changes reach the backing cache
+     */
+    public TieredCache(Cache backing, long maxMemoryBytes, WritePolicy writePolicy) {
+        if (backing == null) {
+            throw new IllegalArgumentException("backing must not be null");
+        }
+        if (maxMemoryBytes < 1) {
+            throw new IllegalArgumentException("maxMemoryBytes must be positive");
+        }
+        if (writePolicy == null) {
+            throw new IllegalArgumentException("writePolicy must not be null");
+        }
+        mBacking = backing;
+        mMaxMemoryBytes = maxMemoryBytes;
+        mWritePolicy = writePolicy;
+    }
+
+    @Override
+    public Entry get(String key) {
+        long generation;
+        synchronized (this) {
+            Node node = mMemory.get(key);
+            if (node == null) {
+                node = mWritingBack.get(key);
+            }
+            if (node != null) {
+                mMemoryHits++;
+                return copyOf(node.entry);
+            }
+            generation = mGeneration;
+        }
+
+        Entry entry = mBacking.get(key);
+        List<String> evicted;
+        synchronized (this) {
+            if (entry == null) {
+                mMisses++;
+                return null;
+            }
+            mBackingHits++;
+            // Promote it, unless it changed or left memory meanwhile.
+            if (generation != mGeneration || mMemory.containsKey(key)) {
+                return entry;
+            }
+            evicted = store(key, entry, CLEAN);
+        }
+        if (evicted != null) {
+            writeBack(evicted);
+        }
+        return entry;
+    }
+
+    @Override
+    public void put(String key, Entry entry) {
+        if (mWritePolicy == WritePolicy.WRITE_THROUGH) {
+            storeInMemory(key, entry, CLEAN);
+            mBacking.put(key, entry);
+        } else if (!storeInMemory(key, entry, DIRTY)) {
+            // Too big for memory; it goes straight to the backing cache.
+            synchronized (mWriteBackLock) {
+                synchronized (this) {
+                    mWritingBack.remove(key);
+                }
+                mBacking.put(key, entry);
+            }
+        }
+    }
+
+    @Override
+    public void updateMetadata(String key, Entry entry) {
+        if (mWritePolicy == WritePolicy.WRITE_THROUGH) {
+            storeInMemory(key, entry, CLEAN);
+            updateBackingMetadata(key, entry);
+            return;
+        }
+        int state;
+        synchronized (this) {
+            // Keep a full write pending if there is one.
+            state = Math.max(METADATA_DIRTY,
+                    Math.max(stateOf(mMemory.get(key)), stateOf(mWritingBack.get(key))));
+        }
+        if (!storeInMemory(key, entry, state)) {
+            synchronized (mWriteBackLock) {
+                synchronized (this) {
+                    mWritingBack.remove(key);
+                }
+                if (state == DIRTY) {
+                    mBacking.put(key, entry);
+                } else {
+                    updateBackingMetadata(key, entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Updates the metadata of {@code key} in the backing cache, or stores the whole entry if
+     * it can't update metadata on its own.
+     */
+    private void updateBackingMetadata(String key, Entry entry) {
+        if (mBacking instanceof MetadataUpdatableCache) {
+            ((MetadataUpdatableCache) mBacking).updateMetadata(key, entry);
+        } else {
+            mBacking.put(key, entry);
+        }
+    }
+
+    @Override
+    public void invalidate(String key, boolean fullExpire) {
+        boolean backingHasLatest;
+        synchronized (this) {
+            Node node = mMemory.get(key);
+            if (node != null) {
+                mMemory.put(key, new Node(expire(node.entry, fullExpire), node.size, node.state));
+            }
+            Node writing = mWritingBack.get(key);
+            if (writing != null) {
+                // Its write-back picks up the expired copy.
+                mWritingBack.put(key, new Node(
+                        expire(writing.entry, fullExpire), writing.size, writing.state));
+            }
+            mGeneration++;
+            backingHasLatest = mWritePolicy == WritePolicy.WRITE_THROUGH
+                    || (stateOf(node) == CLEAN && writing == null);
+        }
+        if (!backingHasLatest) {
+            // The expired copy will be written back.
+            return;
+        }
+        if (mWritePolicy == WritePolicy.WRITE_BACK) {
+            synchronized (mWriteBackLock) {
+                mBacking.invalidate(key, fullExpire);
+            }
+        } else {
+            mBacking.invalidate(key, fullExpire);
+        }
+    }
+
+    @Override
+    public void remove(String key) {
+        synchronized (this) {
+            Node node = mMemory.remove(key);
+            if (node != null) {
+                mMemoryBytes -= node.size;
+            }
+            mWritingBack.remove(key);
+            mGeneration++;
+        }
+        if (mWritePolicy == WritePolicy.WRITE_BACK) {
+            synchronized (mWriteBackLock) {
+                mBacking.remove(key);
+            }
+        } else {
+            mBacking.remove(key);
+        }
+    }
+
+    @Override
+    public void clear() {
+        synchronized (mWriteBackLock) {
+            synchronized (this) {
+                mMemory.clear();
+                mWritingBack.clear();
+                mMemoryBytes = 0;
+                mGeneration++;
+            }
+            mBacking.clear();
+        }
+    }
+
+    @Override
+    public void initialize() {
+        mBacking.initialize();
+    }
+
+    /**
+     * Writes every entry changed in memory to the backing cache. Does nothing in write-through
+     * mode.
+     * 将内存中修改过的缓存全部写入下一级缓存
+     */
+    public void flush() {
+        if (mWritePolicy == WritePolicy.WRITE_THROUGH) {
+            return;
+        }
+        List<String> dirty = new ArrayList<String>();
+        synchronized (this) {
+            for (Map.Entry<String, Node> e : mMemory.entrySet()) {
+                Node node = e.getValue();
+                if (node.state != CLEAN) {
+                    // Hand it to the write-back and keep a clean copy in memory.
+                    mWritingBack.put(e.getKey(), node);
+                    e.setValue(new Node(node.entry, node.size, CLEAN));
+                    dirty.add(e.getKey());
+                }
+            }
+        }
+        writeBack(dirty);
+    }
+
+    /**
+     * Returns a snapshot of the hit counts of both tiers.
+     */
+    public synchronized TieredCacheStats getStats() {
+        return new TieredCacheStats(mMemoryHits, mBackingHits, mMisses, mEvictions, mWriteBacks,
+                mMemory.size(), mMemoryBytes);
+    }
+
+    /**
+     * Stores {@code entry} in memory and writes back what that evicts.
+     *
+     * @return false if the entry is too big for memory and wasn't stored
+     */
+    private boolean storeInMemory(String key, Entry entry, int state) {
+        List<String> evicted;
+        synchronized (this) {
+            evicted = store(key, entry, state);
+            if (evicted == null) {
+                return false;
+            }
+        }
+        writeBack(evicted);
+        return true;
+    }
+
+    /**
+     * Stores {@code entry} in memory, evicting least recently used entries to make room. Must
+     * be called with the lock held.
+     *
+     * @return the keys of evicted dirty entries, now in {@link #mWritingBack}, or null if the
+     * entry is too big for memory; any copy already in memory is dropped then
+     */
+    private List<String> store(String key, Entry entry, int state) {
+        Node old = mMemory.remove(key);
+        if (old != null) {
+            mMemoryBytes -= old.size;
+        }
+        long size = sizeOf(key, entry);
+        if (size > mMaxMemoryBytes) {
+            mGeneration++;
+            return null;
+        }
+        List<String> evicted = new ArrayList<String>();
+        Iterator<Map.Entry<String, Node>> it = mMemory.entrySet().iterator();
+        while (mMemoryBytes + size > mMaxMemoryBytes && it.hasNext()) {
+            Map.Entry<String, Node> e = it.next();
+            Node victim = e.getValue();
+            it.remove();
+            mMemoryBytes -= victim.size;
+            mEvictions++;
+            mGeneration++;
+            if (victim.state != CLEAN) {
+                mWritingBack.put(e.getKey(), victim);
+                evicted.add(e.getKey());
+            }
+        }
+        mMemory.put(key, new Node(copyOf(entry), size, state));
+        mMemoryBytes += size;
+        return evicted;
+    }
+
+    /**
+     * Writes the entries in {@link #mWritingBack} under {@code keys} to the backing cache, then
+     * drops them from there. Must be called without the lock held.
+     */
+    private void writeBack(List<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        synchronized (mWriteBackLock) {
+            for (String key : keys) {
+                Node node;
+                synchronized (this) {
+                    node = mWritingBack.get(key);
+                }
+                // Loop in case the entry was changed (e.g. invalidated) while it was written.
+                while (node != null) {
+                    if (node.state == DIRTY) {
+                        mBacking.put(key, node.entry);
+                    } else {
+                        updateBackingMetadata(key, node.entry);
+                    }
+                    synchronized (this) {
+                        mWriteBacks++;
+                        if (mWritingBack.get(key) == node) {
+                            mWritingBack.remove(key);
+                            node = null;
+                        } else {
+                            node = mWritingBack.get(key);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static int stateOf(Node node) {
+        return node != null ? node.state : CLEAN;
+    }
+
+    private static Entry expire(Entry entry, boolean fullExpire) {
+        // A copy, as a write-back may be writing the original.
+        Entry copy = copyOf(entry);
+        if (fullExpire) {
+            copy.ttl = 0;
+        }
+        copy.softTtl = 0;
+        return copy;
+    }
+
+    /**
+     * Returns a copy of {@code entry} with its own headers map. The data isn't copied; nothing
+     * changes it in place.
+     */
+    private static Entry copyOf(Entry entry) {
+        Entry copy = new Entry();
+        copy.data = entry.data;
+        copy.etag = entry.etag;
+        copy.serverDate = entry.serverDate;
+        copy.lastModified = entry.lastModified;
+        copy.ttl = entry.ttl;
+        copy.softTtl = entry.softTtl;
+        copy.staleIfErrorTtl = entry.staleIfErrorTtl;
+        if (entry.responseHeaders != null) {
+            copy.responseHeaders = new HashMap<String, String>(entry.responseHeaders);
+        }
+        return copy;
+    }
+
+    /**
+     * Returns the size {@code entry} is accounted for in memory: its data plus two bytes per
+     * character of its key, etag and headers.
+     */
+    static long sizeOf(String key, Entry entry) {
+        long chars = key.length();
+        if (entry.etag != null) {
+            chars += entry.etag.length();
+        }
+        if (entry.responseHeaders != null) {
+            for (Map.Entry<String, String> header : entry.responseHeaders.entrySet()) {
+                chars += header.getKey().length();
+                if (header.getValue() != null) {
+                    chars += header.getValue().length();
+                }
+            }
+        }
+        return (entry.data != null ? entry.data.length : 0) + 2 * chars;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+/**
+ * 两级缓存的统计快照，包括各级命中率
+ * A snapshot of how the tiers of a {@link TieredCache} have fared.
+ * <p/>
+ * Every {@link TieredCache#get(String)} counts as exactly one of a memory hit, a backing hit
+ * (a memory miss served by the backing cache) or a miss.
+ *
+ * @see TieredCache#getStats()
+ */
+public class TieredCacheStats {
+
+    private final long mMemoryHits;
+    private final long mBackingHits;
+    private final long mMisses;
+    private final long mEvictions;
+    private final long mWriteBacks;
+    private final int mMemoryEntries;
+    private final long mMemoryBytes;
+
+    TieredCacheStats(long memoryHits, long backingHits, long misses, long evictions,
+                     long writeBacks, int memoryEntries, long memoryBytes) {
+        mMemoryHits = memoryHits;
+        mBackingHits = backingHits;
+        mMisses = misses;
+        mEvictions = evictions;
+        mWriteBacks = writeBacks;
+        mMemoryEntries = memoryEntries;
+        mMemoryBytes = memoryBytes;
+    }
+
+    /**
+     * Returns the number of lookups served from memory.
+     */
+    public long getMemoryHitCount() {
+        return mMemoryHits;
+    }
+
+    /**
+     * Returns the number of lookups that missed memory and were served by the backing cache.
+     */
+    public long getBackingHitCount() {
+        return mBackingHits;
+    }
+
+    /**
+     * Returns the number of lookups that found nothing in either tier.
+     */
+    public long getMissCount() {
+        return mMisses;
+    }
+
+    /**
+     * Returns the number of entries evicted from memory to make room.
+     */
+    public long getEvictionCount() {
+        return mEvictions;
+    }
+
+    /**
+     * Returns the number of entries written to the backing cache because they were evicted or
+     * flushed, in write-back mode.
+     */
+    public long getWriteBackCount() {
+        return mWriteBacks;
+    }
+
+    /**
+     * Returns the number of entries held in memory.
+     */
+    public int getMemoryEntryCount() {
+        return mMemoryEntries;
+    }
+
+    /**
+     * Returns the accounted size of the entries held in memory.
+     */
+    public long getMemoryBytes() {
+        return mMemoryBytes;
+    }
+
+    /**
+     * Returns the fraction of all lookups served from memory, from 0 to 1.
+     */
+    public float getMemoryHitRatio() {
+        long lookups = mMemoryHits + mBackingHits + mMisses;
+        return lookups > 0 ? (float) mMemoryHits / lookups : 0f;
+    }
+
+    /**
+     * Returns the fraction of the lookups reaching the backing cache that it served, from 0
+     * to 1.
+     */
+    public float getBackingHitRatio() {
+        long lookups = mBackingHits + mMisses;
+        return lookups > 0 ? (float) mBackingHits / lookups : 0f;
+    }
+
+    /**
+     * Returns the fraction of all lookups served by either tier, from 0 to 1.
+     */
+    public float getHitRatio() {
+        long lookups = mMemoryHits + mBackingHits + mMisses;
+        return lookups > 0 ? (float) (mMemoryHits + mBackingHits) / lookups : 0f;
+    }
+
+    @Override
+    public String toString() {
+        return "TieredCacheStats[memoryHits=" + mMemoryHits + ", backingHits=" + mBackingHits
+                + ", misses=" + mMisses + ", evictions=" + mEvictions + ", writeBacks="
+                + mWriteBacks + ", memoryEntries=" + mMemoryEntries + ", memoryBytes="
+                + mMemoryBytes + "]";
+    }
+}
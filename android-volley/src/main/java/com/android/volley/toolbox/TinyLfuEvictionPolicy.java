@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * W-TinyLFU淘汰策略：新条目先进入小窗口，离开窗口时需要在访问频率上胜过主区的淘汰对象才会被保留
+ * A W-TinyLFU policy: admission by frequency in front of a segmented LRU.
+ * <p/>
+ * New entries enter a small LRU window (1% of the bytes held). Until the cache first fills up,
+ * the window's oldest entries simply move on to the main region. From then on, once the window
+ * is over its share, its oldest entry must win a duel to stay: if it has been looked up more
+ * often than the entry the main region would evict, it moves to the main region and that entry
+ * goes; otherwise the newcomer goes. A one-off download therefore can't push out many small
+ * entries that are in steady use.
+ * <p/>
+ * The main region is a segmented LRU: entries enter on probation and move to the protected
+ * segment (80% of the main region) when looked up again. Frequencies, including those of
+ * lookups that missed, are kept approximately in a count-min sketch whose counters are halved
+ * periodically so that old popularity fades.
+ */
+public class TinyLfuEvictionPolicy implements EvictionPolicy {
+
+    private static final int WINDOW_PERCENT = 1;
+    private static final int PROTECTED_PERCENT = 80;
+
+    /**
+     * The three segments, keys mapped to sizes, least recently used first.
+     */
+    private final LinkedHashMap<String, Long> mWindow = new LinkedHashMap<String, Long>();
+    private final LinkedHashMap<String, Long> mProbation = new LinkedHashMap<String, Long>();
+    private final LinkedHashMap<String, Long> mProtected = new LinkedHashMap<String, Long>();
+
+    private long mWindowBytes;
+    private long mProbationBytes;
+    private long mProtectedBytes;
+
+    private FrequencySketch mSketch = new FrequencySketch();
+
+    /**
+     * Set once the cache has asked for a victim, i.e. has filled up; admission only applies
+     * from then on.
+     */
+    private boolean mFull;
+
+    @Override
+    public void onInsert(String key, long size) {
+        Long old = mWindow.get(key);
+        if (old != null) {
+            mWindow.put(key, size);
+            mWindowBytes += size - old;
+            return;
+        }
+        old = mProbation.get(key);
+        if (old != null) {
+            mProbation.put(key, size);
+            mProbationBytes += size - old;
+            return;
+        }
+        old = mProtected.get(key);
+        if (old != null) {
+            mProtected.put(key, size);
+            mProtectedBytes += size - old;
+            return;
+        }
+        mWindow.put(key, size);
+        mWindowBytes += size;
+        mSketch.ensureCapacity(mWindow.size() + mProbation.size() + mProtected.size());
+        if (!mFull) {
+            // Room for everything; keep just the newest entries in the window.
+            while (mWindow.size() > 1 && mWindowBytes > windowShare()) {
+                String oldest = first(mWindow);
+                long oldestSize = mWindow.remove(oldest);
+                mWindowBytes -= oldestSize;
+                mProbation.put(oldest, oldestSize);
+                mProbationBytes += oldestSize;
+            }
+        }
+    }
+
+    @Override
+    public void onAccess(String key) {
+        mSketch.increment(key);
+        Long size = mWindow.remove(key);
+        if (size != null) {
+            mWindow.put(key, size);
+            return;
+        }
+        size = mProtected.remove(key);
+        if (size != null) {
+            mProtected.put(key, size);
+            return;
+        }
+        size = mProbation.remove(key);
+        if (size == null) {
+            return;
+        }
+        mProbationBytes -= size;
+        mProtected.put(key, size);
+        mProtectedBytes += size;
+        // Demote the protected segment's oldest entries while it is over its share.
+        long mainBytes = mProbationBytes + mProtectedBytes;
+        while (mProtectedBytes > mainBytes * PROTECTED_PERCENT / 100 && mProtected.size() > 1) {
+            String demoted = first(mProtected);
+            long demotedSize = mProtected.remove(demoted);
+            mProtectedBytes -= demotedSize;
+            mProbation.put(demoted, demotedSize);
+            mProbationBytes += demotedSize;
+        }
+    }
+
+    @Override
+    public void onMiss(String key) {
+        mSketch.increment(key);
+    }
+
+    @Override
+    public void onRequeue(String key) {
+        // To the back of its own segment, without counting a lookup or promoting it.
+        if (!requeue(mWindow, key) && !requeue(mProbation, key)) {
+            requeue(mProtected, key);
+        }
+    }
+
+    @Override
+    public void onRemove(String key) {
+        Long size = mWindow.remove(key);
+        if (size != null) {
+            mWindowBytes -= size;
+            return;
+        }
+        size = mProbation.remove(key);
+        if (size != null) {
+            mProbationBytes -= size;
+            return;
+        }
+        size = mProtected.remove(key);
+        if (size != null) {
+            mProtectedBytes -= size;
+        }
+    }
+
+    @Override
+    public void clear() {
+        mWindow.clear();
+        mProbation.clear();
+        mProtected.clear();
+        mWindowBytes = 0;
+        mProbationBytes = 0;
+        mProtectedBytes = 0;
+        mSketch = new FrequencySketch();
+        mFull = false;
+    }
+
+    @Override
+    public String nextVictim() {
+        mFull = true;
+        if (mWindowBytes > windowShare() && !mWindow.isEmpty()) {
+            String candidate = first(mWindow);
+            String victim = !mProbation.isEmpty() ? first(mProbation) : first(mProtected);
+            if (victim == null) {
+                return candidate;
+            }
+            if (mSketch.frequency(candidate) <= mSketch.frequency(victim)) {
+                return candidate;
+            }
+            // The candidate wins its place in the main region.
+            long size = mWindow.remove(candidate);
+            mWindowBytes -= size;
+            mProbation.put(candidate, size);
+            mProbationBytes += size;
+            return victim;
+        }
+        if (!mProbation.isEmpty()) {
+            return first(mProbation);
+        }
+        if (!mProtected.isEmpty()) {
+            return first(mProtected);
+        }
+        return first(mWindow);
+    }
+
+    private long windowShare() {
+        return (mWindowBytes + mProbationBytes + mProtectedBytes) * WINDOW_PERCENT / 100;
+    }
+
+    /**
+     * Returns the approximate number of recent lookups of {@code key}.
+     */
+    int frequency(String key) {
+        return mSketch.frequency(key);
+    }
+
+    private static boolean requeue(LinkedHashMap<String, Long> segment, String key) {
+        Long size = segment.remove(key);
+        if (size == null) {
+            return false;
+        }
+        segment.put(key, size);
+        return true;
+    }
+
+    private static String first(LinkedHashMap<String, Long> segment) {
+        Iterator<String> keys = segment.keySet().iterator();
+        return keys.hasNext() ? keys.next() : null;
+    }
+
+    /**
+     * A count-min sketch of 4-bit counters in four rows, at least {@link #COLUMNS_PER_KEY}
+     * columns per tracked key so that keys looked up once (misses included) rarely inflate
+     * the counts of others. After ten increments per key it has room for, all counters are
+     * halved.
+     */
+    static class FrequencySketch {
+        private static final int ROWS = 4;
+        private static final int COLUMNS_PER_KEY = 8;
+        private static final int MAX_COUNT = 15;
+        private static final int MAX_WIDTH = 1 << 20;
+        private static final int[] SEEDS = {0x97cb3127, 0xb34d2a75, 0x5bd1e995, 0x2c1b3c6d};
+
+        private byte[][] mTable;
+        private int mAdditions;
+
+        FrequencySketch() {
+            mTable = new byte[ROWS][64];
+        }
+
+        /**
+         * Widens the sketch if it is too narrow for {@code keys} tracked keys. Each new column
+         * starts from the count of the column it was split from, which can only overestimate.
+         */
+        void ensureCapacity(int keys) {
+            int oldWidth = mTable[0].length;
+            long needed = (long) keys * COLUMNS_PER_KEY;
+            if (needed <= oldWidth || oldWidth >= MAX_WIDTH) {
+                return;
+            }
+            int width = oldWidth;
+            while (width < needed && width < MAX_WIDTH) {
+                width <<= 1;
+            }
+            byte[][] table = new byte[ROWS][width];
+            for (int i = 0; i < ROWS; i++) {
+                for (int j = 0; j < width; j++) {
+                    table[i][j] = mTable[i][j & (oldWidth - 1)];
+                }
+            }
+            mTable = table;
+        }
+
+        void increment(String key) {
+            int h = key.hashCode();
+            boolean added = false;
+            for (int i = 0; i < ROWS; i++) {
+                int index = indexOf(h, i);
+                if (mTable[i][index] < MAX_COUNT) {
+                    mTable[i][index]++;
+                    added = true;
+                }
+            }
+            if (added && ++mAdditions >= 10 * mTable[0].length / COLUMNS_PER_KEY) {
+                halve();
+            }
+        }
+
+        int frequency(String key) {
+            int h = key.hashCode();
+            int min = MAX_COUNT;
+            for (int i = 0; i < ROWS; i++) {
+                min = Math.min(min, mTable[i][indexOf(h, i)]);
+            }
+            return min;
+        }
+
+        private void halve() {
+            for (byte[] row : mTable) {
+                for (int j = 0; j < row.length; j++) {
+                    row[j] >>= 1;
+                }
+            }
+            mAdditions /= 2;
+        }
+
+        private int indexOf(int h, int row) {
+            h = (h + SEEDS[row]) * SEEDS[row];
+            h ^= h >>> 16;
+            return h & (mTable[row].length - 1);
+        }
+    }
+}
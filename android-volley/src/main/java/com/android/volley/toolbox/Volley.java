@@ -88,6 +88,8 @@ public class Volley {
             queue = new RequestQueue(new DiskBasedCache(cacheDir, maxDiskCacheBytes), network);
         }
 
+        // DiskBasedCache serves lookups while it loads its index.
+        queue.setInitializeCacheInBackground(true);
         queue.start();
 
         return queue;
@@ -0,0 +1,340 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import com.android.volley.Cache;
+import com.android.volley.MetadataUpdatableCache;
+import com.android.volley.VolleyLog;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 异步写回缓存，put只写入内存缓冲区，由后台线程持久化到被包装的缓存
+ * A {@link Cache} that persists entries to another cache in the background.
+ * <p/>
+ * {@link #put(String, Entry)} only records the entry in a write buffer, so a dispatcher
+ * storing a response (e.g. into a {@link DiskBasedCache}) no longer waits for the file to be
+ * written before the response is delivered. A single writer thread drains the buffer in
+ * order. Repeated puts for a key that hasn't been written yet replace the buffered entry, so
+ * only the latest one is written. Reads of a buffered key are served from the buffer, as
+ * copies: callers change the entries they get (BasicNetwork merges the headers of a 304 into
+ * them), and the buffered one may be being written.
+ * <p/>
+ * The buffer holds at most {@code maxPendingBytes} of response data: a put that would exceed
+ * it blocks until the writer has made room. An entry larger than the whole bound is accepted
+ * once the buffer is empty.
+ */
+public class WriteBehindCache implements MetadataUpdatableCache {
+
+    /**
+     * Default bound on buffered response data.
+     * 默认缓冲区上限1M
+     */
+    private static final long DEFAULT_MAX_PENDING_BYTES = 1024 * 1024;
+
+    /**
+     * The cache entries are persisted to.
+     */
+    private final Cache mDelegate;
+
+    private final long mMaxPendingBytes;
+
+    /**
+     * Entries waiting to be written, oldest first. The entry being written stays here until
+     * it is on the delegate so reads keep finding it. Guarded by {@code this}.
+     */
+    private final LinkedHashMap<String, Entry> mPending = new LinkedHashMap<String, Entry>();
+
+    /**
+     * Keys in {@link #mPending} whose entry only updates metadata of data already written.
+     * Guarded by {@code this}.
+     */
+    private final Set<String> mMetadataOnly = new HashSet<String>();
+
+    /**
+     * Total data size of {@link #mPending}. Guarded by {@code this}.
+     */
+    private long mPendingBytes;
+
+    /**
+     * Key of the entry the writer is putting into the delegate, or null. Guarded by
+     * {@code this}.
+     */
+    private String mWritingKey;
+
+    /**
+     * The writer thread, or null until the first put. Guarded by {@code this}.
+     */
+    private Thread mWriter;
+
+    /**
+     * Creates a write-behind cache with the default buffer bound.
+     *
+     * @param delegate the cache to persist entries to
+     */
+    public WriteBehindCache(Cache delegate) {
+        this(delegate, DEFAULT_MAX_PENDING_BYTES);
+    }
+
+    /**
+     * @param delegate        the cache to persist entries to
+     * @param maxPendingBytes the most response data to hold before puts block
+     */
+    public WriteBehindCache(Cache delegate, long maxPendingBytes) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("delegate must not be null");
+        }
+        if (maxPendingBytes < 1) {
+            throw new IllegalArgumentException("maxPendingBytes must be positive");
+        }
+        mDelegate = delegate;
+        mMaxPendingBytes = maxPendingBytes;
+    }
+
+    @Override
+    public Entry get(String key) {
+        synchronized (this) {
+            Entry pending = mPending.get(key);
+            if (pending != null) {
+                return copyOf(pending);
+            }
+        }
+        return mDelegate.get(key);
+    }
+
+    /**
+     * Buffers {@code entry} for writing. Blocks while the buffer is full.
+     */
+    @Override
+    public void put(String key, Entry entry) {
+        enqueue(key, entry, false);
+    }
+
+    /**
+     * Buffers a metadata update. If a full write of {@code key} is still buffered, it is
+     * replaced by {@code entry} and stays a full write.
+     */
+    @Override
+    public void updateMetadata(String key, Entry entry) {
+        enqueue(key, entry, true);
+    }
+
+    @Override
+    public void invalidate(String key, boolean fullExpire) {
+        synchronized (this) {
+            Entry pending = mPending.get(key);
+            if (pending != null) {
+                // Buffer an expired copy; the writer may be writing the original right now.
+                Entry expired = copyOf(pending);
+                expired.softTtl = 0;
+                if (fullExpire) {
+                    expired.ttl = 0;
+                }
+                mPending.put(key, expired);
+                notifyAll();
+                return;
+            }
+        }
+        // Not buffered, so no write of this key is in flight either.
+        mDelegate.invalidate(key, fullExpire);
+    }
+
+    @Override
+    public void remove(String key) {
+        synchronized (this) {
+            dequeue(key);
+            // Don't let a write already under way recreate the entry after we remove it.
+            boolean interrupted = false;
+            while (key.equals(mWritingKey)) {
+                interrupted |= awaitUninterruptibly();
+            }
+            restoreInterrupt(interrupted);
+        }
+        mDelegate.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        synchronized (this) {
+            mPending.clear();
+            mMetadataOnly.clear();
+            mPendingBytes = 0;
+            notifyAll();
+            boolean interrupted = false;
+            while (mWritingKey != null) {
+                interrupted |= awaitUninterruptibly();
+            }
+            restoreInterrupt(interrupted);
+        }
+        mDelegate.clear();
+    }
+
+    @Override
+    public void initialize() {
+        mDelegate.initialize();
+    }
+
+    /**
+     * Blocks until every entry buffered so far has been written to the delegate.
+     * 等待缓冲区中的数据全部写入
+     */
+    public synchronized void flush() throws InterruptedException {
+        while (!mPending.isEmpty()) {
+            wait();
+        }
+    }
+
+    /**
+     * Returns the number of entries waiting to be written.
+     */
+    public synchronized int getPendingCount() {
+        return mPending.size();
+    }
+
+    /**
+     * Returns the data size of the entries waiting to be written.
+     */
+    public synchronized long getPendingBytes() {
+        return mPendingBytes;
+    }
+
+    private synchronized void enqueue(String key, Entry entry, boolean metadataOnly) {
+        long size = sizeOf(entry);
+        // Coalesce: an older entry that wasn't written yet never will be.
+        boolean replacedFullWrite = dequeue(key);
+        boolean interrupted = false;
+        while (!mPending.isEmpty() && mPendingBytes + size > mMaxPendingBytes) {
+            interrupted |= awaitUninterruptibly();
+        }
+        restoreInterrupt(interrupted);
+        // Another entry for the same key may have been buffered while we waited; ours is newer.
+        replacedFullWrite |= dequeue(key);
+        mPending.put(key, copyOf(entry));
+        mPendingBytes += size;
+        if (metadataOnly && !replacedFullWrite) {
+            mMetadataOnly.add(key);
+        }
+        if (mWriter == null) {
+            mWriter = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    drain();
+                }
+            }, "Volley-CacheWriter");
+            mWriter.setDaemon(true);
+            mWriter.start();
+        }
+        notifyAll();
+    }
+
+    /**
+     * Drops the buffered entry for {@code key}, if any. Must be called with {@code this} held.
+     *
+     * @return true if the dropped entry was a full write rather than a metadata update
+     */
+    private boolean dequeue(String key) {
+        Entry pending = mPending.remove(key);
+        if (pending == null) {
+            return false;
+        }
+        mPendingBytes -= sizeOf(pending);
+        notifyAll();
+        return !mMetadataOnly.remove(key);
+    }
+
+    /**
+     * Writer loop: writes the oldest buffered entry, forever.
+     */
+    private void drain() {
+        while (true) {
+            String key;
+            Entry entry;
+            boolean metadataOnly;
+            synchronized (this) {
+                while (mPending.isEmpty()) {
+                    // Daemon thread with nothing to stop; ignore interrupts.
+                    awaitUninterruptibly();
+                }
+                Map.Entry<String, Entry> eldest = mPending.entrySet().iterator().next();
+                key = eldest.getKey();
+                entry = eldest.getValue();
+                metadataOnly = mMetadataOnly.contains(key);
+                mWritingKey = key;
+            }
+            try {
+                if (metadataOnly && mDelegate instanceof MetadataUpdatableCache) {
+                    ((MetadataUpdatableCache) mDelegate).updateMetadata(key, entry);
+                } else {
+                    mDelegate.put(key, entry);
+                }
+            } catch (RuntimeException e) {
+                VolleyLog.e(e, "Failed to write cache entry for %s", key);
+            }
+            synchronized (this) {
+                mWritingKey = null;
+                // Only drop it if nothing replaced or removed it while we were writing.
+                if (mPending.get(key) == entry) {
+                    dequeue(key);
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Waits on {@code this}, which must be held, without throwing on interrupt.
+     *
+     * @return true if the wait was interrupted; the caller restores the interrupt once done
+     */
+    private boolean awaitUninterruptibly() {
+        try {
+            wait();
+            return false;
+        } catch (InterruptedException e) {
+            return true;
+        }
+    }
+
+    private static void restoreInterrupt(boolean interrupted) {
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Entry copyOf(Entry entry) {
+        Entry copy = new Entry();
+        copy.data = entry.data;
+        copy.etag = entry.etag;
+        copy.serverDate = entry.serverDate;
+        copy.lastModified = entry.lastModified;
+        copy.ttl = entry.ttl;
+        copy.softTtl = entry.softTtl;
+        copy.staleIfErrorTtl = entry.staleIfErrorTtl;
+        if (entry.responseHeaders != null) {
+            copy.responseHeaders = new HashMap<String, String>(entry.responseHeaders);
+        }
+        return copy;
+    }
+
+    private static long sizeOf(Entry entry) {
+        return entry.data != null ? entry.data.length : 0;
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+import com.android.volley.Request.Priority;
+import com.android.volley.mock.MockRequest;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Comparator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class AgingPriorityBlockingQueueTest {
+
+    private static final long AGING_INTERVAL_MS = 100;
+
+    /**
+     * Queue on a manual clock.
+     */
+    private static class TestQueue extends AgingPriorityBlockingQueue {
+        long nowMs;
+
+        TestQueue() {
+            super(AGING_INTERVAL_MS);
+        }
+
+        @Override
+        long now() {
+            return nowMs;
+        }
+    }
+
+    private TestQueue mQueue;
+    private int mSequence;
+
+    @Before public void setUp() throws Exception {
+        mQueue = new TestQueue();
+    }
+
+    private MockRequest request(Priority priority) {
+        MockRequest request = new MockRequest();
+        request.setPriority(priority);
+        request.setSequence(++mSequence);
+        return request;
+    }
+
+    @Test public void priorityThenFifoWithoutAging() throws Exception {
+        MockRequest low = request(Priority.LOW);
+        MockRequest normal1 = request(Priority.NORMAL);
+        MockRequest high = request(Priority.HIGH);
+        MockRequest normal2 = request(Priority.NORMAL);
+        mQueue.add(low);
+        mQueue.add(normal1);
+        mQueue.add(high);
+        mQueue.add(normal2);
+
+        assertSame(high, mQueue.peek());
+        assertSame(high, mQueue.poll());
+        assertSame(normal1, mQueue.poll());
+        assertSame(normal2, mQueue.poll());
+        assertSame(low, mQueue.poll());
+        assertNull(mQueue.poll());
+    }
+
+    @Test public void waitingRaisesEffectivePriority() throws Exception {
+        MockRequest low = request(Priority.LOW);
+        mQueue.add(low);
+        mQueue.nowMs = AGING_INTERVAL_MS;
+        MockRequest normal = request(Priority.NORMAL);
+        mQueue.add(normal);
+        // Same effective level; the older request wins.
+        assertSame(low, mQueue.poll());
+        assertSame(normal, mQueue.poll());
+    }
+
+    @Test public void requeuedRequestDoesNotHideOlderOnes() throws Exception {
+        MockRequest retried = request(Priority.LOW);
+        MockRequest waiting = request(Priority.LOW);
+        mQueue.add(waiting);
+        mQueue.nowMs = 10 * AGING_INTERVAL_MS;
+        // Back for another attempt: first in its level by sequence, but only just enqueued.
+        mQueue.add(retried);
+        MockRequest high = request(Priority.HIGH);
+        mQueue.add(high);
+
+        // The level is scored by how long "waiting" has been queued, and its head goes first.
+        assertSame(retried, mQueue.poll());
+        assertSame(waiting, mQueue.poll());
+        assertSame(high, mQueue.poll());
+    }
+
+    /**
+     * Keeps the queue busy with a fresh HIGH request every 10 ms while one request is served
+     * per tick, and returns how long a LOW request enqueued at the start waited, or -1 if it
+     * was never served within {@code ticks}.
+     */
+    private int lowRequestWait(BlockingQueue<Request<?>> queue, int ticks) throws Exception {
+        MockRequest low = request(Priority.LOW);
+        queue.add(low);
+        for (int tick = 0; tick < ticks; tick++) {
+            mQueue.nowMs = tick * 10;
+            queue.add(request(Priority.HIGH));
+            if (queue.poll() == low) {
+                return tick * 10;
+            }
+        }
+        return -1;
+    }
+
+    @Test public void lowPriorityWaitIsBounded() throws Exception {
+        // LOW is two levels below HIGH, so it can't wait much more than two intervals.
+        int waitMs = lowRequestWait(mQueue, 1000);
+        assertTrue("LOW request starved", waitMs >= 0);
+        assertTrue("LOW request waited " + waitMs + " ms", waitMs <= 2 * AGING_INTERVAL_MS + 10);
+    }
+
+    @Test public void strictPriorityStarvesLowPriority() throws Exception {
+        assertEquals(-1, lowRequestWait(new PriorityBlockingQueue<Request<?>>(), 1000));
+    }
+
+    @Test public void removeAndContains() throws Exception {
+        MockRequest low = request(Priority.LOW);
+        MockRequest high = request(Priority.HIGH);
+        mQueue.add(low);
+        mQueue.add(high);
+        assertTrue(mQueue.contains(low));
+        assertTrue(mQueue.remove(low));
+        assertFalse(mQueue.remove(low));
+        assertEquals(1, mQueue.size());
+        assertSame(high, mQueue.poll());
+        assertTrue(mQueue.isEmpty());
+    }
+
+    @Test public void takeBlocksUntilOffer() throws Exception {
+        final MockRequest request = request(Priority.NORMAL);
+        assertNull(mQueue.poll(10, TimeUnit.MILLISECONDS));
+        new Thread() {
+            @Override
+            public void run() {
+                mQueue.add(request);
+            }
+        }.start();
+        assertSame(request, mQueue.take());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveInterval() throws Exception {
+        RequestScheduler.aging(0);
+    }
+
+    @Test public void dispatchOrderAccountsForAging() throws Exception {
+        mQueue.nowMs = 1000;
+        MockRequest agedLow = request(Priority.LOW);
+        agedLow.setQueuedTimeMs(mQueue.nowMs - 5 * AGING_INTERVAL_MS);
+        MockRequest freshLow = request(Priority.LOW);
+        freshLow.setQueuedTimeMs(mQueue.nowMs);
+        MockRequest normal = request(Priority.NORMAL);
+        normal.setQueuedTimeMs(mQueue.nowMs);
+
+        Comparator<Request<?>> order = mQueue.dispatchOrder();
+        assertTrue(order.compare(agedLow, normal) < 0);
+        assertTrue(order.compare(normal, freshLow) < 0);
+        assertTrue(order.compare(agedLow, freshLow) < 0);
+        // Not yet enqueued counts as enqueued now.
+        assertTrue(order.compare(request(Priority.LOW), normal) > 0);
+    }
+}
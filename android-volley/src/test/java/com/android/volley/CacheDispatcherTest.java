@@ -28,6 +28,9 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import static org.junit.Assert.*;
 
 @RunWith(RobolectricTestRunner.class)
@@ -112,4 +115,53 @@ public class CacheDispatcherTest {
         Request request = mNetworkQueue.take();
         assertSame(entry, request.getCacheEntry());
     }
+
+    // Dispatchers sharing a cache queue initialize the cache once and all serve hits.
+    @Test public void sharedInitializer() throws Exception {
+        MockCache cache = new MockCache();
+        cache.setEntryToReturn(CacheTestUtils.makeRandomCacheEntry(null, false, false));
+        CacheDispatcher.Initializer initializer = new CacheDispatcher.Initializer(cache);
+        CacheDispatcher first = new CacheDispatcher(mCacheQueue, mNetworkQueue, cache, mDelivery, initializer, null);
+        CacheDispatcher second = new CacheDispatcher(mCacheQueue, mNetworkQueue, cache, mDelivery, initializer, null);
+        mDispatcher.quit();
+        mDispatcher.join();
+        first.start();
+        second.start();
+
+        mCacheQueue.add(mRequest);
+        mCacheQueue.waitUntilEmpty(TIMEOUT_MILLIS);
+        first.quit();
+        second.quit();
+        first.join();
+        second.join();
+        assertEquals(1, cache.initializeCount);
+        assertTrue(mDelivery.postResponse_called);
+    }
+
+    @Test public void backgroundInitializerDoesNotBlock() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch initialized = new CountDownLatch(1);
+        MockCache slowCache = new MockCache() {
+            @Override
+            public void initialize() {
+                try {
+                    release.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.initialize();
+                initialized.countDown();
+            }
+        };
+        CacheDispatcher.Initializer initializer = new CacheDispatcher.Initializer(slowCache, true);
+
+        // Returns while the cache is still initializing, and only starts it once.
+        initializer.initialize();
+        initializer.initialize();
+        assertEquals(0, slowCache.initializeCount);
+
+        release.countDown();
+        assertTrue(initialized.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertEquals(1, slowCache.initializeCount);
+    }
 }
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+import com.android.volley.Request.Priority;
+import com.android.volley.mock.MockRequest;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class DispatchQueueTest {
+    private DispatchQueue mQueue;
+    private int mSequence;
+    private int mOverflows;
+
+    @Before public void setUp() throws Exception {
+        mQueue = new DispatchQueue(RequestQueueMetrics.QUEUE_NETWORK,
+                new PriorityBlockingQueue<Request<?>>());
+        mQueue.setMetrics(new RequestQueueMetrics() {
+            @Override
+            public void onQueueOverflow(Request<?> request, String queue) {
+                mOverflows++;
+            }
+        });
+    }
+
+    private MockRequest request(Priority priority) {
+        MockRequest request = new MockRequest();
+        request.setPriority(priority);
+        request.setSequence(++mSequence);
+        return request;
+    }
+
+    @Test public void unboundedByDefault() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            assertNull(mQueue.admit(request(Priority.NORMAL)));
+        }
+        assertEquals(100, mQueue.size());
+    }
+
+    @Test public void rejectRefusesNewRequest() throws Exception {
+        mQueue.setCapacityPolicy(new QueueCapacityPolicy(2, QueueCapacityPolicy.Overflow.REJECT));
+        assertNull(mQueue.admit(request(Priority.NORMAL)));
+        assertNull(mQueue.admit(request(Priority.NORMAL)));
+        MockRequest third = request(Priority.IMMEDIATE);
+        assertSame(third, mQueue.admit(third));
+        assertEquals(2, mQueue.size());
+        assertEquals(1, mOverflows);
+        // Internal moves are never refused.
+        mQueue.add(request(Priority.NORMAL));
+        assertEquals(3, mQueue.size());
+    }
+
+    @Test public void dropLowestPriorityEvictsLastInLine() throws Exception {
+        mQueue.setCapacityPolicy(new QueueCapacityPolicy(2,
+                QueueCapacityPolicy.Overflow.DROP_LOWEST_PRIORITY));
+        MockRequest low = request(Priority.LOW);
+        MockRequest normal = request(Priority.NORMAL);
+        mQueue.admit(low);
+        mQueue.admit(normal);
+
+        MockRequest high = request(Priority.HIGH);
+        assertSame(low, mQueue.admit(high));
+        assertFalse(mQueue.contains(low));
+        assertTrue(mQueue.contains(high));
+
+        // A request that would go last itself is the one refused.
+        MockRequest anotherLow = request(Priority.LOW);
+        assertSame(anotherLow, mQueue.admit(anotherLow));
+        assertEquals(2, mQueue.size());
+        assertEquals(2, mOverflows);
+    }
+
+    @Test public void blockTimesOut() throws Exception {
+        mQueue.setCapacityPolicy(new QueueCapacityPolicy(1, 50));
+        mQueue.admit(request(Priority.NORMAL));
+        MockRequest second = request(Priority.NORMAL);
+        long startNs = System.nanoTime();
+        assertSame(second, mQueue.admit(second));
+        assertTrue(System.nanoTime() - startNs >= 40 * 1000000L);
+    }
+
+    @Test public void blockedProducerProceedsWhenRoomFrees() throws Exception {
+        mQueue.setCapacityPolicy(new QueueCapacityPolicy(1, 5000));
+        mQueue.admit(request(Priority.NORMAL));
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                    mQueue.take();
+                } catch (InterruptedException e) {
+                    // Test fails on the assertion below.
+                }
+            }
+        }.start();
+        assertNull(mQueue.admit(request(Priority.NORMAL)));
+        assertEquals(1, mQueue.size());
+    }
+
+    @Test public void discardFreesCapacityAndIsSkipped() throws Exception {
+        mQueue.setCapacityPolicy(new QueueCapacityPolicy(2, QueueCapacityPolicy.Overflow.REJECT));
+        MockRequest first = request(Priority.NORMAL);
+        MockRequest second = request(Priority.NORMAL);
+        mQueue.admit(first);
+        mQueue.admit(second);
+
+        assertTrue(mQueue.discard(first));
+        assertFalse(mQueue.discard(first));
+        assertFalse(mQueue.contains(first));
+        assertEquals(1, mQueue.size());
+
+        MockRequest third = request(Priority.NORMAL);
+        assertNull(mQueue.admit(third));
+        assertEquals(0, mOverflows);
+        assertSame(second, mQueue.peek());
+        assertSame(second, mQueue.take());
+        assertSame(third, mQueue.poll());
+        assertNull(mQueue.poll());
+        assertEquals(0, mQueue.size());
+    }
+
+    @Test public void discardAfterTakeFails() throws Exception {
+        MockRequest request = request(Priority.NORMAL);
+        mQueue.add(request);
+        assertSame(request, mQueue.take());
+        assertFalse(mQueue.discard(request));
+    }
+
+    @Test public void tombstonesArePurgedOncePastAQuarter() throws Exception {
+        PriorityBlockingQueue<Request<?>> delegate = new PriorityBlockingQueue<Request<?>>();
+        DispatchQueue queue = new DispatchQueue(RequestQueueMetrics.QUEUE_NETWORK, delegate);
+        MockRequest[] requests = new MockRequest[8];
+        for (int i = 0; i < requests.length; i++) {
+            requests[i] = request(Priority.NORMAL);
+            queue.add(requests[i]);
+        }
+
+        assertTrue(queue.discard(requests[7]));
+        // One tombstone against seven queued requests stays put.
+        assertEquals(8, delegate.size());
+        assertTrue(queue.discard(requests[6]));
+        assertEquals(6, delegate.size());
+        assertFalse(delegate.contains(requests[6]));
+        assertFalse(delegate.contains(requests[7]));
+        assertEquals(6, queue.size());
+        assertSame(requests[0], queue.take());
+    }
+
+    @Test public void awaitEmptyWakesWhenDrained() throws Exception {
+        MockRequest first = request(Priority.NORMAL);
+        MockRequest second = request(Priority.NORMAL);
+        mQueue.add(first);
+        mQueue.add(second);
+        final CountDownLatch drained = new CountDownLatch(1);
+        Thread waiter = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    mQueue.awaitEmpty();
+                    drained.countDown();
+                } catch (InterruptedException e) {
+                    // Test fails on the latch.
+                }
+            }
+        };
+        waiter.start();
+
+        mQueue.take();
+        assertFalse(drained.await(100, TimeUnit.MILLISECONDS));
+        // A discard drains it as well as a take.
+        assertTrue(mQueue.discard(second));
+        assertTrue(drained.await(5, TimeUnit.SECONDS));
+        waiter.join();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void blockPolicyNeedsTimeout() throws Exception {
+        new QueueCapacityPolicy(1, QueueCapacityPolicy.Overflow.BLOCK);
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+import com.android.volley.Request.Priority;
+import com.android.volley.mock.MockCache;
+import com.android.volley.mock.MockRequest;
+import com.android.volley.utils.ImmediateResponseDelivery;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class ExecutorDispatcherTest {
+
+    /**
+     * Collects tasks so the test decides when they run.
+     */
+    private static class ManualExecutor implements Executor {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.remove(0).run();
+            }
+        }
+    }
+
+    /**
+     * Records the order in which requests reach the network.
+     */
+    private static class RecordingNetwork implements Network {
+        final List<Request<?>> requests = Collections.synchronizedList(new ArrayList<Request<?>>());
+
+        @Override
+        public NetworkResponse performRequest(Request<?> request) throws VolleyError {
+            requests.add(request);
+            return new NetworkResponse(new byte[0]);
+        }
+    }
+
+    private static MockRequest uncached(Priority priority, int sequence) {
+        MockRequest request = new MockRequest("http://foo.com/" + sequence, null);
+        request.setShouldCache(false);
+        request.setPriority(priority);
+        return request;
+    }
+
+    @Test public void tasksTakeRequestsInPriorityOrder() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        RecordingNetwork network = new RecordingNetwork();
+        RequestQueue queue = new RequestQueue(new MockCache(), network, executor,
+                new ImmediateResponseDelivery(), RequestScheduler.PRIORITY);
+        queue.start();
+        MockRequest low = uncached(Priority.LOW, 1);
+        MockRequest normal = uncached(Priority.NORMAL, 2);
+        MockRequest high = uncached(Priority.HIGH, 3);
+        queue.add(low);
+        queue.add(normal);
+        queue.add(high);
+
+        assertEquals(3, executor.tasks.size());
+        executor.runAll();
+        assertEquals(3, network.requests.size());
+        assertSame(high, network.requests.get(0));
+        assertSame(normal, network.requests.get(1));
+        assertSame(low, network.requests.get(2));
+    }
+
+    @Test public void duplicatesAreStillStaged() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        RecordingNetwork network = new RecordingNetwork();
+        RequestQueue queue = new RequestQueue(new MockCache(), network, executor,
+                new ImmediateResponseDelivery(), RequestScheduler.PRIORITY);
+        queue.start();
+        MockRequest first = new MockRequest();
+        MockRequest duplicate = new MockRequest();
+        queue.add(first);
+        queue.add(duplicate);
+
+        // Only the first one is queued; the duplicate waits for it.
+        assertEquals(1, executor.tasks.size());
+        assertEquals(1, queue.getCacheQueueDepth());
+    }
+
+    @Test public void stoppedQueueSubmitsNothing() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        RequestQueue queue = new RequestQueue(new MockCache(), new RecordingNetwork(), executor,
+                new ImmediateResponseDelivery(), RequestScheduler.PRIORITY);
+        queue.add(uncached(Priority.NORMAL, 1));
+        assertTrue(executor.tasks.isEmpty());
+        // Starting picks up what was queued meanwhile.
+        queue.start();
+        assertEquals(1, executor.tasks.size());
+    }
+
+    @Test public void blockingRequestsRunConcurrently() throws Exception {
+        final int concurrent = 50;
+        final CountDownLatch allInFlight = new CountDownLatch(concurrent);
+        Network blockingNetwork = new Network() {
+            @Override
+            public NetworkResponse performRequest(Request<?> request) throws VolleyError {
+                allInFlight.countDown();
+                try {
+                    // Only succeeds if every request is in flight at once.
+                    if (!allInFlight.await(5, TimeUnit.SECONDS)) {
+                        throw new TimeoutError();
+                    }
+                } catch (InterruptedException e) {
+                    throw new VolleyError(e);
+                }
+                return new NetworkResponse(new byte[0]);
+            }
+        };
+        Executor threadPerTask = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                new Thread(command).start();
+            }
+        };
+        RequestQueue queue = new RequestQueue(new MockCache(), blockingNetwork, threadPerTask,
+                new ImmediateResponseDelivery(), RequestScheduler.PRIORITY);
+        final CountDownLatch finished = new CountDownLatch(concurrent);
+        final List<MockRequest> requests = new ArrayList<MockRequest>();
+        queue.addRequestFinishedListener(new RequestQueue.RequestFinishedListener<Object>() {
+            @Override
+            public void onRequestFinished(Request<Object> request) {
+                finished.countDown();
+            }
+        });
+        queue.start();
+        for (int i = 0; i < concurrent; i++) {
+            MockRequest request = uncached(Priority.NORMAL, i);
+            requests.add(request);
+            queue.add(request);
+        }
+        assertTrue(finished.await(10, TimeUnit.SECONDS));
+        for (MockRequest request : requests) {
+            assertTrue(request.deliverResponse_called);
+        }
+        queue.stop();
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+import com.android.volley.mock.MockRequest;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.concurrent.PriorityBlockingQueue;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class HostConcurrencyLimiterTest {
+    private PriorityBlockingQueue<Request<?>> mNetworkQueue;
+    private HostConcurrencyLimiter mLimiter;
+
+    @Before public void setUp() throws Exception {
+        mNetworkQueue = new PriorityBlockingQueue<Request<?>>();
+        mLimiter = new HostConcurrencyLimiter(mNetworkQueue);
+        mLimiter.setDefaultLimit(1);
+    }
+
+    private static MockRequest request(String url) {
+        MockRequest request = new MockRequest(url, null);
+        request.setSequence(1);
+        return request;
+    }
+
+    @Test public void saturatedHostIsParked() throws Exception {
+        MockRequest first = request("http://cdn.example.com/a.png");
+        MockRequest second = request("http://cdn.example.com/b.png");
+        assertTrue(mLimiter.tryAcquire(first));
+        assertFalse(mLimiter.tryAcquire(second));
+        assertEquals(1, mLimiter.getParkedCount("cdn.example.com"));
+        assertTrue(mNetworkQueue.isEmpty());
+    }
+
+    @Test public void otherHostsKeepFlowing() throws Exception {
+        assertTrue(mLimiter.tryAcquire(request("http://cdn.example.com/a.png")));
+        assertTrue(mLimiter.tryAcquire(request("http://api.example.com/feed")));
+    }
+
+    @Test public void releaseRequeuesParkedRequestWithSlot() throws Exception {
+        MockRequest first = request("http://cdn.example.com/a.png");
+        MockRequest second = request("http://cdn.example.com/b.png");
+        MockRequest third = request("http://cdn.example.com/c.png");
+        mLimiter.tryAcquire(first);
+        mLimiter.tryAcquire(second);
+
+        mLimiter.release(first);
+        assertSame(second, mNetworkQueue.poll());
+        // A newcomer can't steal the slot handed to the parked request.
+        assertFalse(mLimiter.tryAcquire(third));
+        assertTrue(mLimiter.tryAcquire(second));
+    }
+
+    @Test public void canceledParkedRequestDoesNotTakeSlot() throws Exception {
+        MockRequest first = request("http://cdn.example.com/a.png");
+        MockRequest canceled = request("http://cdn.example.com/b.png");
+        MockRequest waiting = request("http://cdn.example.com/c.png");
+        mLimiter.tryAcquire(first);
+        mLimiter.tryAcquire(canceled);
+        mLimiter.tryAcquire(waiting);
+        canceled.cancel();
+
+        mLimiter.release(first);
+        assertEquals(2, mNetworkQueue.size());
+        assertEquals(0, mLimiter.getParkedCount("cdn.example.com"));
+        assertTrue(mLimiter.tryAcquire(waiting));
+    }
+
+    @Test public void discardPassesOnReservedSlot() throws Exception {
+        MockRequest first = request("http://cdn.example.com/a.png");
+        MockRequest second = request("http://cdn.example.com/b.png");
+        MockRequest third = request("http://cdn.example.com/c.png");
+        mLimiter.tryAcquire(first);
+        mLimiter.tryAcquire(second);
+        mLimiter.tryAcquire(third);
+        mLimiter.release(first);
+        mNetworkQueue.clear();
+
+        // The second request got the slot but was canceled before a dispatcher re-took it.
+        mLimiter.discard(second);
+        assertSame(third, mNetworkQueue.poll());
+        assertTrue(mLimiter.tryAcquire(third));
+    }
+
+    @Test public void perHostOverride() throws Exception {
+        mLimiter.setHostLimit("CDN.example.com", 2);
+        assertTrue(mLimiter.tryAcquire(request("http://cdn.example.com/a.png")));
+        assertTrue(mLimiter.tryAcquire(request("http://cdn.example.com/b.png")));
+        assertFalse(mLimiter.tryAcquire(request("http://cdn.example.com/c.png")));
+    }
+
+    @Test public void requestsAreOnlyTrackedWhileLimited() throws Exception {
+        HostConcurrencyLimiter limiter = new HostConcurrencyLimiter(mNetworkQueue);
+        MockRequest untracked = request("http://cdn.example.com/a.png");
+        assertTrue(limiter.tryAcquire(untracked));
+        assertNull(untracked.getHostKey());
+
+        limiter.setDefaultLimit(1);
+        MockRequest first = request("http://cdn.example.com/b.png");
+        MockRequest parked = request("http://cdn.example.com/c.png");
+        assertTrue(limiter.tryAcquire(first));
+        assertFalse(limiter.tryAcquire(parked));
+        assertEquals("cdn.example.com", parked.getHostKey());
+
+        // The request that went out before the limit holds no slot to give up.
+        limiter.release(untracked);
+        assertTrue(mNetworkQueue.isEmpty());
+        limiter.release(first);
+        assertSame(parked, mNetworkQueue.poll());
+        assertNull(first.getHostKey());
+    }
+
+    @Test public void removeParked() throws Exception {
+        MockRequest first = request("http://cdn.example.com/a.png");
+        MockRequest parked = request("http://cdn.example.com/b.png");
+        mLimiter.tryAcquire(first);
+        mLimiter.tryAcquire(parked);
+
+        assertTrue(mLimiter.removeParked(parked));
+        assertFalse(mLimiter.removeParked(parked));
+        assertFalse(mLimiter.removeParked(first));
+        assertEquals(0, mLimiter.getParkedCount("cdn.example.com"));
+        mLimiter.release(first);
+        assertTrue(mNetworkQueue.isEmpty());
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+import com.android.volley.mock.MockRequest;
+import com.android.volley.toolbox.NoCache;
+import com.android.volley.utils.ImmediateResponseDelivery;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class NetworkDispatcherPoolTest {
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    private final CountDownLatch mRelease = new CountDownLatch(1);
+    private final AtomicInteger mInFlight = new AtomicInteger();
+    private final AtomicInteger mGrowEvents = new AtomicInteger();
+    private RequestQueue mQueue;
+
+    @Before public void setUp() throws Exception {
+        Network blockingNetwork = new Network() {
+            @Override
+            public NetworkResponse performRequest(Request<?> request) throws VolleyError {
+                mInFlight.incrementAndGet();
+                try {
+                    mRelease.await();
+                } catch (InterruptedException e) {
+                    throw new VolleyError(e);
+                }
+                return new NetworkResponse(new byte[0]);
+            }
+        };
+        // Grow on any unserved backlog, retire idle workers quickly.
+        ElasticPoolPolicy policy = new ElasticPoolPolicy(1, 3, 100, 10000, 0);
+        mQueue = new RequestQueue(new NoCache(), blockingNetwork, policy, new ImmediateResponseDelivery());
+        mQueue.setMetrics(new RequestQueueMetrics() {
+            @Override
+            public void onNetworkPoolResized(int oldSize, int newSize) {
+                if (newSize > oldSize) {
+                    mGrowEvents.incrementAndGet();
+                }
+            }
+        });
+        mQueue.start();
+    }
+
+    @After public void tearDown() throws Exception {
+        mRelease.countDown();
+        mQueue.stop();
+    }
+
+    private void addUncached() {
+        MockRequest request = new MockRequest();
+        request.setShouldCache(false);
+        mQueue.add(request);
+    }
+
+    private static void waitFor(AtomicInteger value, int expected) throws Exception {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (value.get() != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(expected, value.get());
+    }
+
+    private void waitForPoolSize(int expected) throws Exception {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (mQueue.getNetworkDispatcherCount() != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(expected, mQueue.getNetworkDispatcherCount());
+    }
+
+    @Test public void startsAtMinimum() throws Exception {
+        assertEquals(1, mQueue.getNetworkDispatcherCount());
+    }
+
+    @Test public void growsWhileWorkersAreBlocked() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            addUncached();
+        }
+        // All three dispatchers end up blocked in the network, never more than the maximum.
+        waitFor(mInFlight, 3);
+        assertEquals(3, mQueue.getNetworkDispatcherCount());
+        assertEquals(2, mGrowEvents.get());
+    }
+
+    @Test public void growsOnQueueWaitBelowBacklogThreshold() throws Exception {
+        mQueue.stop();
+        Network network = new Network() {
+            @Override
+            public NetworkResponse performRequest(Request<?> request) throws VolleyError {
+                mInFlight.incrementAndGet();
+                try {
+                    mRelease.await();
+                } catch (InterruptedException e) {
+                    throw new VolleyError(e);
+                }
+                return new NetworkResponse(new byte[0]);
+            }
+        };
+        // A backlog of one never triggers growth; only its wait can.
+        RequestQueue queue = new RequestQueue(new NoCache(), network,
+                new ElasticPoolPolicy(1, 3, 10000, 50, ElasticPoolPolicy.DEFAULT_BACKLOG_THRESHOLD),
+                new ImmediateResponseDelivery());
+        queue.start();
+        try {
+            for (int i = 0; i < 2; i++) {
+                MockRequest request = new MockRequest();
+                request.setShouldCache(false);
+                queue.add(request);
+            }
+            // No request is enqueued or taken after the first worker blocks, yet the second
+            // request gets a worker of its own.
+            waitFor(mInFlight, 2);
+            assertEquals(2, queue.getNetworkDispatcherCount());
+        } finally {
+            mRelease.countDown();
+            queue.stop();
+        }
+    }
+
+    @Test public void shrinksBackAfterKeepAlive() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            addUncached();
+        }
+        waitFor(mInFlight, 3);
+        mRelease.countDown();
+        waitForPoolSize(1);
+        TimeUnit.MILLISECONDS.sleep(300);
+        assertEquals(1, mQueue.getNetworkDispatcherCount());
+    }
+
+    @Test public void poolWithoutMinimumServesLoneRequests() throws Exception {
+        mQueue.stop();
+        Network network = new Network() {
+            @Override
+            public NetworkResponse performRequest(Request<?> request) {
+                return new NetworkResponse(new byte[0]);
+            }
+        };
+        // Default thresholds: a single queued request is below the backlog threshold.
+        RequestQueue queue = new RequestQueue(new NoCache(), network,
+                new ElasticPoolPolicy(0, 2, 100, ElasticPoolPolicy.DEFAULT_QUEUE_WAIT_THRESHOLD_MS,
+                        ElasticPoolPolicy.DEFAULT_BACKLOG_THRESHOLD),
+                new ImmediateResponseDelivery());
+        queue.start();
+        try {
+            assertEquals(0, queue.getNetworkDispatcherCount());
+            for (int round = 0; round < 2; round++) {
+                final CountDownLatch delivered = new CountDownLatch(1);
+                MockRequest request = new MockRequest() {
+                    @Override
+                    protected void deliverResponse(byte[] response) {
+                        delivered.countDown();
+                    }
+                };
+                request.setShouldCache(false);
+                queue.add(request);
+                assertTrue(delivered.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+                // Idle past the keep-alive, the pool shrinks back to nothing.
+                long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+                while (queue.getNetworkDispatcherCount() != 0
+                        && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(5);
+                }
+                assertEquals(0, queue.getNetworkDispatcherCount());
+            }
+        } finally {
+            queue.stop();
+        }
+    }
+}
@@ -21,13 +21,19 @@ import com.android.volley.mock.MockNetwork;
 import com.android.volley.mock.MockRequest;
 import com.android.volley.mock.MockResponseDelivery;
 import com.android.volley.mock.WaitableQueue;
+import com.android.volley.toolbox.NoCache;
+import org.apache.http.HttpStatus;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import static org.junit.Assert.*;
 
@@ -97,4 +103,206 @@ public class NetworkDispatcherTest {
         assertTrue(Arrays.equals(mCache.entryPut.data, CANNED_DATA));
         assertEquals("bananaphone", mCache.keyPut);
     }
+
+    @Test public void pastDeadlineIsDroppedWithoutNetwork() throws Exception {
+        MockRequest request = new MockRequest() {
+            @Override
+            public boolean isPastDeadline() {
+                return true;
+            }
+        };
+        mNetworkQueue.add(request);
+        mNetworkQueue.waitUntilEmpty(TIMEOUT_MILLIS);
+        assertNull(mNetwork.requestHandled);
+        assertTrue(mDelivery.postError_called);
+        assertTrue(mDelivery.errorPosted instanceof DeadlineExceededError);
+    }
+
+    @Test public void pastDeadlineErrorIsParsedByTheRequest() throws Exception {
+        final VolleyError parsed = new VolleyError("parsed");
+        MockRequest request = new MockRequest() {
+            @Override
+            public boolean isPastDeadline() {
+                return true;
+            }
+
+            @Override
+            protected VolleyError parseNetworkError(VolleyError volleyError) {
+                return volleyError instanceof DeadlineExceededError ? parsed : volleyError;
+            }
+        };
+        mNetworkQueue.add(request);
+        mNetworkQueue.waitUntilEmpty(TIMEOUT_MILLIS);
+        assertNull(mNetwork.requestHandled);
+        assertSame(parsed, mDelivery.errorPosted);
+    }
+
+    /**
+     * An {@link AsyncNetwork} that holds on to requests until the test completes them.
+     */
+    private static class HoldingAsyncNetwork extends MockNetwork implements AsyncNetwork {
+        final List<AsyncNetwork.Callback> pending = new ArrayList<AsyncNetwork.Callback>();
+
+        @Override
+        public void performRequestAsync(Request<?> request, AsyncNetwork.Callback callback) {
+            pending.add(callback);
+        }
+    }
+
+    @Test public void asyncNetworkDoesNotHoldDispatcher() throws Exception {
+        LinkedBlockingQueue<Request<?>> queue = new LinkedBlockingQueue<Request<?>>();
+        HostConcurrencyLimiter limiter = new HostConcurrencyLimiter(queue);
+        limiter.setDefaultLimit(1);
+        HoldingAsyncNetwork network = new HoldingAsyncNetwork();
+        NetworkDispatcher dispatcher = new NetworkDispatcher(queue, network, mCache, mDelivery,
+                null, limiter, null, null, null);
+        MockRequest first = new MockRequest();
+        MockRequest second = new MockRequest();
+
+        // Both calls return right away; the second request waits for the host slot.
+        dispatcher.processRequest(first);
+        dispatcher.processRequest(second);
+        assertEquals(1, network.pending.size());
+        assertEquals(1, limiter.getParkedCount("foo.com"));
+        assertFalse(mDelivery.postResponse_called);
+
+        network.pending.get(0).onSuccess(new NetworkResponse(CANNED_DATA));
+
+        assertTrue(mDelivery.postResponse_called);
+        assertTrue(Arrays.equals((byte[]) mDelivery.responsePosted.result, CANNED_DATA));
+        // Completing the first request handed its slot to the second.
+        assertSame(second, queue.poll());
+    }
+
+    @Test public void asyncNetworkThrowingFailsRequestAndFreesHost() throws Exception {
+        LinkedBlockingQueue<Request<?>> queue = new LinkedBlockingQueue<Request<?>>();
+        HostConcurrencyLimiter limiter = new HostConcurrencyLimiter(queue);
+        limiter.setDefaultLimit(1);
+        HoldingAsyncNetwork network = new HoldingAsyncNetwork() {
+            @Override
+            public void performRequestAsync(Request<?> request, AsyncNetwork.Callback callback) {
+                throw new IllegalStateException("broken");
+            }
+        };
+        NetworkDispatcher dispatcher = new NetworkDispatcher(queue, network, mCache, mDelivery,
+                null, limiter, null, null, null);
+
+        dispatcher.processRequest(mRequest);
+
+        assertTrue(mDelivery.postError_called);
+        assertFalse(mDelivery.postResponse_called);
+        // The host slot was released, so the next request isn't parked.
+        dispatcher.processRequest(new MockRequest());
+        assertEquals(0, limiter.getParkedCount("foo.com"));
+    }
+
+    @Test public void asyncNetworkErrorPostsError() throws Exception {
+        HoldingAsyncNetwork network = new HoldingAsyncNetwork();
+        NetworkDispatcher dispatcher = new NetworkDispatcher(mNetworkQueue, network, mCache, mDelivery);
+        dispatcher.processRequest(mRequest);
+
+        network.pending.get(0).onError(new ServerError());
+
+        assertFalse(mDelivery.postResponse_called);
+        assertTrue(mDelivery.errorPosted instanceof ServerError);
+    }
+
+    @Test public void notModifiedUpdatesMetadataOnly() throws Exception {
+        HoldingAsyncNetwork network = new HoldingAsyncNetwork();
+        NetworkDispatcher dispatcher = new NetworkDispatcher(mNetworkQueue, network, mCache, mDelivery);
+        mRequest.setShouldCache(true);
+        mRequest.setCacheKey("bananaphone");
+        dispatcher.processRequest(mRequest);
+
+        network.pending.get(0).onSuccess(new NetworkResponse(HttpStatus.SC_NOT_MODIFIED,
+                CANNED_DATA, Collections.<String, String>emptyMap(), true));
+
+        assertFalse(mCache.putCalled);
+        assertTrue(mCache.updateMetadataCalled);
+        assertEquals("bananaphone", mCache.keyPut);
+        assertTrue(mDelivery.postResponse_called);
+    }
+
+    @Test public void notModifiedStoresWholeEntryInPlainCache() throws Exception {
+        final List<String> puts = new ArrayList<String>();
+        Cache plainCache = new NoCache() {
+            @Override
+            public void put(String key, Entry entry) {
+                puts.add(key);
+            }
+        };
+        HoldingAsyncNetwork network = new HoldingAsyncNetwork();
+        NetworkDispatcher dispatcher = new NetworkDispatcher(mNetworkQueue, network, plainCache, mDelivery);
+        mRequest.setShouldCache(true);
+        mRequest.setCacheKey("bananaphone");
+        dispatcher.processRequest(mRequest);
+
+        network.pending.get(0).onSuccess(new NetworkResponse(HttpStatus.SC_NOT_MODIFIED,
+                CANNED_DATA, Collections.<String, String>emptyMap(), true));
+
+        assertEquals(Arrays.asList("bananaphone"), puts);
+        assertTrue(mDelivery.postResponse_called);
+    }
+
+    private Cache.Entry makeExpiredEntry(long staleIfErrorTtl) {
+        Cache.Entry entry = new Cache.Entry();
+        entry.data = CANNED_DATA;
+        entry.softTtl = System.currentTimeMillis() - 1000;
+        entry.ttl = entry.softTtl;
+        entry.staleIfErrorTtl = staleIfErrorTtl;
+        return entry;
+    }
+
+    @Test public void staleIfErrorServesExpiredEntryOnNoConnection() throws Exception {
+        HoldingAsyncNetwork network = new HoldingAsyncNetwork();
+        NetworkDispatcher dispatcher = new NetworkDispatcher(mNetworkQueue, network, mCache, mDelivery);
+        mRequest.setCacheEntry(makeExpiredEntry(System.currentTimeMillis() + 60000));
+        dispatcher.processRequest(mRequest);
+
+        network.pending.get(0).onError(new NoConnectionError());
+
+        assertFalse(mDelivery.postError_called);
+        assertTrue(mDelivery.postResponse_called);
+        assertTrue(mDelivery.responsePosted.stale);
+        assertTrue(Arrays.equals((byte[]) mDelivery.responsePosted.result, CANNED_DATA));
+    }
+
+    @Test public void staleIfErrorWindowPassedPostsError() throws Exception {
+        HoldingAsyncNetwork network = new HoldingAsyncNetwork();
+        NetworkDispatcher dispatcher = new NetworkDispatcher(mNetworkQueue, network, mCache, mDelivery);
+        mRequest.setCacheEntry(makeExpiredEntry(System.currentTimeMillis() - 1));
+        dispatcher.processRequest(mRequest);
+
+        network.pending.get(0).onError(new TimeoutError());
+
+        assertFalse(mDelivery.postResponse_called);
+        assertTrue(mDelivery.errorPosted instanceof TimeoutError);
+    }
+
+    @Test public void staleIfErrorRequestOverride() throws Exception {
+        HoldingAsyncNetwork network = new HoldingAsyncNetwork();
+        NetworkDispatcher dispatcher = new NetworkDispatcher(mNetworkQueue, network, mCache, mDelivery);
+        // No directive on the entry, but the request accepts an hour of staleness.
+        mRequest.setCacheEntry(makeExpiredEntry(0));
+        mRequest.setStaleIfErrorMs(60 * 60 * 1000);
+        dispatcher.processRequest(mRequest);
+
+        network.pending.get(0).onError(new ServerError(new NetworkResponse(503, null,
+                Collections.<String, String>emptyMap(), false)));
+
+        assertTrue(mDelivery.postResponse_called);
+        assertTrue(mDelivery.responsePosted.stale);
+    }
+
+    @Test public void staleIfErrorIgnoresClientErrors() throws Exception {
+        HoldingAsyncNetwork network = new HoldingAsyncNetwork();
+        NetworkDispatcher dispatcher = new NetworkDispatcher(mNetworkQueue, network, mCache, mDelivery);
+        mRequest.setCacheEntry(makeExpiredEntry(System.currentTimeMillis() + 60000));
+        dispatcher.processRequest(mRequest);
+
+        network.pending.get(0).onError(new AuthFailureError());
+
+        assertFalse(mDelivery.postResponse_called);
+        assertTrue(mDelivery.errorPosted instanceof AuthFailureError);
+    }
 }
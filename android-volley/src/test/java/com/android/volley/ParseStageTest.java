@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+import com.android.volley.mock.MockCache;
+import com.android.volley.mock.MockNetwork;
+import com.android.volley.mock.MockRequest;
+import com.android.volley.mock.MockResponseDelivery;
+import com.android.volley.utils.CacheTestUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class ParseStageTest {
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private ParseStage mStage;
+    private RecordingMetrics mMetrics;
+    private DeliveryLatch mDelivery;
+
+    /**
+     * A request whose parse blocks until released, recording the thread it ran on.
+     */
+    private static class SlowParseRequest extends MockRequest {
+        final CountDownLatch release = new CountDownLatch(1);
+        volatile String parseThread;
+
+        @Override
+        protected Response<byte[]> parseNetworkResponse(NetworkResponse response) {
+            parseThread = Thread.currentThread().getName();
+            try {
+                release.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.parseNetworkResponse(response);
+        }
+    }
+
+    private static class RecordingMetrics extends RequestQueueMetrics {
+        volatile String lastQueue;
+
+        @Override
+        public void onQueueWait(Request<?> request, String queue, long waitMs) {
+            lastQueue = queue;
+        }
+    }
+
+    private static class DeliveryLatch extends MockResponseDelivery {
+        final CountDownLatch delivered = new CountDownLatch(1);
+
+        @Override
+        public void postResponse(Request<?> request, Response<?> response) {
+            super.postResponse(request, response);
+            delivered.countDown();
+        }
+    }
+
+    @Before public void setUp() throws Exception {
+        mStage = new ParseStage(1);
+        mMetrics = new RecordingMetrics();
+        mStage.setMetrics(mMetrics);
+        mStage.start();
+        mDelivery = new DeliveryLatch();
+    }
+
+    @After public void tearDown() throws Exception {
+        mStage.stop();
+    }
+
+    @Test public void networkResponseIsParsedOffTheDispatcher() throws Exception {
+        MockNetwork network = new MockNetwork();
+        network.setDataToReturn("data".getBytes());
+        NetworkDispatcher dispatcher = new NetworkDispatcher(new LinkedBlockingQueue<Request<?>>(),
+                network, new MockCache(), mDelivery, null, null, null, null, mStage);
+        SlowParseRequest request = new SlowParseRequest();
+
+        // Returns while the parse is still blocked.
+        dispatcher.processRequest(request);
+        assertFalse(mDelivery.postResponse_called);
+
+        request.release.countDown();
+        assertTrue(mDelivery.delivered.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(request.parseThread.startsWith("Volley-Parse-"));
+        assertEquals(RequestQueueMetrics.QUEUE_PARSE, mMetrics.lastQueue);
+    }
+
+    @Test public void staleResponseIsParsedOffTheDispatcher() throws Exception {
+        MockNetwork network = new MockNetwork();
+        network.setNumExceptionsToThrow(MockNetwork.ALWAYS_THROW_EXCEPTIONS);
+        NetworkDispatcher dispatcher = new NetworkDispatcher(new LinkedBlockingQueue<Request<?>>(),
+                network, new MockCache(), mDelivery, null, null, null, null, mStage);
+        SlowParseRequest request = new SlowParseRequest();
+        Cache.Entry entry = CacheTestUtils.makeRandomCacheEntry("data".getBytes(), true, true);
+        entry.staleIfErrorTtl = System.currentTimeMillis() + 60000;
+        request.setCacheEntry(entry);
+
+        dispatcher.processRequest(request);
+        assertFalse(mDelivery.postResponse_called);
+
+        request.release.countDown();
+        assertTrue(mDelivery.delivered.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(mDelivery.responsePosted.stale);
+        assertTrue(request.parseThread.startsWith("Volley-Parse-"));
+    }
+
+    @Test public void cacheHitIsParsedOffTheDispatcher() throws Exception {
+        MockCache cache = new MockCache();
+        cache.setEntryToReturn(CacheTestUtils.makeRandomCacheEntry("data".getBytes()));
+        LinkedBlockingQueue<Request<?>> queue = new LinkedBlockingQueue<Request<?>>();
+        CacheDispatcher dispatcher = new CacheDispatcher(queue, queue, cache, mDelivery,
+                new CacheDispatcher.Initializer(cache), mStage);
+        SlowParseRequest request = new SlowParseRequest();
+
+        dispatcher.processRequest(request);
+        assertFalse(mDelivery.postResponse_called);
+
+        request.release.countDown();
+        assertTrue(mDelivery.delivered.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(request.parseThread.startsWith("Volley-Parse-"));
+    }
+
+    @Test public void stoppedStageParsesInline() throws Exception {
+        mStage.stop();
+        SlowParseRequest request = new SlowParseRequest();
+        request.release.countDown();
+        final String caller = Thread.currentThread().getName();
+        final boolean[] ran = new boolean[1];
+        mStage.submit(request, new Runnable() {
+            @Override
+            public void run() {
+                ran[0] = caller.equals(Thread.currentThread().getName());
+            }
+        });
+        assertTrue(ran[0]);
+    }
+}
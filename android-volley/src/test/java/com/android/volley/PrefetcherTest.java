@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+import com.android.volley.mock.MockCache;
+import com.android.volley.mock.MockNetwork;
+import com.android.volley.mock.MockRequest;
+import com.android.volley.utils.CacheTestUtils;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class PrefetcherTest {
+    private static final byte[] DATA = "prefetched".getBytes();
+
+    private MockCache mCache;
+    private MockNetwork mNetwork;
+    private DispatchQueue mCacheQueue;
+    private DispatchQueue mNetworkQueue;
+    private int mSequence;
+
+    @Before public void setUp() throws Exception {
+        mCache = new MockCache();
+        mNetwork = new MockNetwork();
+        mNetwork.setDataToReturn(DATA);
+        mCacheQueue = new DispatchQueue("cache", new LinkedBlockingQueue<Request<?>>());
+        mNetworkQueue = new DispatchQueue("network", new LinkedBlockingQueue<Request<?>>());
+    }
+
+    private Prefetcher prefetcher(int maxRequests, long maxBytes) {
+        return new Prefetcher(new PrefetchPolicy(maxRequests, maxBytes, 1), mCache, mNetwork,
+                mCacheQueue, mNetworkQueue);
+    }
+
+    private MockRequest request(String url) {
+        MockRequest request = new MockRequest(url, null);
+        request.setSequence(mSequence++);
+        return request;
+    }
+
+    @Test public void requestBudgetRefusesExtraPrefetches() throws Exception {
+        Prefetcher prefetcher = prefetcher(2, Long.MAX_VALUE);
+        assertTrue(prefetcher.offer(request("http://foo.com/1")));
+        assertTrue(prefetcher.offer(request("http://foo.com/2")));
+        assertFalse(prefetcher.offer(request("http://foo.com/3")));
+        assertEquals(2, prefetcher.getStats().getAcceptedCount());
+    }
+
+    @Test public void prefetchOnlyWritesCache() throws Exception {
+        Prefetcher prefetcher = prefetcher(10, Long.MAX_VALUE);
+        MockRequest request = request("http://foo.com/1");
+        prefetcher.prefetch(request);
+
+        assertSame(request, mNetwork.requestHandled);
+        assertTrue(mCache.putCalled);
+        assertEquals(request.getCacheKey(), mCache.keyPut);
+        assertFalse(request.deliverResponse_called);
+        PrefetchStats stats = prefetcher.getStats();
+        assertEquals(1, stats.getCompletedCount());
+        assertEquals(DATA.length, stats.getBytes());
+    }
+
+    @Test public void freshEntryIsNotFetchedAgain() throws Exception {
+        mCache.setEntryToReturn(CacheTestUtils.makeRandomCacheEntry(DATA));
+        Prefetcher prefetcher = prefetcher(10, Long.MAX_VALUE);
+        prefetcher.prefetch(request("http://foo.com/1"));
+
+        assertNull(mNetwork.requestHandled);
+        assertEquals(1, prefetcher.getStats().getSkippedCount());
+    }
+
+    @Test public void byteBudgetStopsFurtherPrefetches() throws Exception {
+        Prefetcher prefetcher = prefetcher(10, DATA.length);
+        prefetcher.prefetch(request("http://foo.com/1"));
+        MockRequest over = request("http://foo.com/2");
+        prefetcher.prefetch(over);
+
+        assertNotSame(over, mNetwork.requestHandled);
+        assertEquals(1, prefetcher.getStats().getSkippedCount());
+        assertFalse(prefetcher.offer(request("http://foo.com/3")));
+    }
+
+    @Test public void lookupsReportHitsAndWaste() throws Exception {
+        Prefetcher prefetcher = prefetcher(10, Long.MAX_VALUE);
+        MockRequest used = request("http://foo.com/used");
+        MockRequest wasted = request("http://foo.com/wasted");
+        prefetcher.prefetch(used);
+        prefetcher.prefetch(wasted);
+        Cache cache = prefetcher.trackingCache();
+
+        mCache.setEntryToReturn(CacheTestUtils.makeRandomCacheEntry(DATA));
+        assertNotNull(cache.get(used.getCacheKey()));
+        mCache.setEntryToReturn(CacheTestUtils.makeRandomCacheEntry(DATA, true, true));
+        cache.get(wasted.getCacheKey());
+        // Only the first lookup counts.
+        cache.get(used.getCacheKey());
+
+        PrefetchStats stats = prefetcher.getStats();
+        assertEquals(1, stats.getUsedCount());
+        assertEquals(1, stats.getWastedCount());
+        assertEquals(0.5f, stats.getHitRatio(), 0.001f);
+        assertEquals(0.5f, stats.getWasteRatio(), 0.001f);
+    }
+
+    @Test public void workersWaitForForegroundQueuesToDrain() throws Exception {
+        Prefetcher prefetcher = prefetcher(10, Long.MAX_VALUE);
+        mNetworkQueue.add(new MockRequest());
+        prefetcher.start(new CacheDispatcher.Initializer(mCache));
+        try {
+            prefetcher.offer(request("http://foo.com/1"));
+            Thread.sleep(200);
+            assertNull(mNetwork.requestHandled);
+
+            mNetworkQueue.take();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (prefetcher.getStats().getCompletedCount() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, prefetcher.getStats().getCompletedCount());
+        } finally {
+            prefetcher.stop();
+        }
+    }
+
+    @Test public void cancelAllTakesOutQueuedPrefetches() throws Exception {
+        Prefetcher prefetcher = prefetcher(10, Long.MAX_VALUE);
+        final Object tag = new Object();
+        MockRequest tagged = request("http://foo.com/1");
+        tagged.setTag(tag);
+        MockRequest other = request("http://foo.com/2");
+        prefetcher.offer(tagged);
+        prefetcher.offer(other);
+
+        prefetcher.cancelAll(new RequestQueue.RequestFilter() {
+            @Override
+            public boolean apply(Request<?> request) {
+                return request.getTag() == tag;
+            }
+        });
+
+        assertTrue(tagged.isCanceled());
+        assertFalse(other.isCanceled());
+        assertEquals(1, prefetcher.getStats().getSkippedCount());
+        prefetcher.start(new CacheDispatcher.Initializer(mCache));
+        try {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (prefetcher.getStats().getCompletedCount() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertSame(other, mNetwork.requestHandled);
+            assertEquals(1, prefetcher.getStats().getCompletedCount());
+        } finally {
+            prefetcher.stop();
+        }
+    }
+}
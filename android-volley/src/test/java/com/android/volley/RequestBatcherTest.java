@@ -0,0 +1,288 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+import com.android.volley.mock.MockCache;
+import com.android.volley.mock.MockNetwork;
+import com.android.volley.mock.MockRequest;
+import com.android.volley.mock.MockResponseDelivery;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class RequestBatcherTest {
+    private LinkedBlockingQueue<Request<?>> mQueue;
+    private RecordingDelivery mDelivery;
+    private int mSequence;
+
+    /**
+     * Batches everything under http://foo.com/api/ and answers each part with its own URL, or
+     * with a 500 for URLs ending in "/bad".
+     */
+    private static class ApiBatchPolicy extends BatchPolicy {
+        ApiBatchPolicy(int maxBatchSize, long windowMs) {
+            super(maxBatchSize, windowMs);
+        }
+
+        @Override
+        public String getBatchKey(Request<?> request) {
+            return request.getUrl().startsWith("http://foo.com/api/") ? "api" : null;
+        }
+
+        @Override
+        public Request<?> createBatchRequest(List<Request<?>> requests) {
+            return new MockRequest("http://foo.com/batch", null);
+        }
+
+        @Override
+        public List<NetworkResponse> parseBatchResponse(NetworkResponse response,
+                                                        List<Request<?>> requests) {
+            List<NetworkResponse> parts = new ArrayList<NetworkResponse>();
+            for (Request<?> request : requests) {
+                int statusCode = request.getUrl().endsWith("/bad") ? 500 : 200;
+                parts.add(new NetworkResponse(statusCode, request.getUrl().getBytes(),
+                        Collections.<String, String>emptyMap(), false));
+            }
+            return parts;
+        }
+    }
+
+    private static class RecordingDelivery extends MockResponseDelivery {
+        final List<Request<?>> failed = new ArrayList<Request<?>>();
+
+        @Override
+        public void postError(Request<?> request, VolleyError error) {
+            super.postError(request, error);
+            failed.add(request);
+        }
+    }
+
+    @Before public void setUp() throws Exception {
+        mQueue = new LinkedBlockingQueue<Request<?>>();
+        mDelivery = new RecordingDelivery();
+    }
+
+    private MockRequest request(String url) {
+        MockRequest request = new MockRequest(url, null);
+        request.setSequence(mSequence++);
+        return request;
+    }
+
+    @Test public void fullBatchIsSentTogether() throws Exception {
+        RequestBatcher batcher = new RequestBatcher(new ApiBatchPolicy(2, 60000), mQueue, mDelivery);
+        MockRequest first = request("http://foo.com/api/1");
+        MockRequest second = request("http://foo.com/api/2");
+
+        assertFalse(batcher.offer(request("http://foo.com/other")));
+        assertTrue(batcher.offer(first));
+        assertTrue(mQueue.isEmpty());
+        assertTrue(batcher.offer(second));
+
+        Request<?> batchRequest = mQueue.poll();
+        assertEquals("http://foo.com/batch", batchRequest.getUrl());
+        assertEquals(first.getSequence(), batchRequest.getSequence());
+        // The batch request itself is dispatched normally.
+        assertFalse(batcher.offer(batchRequest));
+        List<Request<?>> batch = batcher.takeBatch(batchRequest);
+        assertEquals(2, batch.size());
+        assertSame(first, batch.get(0));
+        assertSame(second, batch.get(1));
+        assertNull(batcher.takeBatch(batchRequest));
+    }
+
+    @Test public void loneRequestIsSentAloneWhenWindowCloses() throws Exception {
+        RequestBatcher batcher = new RequestBatcher(new ApiBatchPolicy(10, 20), mQueue, mDelivery);
+        MockRequest lone = request("http://foo.com/api/1");
+
+        assertTrue(batcher.offer(lone));
+        assertSame(lone, mQueue.poll(5, TimeUnit.SECONDS));
+        // On its way back it isn't collected again.
+        assertFalse(batcher.offer(lone));
+        assertNull(batcher.takeBatch(lone));
+    }
+
+    @Test public void releasedRequestDroppedBeforeDispatchIsNotRetained() throws Exception {
+        RequestBatcher batcher = new RequestBatcher(new ApiBatchPolicy(10, 20), mQueue, mDelivery);
+        MockRequest lone = request("http://foo.com/api/1");
+        assertTrue(batcher.offer(lone));
+        assertSame(lone, mQueue.poll(5, TimeUnit.SECONDS));
+        assertTrue(((Request<?>) lone).isReleasedFromBatch());
+
+        // Canceled before a dispatcher offers it again, so it never reaches the batcher.
+        WeakReference<MockRequest> ref = new WeakReference<MockRequest>(lone);
+        lone = null;
+        for (int i = 0; i < 100 && ref.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(ref.get());
+    }
+
+    @Test public void canceledRequestIsLeftOut() throws Exception {
+        RequestBatcher batcher = new RequestBatcher(new ApiBatchPolicy(3, 60000), mQueue, mDelivery);
+        MockRequest canceled = request("http://foo.com/api/1");
+        MockRequest first = request("http://foo.com/api/2");
+        MockRequest second = request("http://foo.com/api/3");
+        batcher.offer(canceled);
+        batcher.offer(first);
+        canceled.cancel();
+        batcher.offer(second);
+
+        List<Request<?>> batch = batcher.takeBatch(mQueue.poll());
+        assertEquals(2, batch.size());
+        assertSame(first, batch.get(0));
+        assertSame(second, batch.get(1));
+    }
+
+    @Test public void pastDeadlineRequestIsFailedThroughParseNetworkError() throws Exception {
+        RequestBatcher batcher = new RequestBatcher(new ApiBatchPolicy(2, 60000), mQueue, mDelivery);
+        final boolean[] pastDeadline = {false};
+        final VolleyError parsed = new VolleyError("parsed");
+        MockRequest late = new MockRequest("http://foo.com/api/1", null) {
+            @Override
+            public boolean isPastDeadline() {
+                return pastDeadline[0];
+            }
+
+            @Override
+            protected VolleyError parseNetworkError(VolleyError volleyError) {
+                return volleyError instanceof DeadlineExceededError ? parsed : volleyError;
+            }
+        };
+        late.setSequence(mSequence++);
+        batcher.offer(late);
+        pastDeadline[0] = true;
+        MockRequest other = request("http://foo.com/api/2");
+        batcher.offer(other);
+
+        assertSame(late, mDelivery.failed.get(0));
+        assertSame(parsed, mDelivery.errorPosted);
+        // Left alone, so it goes out unbatched.
+        assertSame(other, mQueue.poll());
+    }
+
+    @Test public void dispatcherDemultiplexesBatchResponse() throws Exception {
+        RequestBatcher batcher = new RequestBatcher(new ApiBatchPolicy(3, 60000), mQueue, mDelivery);
+        MockNetwork network = new MockNetwork();
+        network.setDataToReturn("envelope".getBytes());
+        MockCache cache = new MockCache();
+        NetworkDispatcher dispatcher = new NetworkDispatcher(mQueue, network, cache, mDelivery,
+                null, null, null, batcher, null);
+        MockRequest first = request("http://foo.com/api/1");
+        MockRequest second = request("http://foo.com/api/2");
+        MockRequest bad = request("http://foo.com/api/bad");
+
+        dispatcher.processRequest(first);
+        dispatcher.processRequest(second);
+        assertNull(network.requestHandled);
+        dispatcher.processRequest(bad);
+        Request<?> batchRequest = mQueue.poll();
+        dispatcher.processRequest(batchRequest);
+
+        // One HTTP call for all three; each request handles its own part.
+        assertSame(batchRequest, network.requestHandled);
+        assertTrue(first.parseResponse_called);
+        assertTrue(second.parseResponse_called);
+        assertFalse(bad.parseResponse_called);
+        assertEquals(1, mDelivery.failed.size());
+        assertSame(bad, mDelivery.failed.get(0));
+        assertTrue(mDelivery.errorPosted instanceof ServerError);
+    }
+
+    @Test public void batchFailureFailsEveryRequest() throws Exception {
+        RequestBatcher batcher = new RequestBatcher(new ApiBatchPolicy(2, 60000), mQueue, mDelivery);
+        MockNetwork network = new MockNetwork();
+        network.setNumExceptionsToThrow(MockNetwork.ALWAYS_THROW_EXCEPTIONS);
+        NetworkDispatcher dispatcher = new NetworkDispatcher(mQueue, network, new MockCache(),
+                mDelivery, null, null, null, batcher, null);
+        MockRequest first = request("http://foo.com/api/1");
+        MockRequest second = request("http://foo.com/api/2");
+
+        dispatcher.processRequest(first);
+        dispatcher.processRequest(second);
+        dispatcher.processRequest(mQueue.poll());
+
+        assertEquals(2, mDelivery.failed.size());
+        assertSame(first, mDelivery.failed.get(0));
+        assertSame(second, mDelivery.failed.get(1));
+    }
+
+    @Test public void expiredBatchRequestFailsEveryRequest() throws Exception {
+        final MockRequest envelope = new MockRequest("http://foo.com/batch", null) {
+            @Override
+            public boolean isPastDeadline() {
+                return true;
+            }
+        };
+        RequestBatcher batcher = new RequestBatcher(new ApiBatchPolicy(2, 60000) {
+            @Override
+            public Request<?> createBatchRequest(List<Request<?>> requests) {
+                return envelope;
+            }
+        }, mQueue, mDelivery);
+        MockNetwork network = new MockNetwork();
+        NetworkDispatcher dispatcher = new NetworkDispatcher(mQueue, network, new MockCache(),
+                mDelivery, null, null, null, batcher, null);
+        MockRequest first = request("http://foo.com/api/1");
+        MockRequest second = request("http://foo.com/api/2");
+
+        dispatcher.processRequest(first);
+        dispatcher.processRequest(second);
+        assertSame(envelope, mQueue.poll());
+        dispatcher.processRequest(envelope);
+
+        assertNull(network.requestHandled);
+        assertEquals(2, mDelivery.failed.size());
+        assertSame(first, mDelivery.failed.get(0));
+        assertSame(second, mDelivery.failed.get(1));
+        assertTrue(mDelivery.errorPosted instanceof DeadlineExceededError);
+        assertNull(batcher.takeBatch(envelope));
+    }
+
+    @Test public void canceledBatchRequestReleasesEveryRequest() throws Exception {
+        RequestBatcher batcher = new RequestBatcher(new ApiBatchPolicy(2, 60000), mQueue, mDelivery);
+        NetworkDispatcher dispatcher = new NetworkDispatcher(mQueue, new MockNetwork(),
+                new MockCache(), mDelivery, null, null, null, batcher, null);
+        MockRequest first = request("http://foo.com/api/1");
+        MockRequest second = request("http://foo.com/api/2");
+
+        dispatcher.processRequest(first);
+        dispatcher.processRequest(second);
+        Request<?> envelope = mQueue.poll();
+        envelope.cancel();
+        dispatcher.processRequest(envelope);
+
+        // Back on the queue on their own.
+        assertSame(first, mQueue.poll());
+        assertSame(second, mQueue.poll());
+        assertFalse(batcher.offer(first));
+        assertTrue(mDelivery.failed.isEmpty());
+        assertNull(batcher.takeBatch(envelope));
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley;
+
+import com.android.volley.mock.MockCache;
+import com.android.volley.mock.MockNetwork;
+import com.android.volley.mock.MockRequest;
+import com.android.volley.mock.MockResponseDelivery;
+import com.android.volley.mock.WaitableQueue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class RequestCoalescerTest {
+    private RequestCoalescer mCoalescer;
+
+    @Before public void setUp() throws Exception {
+        mCoalescer = new RequestCoalescer();
+    }
+
+    private static MockRequest request(String url) {
+        MockRequest request = new MockRequest(url, null);
+        request.setShouldCache(false);
+        request.setShouldCoalesce(true);
+        return request;
+    }
+
+    private static Request<byte[]> post(final String body) {
+        MockRequest request = new MockRequest("http://foo.com/post", null) {
+            @Override
+            public int getMethod() {
+                return Method.POST;
+            }
+
+            @Override
+            public byte[] getBody() {
+                return body.getBytes();
+            }
+        };
+        request.setShouldCache(false);
+        request.setShouldCoalesce(true);
+        return request;
+    }
+
+    @Test public void duplicatesAttachToLeader() throws Exception {
+        MockRequest leader = request("http://foo.com/live");
+        MockRequest duplicate = request("http://foo.com/live");
+        MockRequest other = request("http://foo.com/other");
+        assertFalse(mCoalescer.attachIfInFlight(leader));
+        assertTrue(mCoalescer.attachIfInFlight(duplicate));
+        assertFalse(mCoalescer.attachIfInFlight(other));
+
+        List<Request<?>> followers = mCoalescer.takeFollowers(leader);
+        assertEquals(1, followers.size());
+        assertSame(duplicate, followers.get(0));
+        // Once the leader has its response, new requests go out on their own.
+        assertFalse(mCoalescer.attachIfInFlight(request("http://foo.com/live")));
+    }
+
+    @Test public void differentBodiesAreNotCoalesced() throws Exception {
+        assertFalse(mCoalescer.attachIfInFlight(post("a=1")));
+        assertFalse(mCoalescer.attachIfInFlight(post("a=2")));
+        assertTrue(mCoalescer.attachIfInFlight(post("a=1")));
+    }
+
+    @Test public void followerPromotedWhenLeaderNeverReachesNetwork() throws Exception {
+        MockRequest leader = request("http://foo.com/live");
+        MockRequest first = request("http://foo.com/live");
+        MockRequest second = request("http://foo.com/live");
+        mCoalescer.attachIfInFlight(leader);
+        mCoalescer.attachIfInFlight(first);
+        mCoalescer.attachIfInFlight(second);
+
+        assertSame(first, mCoalescer.promote(leader));
+        assertNull(mCoalescer.promote(leader));
+        List<Request<?>> followers = mCoalescer.takeFollowers(first);
+        assertEquals(1, followers.size());
+        assertSame(second, followers.get(0));
+        // A leader that was served has nothing left to promote.
+        assertNull(mCoalescer.promote(first));
+    }
+
+    @Test public void removedFollowerIsNotServed() throws Exception {
+        MockRequest leader = request("http://foo.com/live");
+        MockRequest canceled = request("http://foo.com/live");
+        mCoalescer.attachIfInFlight(leader);
+        mCoalescer.attachIfInFlight(canceled);
+
+        assertTrue(mCoalescer.removeFollower(canceled));
+        assertFalse(mCoalescer.removeFollower(canceled));
+        assertFalse(mCoalescer.removeFollower(leader));
+        assertTrue(mCoalescer.takeFollowers(leader).isEmpty());
+    }
+
+    @Test public void dispatcherSharesOneNetworkResponse() throws Exception {
+        WaitableQueue queue = new WaitableQueue();
+        MockNetwork network = new MockNetwork();
+        network.setDataToReturn("live".getBytes());
+        NetworkDispatcher dispatcher = new NetworkDispatcher(queue, network, new MockCache(),
+                new MockResponseDelivery(), null, null, mCoalescer, null, null);
+        MockRequest leader = request("http://foo.com/live");
+        MockRequest follower = request("http://foo.com/live");
+        MockRequest canceled = request("http://foo.com/live");
+        mCoalescer.attachIfInFlight(leader);
+        mCoalescer.attachIfInFlight(follower);
+        mCoalescer.attachIfInFlight(canceled);
+        canceled.cancel();
+
+        dispatcher.start();
+        try {
+            queue.add(leader);
+            queue.waitUntilEmpty(5000);
+        } finally {
+            dispatcher.quit();
+            dispatcher.join();
+        }
+        assertSame(leader, network.requestHandled);
+        assertTrue(leader.parseResponse_called);
+        assertTrue(follower.parseResponse_called);
+        assertFalse(canceled.parseResponse_called);
+    }
+}
@@ -16,6 +16,7 @@
 
 package com.android.volley;
 
+import com.android.volley.mock.MockRequest;
 import com.android.volley.mock.ShadowSystemClock;
 import com.android.volley.toolbox.NoCache;
 import com.android.volley.utils.ImmediateResponseDelivery;
@@ -26,6 +27,12 @@ import org.mockito.Mock;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 import static org.mockito.MockitoAnnotations.initMocks;
@@ -69,4 +76,91 @@ public class RequestQueueTest {
         verify(req2, never()).cancel(); // B not cancelled
         verify(req4, never()).cancel(); // A added after cancel not cancelled
     }
+
+    @Test public void cancelAll_removesQueuedRequestsEagerly() throws Exception {
+        // Not started, so nothing ever takes requests off the queues.
+        RequestQueue queue = new RequestQueue(new NoCache(), mMockNetwork, 0, mDelivery);
+        final List<Request<?>> finished = new ArrayList<Request<?>>();
+        queue.addRequestFinishedListener(new RequestQueue.RequestFinishedListener<Object>() {
+            @Override
+            public void onRequestFinished(Request<Object> request) {
+                finished.add(request);
+            }
+        });
+        Object tag = new Object();
+        MockRequest cached = new MockRequest();
+        cached.setTag(tag);
+        MockRequest uncached = new MockRequest();
+        uncached.setShouldCache(false);
+        uncached.setTag(tag);
+        MockRequest other = new MockRequest();
+        other.setCacheKey("other");
+        other.setTag(new Object());
+
+        queue.add(cached);
+        queue.add(uncached);
+        queue.add(other);
+        queue.cancelAll(tag);
+
+        assertTrue(cached.cancel_called);
+        assertTrue(uncached.cancel_called);
+        assertFalse(other.cancel_called);
+        assertEquals(2, finished.size());
+        assertTrue(finished.contains(cached));
+        assertTrue(finished.contains(uncached));
+        assertEquals(1, queue.getCacheQueueDepth());
+        assertEquals(0, queue.getNetworkQueueDepth());
+    }
+
+    @Test public void cancelAll_freesQueueCapacity() throws Exception {
+        RequestQueue queue = new RequestQueue(new NoCache(), mMockNetwork, 0, mDelivery);
+        queue.setNetworkQueueCapacity(
+                new QueueCapacityPolicy(2, QueueCapacityPolicy.Overflow.REJECT));
+        Object tag = new Object();
+        for (int i = 0; i < 2; i++) {
+            MockRequest request = new MockRequest();
+            request.setShouldCache(false);
+            request.setTag(tag);
+            queue.add(request);
+        }
+        queue.cancelAll(tag);
+
+        MockRequest next = new MockRequest();
+        next.setShouldCache(false);
+        queue.add(next);
+        assertFalse(next.deliverError_called);
+        assertEquals(1, queue.getNetworkQueueDepth());
+    }
+
+    @Test public void customSchedulerOrdersQueuesAndEvictions() throws Exception {
+        // Newest first.
+        RequestScheduler lifo = new RequestScheduler() {
+            @Override
+            protected BlockingQueue<Request<?>> newQueue() {
+                return new PriorityBlockingQueue<Request<?>>(11, new Comparator<Request<?>>() {
+                    @Override
+                    public int compare(Request<?> a, Request<?> b) {
+                        return b.getSequence() - a.getSequence();
+                    }
+                });
+            }
+        };
+        RequestQueue queue = new RequestQueue(new NoCache(), mMockNetwork, 0, mDelivery, lifo);
+        queue.setNetworkQueueCapacity(new QueueCapacityPolicy(1,
+                QueueCapacityPolicy.Overflow.DROP_LOWEST_PRIORITY));
+        MockRequest older = new MockRequest();
+        older.setShouldCache(false);
+        older.setPriority(Request.Priority.HIGH);
+        MockRequest newer = new MockRequest();
+        newer.setShouldCache(false);
+        newer.setPriority(Request.Priority.LOW);
+
+        queue.add(older);
+        queue.add(newer);
+
+        // The scheduler's order decides, not the priorities.
+        assertTrue(older.deliverError_called);
+        assertFalse(newer.deliverError_called);
+        assertEquals(1, queue.getNetworkQueueDepth());
+    }
 }
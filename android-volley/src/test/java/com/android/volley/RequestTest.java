@@ -16,6 +16,8 @@
 
 package com.android.volley;
 
+import android.os.SystemClock;
+
 import com.android.volley.Request.Priority;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -45,6 +47,36 @@ public class RequestTest {
         assertTrue(immediate.compareTo(high) < 0);
     }
 
+    @Test public void compareToOrdersByDeadlineWithinPriority() {
+        int sequence = 0;
+        TestRequest none = new TestRequest(Priority.NORMAL);
+        none.setSequence(sequence++);
+        TestRequest late = new TestRequest(Priority.NORMAL);
+        late.setSequence(sequence++);
+        late.setDeadlineMs(2000);
+        TestRequest early = new TestRequest(Priority.NORMAL);
+        early.setSequence(sequence++);
+        early.setDeadlineMs(1000);
+        TestRequest high = new TestRequest(Priority.HIGH);
+        high.setSequence(sequence++);
+
+        assertTrue(early.compareTo(late) < 0);
+        assertTrue(late.compareTo(early) > 0);
+        // Requests with a deadline go before older requests without one.
+        assertTrue(late.compareTo(none) < 0);
+        assertTrue(none.compareTo(early) > 0);
+        // Priority still comes first.
+        assertTrue(high.compareTo(early) < 0);
+    }
+
+    @Test public void timeoutIsCappedByDeadline() {
+        TestRequest request = new TestRequest(Priority.NORMAL);
+        assertEquals(DefaultRetryPolicy.DEFAULT_TIMEOUT_MS, request.getTimeoutMs());
+        request.setDeadlineMs(SystemClock.elapsedRealtime() + 1000);
+        assertTrue(request.getTimeoutMs() <= 1000);
+        assertFalse(request.isPastDeadline());
+    }
+
     private class TestRequest extends Request<Object> {
         private Priority mPriority = Priority.NORMAL;
         public TestRequest(Priority priority) {
@@ -16,9 +16,9 @@
 
 package com.android.volley.mock;
 
-import com.android.volley.Cache;
+import com.android.volley.MetadataUpdatableCache;
 
-public class MockCache implements Cache {
+public class MockCache implements MetadataUpdatableCache {
 
     public boolean clearCalled = false;
     @Override
@@ -50,6 +50,15 @@ public class MockCache implements Cache {
         entryPut = entry;
     }
 
+    public boolean updateMetadataCalled = false;
+
+    @Override
+    public void updateMetadata(String key, Entry entry) {
+        updateMetadataCalled = true;
+        keyPut = key;
+        entryPut = entry;
+    }
+
     @Override
     public void invalidate(String key, boolean fullExpire) {
     }
@@ -58,8 +67,11 @@ public class MockCache implements Cache {
     public void remove(String key) {
     }
 
+	public int initializeCount = 0;
+
 	@Override
 	public void initialize() {
+		initializeCount++;
 	}
 
 }
@@ -44,8 +44,10 @@ public class MockResponseDelivery implements ResponseDelivery {
         runnable.run();
     }
 
+    public VolleyError errorPosted = null;
     @Override
     public void postError(Request<?> request, VolleyError error) {
         postError_called = true;
+        errorPosted = error;
     }
 }
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import com.android.volley.AsyncNetwork;
+import com.android.volley.DefaultRetryPolicy;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.ServerError;
+import com.android.volley.TimeoutError;
+import com.android.volley.VolleyError;
+import com.android.volley.mock.MockHttpStack;
+import com.android.volley.mock.MockRequest;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.LinkedList;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class BasicAsyncNetworkTest {
+
+    /**
+     * Completes each request synchronously with the next scripted outcome: an
+     * {@link HttpResponse} or an {@link IOException}.
+     */
+    private static class ScriptedStack implements AsyncHttpStack {
+        final LinkedList<Object> outcomes = new LinkedList<Object>();
+        int requests;
+
+        @Override
+        public void performRequestAsync(Request<?> request, Map<String, String> additionalHeaders,
+                                        Callback callback) {
+            requests++;
+            Object outcome = outcomes.size() > 1 ? outcomes.removeFirst() : outcomes.getFirst();
+            if (outcome instanceof HttpResponse) {
+                callback.onResponse((HttpResponse) outcome);
+            } else {
+                callback.onError((IOException) outcome);
+            }
+        }
+    }
+
+    private static class Result implements AsyncNetwork.Callback {
+        NetworkResponse response;
+        VolleyError error;
+
+        @Override
+        public void onSuccess(NetworkResponse response) {
+            this.response = response;
+        }
+
+        @Override
+        public void onError(VolleyError error) {
+            this.error = error;
+        }
+    }
+
+    private static HttpResponse response(int statusCode, String body) {
+        BasicHttpResponse response = new BasicHttpResponse(new ProtocolVersion("HTTP", 1, 1), statusCode, "");
+        response.setEntity(new ByteArrayEntity(body.getBytes()));
+        return response;
+    }
+
+    private static MockRequest newRequest(int maxRetries) {
+        MockRequest request = new MockRequest();
+        request.setRetryPolicy(new DefaultRetryPolicy(1000, maxRetries, 1f));
+        return request;
+    }
+
+    @Test public void retriesTimeoutsThenSucceeds() throws Exception {
+        ScriptedStack stack = new ScriptedStack();
+        stack.outcomes.add(new SocketTimeoutException());
+        stack.outcomes.add(new SocketTimeoutException());
+        stack.outcomes.add(response(200, "foobar"));
+        BasicAsyncNetwork network = new BasicAsyncNetwork(stack, new MockHttpStack());
+        MockRequest request = newRequest(2);
+        Result result = new Result();
+
+        network.performRequestAsync(request, result);
+
+        assertNull(result.error);
+        assertEquals(200, result.response.statusCode);
+        assertEquals("foobar", new String(result.response.data));
+        assertEquals(3, stack.requests);
+        assertEquals(2, request.getRetryPolicy().getCurrentRetryCount());
+    }
+
+    @Test public void exhaustedRetriesReportTimeout() throws Exception {
+        ScriptedStack stack = new ScriptedStack();
+        stack.outcomes.add(new SocketTimeoutException());
+        BasicAsyncNetwork network = new BasicAsyncNetwork(stack, new MockHttpStack());
+        Result result = new Result();
+
+        network.performRequestAsync(newRequest(1), result);
+
+        assertNull(result.response);
+        assertTrue(result.error instanceof TimeoutError);
+        assertEquals(2, stack.requests);
+    }
+
+    @Test public void serverErrorIsNotRetried() throws Exception {
+        ScriptedStack stack = new ScriptedStack();
+        stack.outcomes.add(response(500, "oops"));
+        BasicAsyncNetwork network = new BasicAsyncNetwork(stack, new MockHttpStack());
+        Result result = new Result();
+
+        network.performRequestAsync(newRequest(3), result);
+
+        assertTrue(result.error instanceof ServerError);
+        assertEquals(1, stack.requests);
+    }
+}
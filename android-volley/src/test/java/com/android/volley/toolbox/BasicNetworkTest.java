@@ -16,11 +16,14 @@
 
 package com.android.volley.toolbox;
 
+import com.android.volley.DeadlineExceededError;
+import com.android.volley.DefaultRetryPolicy;
 import com.android.volley.NetworkResponse;
 import com.android.volley.Request;
 import com.android.volley.Response;
 import com.android.volley.mock.MockHttpStack;
 
+import org.apache.http.HttpResponse;
 import org.apache.http.ProtocolVersion;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.message.BasicHttpResponse;
@@ -33,6 +36,8 @@ import org.robolectric.RobolectricTestRunner;
 
 import static org.junit.Assert.*;
 
+import java.io.IOException;
+import java.net.SocketTimeoutException;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -75,4 +80,39 @@ public class BasicNetworkTest {
         assertEquals("foo", mockHttpStack.getLastHeaders().get("requestheader"));
         assertEquals("requestpost=foo&", new String(mockHttpStack.getLastPostBody()));
     }
+
+    @Test public void noRetryPastDeadline() throws Exception {
+        HttpStack timingOutStack = new HttpStack() {
+            @Override
+            public HttpResponse performRequest(Request<?> request, Map<String, String> additionalHeaders)
+                    throws IOException {
+                throw new SocketTimeoutException();
+            }
+        };
+        BasicNetwork httpNetwork = new BasicNetwork(timingOutStack);
+        Request<String> request = new Request<String>(Request.Method.GET, "http://foo", null) {
+
+            @Override
+            protected Response<String> parseNetworkResponse(NetworkResponse response) {
+                return null;
+            }
+
+            @Override
+            protected void deliverResponse(String response) {
+            }
+
+            @Override
+            public boolean isPastDeadline() {
+                return true;
+            }
+        };
+        request.setRetryPolicy(new DefaultRetryPolicy(1000, 3, 1f));
+        try {
+            httpNetwork.performRequest(request);
+            fail("Expected DeadlineExceededError");
+        } catch (DeadlineExceededError e) {
+            // The retry budget was not touched.
+            assertEquals(0, request.getRetryPolicy().getCurrentRetryCount());
+        }
+    }
 }
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import com.android.volley.Cache;
+import com.android.volley.toolbox.DiskBasedCache.CacheHeader;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * Manual benchmark of the ways a cache hit can read an entry's data: the stream path
+ * {@link DiskBasedCache#get} used before it read through {@link DiskBasedCache#readData}, and
+ * readData's positional and mapped reads at each size. Backs the choice of
+ * {@link DiskBasedCache#MAP_THRESHOLD_BYTES}. Remove the {@code @Ignore} to run it.
+ */
+public class DiskBasedCacheReadBenchmarkTest {
+
+    private static final int[] SIZES = {
+            1024, 16 * 1024, 64 * 1024, 128 * 1024, 256 * 1024, 512 * 1024,
+            1024 * 1024, 2 * 1024 * 1024, 5 * 1024 * 1024
+    };
+
+    /**
+     * Runs per measurement; the fastest is reported.
+     */
+    private static final int RUNS = 5;
+
+    /**
+     * Bytes read per run, so every size is timed over a similar amount of work.
+     */
+    private static final long BYTES_PER_RUN = 64L * 1024 * 1024;
+
+    private interface Reader {
+        byte[] read(File file, CacheHeader header) throws IOException;
+    }
+
+    private static final Reader STREAM = new Reader() {
+        @Override
+        public byte[] read(File file, CacheHeader header) throws IOException {
+            InputStream in = new BufferedInputStream(new FileInputStream(file));
+            try {
+                CacheHeader.readHeader(in);
+                byte[] data = new byte[(int) (file.length() - header.headerSize)];
+                int pos = 0;
+                while (pos < data.length) {
+                    int count = in.read(data, pos, data.length - pos);
+                    if (count < 0) {
+                        throw new EOFException();
+                    }
+                    pos += count;
+                }
+                return data;
+            } finally {
+                in.close();
+            }
+        }
+    };
+
+    private static final Reader POSITIONAL = new Reader() {
+        @Override
+        public byte[] read(File file, CacheHeader header) throws IOException {
+            return DiskBasedCache.readData(file, header, false);
+        }
+    };
+
+    private static final Reader MAPPED = new Reader() {
+        @Override
+        public byte[] read(File file, CacheHeader header) throws IOException {
+            return DiskBasedCache.readData(file, header, true);
+        }
+    };
+
+    @Ignore("Manual benchmark")
+    @Test public void readPaths() throws Exception {
+        File dir = File.createTempFile("cache-bench", "");
+        assertTrue(dir.delete() && dir.mkdir());
+        try {
+            System.out.println("size      stream              positional          mapped");
+            for (int size : SIZES) {
+                File file = new File(dir, "entry" + size);
+                CacheHeader header = writeEntry(file, size);
+                int iterations = (int) Math.max(20, BYTES_PER_RUN / size);
+                StringBuilder line = new StringBuilder(String.format("%-8s", label(size)));
+                for (Reader reader : new Reader[] {STREAM, POSITIONAL, MAPPED}) {
+                    assertEquals(size, reader.read(file, header).length);
+                    line.append(measure(reader, file, header, iterations));
+                }
+                System.out.println(line);
+                assertTrue(file.delete());
+            }
+        } finally {
+            assertTrue(dir.delete());
+        }
+    }
+
+    /**
+     * Writes an entry of {@code size} bytes of data the way the cache does.
+     */
+    private static CacheHeader writeEntry(File file, int size) throws IOException {
+        Cache.Entry entry = new Cache.Entry();
+        entry.data = new byte[size];
+        entry.etag = "etag";
+        entry.responseHeaders = new HashMap<String, String>();
+        for (int i = 0; i < 10; i++) {
+            entry.responseHeaders.put("Header-" + i, "value-" + i);
+        }
+        CacheHeader header = new CacheHeader("http://example.com/" + size, entry);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            assertTrue(header.writeHeader(out));
+            out.write(entry.data);
+        } finally {
+            out.close();
+        }
+        header.size = size;
+        header.headerSize = (int) (file.length() - size);
+        return header;
+    }
+
+    /**
+     * Returns the fastest of {@link #RUNS} runs as time and bytes allocated per read.
+     */
+    private static String measure(Reader reader, File file, CacheHeader header, int iterations)
+            throws IOException {
+        // Warm up.
+        for (int i = 0; i < iterations; i++) {
+            reader.read(file, header);
+        }
+        boolean countAllocations = allocatedBytes() >= 0;
+        long bestNs = Long.MAX_VALUE;
+        long bestAllocated = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long allocatedBefore = allocatedBytes();
+            long startNs = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                reader.read(file, header);
+            }
+            bestNs = Math.min(bestNs, (System.nanoTime() - startNs) / iterations);
+            bestAllocated = Math.min(bestAllocated,
+                    (allocatedBytes() - allocatedBefore) / iterations);
+        }
+        return String.format("%8.1f us %8s  ", bestNs / 1000.0,
+                countAllocations ? label(bestAllocated) : "-");
+    }
+
+    /**
+     * Returns the bytes allocated by this thread so far, or a negative number if the JVM
+     * doesn't say.
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(
+                    Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static String label(long bytes) {
+        if (bytes >= 1024 * 1024) {
+            return String.format("%.1fM", bytes / (1024.0 * 1024));
+        }
+        if (bytes >= 1024) {
+            return String.format("%.1fK", bytes / 1024.0);
+        }
+        return bytes + "B";
+    }
+}
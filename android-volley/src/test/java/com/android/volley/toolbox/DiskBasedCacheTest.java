@@ -23,8 +23,15 @@ import org.junit.Test;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.Assert.*;
 
@@ -38,6 +45,7 @@ public class DiskBasedCacheTest {
         e.lastModified = 13572468L;
         e.ttl = 9876543L;
         e.softTtl = 8765432L;
+        e.staleIfErrorTtl = 7654321L;
         e.etag = "etag";
         e.responseHeaders = new HashMap<String, String>();
         e.responseHeaders.put("fruit", "banana");
@@ -53,6 +61,7 @@ public class DiskBasedCacheTest {
         assertEquals(first.lastModified, second.lastModified);
         assertEquals(first.ttl, second.ttl);
         assertEquals(first.softTtl, second.softTtl);
+        assertEquals(first.staleIfErrorTtl, second.staleIfErrorTtl);
         assertEquals(first.etag, second.etag);
         assertEquals(first.responseHeaders, second.responseHeaders);
     }
@@ -125,11 +134,635 @@ public class DiskBasedCacheTest {
         assertEquals(DiskBasedCache.readStringStringMap(bais), emptyValue);
     }
 
+    private static File makeCacheDir() throws Exception {
+        File dir = File.createTempFile("volley-cache", "");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdir());
+        return dir;
+    }
+
+    private static Cache.Entry makeEntry(byte[] data, String etag, long ttl) {
+        Cache.Entry e = new Cache.Entry();
+        e.data = data;
+        e.etag = etag;
+        e.ttl = ttl;
+        e.softTtl = ttl;
+        e.responseHeaders = new HashMap<String, String>();
+        e.responseHeaders.put("ETag", etag);
+        return e;
+    }
+
+    @Test public void updateMetadataRewritesHeaderInPlace() throws Exception {
+        File dir = makeCacheDir();
+        DiskBasedCache cache = new DiskBasedCache(dir);
+        cache.initialize();
+        byte[] data = new byte[4096];
+        data[4095] = 42;
+        cache.put("key", makeEntry(data, "v1", 1000L));
+        File file = cache.getFileForKey("key");
+        long length = file.length();
+
+        // A 304 brings new metadata but no new data.
+        Cache.Entry revalidated = makeEntry(data, "v2-longer", Long.MAX_VALUE);
+        cache.updateMetadata("key", revalidated);
+
+        assertEquals(length, file.length());
+        Cache.Entry read = cache.get("key");
+        assertTrue(Arrays.equals(data, read.data));
+        assertEquals("v2-longer", read.etag);
+        assertEquals(Long.MAX_VALUE, read.ttl);
+        assertEquals("v2-longer", read.responseHeaders.get("ETag"));
+
+        // The padding was adjusted, so the file still reads back after a restart.
+        DiskBasedCache reopened = new DiskBasedCache(dir);
+        reopened.initialize();
+        read = reopened.get("key");
+        assertTrue(Arrays.equals(data, read.data));
+        assertEquals("v2-longer", read.etag);
+        // And the header size was recovered, so it can be rewritten in place again.
+        reopened.updateMetadata("key", makeEntry(data, "v3", 7L));
+        assertEquals(length, file.length());
+        assertEquals("v3", reopened.get("key").etag);
+    }
+
+    @Test public void updateMetadataRewritesFileWhenHeaderGrows() throws Exception {
+        DiskBasedCache cache = new DiskBasedCache(makeCacheDir());
+        cache.initialize();
+        byte[] data = new byte[] {1, 2, 3};
+        cache.put("key", makeEntry(data, "v1", 1000L));
+
+        Cache.Entry revalidated = makeEntry(data, "v2", 2000L);
+        char[] big = new char[DiskBasedCache.HEADER_PADDING_BYTES * 2];
+        Arrays.fill(big, 'x');
+        revalidated.responseHeaders.put("X-Big", new String(big));
+        cache.updateMetadata("key", revalidated);
+
+        Cache.Entry read = cache.get("key");
+        assertTrue(Arrays.equals(data, read.data));
+        assertEquals(2000L, read.ttl);
+        assertEquals(new String(big), read.responseHeaders.get("X-Big"));
+    }
+
+    @Test public void updateMetadataOfMissingEntryStoresIt() throws Exception {
+        DiskBasedCache cache = new DiskBasedCache(makeCacheDir());
+        cache.initialize();
+        byte[] data = new byte[] {1, 2, 3};
+        cache.updateMetadata("key", makeEntry(data, "v1", 1000L));
+        assertTrue(Arrays.equals(data, cache.get("key").data));
+    }
+
+    @Test public void invalidateRewritesHeaderInPlace() throws Exception {
+        File dir = makeCacheDir();
+        DiskBasedCache cache = new DiskBasedCache(dir);
+        cache.initialize();
+        byte[] data = new byte[1024];
+        cache.put("key", makeEntry(data, "v1", Long.MAX_VALUE));
+        long length = cache.getFileForKey("key").length();
+
+        cache.invalidate("key", true);
+
+        assertEquals(length, cache.getFileForKey("key").length());
+        assertTrue(cache.get("key").isExpired());
+        DiskBasedCache reopened = new DiskBasedCache(dir);
+        reopened.initialize();
+        Cache.Entry read = reopened.get("key");
+        assertTrue(read.isExpired());
+        assertTrue(Arrays.equals(data, read.data));
+    }
+
+    private static DiskBasedCache open(File dir, int maxBytes) {
+        DiskBasedCache cache = new DiskBasedCache(dir, maxBytes);
+        cache.initialize();
+        return cache;
+    }
+
+    private static void append(File file, byte[] bytes) throws Exception {
+        FileOutputStream fos = new FileOutputStream(file, true);
+        fos.write(bytes);
+        fos.close();
+    }
+
+    @Test public void initializeRestoresIndexFromJournal() throws Exception {
+        File dir = makeCacheDir();
+        DiskBasedCache cache = open(dir, 1024 * 1024);
+        cache.put("a", makeEntry(new byte[] {1}, "a", 1L));
+        cache.put("b", makeEntry(new byte[] {2}, "b", 2L));
+        cache.remove("b");
+        // Spoil a's file header: a directory scan would drop the entry and delete the file.
+        RandomAccessFile raf = new RandomAccessFile(cache.getFileForKey("a"), "rw");
+        raf.writeInt(0);
+        raf.close();
+
+        open(dir, 1024 * 1024);
+
+        // The journal was used, so the file was never opened.
+        assertTrue(cache.getFileForKey("a").exists());
+        assertFalse(cache.getFileForKey("b").exists());
+    }
+
+    @Test public void journalSurvivesTornTail() throws Exception {
+        File dir = makeCacheDir();
+        DiskBasedCache cache = open(dir, 1024 * 1024);
+        cache.put("a", makeEntry(new byte[] {1, 2, 3}, "a", 1L));
+        // A record cut short by a crash.
+        append(new File(dir, DiskCacheJournal.JOURNAL_FILE), new byte[] {1, 0x20, 0x15});
+
+        DiskBasedCache reopened = open(dir, 1024 * 1024);
+        assertTrue(Arrays.equals(new byte[] {1, 2, 3}, reopened.get("a").data));
+        // The partial record was dropped, so later records aren't lost behind it.
+        reopened.put("b", makeEntry(new byte[] {4}, "b", 1L));
+        assertTrue(Arrays.equals(new byte[] {4}, open(dir, 1024 * 1024).get("b").data));
+    }
+
+    @Test public void corruptJournalFallsBackToScan() throws Exception {
+        File dir = makeCacheDir();
+        DiskBasedCache cache = open(dir, 1024 * 1024);
+        cache.put("a", makeEntry(new byte[] {1, 2, 3}, "a", 1L));
+        FileOutputStream fos = new FileOutputStream(new File(dir, DiskCacheJournal.JOURNAL_FILE));
+        fos.write(new byte[] {9, 9, 9, 9, 9, 9});
+        fos.close();
+
+        DiskBasedCache reopened = open(dir, 1024 * 1024);
+        assertTrue(Arrays.equals(new byte[] {1, 2, 3}, reopened.get("a").data));
+        // The scan rebuilt the journal.
+        assertEquals("a", open(dir, 1024 * 1024).get("a").etag);
+    }
+
+    @Test public void unjournaledFilesAreRemoved() throws Exception {
+        File dir = makeCacheDir();
+        DiskBasedCache cache = open(dir, 1024 * 1024);
+        cache.put("a", makeEntry(new byte[] {1}, "a", 1L));
+        // As if the process died between writing a file and journaling it.
+        File orphan = new File(dir, "12345");
+        append(orphan, new byte[] {1, 2, 3});
+
+        open(dir, 1024 * 1024);
+
+        assertFalse(orphan.exists());
+        assertTrue(cache.getFileForKey("a").exists());
+    }
+
+    @Test public void journalRestoresLruOrder() throws Exception {
+        File dir = makeCacheDir();
+        DiskBasedCache cache = open(dir, 100);
+        cache.put("a", makeEntry(new byte[40], "a", 1L));
+        cache.put("b", makeEntry(new byte[40], "b", 1L));
+        cache.get("a");
+        // Makes sure the buffered access record is on disk.
+        cache.put("c", makeEntry(new byte[1], "c", 1L));
+
+        DiskBasedCache reopened = open(dir, 100);
+        reopened.put("d", makeEntry(new byte[30], "d", 1L));
+
+        // b was least recently used, so it went first.
+        assertNull(reopened.get("b"));
+        assertNotNull(reopened.get("a"));
+        assertNotNull(reopened.get("d"));
+    }
+
+    @Test public void journalIsCompacted() throws Exception {
+        File dir = makeCacheDir();
+        DiskBasedCache cache = open(dir, 1024 * 1024);
+        File journal = new File(dir, DiskCacheJournal.JOURNAL_FILE);
+        cache.put("a", makeEntry(new byte[] {1}, "a", 1L));
+        long oneRecord = journal.length();
+        for (int i = 0; i < 3000; i++) {
+            cache.put("a", makeEntry(new byte[] {1}, "a", i));
+        }
+
+        // Superseded records were dropped along the way.
+        assertTrue(journal.length() < oneRecord * 2100);
+        assertEquals(2999L, open(dir, 1024 * 1024).get("a").ttl);
+    }
+
+    @Test public void readsDontGrowJournalPastCompaction() throws Exception {
+        File dir = makeCacheDir();
+        DiskCacheJournal journal = new DiskCacheJournal(dir);
+        journal.rebuild(Collections.<CacheHeader>emptyList());
+        for (int i = 0; i < 5000; i++) {
+            journal.appendAccess("a", 1);
+        }
+        journal.close();
+
+        // Op, length and key: 10 bytes per record, and none after the 2000th.
+        assertEquals(4 + 2000 * 10, new File(dir, DiskCacheJournal.JOURNAL_FILE).length());
+    }
+
+    @Test public void lookupsWorkBeforeInitialize() throws Exception {
+        File dir = makeCacheDir();
+        DiskBasedCache cache = open(dir, 1024 * 1024);
+        cache.put("a", makeEntry(new byte[] {1, 2, 3}, "a", 1L));
+
+        DiskBasedCache cold = new DiskBasedCache(dir, 1024 * 1024);
+        // Not indexed yet, so the file is read directly.
+        assertTrue(Arrays.equals(new byte[] {1, 2, 3}, cold.get("a").data));
+        assertNull(cold.get("missing"));
+        cold.invalidate("a", true);
+        assertTrue(cold.get("a").isExpired());
+
+        cold.initialize();
+        assertTrue(cold.get("a").isExpired());
+        assertTrue(open(dir, 1024 * 1024).get("a").isExpired());
+    }
+
+    @Test public void corruptStringLengthIsAnUnreadableFile() throws Exception {
+        File dir = makeCacheDir();
+        DiskBasedCache cache = open(dir, 1024 * 1024);
+        cache.put("a", makeEntry(new byte[] {1, 2, 3}, "a", 1L));
+        File file = cache.getFileForKey("a");
+        // The key's length follows the magic; all ones reads back as -1.
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(4);
+        raf.write(new byte[] {-1, -1, -1, -1, -1, -1, -1, -1});
+        raf.close();
+
+        // Read directly before the index is ready: a miss, not an exception.
+        assertNull(new DiskBasedCache(dir, 1024 * 1024).get("a"));
+
+        // A scan deletes it.
+        assertTrue(new File(dir, DiskCacheJournal.JOURNAL_FILE).delete());
+        assertNull(open(dir, 1024 * 1024).get("a"));
+        assertFalse(file.exists());
+    }
+
+    @Test public void changesBeforeInitializeWinOverIndex() throws Exception {
+        File dir = makeCacheDir();
+        DiskBasedCache cache = open(dir, 1024 * 1024);
+        cache.put("a", makeEntry(new byte[] {1}, "a", 1L));
+        cache.put("b", makeEntry(new byte[] {2}, "b", 1L));
+
+        DiskBasedCache cold = new DiskBasedCache(dir, 1024 * 1024);
+        cold.remove("a");
+        cold.put("b", makeEntry(new byte[] {3}, "b2", 2L));
+        cold.initialize();
+
+        // The journal still had the old a and b; the later changes won.
+        assertNull(cold.get("a"));
+        assertEquals("b2", cold.get("b").etag);
+        DiskBasedCache reopened = open(dir, 1024 * 1024);
+        assertNull(reopened.get("a"));
+        assertTrue(Arrays.equals(new byte[] {3}, reopened.get("b").data));
+    }
+
+    @Test public void getReadsSmallAndMappedEntries() throws Exception {
+        File dir = makeCacheDir();
+        DiskBasedCache cache = open(dir, 8 * 1024 * 1024);
+        int[] sizes = {0, 1, 8191, 8193, DiskBasedCache.MAP_THRESHOLD_BYTES,
+                DiskBasedCache.MAP_THRESHOLD_BYTES + 3};
+        for (int size : sizes) {
+            byte[] data = new byte[size];
+            for (int i = 0; i < size; i++) {
+                data[i] = (byte) (i * 31 + size);
+            }
+            cache.put("key" + size, makeEntry(data, "e" + size, 1L));
+        }
+        DiskBasedCache reopened = open(dir, 8 * 1024 * 1024);
+        for (int size : sizes) {
+            byte[] expected = new byte[size];
+            for (int i = 0; i < size; i++) {
+                expected[i] = (byte) (i * 31 + size);
+            }
+            assertTrue(Arrays.equals(expected, cache.get("key" + size).data));
+            Cache.Entry read = reopened.get("key" + size);
+            assertTrue(Arrays.equals(expected, read.data));
+            assertEquals("e" + size, read.etag);
+        }
+    }
+
+    @Test public void getOfTruncatedFileRemovesEntry() throws Exception {
+        DiskBasedCache cache = open(makeCacheDir(), 1024 * 1024);
+        cache.put("key", makeEntry(new byte[1024], "e", 1L));
+        File file = cache.getFileForKey("key");
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(10);
+        raf.close();
+
+        assertNull(cache.get("key"));
+        assertFalse(file.exists());
+    }
+
+    @Test public void getOfFileTruncatedIntoDataRemovesEntry() throws Exception {
+        DiskBasedCache cache = open(makeCacheDir(), 1024 * 1024);
+        cache.put("key", makeEntry(new byte[1024], "e", 1L));
+        File file = cache.getFileForKey("key");
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        // The header and part of the data survive.
+        raf.setLength(raf.length() - 10);
+        raf.close();
+
+        assertNull(cache.get("key"));
+        assertFalse(file.exists());
+    }
+
+    @Test public void getOfFileOverwrittenBehindTheIndexRemovesEntry() throws Exception {
+        File dir = makeCacheDir();
+        DiskBasedCache cache = open(dir, 1024 * 1024);
+        cache.put("a", makeEntry(new byte[1024], "e", 1L));
+        cache.put("b", makeEntry(new byte[1024], "e", 1L));
+        // As if a crash left the journal describing an older version of each file: same
+        // lengths, but a's file now holds b's entry, and b's file has grown.
+        File a = cache.getFileForKey("a");
+        File b = cache.getFileForKey("b");
+        byte[] bytesOfB = new byte[(int) b.length()];
+        RandomAccessFile raf = new RandomAccessFile(b, "r");
+        raf.readFully(bytesOfB);
+        raf.close();
+        FileOutputStream out = new FileOutputStream(a);
+        out.write(bytesOfB);
+        out.close();
+        append(b, new byte[] {1, 2, 3});
+
+        assertNull(cache.get("a"));
+        assertFalse(a.exists());
+        assertNull(cache.get("b"));
+        assertFalse(b.exists());
+    }
+
+    @Test public void sizeOfScannedEntriesIsTheirDataSize() throws Exception {
+        File dir = makeCacheDir();
+        open(dir, 1024 * 1024).put("a", makeEntry(new byte[1000], "e", 1L));
+        long written = open(dir, 1024 * 1024).getStats().getTotalBytes();
+        assertTrue(new File(dir, DiskCacheJournal.JOURNAL_FILE).delete());
+
+        DiskBasedCache rescanned = open(dir, 1024 * 1024);
+
+        assertEquals(1000, written);
+        assertEquals(1000, rescanned.getStats().getTotalBytes());
+        assertNotNull(rescanned.get("a"));
+    }
+
+    /**
+     * Returns {@code count} bytes of repetitive JSON-like text.
+     */
+    private static byte[] makeText(int count) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; text.length() < count; i++) {
+            text.append("{\"id\":").append(i).append(",\"name\":\"item ").append(i % 7)
+                    .append("\",\"tags\":[\"cache\",\"volley\"]},");
+        }
+        return text.substring(0, count).getBytes();
+    }
+
+    @Test public void compressedEntriesTakeLessSpaceAndReadBack() throws Exception {
+        File dir = makeCacheDir();
+        DiskBasedCache cache = open(dir, 1024 * 1024);
+        cache.setCompressionEnabled(true);
+        byte[] text = makeText(20000);
+        cache.put("key", makeEntry(text, "e", 1L));
+
+        DiskBasedCacheStats stats = cache.getStats();
+        assertEquals(1, stats.getCompressedWriteCount());
+        assertEquals(text.length - stats.getTotalBytes(), stats.getCompressionSavedBytes());
+        assertTrue(stats.toString(), stats.getTotalBytes() < text.length / 4);
+        assertTrue(cache.getFileForKey("key").length() < text.length / 4);
+        assertTrue(Arrays.equals(text, cache.get("key").data));
+        assertEquals(1, cache.getStats().getDecompressionCount());
+
+        // Rewriting the header in place keeps the data compressed.
+        Cache.Entry updated = makeEntry(text, "e2", 2L);
+        cache.updateMetadata("key", updated);
+        assertEquals("e2", cache.get("key").etag);
+        assertTrue(Arrays.equals(text, cache.get("key").data));
+
+        // Read back from the journal and from the file itself.
+        assertTrue(Arrays.equals(text, open(dir, 1024 * 1024).get("key").data));
+        assertTrue(new File(dir, DiskCacheJournal.JOURNAL_FILE).delete());
+        DiskBasedCache rescanned = open(dir, 1024 * 1024);
+        assertTrue(Arrays.equals(text, rescanned.get("key").data));
+        assertEquals("e2", rescanned.get("key").etag);
+    }
+
+    @Test public void compressionSkipsEntriesItCantHelp() throws Exception {
+        DiskBasedCache cache = open(makeCacheDir(), 1024 * 1024);
+        cache.setCompressionEnabled(true);
+        byte[] text = makeText(20000);
+        Cache.Entry image = makeEntry(text, "image", 1L);
+        image.responseHeaders.put("Content-Type", "image/png");
+        Cache.Entry gzipped = makeEntry(text, "gzipped", 1L);
+        gzipped.responseHeaders.put("content-encoding", "gzip");
+        byte[] noise = new byte[20000];
+        new Random(1).nextBytes(noise);
+        cache.put("image", image);
+        cache.put("gzipped", gzipped);
+        cache.put("small", makeEntry(makeText(100), "small", 1L));
+        cache.put("noise", makeEntry(noise, "noise", 1L));
+
+        DiskBasedCacheStats stats = cache.getStats();
+        assertEquals(0, stats.getCompressedWriteCount());
+        // Only the noise was worth trying.
+        assertEquals(1, stats.getIncompressibleWriteCount());
+        assertEquals(3 * 20000 + 100, stats.getTotalBytes());
+        assertTrue(Arrays.equals(noise, cache.get("noise").data));
+        assertTrue(Arrays.equals(text, cache.get("image").data));
+        assertEquals(0, cache.getStats().getDecompressionCount());
+    }
+
+    @Test public void getOfCorruptCompressedEntryRemovesIt() throws Exception {
+        DiskBasedCache cache = open(makeCacheDir(), 1024 * 1024);
+        cache.setCompressionEnabled(true);
+        cache.put("key", makeEntry(makeText(20000), "e", 1L));
+        File file = cache.getFileForKey("key");
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 10);
+        raf.close();
+
+        assertNull(cache.get("key"));
+        assertFalse(file.exists());
+    }
+
+    @Test public void implausibleUncompressedLengthIsRejected() throws Exception {
+        DeflateCodec codec = new DeflateCodec();
+        byte[] text = makeText(20000);
+        byte[] body = codec.compress(text);
+        assertTrue(Arrays.equals(text, codec.decompress(body, text.length)));
+
+        // Rejected before allocating, whether over the caller's bound or the deflate maximum.
+        try {
+            codec.decompress(body, text.length - 1);
+            fail();
+        } catch (IOException expected) {
+        }
+        body[0] = body[1] = body[2] = (byte) 0xff;
+        body[3] = 0x7f;
+        try {
+            codec.decompress(body, Integer.MAX_VALUE);
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test public void concurrentOperationsStayConsistent() throws Exception {
+        File dir = makeCacheDir();
+        // Small enough that puts keep pruning each other's entries.
+        final DiskBasedCache cache = open(dir, 256 * 1024);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] threads = new Thread[6];
+        for (int t = 0; t < threads.length; t++) {
+            final int seed = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    Random random = new Random(seed);
+                    try {
+                        for (int i = 0; i < 400; i++) {
+                            String key = "key" + random.nextInt(20);
+                            int op = random.nextInt(10);
+                            if (op < 4) {
+                                int version = random.nextInt(1000);
+                                byte[] data = new byte[1 + random.nextInt(32 * 1024)];
+                                Arrays.fill(data, (byte) version);
+                                cache.put(key, makeEntry(data, key + ":" + version, 1L));
+                            } else if (op == 4) {
+                                cache.remove(key);
+                            } else if (op == 5) {
+                                cache.invalidate(key, random.nextBoolean());
+                            } else {
+                                Cache.Entry entry = cache.get(key);
+                                if (entry != null) {
+                                    assertConsistent(key, entry);
+                                }
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join(30000);
+            assertFalse("deadlocked", thread.isAlive());
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+
+        // What was indexed matches what is on disk.
+        DiskBasedCache reopened = new DiskBasedCache(dir, 256 * 1024);
+        reopened.initialize();
+        for (int i = 0; i < 20; i++) {
+            String key = "key" + i;
+            Cache.Entry live = cache.get(key);
+            Cache.Entry read = reopened.get(key);
+            assertEquals(live == null, read == null);
+            if (read != null) {
+                assertConsistent(key, read);
+                assertEquals(live.etag, read.etag);
+            }
+        }
+    }
+
+    private static void assertConsistent(String key, Cache.Entry entry) {
+        assertTrue(entry.etag, entry.etag.startsWith(key + ":"));
+        byte version = (byte) Integer.parseInt(entry.etag.substring(key.length() + 1));
+        for (byte b : entry.data) {
+            if (b != version) {
+                fail("data of " + entry.etag + " doesn't match its header");
+            }
+        }
+    }
+
+    /**
+     * Fills a 64 KB cache with 20 small entries that are each read a few times, then stores a
+     * 32 KB entry once.
+     *
+     * @return the number of small entries still cached
+     */
+    private static int hotEntriesLeftAfterOneOffDownload(EvictionPolicy policy)
+            throws Exception {
+        DiskBasedCache cache = new DiskBasedCache(makeCacheDir(), 64 * 1024, policy);
+        cache.initialize();
+        for (int i = 0; i < 20; i++) {
+            assertNull(cache.get("hot" + i));
+            cache.put("hot" + i, makeEntry(new byte[2048], "hot" + i, 1L));
+        }
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 20; i++) {
+                assertNotNull(cache.get("hot" + i));
+            }
+        }
+        assertNull(cache.get("download"));
+        cache.put("download", makeEntry(new byte[32 * 1024], "download", 1L));
+
+        int left = 0;
+        for (int i = 0; i < 20; i++) {
+            if (cache.get("hot" + i) != null) {
+                left++;
+            }
+        }
+        if (cache.get("download") == null) {
+            // Not admitted, so nothing of it may be left on disk.
+            assertFalse(cache.getFileForKey("download").exists());
+        }
+        return left;
+    }
+
+    @Test public void evictionPolicyDecidesWhatAOneOffEntryDisplaces() throws Exception {
+        // Plain LRU makes room by dropping the least recently read entries.
+        assertTrue(hotEntriesLeftAfterOneOffDownload(new LruEvictionPolicy()) < 20);
+        assertEquals(20, hotEntriesLeftAfterOneOffDownload(new TinyLfuEvictionPolicy()));
+        assertEquals(20, hotEntriesLeftAfterOneOffDownload(new GdsfEvictionPolicy()));
+    }
+
+    @Test public void janitorPrunesInBatchesAboveHighWaterMark() throws Exception {
+        DiskBasedCache cache = open(makeCacheDir(), 100000);
+        for (int i = 0; i < 189; i++) {
+            cache.put("key" + i, makeEntry(new byte[475], "key" + i, 1L));
+        }
+        // Crosses the high water mark but not the bound.
+        cache.put("big", makeEntry(new byte[9000], "big", 1L));
+        cache.awaitPruning();
+
+        // Getting from 98.8% to under 80% takes 40 entries, more than one batch.
+        DiskBasedCacheStats stats = cache.getStats();
+        assertEquals(0, stats.getBlockingPruneCount());
+        assertEquals(40, stats.getPrunedEntryCount());
+        assertEquals(40 * 475, stats.getPrunedBytes());
+        assertEquals(2, stats.getPruneBatchCount());
+        assertEquals(150, stats.getEntryCount());
+        assertEquals(149 * 475 + 9000, stats.getTotalBytes());
+        assertTrue(stats.getMaxPruneBatchMillis() <= stats.getTotalPruneMillis());
+        // Least recently used first. Entries sharing a lock stripe with "big" may be skipped as
+        // busy while its put still holds the lock, so a few younger ones can go instead.
+        int prunedOldest = 0;
+        for (int i = 0; i < 60; i++) {
+            if (cache.get("key" + i) == null) {
+                prunedOldest++;
+            }
+        }
+        assertEquals(40, prunedOldest);
+        assertNotNull(cache.get("big"));
+    }
+
+    @Test public void putPrunesInlineOnlyPastTheBound() throws Exception {
+        DiskBasedCache cache = open(makeCacheDir(), 1000);
+        for (int i = 0; i < 8; i++) {
+            cache.put("key" + i, makeEntry(new byte[100], "key" + i, 1L));
+        }
+        // 80% full: below the high water mark, so nothing is pruned.
+        cache.awaitPruning();
+        assertEquals(0, cache.getStats().getPruneBatchCount());
+
+        cache.put("big", makeEntry(new byte[300], "big", 1L));
+
+        // Pruned to fit under the low water mark before writing.
+        DiskBasedCacheStats stats = cache.getStats();
+        assertEquals(1, stats.getBlockingPruneCount());
+        assertEquals(4, stats.getPrunedEntryCount());
+        assertEquals(700, stats.getTotalBytes());
+        assertNull(cache.get("key3"));
+        assertNotNull(cache.get("key4"));
+        assertNotNull(cache.get("big"));
+    }
+
     @Test
     public void publicMethods() throws Exception {
         // Catch-all test to find API-breaking changes.
         assertNotNull(DiskBasedCache.class.getConstructor(File.class, int.class));
         assertNotNull(DiskBasedCache.class.getConstructor(File.class));
+        assertNotNull(DiskBasedCache.class.getConstructor(
+                File.class, int.class, EvictionPolicy.class));
 
         assertNotNull(DiskBasedCache.class.getMethod("getFileForKey", String.class));
     }
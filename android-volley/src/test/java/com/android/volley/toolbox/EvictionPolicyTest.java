@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.Assert.*;
+
+public class EvictionPolicyTest {
+
+    @Test public void lruEvictsLeastRecentlyUsed() {
+        LruEvictionPolicy policy = new LruEvictionPolicy();
+        policy.onInsert("a", 1);
+        policy.onInsert("b", 1);
+        policy.onInsert("c", 1);
+        policy.onAccess("a");
+        assertEquals("b", policy.nextVictim());
+        policy.onRemove("b");
+        assertEquals("c", policy.nextVictim());
+        policy.clear();
+        assertNull(policy.nextVictim());
+    }
+
+    @Test public void lruRequeueOffersOthersFirst() {
+        LruEvictionPolicy policy = new LruEvictionPolicy();
+        policy.onInsert("busy", 1);
+        policy.onInsert("b", 1);
+        assertEquals("busy", policy.nextVictim());
+        policy.onRequeue("busy");
+        assertEquals("b", policy.nextVictim());
+    }
+
+    @Test public void gdsfEvictsLargeRarelyUsedEntriesFirst() {
+        GdsfEvictionPolicy policy = new GdsfEvictionPolicy();
+        policy.onInsert("small", 100);
+        policy.onInsert("large", 10000);
+        policy.onInsert("popular-large", 10000);
+        for (int i = 0; i < 200; i++) {
+            policy.onAccess("popular-large");
+        }
+        assertEquals("large", policy.nextVictim());
+        policy.onRemove("large");
+        assertEquals("small", policy.nextVictim());
+    }
+
+    @Test public void gdsfAgesOutFormerlyPopularEntries() {
+        GdsfEvictionPolicy policy = new GdsfEvictionPolicy();
+        policy.onInsert("old", 100);
+        for (int i = 0; i < 5; i++) {
+            policy.onAccess("old");
+        }
+        // Each eviction raises the baseline that newer entries start from, so the old entry
+        // goes although every newer one was used less often.
+        String victim = null;
+        for (int i = 0; i < 10 && !"old".equals(victim); i++) {
+            String key = "new" + i;
+            policy.onInsert(key, 100);
+            policy.onAccess(key);
+            victim = policy.nextVictim();
+            policy.onRemove(victim);
+        }
+        assertEquals("old", victim);
+    }
+
+    @Test public void gdsfRequeueDefersOnlyToTheNextCandidate() {
+        GdsfEvictionPolicy policy = new GdsfEvictionPolicy();
+        policy.onInsert("busy", 1000);
+        policy.onInsert("next", 1000);
+        policy.onInsert("small", 400);
+        assertEquals("busy", policy.nextVictim());
+        policy.onRequeue("busy");
+        assertEquals("next", policy.nextVictim());
+        policy.onRemove("next");
+        // Not counted as a lookup, which would have raised it above "small".
+        assertEquals("busy", policy.nextVictim());
+    }
+
+    @Test public void tinyLfuRejectsOneOffNewcomers() {
+        TinyLfuEvictionPolicy policy = new TinyLfuEvictionPolicy();
+        for (int i = 0; i < 20; i++) {
+            policy.onMiss("hot" + i);
+            policy.onInsert("hot" + i, 100);
+        }
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 20; i++) {
+                policy.onAccess("hot" + i);
+            }
+        }
+        policy.onMiss("download");
+        policy.onInsert("download", 5000);
+        assertEquals("download", policy.nextVictim());
+    }
+
+    @Test public void tinyLfuAdmitsNewcomersMoreFrequentThanTheVictim() {
+        TinyLfuEvictionPolicy policy = new TinyLfuEvictionPolicy();
+        for (int i = 0; i < 20; i++) {
+            policy.onMiss("cold" + i);
+            policy.onInsert("cold" + i, 100);
+        }
+        for (int i = 0; i < 3; i++) {
+            policy.onMiss("wanted");
+        }
+        policy.onInsert("wanted", 100);
+        String victim = policy.nextVictim();
+        assertTrue(victim, victim.startsWith("cold"));
+        policy.onRemove(victim);
+        assertTrue(policy.frequency("wanted") >= 3);
+    }
+
+    @Test public void tinyLfuRequeueDoesNotCountALookup() {
+        TinyLfuEvictionPolicy policy = new TinyLfuEvictionPolicy();
+        policy.onMiss("busy");
+        policy.onInsert("busy", 100);
+        for (int i = 0; i < 5; i++) {
+            policy.onRequeue("busy");
+        }
+        assertEquals(1, policy.frequency("busy"));
+    }
+
+    @Test public void sketchCountsSurviveWidening() {
+        TinyLfuEvictionPolicy.FrequencySketch sketch = new TinyLfuEvictionPolicy.FrequencySketch();
+        for (int i = 0; i < 5; i++) {
+            sketch.increment("key");
+        }
+        sketch.ensureCapacity(10000);
+        assertTrue(sketch.frequency("key") >= 5);
+    }
+
+    /**
+     * A working set of small entries requested over and over, with a large one-off download
+     * after every pass.
+     */
+    private static String hotSetWithOneOffDownloads() {
+        StringBuilder trace = new StringBuilder("# key size\n");
+        for (int round = 0; round < 100; round++) {
+            for (int i = 0; i < 20; i++) {
+                trace.append("hot").append(i).append(" 100\n");
+            }
+            trace.append("download").append(round).append(" 1500\n");
+        }
+        return trace.toString();
+    }
+
+    private static EvictionSimulator.Result simulate(EvictionPolicy policy, String trace)
+            throws IOException {
+        EvictionSimulator simulator = new EvictionSimulator(policy, 3000);
+        simulator.replay(new StringReader(trace));
+        return simulator.getResult();
+    }
+
+    @Test public void simulatorShowsOneOffDownloadsFlushingLru() throws Exception {
+        String trace = hotSetWithOneOffDownloads();
+        EvictionSimulator.Result lru = simulate(new LruEvictionPolicy(), trace);
+        EvictionSimulator.Result tinyLfu = simulate(new TinyLfuEvictionPolicy(), trace);
+        EvictionSimulator.Result gdsf = simulate(new GdsfEvictionPolicy(), trace);
+
+        assertEquals(2100, lru.getRequestCount());
+        // Each download pushes out the hot entries LRU is about to need.
+        assertEquals(0f, lru.getObjectHitRatio(), 0.01f);
+        // The others keep the hot set; only its first pass and the downloads miss.
+        float expected = 99 * 20 / 2100f;
+        assertEquals(expected, tinyLfu.getObjectHitRatio(), 0.01f);
+        assertEquals(expected, gdsf.getObjectHitRatio(), 0.01f);
+        assertEquals(99 * 2000 / (100 * 3500f), tinyLfu.getByteHitRatio(), 0.01f);
+    }
+
+    @Test public void simulatorCountsHitsAndBytes() throws Exception {
+        EvictionSimulator simulator = new EvictionSimulator(new LruEvictionPolicy(), 1000);
+        assertFalse(simulator.request("a", 100));
+        assertTrue(simulator.request("a", 100));
+        // A new size means a new version of the entry.
+        assertFalse(simulator.request("a", 200));
+        // Never fits, so it is not stored and evicts nothing.
+        assertFalse(simulator.request("huge", 5000));
+        assertFalse(simulator.request("huge", 5000));
+        assertTrue(simulator.request("a", 200));
+
+        EvictionSimulator.Result result = simulator.getResult();
+        assertEquals(6, result.getRequestCount());
+        assertEquals(2, result.getHitCount());
+        assertEquals(300f / 10600, result.getByteHitRatio(), 0.0001f);
+    }
+
+    @Test public void simulatorPrunesBetweenTheCacheWaterMarks() throws Exception {
+        EvictionSimulator simulator = new EvictionSimulator(new LruEvictionPolicy(), 1000);
+        simulator.request("a", 400);
+        simulator.request("b", 400);
+        // Reaches the 900 byte high water mark, so the janitor prunes back under 800 bytes.
+        simulator.request("c", 100);
+        assertTrue(simulator.request("b", 400));
+        assertTrue(simulator.request("c", 100));
+        assertFalse(simulator.request("a", 400));
+
+        simulator = new EvictionSimulator(new LruEvictionPolicy(), 1000);
+        simulator.request("x", 450);
+        simulator.request("y", 440);
+        // Would exceed the bound, so the put prunes until it fits under 800 bytes.
+        simulator.request("z", 400);
+        assertTrue(simulator.request("z", 400));
+        assertFalse(simulator.request("y", 440));
+    }
+
+    @Test(expected = IOException.class)
+    public void simulatorRejectsMalformedTraces() throws Exception {
+        new EvictionSimulator(new LruEvictionPolicy(), 1000).replay(new StringReader("a b\n"));
+    }
+}
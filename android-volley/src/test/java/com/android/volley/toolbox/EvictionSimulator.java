@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 淘汰策略模拟器，重放记录的请求序列并统计各策略的命中率
+ * Replays a recorded trace of cache lookups against an {@link EvictionPolicy} and reports the
+ * object and byte hit ratios it would achieve.
+ * <p/>
+ * The simulated cache behaves like {@link DiskBasedCache}: a lookup that misses stores the
+ * entry. A store that would exceed the bound first prunes until the entry fits under the low
+ * water mark; one that leaves the cache above the high water mark is followed by the pruning
+ * the janitor would do, down to the low water mark. Entries larger than the high water mark
+ * are never stored. The janitor's pruning is replayed right after the store that starts it,
+ * as if lookups never overtook it. A trace has one lookup per line, a key and a size in bytes separated by whitespace; blank lines and
+ * lines starting with {@code #} are skipped. A key seen with a new size counts as a miss and
+ * is stored again.
+ * <p/>
+ * A test tool, not part of the library. Run it from the test classpath as
+ * {@code EvictionSimulator <trace> <maxBytes>} to compare the built-in policies.
+ */
+public class EvictionSimulator {
+
+    /**
+     * The hit counts of one replay.
+     */
+    public static class Result {
+        private final long mRequests;
+        private final long mHits;
+        private final long mBytesRequested;
+        private final long mBytesHit;
+
+        Result(long requests, long hits, long bytesRequested, long bytesHit) {
+            mRequests = requests;
+            mHits = hits;
+            mBytesRequested = bytesRequested;
+            mBytesHit = bytesHit;
+        }
+
+        public long getRequestCount() {
+            return mRequests;
+        }
+
+        public long getHitCount() {
+            return mHits;
+        }
+
+        /**
+         * Returns the fraction of lookups that hit, from 0 to 1.
+         */
+        public float getObjectHitRatio() {
+            return mRequests > 0 ? (float) mHits / mRequests : 0f;
+        }
+
+        /**
+         * Returns the fraction of requested bytes served by hits, from 0 to 1.
+         */
+        public float getByteHitRatio() {
+            return mBytesRequested > 0 ? (float) mBytesHit / mBytesRequested : 0f;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("requests=%d, object hit ratio=%.4f, byte hit ratio=%.4f",
+                    mRequests, getObjectHitRatio(), getByteHitRatio());
+        }
+    }
+
+    private final EvictionPolicy mPolicy;
+    private final long mMaxBytes;
+    private final Map<String, Long> mEntries = new HashMap<String, Long>();
+    private long mTotalBytes;
+
+    private long mRequests;
+    private long mHits;
+    private long mBytesRequested;
+    private long mBytesHit;
+
+    /**
+     * @param policy   a fresh policy to simulate; it is driven by this simulator only
+     * @param maxBytes the bound of the simulated cache
+     */
+    public EvictionSimulator(EvictionPolicy policy, long maxBytes) {
+        if (policy == null) {
+            throw new IllegalArgumentException("policy must not be null");
+        }
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("maxBytes must be positive");
+        }
+        mPolicy = policy;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Replays one lookup of {@code key}, an entry of {@code size} bytes.
+     *
+     * @return true if it hit
+     */
+    public boolean request(String key, long size) {
+        mRequests++;
+        mBytesRequested += size;
+        Long cached = mEntries.get(key);
+        if (cached != null && cached == size) {
+            mHits++;
+            mBytesHit += size;
+            mPolicy.onAccess(key);
+            return true;
+        }
+        mPolicy.onMiss(key);
+        store(key, size);
+        return false;
+    }
+
+    /**
+     * Replays every lookup in {@code trace}.
+     *
+     * @throws IOException if the trace can't be read or has a malformed line
+     */
+    public void replay(Reader trace) throws IOException {
+        BufferedReader reader = new BufferedReader(trace);
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.length() == 0 || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\\s+");
+            long size;
+            try {
+                size = fields.length == 2 ? Long.parseLong(fields[1]) : -1;
+            } catch (NumberFormatException e) {
+                size = -1;
+            }
+            if (size < 0) {
+                throw new IOException("Malformed trace line " + lineNumber + ": " + line);
+            }
+            request(fields[0], size);
+        }
+    }
+
+    /**
+     * Returns the hit counts so far.
+     */
+    public Result getResult() {
+        return new Result(mRequests, mHits, mBytesRequested, mBytesHit);
+    }
+
+    private void store(String key, long size) {
+        Long old = mEntries.remove(key);
+        if (old != null) {
+            mTotalBytes -= old;
+        }
+        if (mTotalBytes + size >= mMaxBytes) {
+            if (size > mMaxBytes * DiskBasedCache.HYSTERESIS_FACTOR) {
+                mPolicy.onRemove(key);
+                return;
+            }
+            // The put prunes before it writes.
+            mPolicy.onInsert(key, size);
+            if (!prune(key, size)) {
+                return;
+            }
+        } else {
+            mPolicy.onInsert(key, size);
+        }
+        mEntries.put(key, size);
+        mTotalBytes += size;
+        if (mTotalBytes >= mMaxBytes * DiskBasedCache.HYSTERESIS_FACTOR) {
+            // The janitor the put starts.
+            prune(null, 0);
+        }
+    }
+
+    /**
+     * Evicts until {@code neededSpace} more bytes fit under the low water mark.
+     *
+     * @return false if the policy picked {@code key} itself, declining to admit it
+     */
+    private boolean prune(String key, long neededSpace) {
+        long target = (long) (mMaxBytes * DiskBasedCache.LOW_WATERMARK_FACTOR);
+        // Bounded, in case the policy keeps naming keys it doesn't track.
+        for (int attempts = mEntries.size() + 1; attempts > 0; attempts--) {
+            if (mTotalBytes + neededSpace < target) {
+                break;
+            }
+            String victim = mPolicy.nextVictim();
+            if (victim == null) {
+                break;
+            }
+            mPolicy.onRemove(victim);
+            if (victim.equals(key)) {
+                return false;
+            }
+            Long victimSize = mEntries.remove(victim);
+            if (victimSize != null) {
+                mTotalBytes -= victimSize;
+            }
+        }
+        return true;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: EvictionSimulator <trace> <maxBytes>");
+            System.exit(1);
+        }
+        long maxBytes = Long.parseLong(args[1]);
+        EvictionPolicy[] policies = {
+                new LruEvictionPolicy(), new TinyLfuEvictionPolicy(), new GdsfEvictionPolicy()
+        };
+        for (EvictionPolicy policy : policies) {
+            EvictionSimulator simulator = new EvictionSimulator(policy, maxBytes);
+            Reader trace = new FileReader(args[0]);
+            try {
+                simulator.replay(trace);
+            } finally {
+                trace.close();
+            }
+            System.out.println(policy.getClass().getSimpleName() + ": " + simulator.getResult());
+        }
+    }
+}
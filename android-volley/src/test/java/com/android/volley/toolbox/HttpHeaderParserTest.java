@@ -158,6 +158,23 @@ public class HttpHeaderParserTest {
         assertEqualsWithin(now + ONE_DAY_MILLIS + ONE_WEEK_MILLIS, entry.ttl, ONE_MINUTE_MILLIS);
     }
 
+    @Test public void parseCacheHeaders_staleIfError() {
+        long now = System.currentTimeMillis();
+        headers.put("Date", rfc1123Date(now));
+        // Fresh for 1 day, then usable for another week if refreshing fails.
+        headers.put("Cache-Control", "max-age=86400, stale-if-error=604800");
+
+        Cache.Entry entry = HttpHeaderParser.parseCacheHeaders(response);
+
+        assertNotNull(entry);
+        assertEqualsWithin(now + ONE_DAY_MILLIS, entry.ttl, ONE_MINUTE_MILLIS);
+        assertEqualsWithin(now + ONE_DAY_MILLIS + ONE_WEEK_MILLIS, entry.staleIfErrorTtl,
+                ONE_MINUTE_MILLIS);
+
+        headers.put("Cache-Control", "max-age=86400");
+        assertEquals(0, HttpHeaderParser.parseCacheHeaders(response).staleIfErrorTtl);
+    }
+
     @Test public void parseCacheHeaders_cacheControlNoCache() {
         long now = System.currentTimeMillis();
         headers.put("Date", rfc1123Date(now));
@@ -0,0 +1,398 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import com.android.volley.DefaultRetryPolicy;
+import com.android.volley.mock.MockRequest;
+
+import org.apache.http.HttpResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class NioHttpStackTest {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private ServerSocket mServer;
+    private NioHttpStack mStack;
+
+    /**
+     * What the test server answers to every request; null to never answer.
+     */
+    private volatile String mReply;
+
+    /**
+     * How long the test server waits before answering.
+     */
+    private volatile long mReplyDelayMs;
+
+    @Before public void setUp() throws Exception {
+        mServer = new ServerSocket(0, 200);
+        mStack = new NioHttpStack();
+        Thread acceptor = new Thread() {
+            @Override
+            public void run() {
+                while (true) {
+                    final Socket socket;
+                    try {
+                        socket = mServer.accept();
+                    } catch (IOException e) {
+                        return;
+                    }
+                    new Thread() {
+                        @Override
+                        public void run() {
+                            serve(socket);
+                        }
+                    }.start();
+                }
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @After public void tearDown() throws Exception {
+        mStack.shutdown();
+        mServer.close();
+    }
+
+    private void serve(Socket socket) {
+        try {
+            // Read the request head.
+            InputStream in = socket.getInputStream();
+            ByteArrayOutputStream head = new ByteArrayOutputStream();
+            int b;
+            while ((b = in.read()) != -1) {
+                head.write(b);
+                if (head.toString("ISO-8859-1").endsWith("\r\n\r\n")) {
+                    break;
+                }
+            }
+            Thread.sleep(mReplyDelayMs);
+            String reply = mReply;
+            if (reply == null) {
+                // Hold the connection until the client gives up.
+                in.read();
+                return;
+            }
+            OutputStream out = socket.getOutputStream();
+            out.write(reply.getBytes("ISO-8859-1"));
+            out.flush();
+        } catch (Exception e) {
+            // The client went away.
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Ignore.
+            }
+        }
+    }
+
+    private MockRequest newRequest(int timeoutMs) {
+        MockRequest request = new MockRequest("http://127.0.0.1:" + mServer.getLocalPort() + "/foo", null);
+        request.setRetryPolicy(new DefaultRetryPolicy(timeoutMs, 0, 1f));
+        return request;
+    }
+
+    /**
+     * Records the outcome of one request.
+     */
+    private static class Result implements AsyncHttpStack.Callback {
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile HttpResponse response;
+        volatile IOException error;
+
+        @Override
+        public void onResponse(HttpResponse response) {
+            this.response = response;
+            done.countDown();
+        }
+
+        @Override
+        public void onError(IOException exception) {
+            this.error = exception;
+            done.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        }
+    }
+
+    private static String bodyOf(HttpResponse response) throws IOException {
+        InputStream in = response.getEntity().getContent();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1) {
+            out.write(b);
+        }
+        return out.toString("UTF-8");
+    }
+
+    @Test public void contentLengthResponse() throws Exception {
+        mReply = "HTTP/1.1 200 OK\r\nContent-Length: 5\r\nX-Foo: bar\r\n\r\nhello";
+        Result result = new Result();
+        mStack.performRequestAsync(newRequest(5000), new HashMap<String, String>(), result);
+        result.await();
+        assertNull(result.error);
+        assertEquals(200, result.response.getStatusLine().getStatusCode());
+        assertEquals("bar", result.response.getFirstHeader("X-Foo").getValue());
+        assertEquals("hello", bodyOf(result.response));
+    }
+
+    @Test public void chunkedResponse() throws Exception {
+        mReply = "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"
+                + "5\r\nhello\r\n7;ext=1\r\n, world\r\n0\r\nX-Trailer: 1\r\n\r\n";
+        Result result = new Result();
+        mStack.performRequestAsync(newRequest(5000), new HashMap<String, String>(), result);
+        result.await();
+        assertNull(result.error);
+        assertEquals("hello, world", bodyOf(result.response));
+    }
+
+    @Test public void largeChunkedResponse() throws Exception {
+        StringBuilder reply = new StringBuilder("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n");
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 4000; i++) {
+            String chunk = i + ":" + "abcdefghijklmnopqrstuvwxyz0123456789".substring(i % 36) + ",";
+            reply.append(Integer.toHexString(chunk.length())).append("\r\n").append(chunk).append("\r\n");
+            expected.append(chunk);
+        }
+        reply.append("0\r\n\r\n");
+        mReply = reply.toString();
+        Result result = new Result();
+        mStack.performRequestAsync(newRequest(5000), new HashMap<String, String>(), result);
+        result.await();
+        assertNull(result.error);
+        assertEquals(expected.toString(), bodyOf(result.response));
+    }
+
+    @Test public void chunkedDecoderResumesWhereItStopped() throws Exception {
+        byte[] data = "5\r\nhello\r\n7;ext=1\r\n, world\r\n0\r\nX-Trailer: 1\r\n\r\n"
+                .getBytes("ISO-8859-1");
+        NioHttpStack.ChunkedDecoder decoder = new NioHttpStack.ChunkedDecoder(0);
+        // Fed a byte at a time, as if every read returned a single byte.
+        for (int length = 0; length < data.length; length++) {
+            assertNull(decoder.decode(data, length));
+        }
+        assertEquals("hello, world", new String(decoder.decode(data, data.length), "ISO-8859-1"));
+    }
+
+    @Test public void responseDelimitedByClose() throws Exception {
+        mReply = "HTTP/1.1 404 Not Found\r\n\r\nmissing";
+        Result result = new Result();
+        mStack.performRequestAsync(newRequest(5000), new HashMap<String, String>(), result);
+        result.await();
+        assertNull(result.error);
+        assertEquals(404, result.response.getStatusLine().getStatusCode());
+        assertEquals("missing", bodyOf(result.response));
+    }
+
+    @Test public void noContentHasNoEntity() throws Exception {
+        mReply = "HTTP/1.1 204 No Content\r\n\r\n";
+        Result result = new Result();
+        mStack.performRequestAsync(newRequest(5000), new HashMap<String, String>(), result);
+        result.await();
+        assertEquals(204, result.response.getStatusLine().getStatusCode());
+        assertNull(result.response.getEntity());
+    }
+
+    @Test public void silentServerTimesOut() throws Exception {
+        mReply = null;
+        Result result = new Result();
+        mStack.performRequestAsync(newRequest(200), new HashMap<String, String>(), result);
+        result.await();
+        assertNull(result.response);
+        assertTrue(result.error instanceof SocketTimeoutException);
+    }
+
+    @Test public void unsupportedProtocolFails() throws Exception {
+        MockRequest request = new MockRequest("https://127.0.0.1/", null);
+        Result result = new Result();
+        mStack.performRequestAsync(request, new HashMap<String, String>(), result);
+        result.await();
+        assertNotNull(result.error);
+    }
+
+    @Test public void unknownHostFails() throws Exception {
+        MockRequest request = new MockRequest("http://nonexistent.invalid/", null);
+        Result result = new Result();
+        mStack.performRequestAsync(request, new HashMap<String, String>(), result);
+        result.await();
+        assertTrue(result.error instanceof UnknownHostException);
+    }
+
+    @Test public void runtimeExceptionFailsOnlyItsExchange() throws Exception {
+        mReply = "HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok";
+        MockRequest broken = newRequest(5000);
+        // Throws once the exchange is in the selector's hands, i.e. from onReady.
+        broken.setRetryPolicy(new DefaultRetryPolicy(5000, 0, 1f) {
+            private int mCalls;
+
+            @Override
+            public int getCurrentTimeout() {
+                if (++mCalls > 1) {
+                    throw new IllegalStateException("broken");
+                }
+                return super.getCurrentTimeout();
+            }
+        });
+        Result failed = new Result();
+        mStack.performRequestAsync(broken, new HashMap<String, String>(), failed);
+        failed.await();
+        assertNull(failed.response);
+        assertTrue(failed.error.getCause() instanceof IllegalStateException);
+
+        // The selector thread is still serving requests.
+        Result result = new Result();
+        mStack.performRequestAsync(newRequest(5000), new HashMap<String, String>(), result);
+        result.await();
+        assertEquals("ok", bodyOf(result.response));
+    }
+
+    /**
+     * Counts every callback, to check that each request gets exactly one.
+     */
+    private static class CountingCallback implements AsyncHttpStack.Callback {
+        final CountDownLatch done;
+        final AtomicInteger responses = new AtomicInteger();
+        final AtomicInteger errors = new AtomicInteger();
+
+        CountingCallback(int requests) {
+            done = new CountDownLatch(requests);
+        }
+
+        @Override
+        public void onResponse(HttpResponse response) {
+            responses.incrementAndGet();
+            done.countDown();
+        }
+
+        @Override
+        public void onError(IOException exception) {
+            errors.incrementAndGet();
+            done.countDown();
+        }
+    }
+
+    @Test public void shutdownFailsResponseInFlight() throws Exception {
+        mReply = "HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok";
+        mReplyDelayMs = 2000;
+        Result result = new Result();
+        mStack.performRequestAsync(newRequest(5000), new HashMap<String, String>(), result);
+        // Let the request reach the server.
+        Thread.sleep(200);
+
+        mStack.shutdown();
+
+        result.await();
+        assertNull(result.response);
+        assertNotNull(result.error);
+
+        // Requests made afterwards fail too.
+        Result late = new Result();
+        mStack.performRequestAsync(newRequest(5000), new HashMap<String, String>(), late);
+        late.await();
+        assertNotNull(late.error);
+    }
+
+    @Test public void shutdownCallsBackEachRequestOnce() throws Exception {
+        mReply = "HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok";
+        for (int round = 0; round < 20; round++) {
+            final NioHttpStack stack = new NioHttpStack();
+            int count = 20;
+            CountingCallback callback = new CountingCallback(count);
+            for (int i = 0; i < count; i++) {
+                stack.performRequestAsync(newRequest(5000), Collections.<String, String>emptyMap(), callback);
+                if (i == count / 2 + round / 2) {
+                    // Races with requests completing and with the rest being made.
+                    new Thread() {
+                        @Override
+                        public void run() {
+                            stack.shutdown();
+                        }
+                    }.start();
+                }
+            }
+            assertTrue("round " + round + ": " + callback.responses + " responses, "
+                    + callback.errors + " errors",
+                    callback.done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            // Give a second callback for any request the chance to show up.
+            Thread.sleep(50);
+            assertEquals(count, callback.responses.get() + callback.errors.get());
+        }
+    }
+
+    @Test public void manyRequestsInFlightOnOneThread() throws Exception {
+        mReply = "HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok";
+        mReplyDelayMs = 300;
+        int count = 100;
+        final CountDownLatch done = new CountDownLatch(count);
+        final AtomicInteger succeeded = new AtomicInteger();
+        AsyncHttpStack.Callback callback = new AsyncHttpStack.Callback() {
+            @Override
+            public void onResponse(HttpResponse response) {
+                succeeded.incrementAndGet();
+                done.countDown();
+            }
+
+            @Override
+            public void onError(IOException exception) {
+                done.countDown();
+            }
+        };
+        long startNs = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            mStack.performRequestAsync(newRequest(5000), Collections.<String, String>emptyMap(), callback);
+        }
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs);
+        assertEquals(count, succeeded.get());
+        // Served concurrently, not one after another.
+        assertTrue(elapsedMs < count * mReplyDelayMs / 4);
+
+        int selectorThreads = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if ("Volley-NioHttpStack".equals(thread.getName())) {
+                selectorThreads++;
+            }
+        }
+        assertEquals(1, selectorThreads);
+    }
+}
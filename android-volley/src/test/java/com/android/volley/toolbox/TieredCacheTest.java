@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import com.android.volley.Cache;
+import com.android.volley.MetadataUpdatableCache;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class TieredCacheTest {
+
+    /**
+     * An in-memory cache that records the calls made to it.
+     */
+    private static class RecordingCache implements MetadataUpdatableCache {
+        final Map<String, Entry> entries = new HashMap<String, Entry>();
+        final List<String> calls = new ArrayList<String>();
+
+        @Override
+        public synchronized Entry get(String key) {
+            calls.add("get:" + key);
+            return entries.get(key);
+        }
+
+        @Override
+        public synchronized void put(String key, Entry entry) {
+            calls.add("put:" + key);
+            entries.put(key, entry);
+        }
+
+        @Override
+        public synchronized void updateMetadata(String key, Entry entry) {
+            calls.add("metadata:" + key);
+            entries.put(key, entry);
+        }
+
+        @Override
+        public void initialize() {
+        }
+
+        @Override
+        public synchronized void invalidate(String key, boolean fullExpire) {
+            calls.add("invalidate:" + key);
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                entry.softTtl = 0;
+                if (fullExpire) {
+                    entry.ttl = 0;
+                }
+            }
+        }
+
+        @Override
+        public synchronized void remove(String key) {
+            calls.add("remove:" + key);
+            entries.remove(key);
+        }
+
+        @Override
+        public synchronized void clear() {
+            calls.add("clear");
+            entries.clear();
+        }
+    }
+
+    /**
+     * Makes an entry accounted as {@code size + 4} bytes under a one-character key.
+     */
+    private static Cache.Entry makeEntry(int size, String etag) {
+        Cache.Entry entry = new Cache.Entry();
+        entry.data = new byte[size];
+        entry.etag = etag;
+        entry.ttl = Long.MAX_VALUE;
+        entry.softTtl = Long.MAX_VALUE;
+        entry.responseHeaders = new HashMap<String, String>();
+        return entry;
+    }
+
+    @Test public void sizeCountsDataAndHeaders() {
+        Cache.Entry entry = makeEntry(100, "etag");
+        entry.responseHeaders.put("Name", "value");
+        assertEquals(100 + 2 * (3 + 4 + 4 + 5), TieredCache.sizeOf("key", entry));
+    }
+
+    @Test public void backingHitsArePromoted() {
+        RecordingCache backing = new RecordingCache();
+        Cache.Entry entry = makeEntry(10, "e");
+        backing.put("a", entry);
+        TieredCache cache = new TieredCache(backing, 1024);
+
+        assertSame(entry, cache.get("a"));
+        assertSame(entry.data, cache.get("a").data);
+        assertNull(cache.get("b"));
+
+        assertEquals(Arrays.asList("put:a", "get:a", "get:b"), backing.calls);
+        TieredCacheStats stats = cache.getStats();
+        assertEquals(1, stats.getMemoryHitCount());
+        assertEquals(1, stats.getBackingHitCount());
+        assertEquals(1, stats.getMissCount());
+        assertEquals(1f / 3, stats.getMemoryHitRatio(), 0.001f);
+        assertEquals(0.5f, stats.getBackingHitRatio(), 0.001f);
+        assertEquals(2f / 3, stats.getHitRatio(), 0.001f);
+        assertEquals(1, stats.getMemoryEntryCount());
+        assertEquals(14, stats.getMemoryBytes());
+    }
+
+    @Test public void memoryIsBoundedLeastRecentlyUsedFirst() {
+        RecordingCache backing = new RecordingCache();
+        TieredCache cache = new TieredCache(backing, 300);
+        cache.put("a", makeEntry(97, "a"));
+        cache.put("b", makeEntry(97, "b"));
+        cache.get("a");
+        cache.put("c", makeEntry(97, "c"));
+
+        // b was the least recently used.
+        assertEquals(1, cache.getStats().getEvictionCount());
+        assertEquals(202, cache.getStats().getMemoryBytes());
+        backing.calls.clear();
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("c"));
+        assertTrue(backing.calls.isEmpty());
+        assertNotNull(cache.get("b"));
+        assertEquals(Arrays.asList("get:b"), backing.calls);
+    }
+
+    @Test public void writeThroughAppliesChangesToBothTiers() {
+        RecordingCache backing = new RecordingCache();
+        TieredCache cache = new TieredCache(backing, 1024);
+        Cache.Entry entry = makeEntry(10, "e");
+        cache.put("a", entry);
+        cache.updateMetadata("a", entry);
+        cache.invalidate("a", false);
+        assertEquals(Arrays.asList("put:a", "metadata:a", "invalidate:a"), backing.calls);
+        assertTrue(cache.get("a").refreshNeeded());
+
+        cache.remove("a");
+        assertNull(cache.get("a"));
+        assertNull(backing.entries.get("a"));
+    }
+
+    @Test public void invalidateDoesNotChangeReturnedEntries() {
+        TieredCache cache = new TieredCache(new RecordingCache(), 1024,
+                TieredCache.WritePolicy.WRITE_BACK);
+        Cache.Entry entry = makeEntry(10, "e");
+        cache.put("a", entry);
+        cache.invalidate("a", true);
+        assertTrue(cache.get("a").isExpired());
+        assertFalse(entry.isExpired());
+    }
+
+    @Test public void entriesInMemoryAreNotShared() {
+        TieredCache cache = new TieredCache(new RecordingCache(), 1024);
+        Cache.Entry entry = makeEntry(10, "e");
+        cache.put("a", entry);
+        entry.responseHeaders.put("Stored", "then changed");
+        // As BasicNetwork does on a 304.
+        cache.get("a").responseHeaders.put("Read", "then changed");
+
+        assertTrue(cache.get("a").responseHeaders.isEmpty());
+        assertEquals(14, cache.getStats().getMemoryBytes());
+    }
+
+    @Test public void writeBackDefersWritesUntilFlush() {
+        RecordingCache backing = new RecordingCache();
+        TieredCache cache = new TieredCache(backing, 1024, TieredCache.WritePolicy.WRITE_BACK);
+        cache.put("a", makeEntry(10, "v1"));
+        Cache.Entry latest = makeEntry(10, "v2");
+        cache.put("a", latest);
+        cache.put("b", makeEntry(10, "b"));
+        cache.flush();
+        cache.updateMetadata("b", makeEntry(10, "b2"));
+        cache.invalidate("b", false);
+        assertEquals(2, backing.calls.size());
+        assertSame(latest.data, backing.entries.get("a").data);
+
+        cache.flush();
+        cache.flush();
+        // Only b's metadata changed, and the invalidation rode along with it.
+        assertEquals("metadata:b", backing.calls.get(2));
+        assertEquals(3, backing.calls.size());
+        assertTrue(backing.entries.get("b").refreshNeeded());
+        assertEquals("b2", backing.entries.get("b").etag);
+        assertEquals(3, cache.getStats().getWriteBackCount());
+    }
+
+    @Test public void writeBackWritesOnEviction() {
+        RecordingCache backing = new RecordingCache();
+        TieredCache cache = new TieredCache(backing, 300, TieredCache.WritePolicy.WRITE_BACK);
+        cache.put("a", makeEntry(97, "a"));
+        cache.put("b", makeEntry(97, "b"));
+        assertTrue(backing.calls.isEmpty());
+        cache.put("c", makeEntry(97, "c"));
+        assertEquals(Arrays.asList("put:a"), backing.calls);
+        assertEquals("a", cache.get("a").etag);
+    }
+
+    @Test public void writeBackRemoveAndClearReachBacking() {
+        RecordingCache backing = new RecordingCache();
+        TieredCache cache = new TieredCache(backing, 1024, TieredCache.WritePolicy.WRITE_BACK);
+        cache.put("a", makeEntry(10, "a"));
+        cache.remove("a");
+        cache.flush();
+        assertEquals(Arrays.asList("remove:a"), backing.calls);
+        assertNull(cache.get("a"));
+
+        cache.put("b", makeEntry(10, "b"));
+        cache.clear();
+        cache.flush();
+        assertNull(cache.get("b"));
+        assertFalse(backing.calls.contains("put:b"));
+    }
+
+    @Test public void oversizedEntriesSkipMemory() {
+        RecordingCache backing = new RecordingCache();
+        TieredCache cache = new TieredCache(backing, 100, TieredCache.WritePolicy.WRITE_BACK);
+        cache.put("a", makeEntry(10, "small"));
+        cache.put("a", makeEntry(200, "big"));
+        assertEquals(Arrays.asList("put:a"), backing.calls);
+        assertEquals(0, cache.getStats().getMemoryEntryCount());
+        assertEquals("big", cache.get("a").etag);
+        // Not promoted either.
+        assertEquals("big", cache.get("a").etag);
+        assertEquals(2, cache.getStats().getBackingHitCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveBound() {
+        new TieredCache(new RecordingCache(), 0);
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.volley.toolbox;
+
+import com.android.volley.Cache;
+import com.android.volley.MetadataUpdatableCache;
+import com.android.volley.utils.CacheTestUtils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class WriteBehindCacheTest {
+    private static final long TIMEOUT_SECONDS = 5;
+
+    /**
+     * An in-memory cache whose puts block until the gate is opened.
+     */
+    private static class GatedCache implements MetadataUpdatableCache {
+        final CountDownLatch gate = new CountDownLatch(1);
+        final CountDownLatch firstPutStarted = new CountDownLatch(1);
+        final Map<String, Entry> entries = Collections.synchronizedMap(new HashMap<String, Entry>());
+        final List<String> putKeys = Collections.synchronizedList(new ArrayList<String>());
+
+        @Override
+        public Entry get(String key) {
+            return entries.get(key);
+        }
+
+        @Override
+        public void put(String key, Entry entry) {
+            firstPutStarted.countDown();
+            try {
+                gate.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            putKeys.add(key);
+            entries.put(key, entry);
+        }
+
+        @Override
+        public void updateMetadata(String key, Entry entry) {
+            putKeys.add("metadata:" + key);
+            entries.put(key, entry);
+        }
+
+        @Override
+        public void initialize() {
+        }
+
+        @Override
+        public void invalidate(String key, boolean fullExpire) {
+        }
+
+        @Override
+        public void remove(String key) {
+            entries.remove(key);
+        }
+
+        @Override
+        public void clear() {
+            entries.clear();
+        }
+    }
+
+    @Test public void putReturnsBeforeWriteAndReadsServeBuffer() throws Exception {
+        GatedCache delegate = new GatedCache();
+        WriteBehindCache cache = new WriteBehindCache(delegate, 1024);
+        Cache.Entry entry = CacheTestUtils.makeRandomCacheEntry(new byte[16]);
+
+        cache.put("key", entry);
+
+        assertSame(entry.data, cache.get("key").data);
+        assertNull(delegate.get("key"));
+        assertEquals(16, cache.getPendingBytes());
+
+        delegate.gate.countDown();
+        cache.flush();
+        assertSame(entry.data, delegate.get("key").data);
+        assertEquals(0, cache.getPendingCount());
+        assertEquals(0, cache.getPendingBytes());
+    }
+
+    @Test public void bufferedEntriesAreNotShared() throws Exception {
+        GatedCache delegate = new GatedCache();
+        WriteBehindCache cache = new WriteBehindCache(delegate, 1024);
+        cache.put("key", CacheTestUtils.makeRandomCacheEntry(new byte[16]));
+
+        // As BasicNetwork does on a 304.
+        cache.get("key").responseHeaders.put("Name", "value");
+        assertTrue(cache.get("key").responseHeaders.isEmpty());
+
+        delegate.gate.countDown();
+        cache.flush();
+        assertTrue(delegate.get("key").responseHeaders.isEmpty());
+    }
+
+    @Test public void repeatedPutsAreCoalesced() throws Exception {
+        GatedCache delegate = new GatedCache();
+        WriteBehindCache cache = new WriteBehindCache(delegate, 1024);
+        cache.put("first", CacheTestUtils.makeRandomCacheEntry(new byte[4]));
+        assertTrue(delegate.firstPutStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        // The writer is stuck on "first"; these all wait behind it.
+        cache.put("key", CacheTestUtils.makeRandomCacheEntry(new byte[4]));
+        cache.put("key", CacheTestUtils.makeRandomCacheEntry(new byte[4]));
+        Cache.Entry latest = CacheTestUtils.makeRandomCacheEntry(new byte[4]);
+        cache.put("key", latest);
+        assertEquals(2, cache.getPendingCount());
+        assertEquals(8, cache.getPendingBytes());
+
+        delegate.gate.countDown();
+        cache.flush();
+        assertEquals(2, delegate.putKeys.size());
+        assertSame(latest.data, delegate.get("key").data);
+    }
+
+    @Test public void putBlocksWhenBufferFull() throws Exception {
+        GatedCache delegate = new GatedCache();
+        final WriteBehindCache cache = new WriteBehindCache(delegate, 10);
+        cache.put("a", CacheTestUtils.makeRandomCacheEntry(new byte[8]));
+
+        final CountDownLatch secondPutDone = new CountDownLatch(1);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                cache.put("b", CacheTestUtils.makeRandomCacheEntry(new byte[8]));
+                secondPutDone.countDown();
+            }
+        });
+        producer.start();
+
+        assertFalse(secondPutDone.await(200, TimeUnit.MILLISECONDS));
+        assertTrue(cache.getPendingBytes() <= 10);
+
+        delegate.gate.countDown();
+        assertTrue(secondPutDone.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        cache.flush();
+        assertNotNull(delegate.get("a"));
+        assertNotNull(delegate.get("b"));
+    }
+
+    @Test public void oversizedEntryIsAcceptedWhenBufferEmpty() throws Exception {
+        GatedCache delegate = new GatedCache();
+        WriteBehindCache cache = new WriteBehindCache(delegate, 10);
+        cache.put("big", CacheTestUtils.makeRandomCacheEntry(new byte[64]));
+        assertEquals(64, cache.getPendingBytes());
+        delegate.gate.countDown();
+        cache.flush();
+        assertNotNull(delegate.get("big"));
+    }
+
+    @Test public void removeDropsPendingWrite() throws Exception {
+        GatedCache delegate = new GatedCache();
+        WriteBehindCache cache = new WriteBehindCache(delegate, 1024);
+        cache.put("first", CacheTestUtils.makeRandomCacheEntry(new byte[4]));
+        assertTrue(delegate.firstPutStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        cache.put("key", CacheTestUtils.makeRandomCacheEntry(new byte[4]));
+
+        // "key" isn't being written yet, so this doesn't wait for the writer.
+        cache.remove("key");
+        delegate.gate.countDown();
+        cache.flush();
+
+        assertNull(cache.get("key"));
+        assertNull(delegate.get("key"));
+        assertFalse(delegate.putKeys.contains("key"));
+    }
+
+    @Test public void invalidateExpiresPendingEntry() throws Exception {
+        GatedCache delegate = new GatedCache();
+        WriteBehindCache cache = new WriteBehindCache(delegate, 1024);
+        cache.put("first", CacheTestUtils.makeRandomCacheEntry(new byte[4]));
+        assertTrue(delegate.firstPutStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        cache.put("key", CacheTestUtils.makeRandomCacheEntry(new byte[4], false, false));
+
+        cache.invalidate("key", true);
+        Cache.Entry pending = cache.get("key");
+        assertTrue(pending.isExpired());
+        assertTrue(pending.refreshNeeded());
+
+        delegate.gate.countDown();
+        cache.flush();
+        assertTrue(delegate.get("key").isExpired());
+    }
+
+    @Test public void metadataUpdatesStayMetadataOnlyUnlessFullWritePending() throws Exception {
+        GatedCache delegate = new GatedCache();
+        WriteBehindCache cache = new WriteBehindCache(delegate, 1024);
+        cache.put("first", CacheTestUtils.makeRandomCacheEntry(new byte[4]));
+        assertTrue(delegate.firstPutStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        // A full write is still buffered for "key", so the update must not downgrade it.
+        cache.put("key", CacheTestUtils.makeRandomCacheEntry(new byte[4]));
+        cache.updateMetadata("key", CacheTestUtils.makeRandomCacheEntry(new byte[4]));
+        cache.updateMetadata("other", CacheTestUtils.makeRandomCacheEntry(new byte[4]));
+
+        delegate.gate.countDown();
+        cache.flush();
+        assertEquals(Arrays.asList("first", "key", "metadata:other"), delegate.putKeys);
+    }
+}